@@ -307,6 +307,11 @@ public class JBasicTelnetShell implements Shell {
 			 */
 			LockManager.releaseAll(session);
 			
+			/*
+			 * Write any output still buffered in files the user left open.
+			 */
+			session.flushUserFiles();
+			
 		} catch (Exception ex) {
 			log.error("run()", ex);
 			JBasic.userManager.active(un, session, false);
@@ -32,6 +32,8 @@ import net.wimpi.telnetd.TelnetD;
 import org.fernwood.jbasic.compiler.Expression;
 import org.fernwood.jbasic.compiler.PatternOptimizer;
 import org.fernwood.jbasic.compiler.Tokenizer;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
+import org.fernwood.jbasic.runtime.FunctionCache;
 import org.fernwood.jbasic.runtime.JBFInput;
 import org.fernwood.jbasic.runtime.JBFOutput;
 import org.fernwood.jbasic.runtime.JBasicException;
@@ -40,8 +42,10 @@ import org.fernwood.jbasic.runtime.JBasicQueue;
 import org.fernwood.jbasic.runtime.JBasicSignal;
 import org.fernwood.jbasic.runtime.JBasicThread;
 import org.fernwood.jbasic.runtime.RandomNumberGenerator;
+import org.fernwood.jbasic.runtime.StatementCache;
 import org.fernwood.jbasic.runtime.SymbolTable;
 import org.fernwood.jbasic.runtime.UserManager;
+import org.fernwood.jbasic.runtime.ValueStack;
 import org.fernwood.jbasic.statements.Statement;
 import org.fernwood.jbasic.value.ObjectValue;
 import org.fernwood.jbasic.value.Value;
@@ -574,6 +578,53 @@ public class JBasic {
 
 	public int statementsByteCodeExecuted;
 
+	/**
+	 * Count of the number of runtime data stacks created for running
+	 * ByteCode streams.
+	 */
+	public int stacksAllocated;
+
+	/**
+	 * Count of the number of times a ByteCode stream was run using a
+	 * data stack that already existed, instead of creating a new one.
+	 */
+	public int stacksReused;
+
+	/**
+	 * Count of the number of programs compiled to Java bytecode by the
+	 * JIT compiler.
+	 */
+	public int jitCompiled;
+
+	/**
+	 * The frame of the ByteCode stream currently running in this session,
+	 * or null if nothing is running.  Each frame links to the frame that
+	 * was running when it started.
+	 */
+	public ExecutionFrame currentFrame;
+
+	/**
+	 * The cache of function names resolved in this session.
+	 */
+	public final FunctionCache functionCache = new FunctionCache();
+
+	/**
+	 * The cache of statements and expressions compiled from text in this
+	 * session.
+	 */
+	public final StatementCache statementCache = new StatementCache(this);
+
+	/**
+	 * The maximum number of unused runtime data stacks kept by the session.
+	 */
+	private static final int STACK_POOL_LIMIT = 16;
+
+	/**
+	 * Runtime data stacks that are no longer in use, which can be given to
+	 * the next ByteCode stream that needs one.
+	 */
+	private ArrayList<ValueStack> stackPool = new ArrayList<ValueStack>();
+
 	/**
 	 * The name of this JBasic object. Used purely for 
 	 * documentation and/or tracking purposes. This is used 
@@ -835,6 +886,7 @@ public class JBasic {
 		}
 
 		array.setElementOverride(new Value(localName), len + 1);
+		functionCache.packagesChanged();
 
 	}
 
@@ -894,7 +946,7 @@ public class JBasic {
 		 * label, implied LET, etc.
 		 */
 
-		s.store(cmd);
+		statementCache.store(s, cmd);
 
 		/*
 		 * If we were previously told to QUIT, then we would 
@@ -1009,10 +1061,24 @@ public class JBasic {
 		globals.insert("SYS$LABELWIDTH", 10);
 		globals.insert("SYS$STATEMENT_TEXT", false);
 		globals.insert("SYS$LOOP_OPT", false);
+		globals.insert("SYS$JIT", false);
+		globals.insert("SYS$JIT_THRESHOLD", 50000);
+		globals.insert("SYS$OPT_SLOTS", true);
+		globals.insert("SYS$OPT_INLINE", true);
+		globals.insert("SYS$OPT_INLINE_SIZE", 12);
 		globals.insert("SYS$SOURCE_LINE_LENGTH", 80);
 		globals.insert("SYS$SQL_COMMANDS", false);
+		globals.insert("SYS$DB_STATEMENT_CACHE", 32);
+		globals.insert("SYS$DB_FETCH_SIZE", 0);
+		globals.insert("SYS$DB_BATCH_SIZE", 1000);
 		globals.insert("SYS$SQL_OPT", true);
 		globals.insert("SYS$SQL_DISASM", false);
+		globals.insert("SYS$SQL_EXPLAIN", false);
+		globals.insert("SYS$COMPILE_CACHE", true);
+		globals.insert("SYS$EXEC_CACHE_SIZE", 256);
+		globals.insert("SYS$COMPILE_CACHE_PATH", System.getProperty("user.home") +
+				System.getProperty("file.separator") + ".jbasic" +
+				System.getProperty("file.separator") + "cache");
 		
 		/*
 		 * Set up the initial macro quotes characters
@@ -1030,11 +1096,16 @@ public class JBasic {
 
 		globals.insert("SYS$$FCACHE_HITS", 0);
 		globals.insert("SYS$$FCACHE_TRIES", 0);
+		globals.insert("SYS$$EXEC_CACHE_HITS", 0);
+		globals.insert("SYS$$EXEC_CACHE_MISSES", 0);
 		globals.insert("SYS$$STATEMENTS", 0);
 		globals.insert("SYS$$STATEMENTS_EXECUTED", 0);
 		globals.insert("SYS$$STATEMENTS_COMPILED", 0);
 		globals.insert("SYS$$STATEMENTS_INTERPRETED", 0);
 		globals.insert("SYS$$INSTRUCTIONS_EXECUTED", 0);
+		globals.insert("SYS$$STACKS_ALLOCATED", 0);
+		globals.insert("SYS$$STACKS_REUSED", 0);
+		globals.insert("SYS$$JIT_COMPILED", 0);
 
 		/*
 		 * This is only set when a non-success is returned 
@@ -1337,16 +1408,15 @@ public class JBasic {
 			statementsExecuted = 0;
 
 			/*
-			 * Load the built-in library of stuff
+			 * Load the built-in library of stuff.  This is only compiled
+			 * by the first session; after that each session gets a copy
+			 * of the compiled programs.
 			 */
 
 			setLoadingSystemObjects(true);
-			returnStatus = initializeLibrary("Library");
-			addEvent("$Library loaded");
-			if (returnStatus.success())
-				returnStatus = initializeFunctions(this, "Functions");
+			returnStatus = LibraryImage.load(this);
 			setLoadingSystemObjects(false);
-			addEvent("$Functions loaded");
+			addEvent("$Library and functions loaded");
 			
 			/*
 			 * Initialize the user manager if not already done.
@@ -1554,7 +1624,7 @@ public class JBasic {
 			 * as needed.
 			 */
 			s.program = null;
-			s.store(line);
+			statementCache.store(s, line);
 			if( s.status.printError(this))
 				continue;
 
@@ -1763,6 +1833,22 @@ public class JBasic {
 	}
 
 
+	/**
+	 * Write any output that OUTPUT files in this session are holding in
+	 * their buffers.  Files that are still open aren't closed when the
+	 * session ends, so this is called when a session is finished.
+	 */
+	public void flushUserFiles() {
+		if (openUserFiles == null)
+			return;
+		final ArrayList<JBasicFile> files = new ArrayList<JBasicFile>(openUserFiles.values());
+		for (int ix = 0; ix < files.size(); ix++) {
+			final JBasicFile f = files.get(ix);
+			if (f instanceof JBFOutput)
+				((JBFOutput) f).flush();
+		}
+	}
+
 	/**
 	 * Delete the current session from the list of active sessions.
 	 */
@@ -1919,6 +2005,36 @@ public class JBasic {
 		return fConsoleRunning;
 	}
 
+	/**
+	 * Get a runtime data stack for a ByteCode stream to use.  If there is
+	 * an unused stack in the session's pool it is returned, else a new one
+	 * is created.
+	 * @param initialSize the initial size of the stack if one is created.
+	 * @return an empty ValueStack
+	 */
+	public ValueStack allocateStack(final int initialSize) {
+		final int count = stackPool.size();
+		if (count > 0) {
+			stacksReused++;
+			return stackPool.remove(count - 1);
+		}
+		stacksAllocated++;
+		return new ValueStack(initialSize);
+	}
+
+	/**
+	 * Return a runtime data stack that is no longer being used by a ByteCode
+	 * stream to the session's pool, so it can be used again.
+	 * @param stack the stack to release.  If this is null, nothing is done.
+	 */
+	public void releaseStack(final ValueStack stack) {
+		if (stack == null)
+			return;
+		stack.clear();
+		if (stackPool.size() < STACK_POOL_LIMIT)
+			stackPool.add(stack);
+	}
+
 	/**
 	 * Set the flag indicating if a prompt is needed to be displayed to the
 	 * user at this time.
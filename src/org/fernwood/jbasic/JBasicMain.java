@@ -333,6 +333,11 @@ public class JBasicMain {
 			status = session.shell(consoleSymbols, prompt);
 		}
 
+		/*
+		 * Write any output still buffered in files that were left open.
+		 */
+		session.flushUserFiles();
+
 		/*
 		 * If we got into multiuser mode we must tear it down now.
 		 */
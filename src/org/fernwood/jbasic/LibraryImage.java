@@ -0,0 +1,175 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic;
+
+import java.util.ArrayList;
+
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * The compiled system library, which is shared by all the sessions in the
+ * JVM.  The programs, verbs, and functions in Library.jbasic and
+ * Functions.jbasic are the same for every session, but compiling them is
+ * most of the cost of creating a session.  So the first session to start
+ * loads and compiles them as it always has, and then a copy of the
+ * compiled programs is saved here.  Every later session gets its own copy
+ * of those programs, with the bytecode for each statement already compiled.
+ * <p>
+ * The saved programs are never registered in a session, linked, or run, so
+ * they don't change once the image is created.  Each session still gets
+ * its own Program objects (rather than sharing the saved ones) because a
+ * program belongs to the session that registered it; the user can edit,
+ * link, debug, or delete a library program in one session without
+ * affecting any other.
+ *
+ * @author cole
+ *
+ */
+class LibraryImage {
+
+	/**
+	 * The image created by the first session, or null if no session has
+	 * loaded the library yet.
+	 */
+	private static volatile LibraryImage image;
+
+	/**
+	 * The compiled programs, in the order they were registered.  These are
+	 * not owned by any session.
+	 */
+	private final Program[] programs;
+
+	/**
+	 * The SYS$LOAD_LIST entries made while loading the library.
+	 */
+	private final Value[] loadList;
+
+	/**
+	 * The value of SYS$CURRENT_PROGRAM after the library was loaded, which
+	 * is the name in the last declaration compiled.
+	 */
+	private final String currentProgramName;
+
+	/**
+	 * Load the system library into a session.  If the library has already
+	 * been compiled by another session, the session gets a copy of the
+	 * compiled programs.  Otherwise the library is loaded from the source
+	 * files, and the result is saved for the sessions that follow.
+	 *
+	 * @param session the session being initialized
+	 * @return Status indicating if the library was loaded without error.
+	 */
+	static Status load(final JBasic session) {
+
+		final LibraryImage current = image;
+		if (current != null) {
+			current.install(session);
+			return new Status(Status.SUCCESS);
+		}
+
+		final Value programArray = session.globals().localReference("SYS$PROGRAMS");
+		final Value loadArray = session.globals().localReference("SYS$LOAD_LIST");
+		final int firstProgram = (programArray == null) ? 0 : programArray.size() + 1;
+		final int firstLoad = (loadArray == null) ? 0 : loadArray.size() + 1;
+
+		Status status = session.initializeLibrary("Library");
+		if (status.success())
+			status = JBasic.initializeFunctions(session, "Functions");
+
+		/*
+		 * Only save the result if the library loaded without error, and it
+		 * is in the form we expect (just compiled programs).  If not, every
+		 * session will load the library for itself, as it did before.
+		 */
+		if (status.success() && firstProgram > 0 && firstLoad > 0)
+			synchronized (LibraryImage.class) {
+				if (image == null)
+					image = capture(session, programArray, firstProgram,
+							loadArray, firstLoad);
+			}
+
+		return status;
+	}
+
+	/**
+	 * Create an image.
+	 * @param thePrograms the compiled programs
+	 * @param theLoadList the SYS$LOAD_LIST entries
+	 * @param theName the value of SYS$CURRENT_PROGRAM
+	 */
+	private LibraryImage(final Program[] thePrograms, final Value[] theLoadList,
+			final String theName) {
+		programs = thePrograms;
+		loadList = theLoadList;
+		currentProgramName = theName;
+	}
+
+	/**
+	 * Make an image of the library just loaded into a session.
+	 * @param session the session that loaded the library
+	 * @param programArray the session's SYS$PROGRAMS array
+	 * @param firstProgram the position in SYS$PROGRAMS of the first program
+	 * loaded from the library
+	 * @param loadArray the session's SYS$LOAD_LIST array
+	 * @param firstLoad the position in SYS$LOAD_LIST of the first entry made
+	 * while loading the library
+	 * @return the image, or null if the library can't be copied
+	 */
+	private static LibraryImage capture(final JBasic session,
+			final Value programArray, final int firstProgram,
+			final Value loadArray, final int firstLoad) {
+
+		final ArrayList<Program> list = new ArrayList<Program>();
+		for (int ix = firstProgram; ix <= programArray.size(); ix++) {
+			final Program p = session.programs.find(programArray.getString(ix));
+			if (p == null)
+				continue;
+
+			/*
+			 * A program that has been linked already has had its statements'
+			 * bytecode modified by the linker, and a protected program has
+			 * no statements at all; neither can be copied.
+			 */
+			if (p.hasExecutable() || p.isProtected())
+				return null;
+			list.add(p.copy(null));
+		}
+
+		final Value[] entries = new Value[loadArray.size() - firstLoad + 1];
+		for (int ix = 0; ix < entries.length; ix++)
+			entries[ix] = loadArray.getElement(firstLoad + ix).copy();
+
+		return new LibraryImage(list.toArray(new Program[list.size()]), entries,
+				session.globals().getString("SYS$CURRENT_PROGRAM"));
+	}
+
+	/**
+	 * Give a session its own copy of the library programs, and record the
+	 * library files in its SYS$LOAD_LIST as if they had been loaded.
+	 * @param session the session being initialized
+	 */
+	private void install(final JBasic session) {
+
+		for (int ix = 0; ix < programs.length; ix++)
+			programs[ix].copy(session).register();
+		session.setCurrentProgramName(currentProgramName);
+
+		final Value loadArray = session.globals().localReference("SYS$LOAD_LIST");
+		if (loadArray != null)
+			for (int ix = 0; ix < loadList.length; ix++)
+				loadArray.setElementOverride(loadList[ix].copy(), loadArray.size() + 1);
+	}
+}
@@ -15,14 +15,21 @@
  */
 package org.fernwood.jbasic;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+
 
 import org.fernwood.jbasic.compiler.Tokenizer;
+import org.fernwood.jbasic.runtime.BinaryValueReader;
+import org.fernwood.jbasic.runtime.BinaryValueWriter;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.XMLManager;
 import org.fernwood.jbasic.value.Value;
@@ -74,18 +81,25 @@ public class Loader {
 			}
 		} else
 			try {
+				/*
+				 * A file written by SAVE BINARY holds compiled programs, and
+				 * is loaded without reading it as text.
+				 */
+				if (isBinary(fname))
+					return loadBinary(session, fname);
 				infile = new BufferedReader(new FileReader(fname));
 			} catch (final FileNotFoundException e1) {
 
 				return new Status(Status.INFILE, fname);
 			}
 
+		/*
+		 * Read the whole file first, since the compiled program cache is
+		 * keyed by the contents of the file.
+		 */
+		final ArrayList<String> lines = new ArrayList<String>();
 		try {
 			String line;
-			final Tokenizer tokens = new Tokenizer(null, JBasic.compoundStatementSeparator);
-			Program p = null;
-			boolean hasLineNumbers = false;
-			int lineCounter = 0;
 			StringBuffer readBuffer = null;
 
 			while ((line = infile.readLine()) != null) {
@@ -121,13 +135,6 @@ public class Loader {
 				
 				line = Utility.resolveMacros(session, line);
 				
-				/*
-				 * From here on we must look at some specific tokens in the line
-				 * to guide us about what to do with the line.
-				 */
-				lineCounter++;
-				tokens.loadBuffer(line);
-
 				/*
 				 * If this is the first line, see if it is really an XML object
 				 * by checking for a <VALUE> tag as the first three tokens of
@@ -136,7 +143,7 @@ public class Loader {
 				 * are permitted in an XML file like this.
 				 */
 
-				if (lineCounter == 1) {
+				if (lines.isEmpty()) {
 					Tokenizer xmlTokenizer = new Tokenizer(line);
 					if (xmlTokenizer.assumeNextSpecial("<"))
 						if (xmlTokenizer.assumeNextSpecial("?"))
@@ -144,125 +151,160 @@ public class Loader {
 								return loadXML(session, line, infile);
 							}
 				}
+				lines.add(line);
+			}
+			infile.close();
 
-				// If this is an empty string and we're not in a program
-				// block, then toss it away.
+		} catch (final IOException e) {
+			session.setLoadingSystemObjects(savedLoadingSystemObjects);
+			return new Status(Status.INFILE, fname);
+		}
 
-				if (tokens.testNextToken(Tokenizer.END_OF_STRING)
-						&& (hasLineNumbers | (p == null)))
-					continue;
+		/*
+		 * If this file has been compiled before with the same options, use
+		 * the cached programs rather than compiling it again.
+		 */
+		final ProgramCache cache = ProgramCache.find(session, fname, lines);
+		if (cache != null && cache.load(session)) {
+			session.setLoadingSystemObjects(savedLoadingSystemObjects);
+			return new Status(Status.SUCCESS);
+		}
 
-				/*
-				 * If we're loading a user-saved workspace, then there will be
-				 * line numbers. Skip them if we find them.
-				 */
+		final ArrayList<Program> loaded = new ArrayList<Program>();
+		final Tokenizer tokens = new Tokenizer(null, JBasic.compoundStatementSeparator);
+		Program p = null;
+		boolean hasLineNumbers = false;
 
-				if (tokens.testNextToken(Tokenizer.INTEGER)) {
-					tokens.nextToken();
-					hasLineNumbers = true;
-				}
+		for (int lineCounter = 0; lineCounter < lines.size(); lineCounter++) {
 
-				/*
-				 * If this is a PROGRAM definition we have work to do to get the
-				 * name of the program from the PROGRAM statement and create the
-				 * next object to register.
-				 */
+			final String line = lines.get(lineCounter);
 
-				if (tokens.assumeNextToken("PROGRAM")) {
-					defaultName = null;
-					final String pn = JBasic.PROGRAM + tokens.nextToken();
-					if (p != null) {
-						/* Now would be the time to renumber the program! */
-						if (fAutoRenumber || !hasLineNumbers)
-							p.renumber(100, 10);
-						/* And then mark it as not being modified */
-						p.clearModifiedState();
-
-					}
-					p = new Program(session, pn);
-					p.register();
-					hasLineNumbers = false;
-				}
-				/*
-				 * If this is a FUNCTION definition it's the same basic job as
-				 * PROGRAM except we edit the name.
-				 */
+			/*
+			 * From here on we must look at some specific tokens in the line
+			 * to guide us about what to do with the line.
+			 */
+			tokens.loadBuffer(line);
 
-				if (tokens.assumeNextToken("FUNCTION")) {
-					defaultName = null;
-					String fn = tokens.nextToken();
-					if (fn == null)
-						return new Status(Status.INVPGM);
-					fn = JBasic.FUNCTION + fn.toUpperCase();
-
-					if (p != null) {
-						/* Now would be the time to renumber the program! */
-						if (fAutoRenumber || !hasLineNumbers)
-							p.renumber(100, 10);
-						p.clearModifiedState();
-					}
-					p = new Program(session, fn);
-					p.register();
-					hasLineNumbers = false;
-				}
+			// If this is an empty string and we're not in a program
+			// block, then toss it away.
+
+			if (tokens.testNextToken(Tokenizer.END_OF_STRING)
+					&& (hasLineNumbers | (p == null)))
+				continue;
+
+			/*
+			 * If we're loading a user-saved workspace, then there will be
+			 * line numbers. Skip them if we find them.
+			 */
+
+			if (tokens.testNextToken(Tokenizer.INTEGER)) {
+				tokens.nextToken();
+				hasLineNumbers = true;
+			}
+
+			/*
+			 * If this is a PROGRAM definition we have work to do to get the
+			 * name of the program from the PROGRAM statement and create the
+			 * next object to register.
+			 */
+
+			if (tokens.assumeNextToken("PROGRAM")) {
+				defaultName = null;
+				final String pn = JBasic.PROGRAM + tokens.nextToken();
+				if (p != null) {
+					/* Now would be the time to renumber the program! */
+					if (fAutoRenumber || !hasLineNumbers)
+						p.renumber(100, 10);
+					/* And then mark it as not being modified */
+					p.clearModifiedState();
 
-				// If this is a VERB definition it's the same
-				// basic job as PROGRAM except we modify the name.
-
-				if (tokens.assumeNextToken("VERB")) {
-					defaultName = null;
-					String fn = tokens.nextToken();
-					if (fn == null)
-						return new Status(Status.INVPGM);
-					fn = JBasic.VERB + fn.toUpperCase();
-
-					if (p != null) {
-						/*
-						 * Now would be the time to renumber the program. We do
-						 * this if SYS$AUTORENUMBER is turned on, or if the
-						 * program has no line numbers.
-						 */
-						if (fAutoRenumber || !hasLineNumbers)
-							p.renumber(100, 10);
-						p.clearModifiedState();
-					}
-					p = new Program(session, fn);
-					p.register();
-					hasLineNumbers = false;
 				}
+				p = new Program(session, pn);
+				p.register();
+				loaded.add(p);
+				hasLineNumbers = false;
+			}
+			/*
+			 * If this is a FUNCTION definition it's the same basic job as
+			 * PROGRAM except we edit the name.
+			 */
 
-				/*
-				 * If there is no PROGRAM type object active already, then if we
-				 * have a default name from the path then use that for this new
-				 * program name. Otherwise, we've got to complain about this.
-				 */
-				if (p == null) {
-					if (defaultName != null) {
-						final String pn = JBasic.PROGRAM + defaultName;
-						p = new Program(session, pn);
-						p.register();
-						hasLineNumbers = true;
-						p.add("1 PROGRAM " + pn);
-					} else {
-						session
-								.setLoadingSystemObjects(savedLoadingSystemObjects);
-						return new Status(Status.PGMNOTFIRST, fname);
-					}
+			if (tokens.assumeNextToken("FUNCTION")) {
+				defaultName = null;
+				String fn = tokens.nextToken();
+				if (fn == null)
+					return new Status(Status.INVPGM);
+				fn = JBasic.FUNCTION + fn.toUpperCase();
+
+				if (p != null) {
+					/* Now would be the time to renumber the program! */
+					if (fAutoRenumber || !hasLineNumbers)
+						p.renumber(100, 10);
+					p.clearModifiedState();
 				}
+				p = new Program(session, fn);
+				p.register();
+				loaded.add(p);
+				hasLineNumbers = false;
+			}
 
-				p.add(line);
+			// If this is a VERB definition it's the same
+			// basic job as PROGRAM except we modify the name.
+
+			if (tokens.assumeNextToken("VERB")) {
+				defaultName = null;
+				String fn = tokens.nextToken();
+				if (fn == null)
+					return new Status(Status.INVPGM);
+				fn = JBasic.VERB + fn.toUpperCase();
+
+				if (p != null) {
+					/*
+					 * Now would be the time to renumber the program. We do
+					 * this if SYS$AUTORENUMBER is turned on, or if the
+					 * program has no line numbers.
+					 */
+					if (fAutoRenumber || !hasLineNumbers)
+						p.renumber(100, 10);
+					p.clearModifiedState();
+				}
+				p = new Program(session, fn);
+				p.register();
+				loaded.add(p);
+				hasLineNumbers = false;
 			}
-			if (p != null) {
-				if (fAutoRenumber || !hasLineNumbers)
-					p.renumber(100, 10);
-				p.clearModifiedState();
+
+			/*
+			 * If there is no PROGRAM type object active already, then if we
+			 * have a default name from the path then use that for this new
+			 * program name. Otherwise, we've got to complain about this.
+			 */
+			if (p == null) {
+				if (defaultName != null) {
+					final String pn = JBasic.PROGRAM + defaultName;
+					p = new Program(session, pn);
+					p.register();
+					loaded.add(p);
+					hasLineNumbers = true;
+					p.add("1 PROGRAM " + pn);
+				} else {
+					session
+							.setLoadingSystemObjects(savedLoadingSystemObjects);
+					return new Status(Status.PGMNOTFIRST, fname);
+				}
 			}
-			infile.close();
 
-		} catch (final IOException e) {
-			session.setLoadingSystemObjects(savedLoadingSystemObjects);
-			return new Status(Status.INFILE, fname);
+			p.add(line);
 		}
+		if (p != null) {
+			if (fAutoRenumber || !hasLineNumbers)
+				p.renumber(100, 10);
+			p.clearModifiedState();
+		}
+
+		if (cache != null)
+			cache.save(session, loaded);
+
 		session.setLoadingSystemObjects(savedLoadingSystemObjects);
 		return new Status(Status.SUCCESS);
 
@@ -454,6 +496,68 @@ public class Loader {
 		return new Status(Status.FILENF, fname);
 	}
 
+	/**
+	 * Determine if a file was written by SAVE BINARY, by checking for the
+	 * header that starts every binary file.
+	 * @param fname the file name
+	 * @return true if the file starts with a binary header
+	 * @throws FileNotFoundException if the file does not exist
+	 */
+	private static boolean isBinary(final String fname) throws FileNotFoundException {
+		final DataInputStream in = new DataInputStream(new FileInputStream(fname));
+		try {
+			return (in.readInt() & 0xFFFFFF00) == (BinaryValueWriter.MAGIC & 0xFFFFFF00);
+		} catch (IOException e) {
+			return false;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				/* Nothing more to do */
+			}
+		}
+	}
+
+	/**
+	 * Load the programs in a file written by SAVE BINARY.  Each program is
+	 * already compiled, so it is registered as it is read; a protected
+	 * program is also linked, since it has no statements to link later.
+	 * @param session the session loading the file
+	 * @param fname the file name
+	 * @return Status indicating if the programs were loaded
+	 */
+	private static Status loadBinary(final JBasic session, final String fname) {
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(fname)));
+			final BinaryValueReader reader = new BinaryValueReader(in);
+			reader.readHeader();
+
+			Program p;
+			while ((p = reader.readProgram(session)) != null) {
+				p.register();
+				if (p.isProtected())
+					p.link(true);
+				p.clearModifiedState();
+				session.setCurrentProgramName(p.getName());
+			}
+			return new Status(Status.SUCCESS);
+
+		} catch (IOException e) {
+			return new Status(Status.INFILE, fname);
+		} catch (JBasicException e) {
+			return e.getStatus();
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+					/* Nothing more to do */
+				}
+		}
+	}
+
 	private static Status loadXML(JBasic session, String line, BufferedReader infile) throws IOException {
 
 		Status sts = null;
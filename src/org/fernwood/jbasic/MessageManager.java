@@ -43,8 +43,11 @@ import org.w3c.dom.NodeList;
  * This class manages message translations for status codes.  An instance
  * of this exists for each session.  IF the session is a child thread of
  * another thread or session, then the message database is inherited from
- * the parent.  Otherwise, the $INIT_MESSAGES program is re-run for the
- * thread to rebuild the default message database.
+ * the parent.  Otherwise, the messages loaded from the message file by the
+ * first session are used, or the $INIT_MESSAGES program is re-run for the
+ * thread to rebuild the default message database.  Sessions share the
+ * same message map until one of them defines or removes a message, at
+ * which point it gets its own copy.
  * 
  * @author tom
  * @version version 1.0 Mar 28, 2009
@@ -68,6 +71,25 @@ public class MessageManager {
 	 */
 	public TreeMap<String,Message> messages;
 
+	/**
+	 * Flag indicating if the message map is shared with other sessions.  A
+	 * shared map is never changed; it is copied the first time this session
+	 * defines or removes a message.
+	 */
+	private boolean fShared;
+
+	/**
+	 * The messages loaded from the message file by the first session, which
+	 * are shared by every session that doesn't have a parent.  This is null
+	 * until the message file has been loaded.
+	 */
+	private static volatile TreeMap<String,Message> systemMessages;
+
+	/**
+	 * The name of the file the shared messages were loaded from.
+	 */
+	private static String systemMessageFile;
+
 	/**
 	 * For debugging purposes.
 	 */
@@ -95,9 +117,14 @@ public class MessageManager {
 				}
 				else {
 
-					/* Make a  copy of the parent's message tree for this session's use */
-					if( session.parentSession.messageManager != null)
-						messages = session.parentSession.messageManager.copy();
+					/* Share the parent's message tree until either one changes it */
+					final MessageManager parentManager = session.parentSession.messageManager;
+					if( parentManager != null)
+						synchronized (session.parentSession) {
+							messages = parentManager.messages;
+							fShared = messages != null;
+							parentManager.fShared = fShared;
+						}
 				}
 		}
 	}
@@ -114,6 +141,17 @@ public class MessageManager {
 		return messageCopy;
 	}
 
+	/**
+	 * Make sure the message map belongs only to this session, so it can be
+	 * changed.  The caller must hold the session lock.
+	 */
+	private void unshare() {
+		if (fShared) {
+			messages = copy();
+			fShared = false;
+		}
+	}
+
 	/**
 	 * Return the count of messages currently in the static message registry
 	 * 
@@ -154,6 +192,7 @@ public class MessageManager {
 			 * instance of a status object to invoke it's new method to create a
 			 * sub-object of Message. Yuck.
 			 */
+			unshare();
 			messages.put(code, new Message(code, text));
 		}
 	}
@@ -175,6 +214,18 @@ public class MessageManager {
 		if (messages != null)
 			return;
 
+		/*
+		 * If another session has already loaded the message file, share
+		 * its messages rather than reading the file again.
+		 */
+		final TreeMap<String,Message> shared = systemMessages;
+		if (shared != null) {
+			messages = shared;
+			fShared = true;
+			session.globals().insert("SYS$MESSAGE_FILE", systemMessageFile);
+			return;
+		}
+
 		messages = new TreeMap<String,Message>();
 		Status sts = null;
 		
@@ -189,6 +240,13 @@ public class MessageManager {
 			sts = loadMessageFile(messageFile);
 			if( sts.success()) {
 				session.globals().insert("SYS$MESSAGE_FILE", messageFile);
+				synchronized (MessageManager.class) {
+					if (systemMessages == null) {
+						systemMessageFile = messageFile;
+						systemMessages = messages;
+						fShared = true;
+					}
+				}
 				return;
 			}
 		}
@@ -317,9 +375,13 @@ public class MessageManager {
 		 * tolerate the list being modified mid-iteration.
 		 */
 
-		for( int idx = 0; idx < codeList.size(); idx++ ) {
-			String code = codeList.get(idx);
-			messages.remove(code);
+		synchronized( session ) {
+			if( codeList.size() > 0 )
+				unshare();
+			for( int idx = 0; idx < codeList.size(); idx++ ) {
+				String code = codeList.get(idx);
+				messages.remove(code);
+			}
 		}
 		return codeList.size();
 	}
@@ -556,5 +618,6 @@ public class MessageManager {
 	 */
 	public void clearMessages() {
 		messages = null;
+		fShared = false;
 	}
 }
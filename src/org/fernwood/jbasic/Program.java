@@ -21,17 +21,18 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.fernwood.jbasic.compiler.Inliner;
 import org.fernwood.jbasic.compiler.Linker;
 import org.fernwood.jbasic.compiler.Tokenizer;
 import org.fernwood.jbasic.runtime.ByteCode;
 import org.fernwood.jbasic.runtime.DataByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
 import org.fernwood.jbasic.runtime.Functions;
 import org.fernwood.jbasic.runtime.Instruction;
 import org.fernwood.jbasic.runtime.JBasicDebugger;
 import org.fernwood.jbasic.runtime.JBasicException;
-import org.fernwood.jbasic.runtime.LoopManager;
-import org.fernwood.jbasic.runtime.ScopeControlBlock;
 import org.fernwood.jbasic.runtime.SymbolTable;
 import org.fernwood.jbasic.statements.Statement;
 import org.fernwood.jbasic.value.Value;
@@ -180,6 +181,14 @@ public class Program {
 	 * program scope, such as functions created with the DEFFN statement.
 	 */
 	HashMap<String,ByteCode>localFunctions;
+
+	/**
+	 * The number of times each GOSUB target label and local function was
+	 * called while the program was linked, used by the linker to decide
+	 * what to inline.  This is kept across links, and is null until the
+	 * program has been linked and run.
+	 */
+	private HashMap<String,Integer> callProfile;
 	
 	/**
 	 * The list of program statements, stored in a numerically indexed
@@ -385,12 +394,12 @@ public class Program {
 		if( bc.cachedResult != null )
 			result = bc.cachedResult;
 		else {
-			bc.run(s, 0);
-		
-			if (bc.status.success()) {
-				result = bc.getResult();
+			final ExecutionFrame frame = new ExecutionFrame(bc.getSession());
+			if (bc.run(frame, s, 0).success()) {
+				result = frame.getResult();
 				bc.cachedResult = result;
 			}
+			frame.release();
 		}
 		
 		dataElementPosition++;
@@ -403,12 +412,12 @@ public class Program {
 	}
 
 	/**
-	 * Flag indicating if the program is running at the moment. For example,
-	 * this is used in error message printing to see if the error in the
-	 * statement was caused during a running program so the program name can be
-	 * put in the message text.
+	 * The number of activations of the program that are running at the
+	 * moment, in any session. For example, this is used in error message
+	 * printing to see if the error in the statement was caused during a
+	 * running program so the program name can be put in the message text.
 	 */
-	private boolean fProgramActive;
+	private final AtomicInteger activations = new AtomicInteger();
 
 	/**
 	 * Flag indicating if the current program is running. Note that it may be
@@ -418,16 +427,21 @@ public class Program {
 	 * @return True if the current program has an active execution scope.
 	 */
 	public boolean isActive() {
-		return (executable != null && fProgramActive);
+		return (executable != null && activations.get() > 0);
 	}
 
-
 	/**
-	 * This is the list of pending GOSUB/RETURN operations in the current
-	 * program's context.
+	 * Determine if the program is running under the control of a debugger
+	 * in its session.  A program can't be modified while it is being
+	 * debugged.
+	 * 
+	 * @return True if there is an activation of the program in the
+	 * session that has a debugger attached.
 	 */
-
-	public ArrayList<ScopeControlBlock> gosubStack;
+	public boolean isDebugging() {
+		final ExecutionFrame frame = ExecutionFrame.find(session().currentFrame, this);
+		return frame != null && frame.debugger != null;
+	}
 
 	/**
 	 * This is the byteCode for the program, once it has been linked.
@@ -447,11 +461,6 @@ public class Program {
 	 */
 	public boolean fIsStub;
 
-	/**
-	 * This object handles nested loop control constructs
-	 */
-	public LoopManager loopManager;
-
 	/**
 	 * Constructor that creates a new program, given a name and an existing
 	 * symbol table.
@@ -468,9 +477,7 @@ public class Program {
 		runCount = 0;
 		fRegistered = false;
 		statements = new ArrayList<Statement>();
-		loopManager = null;
-		gosubStack = null;
-		fSystemObject = session().isLoadingSystemObjects();
+		fSystemObject = session != null && session.isLoadingSystemObjects();
 		fModified = false;
 	}
 
@@ -493,7 +500,7 @@ public class Program {
 			result.append(", linked");
 		if (fModified)
 			result.append(", modified");
-		if (fProgramActive)
+		if (activations.get() > 0)
 			result.append(", active");
 		if (fSystemObject)
 			result.append( ", system object");
@@ -673,7 +680,7 @@ public class Program {
 		/*
 		 * If we are running at this moment, can't do this...
 		 */
-		if( executable != null && executable.fRunning & executable.debugger != null )
+		if( executable != null && isDebugging() )
 			throw new JBasicException(Status.INVDBGOP);
 
 		/*
@@ -892,6 +899,20 @@ public class Program {
 		return addStatus;
 	}
 
+	/**
+	 * Add a statement that has already been compiled, such as one read from
+	 * the compiled program cache.  The statement is appended to the program
+	 * as-is; its text is not stored or compiled again.
+	 * 
+	 * @param statement
+	 *            The compiled statement to add.
+	 */
+	public void addCompiledStatement(final Statement statement) {
+		statement.program = this;
+		statements.add(statement);
+		next = 0;
+	}
+
 	/**
 	 * Run a stored program. The program begins at the first statement and
 	 * executes until an error occurs or there are no more statements.
@@ -909,12 +930,35 @@ public class Program {
 	
 	public Status run(final SymbolTable symbols, final int start,
 			final JBasicDebugger debugger) {
+		return run(session(), symbols, start, debugger);
+	}
+
+	/**
+	 * Run a stored program in a given session.  The session does not have
+	 * to be the one that loaded the program; the same program can be run by
+	 * any number of sessions at once, since the state of each run is kept
+	 * in its own ExecutionFrame.
+	 * 
+	 * @param runSession
+	 *            The session that is running the program
+	 * @param symbols
+	 *            The symbol table to be used for runtime symbol resolution
+	 * @param start
+	 *            The starting statement number where execution is to begin
+	 *            (default is zero)
+	 * @param debugger
+	 *            The debugger object to use with this invocation, or null if no
+	 *            debugger is active.
+	 * @return Status block reflecting execution status
+	 */
+	public Status run(final JBasic runSession, final SymbolTable symbols, final int start,
+			final JBasicDebugger debugger) {
 		
-		if( this.session().onStatementStack.stackSize() >= JBasic.CALL_DEPTH_LIMIT-2)
+		if( runSession.onStatementStack.stackSize() >= JBasic.CALL_DEPTH_LIMIT-2)
 			return new Status(Status.CALLDEPTH);
 		
 		ProgramState savedState = new ProgramState(this);
-		Status status = runExecutable(symbols, start, debugger);
+		Status status = runExecutable(runSession, symbols, start, debugger);
 		savedState.restoreState(this);
 		return status;
 	}
@@ -924,30 +968,26 @@ public class Program {
 	 * called from the run() method whose primary function is to support
 	 * the save and restore of the program state as needed.
 	 */
-	private Status runExecutable(final SymbolTable symbols, final int start,
-			final JBasicDebugger debugger) {
+	private Status runExecutable(final JBasic runSession, final SymbolTable symbols,
+			final int start, final JBasicDebugger debugger) {
 
-		if (!session().isRunning())
+		if (!runSession.isRunning())
 			return new Status(Status.QUIT);
 
 		Status sts = new Status(Status.SUCCESS);
-		boolean lastActive;
-		final Program oldProgram = session().programs.getCurrent();
+		final Program oldProgram = runSession.programs.getCurrent();
 
-		session().programs.setCurrent(this);
+		runSession.programs.setCurrent(this);
 		next = start;
 		runCount++;
-		lastActive = fProgramActive;
-		fProgramActive = true;
-		gosubStack = null;
-		loopManager = new LoopManager();
+		activations.incrementAndGet();
 
 		/*
 		 * Create a new scope for on-error processing. For fDebugExpressions
 		 * purposes, use the current program name to mark the stack location.
 		 */
 
-		final int scopeMark = session().onStatementStack.push(name);
+		final int scopeMark = runSession.onStatementStack.push(name);
 
 		/*
 		 * We must ensure that the program is linked before it can be run. The
@@ -973,24 +1013,25 @@ public class Program {
 		 */
 
 		if (sts.success()) {
-			getExecutable().setDebugger(debugger);
-			sts = runExecutable(symbols, start);
+			final ExecutionFrame frame = new ExecutionFrame(runSession);
+			frame.debugger = debugger;
+			sts = runExecutable(frame, symbols, start);
+			frame.release();
 		}
 
 		/*
 		 * Discard any ON statements that still might exist on the stack for
 		 * this on-unit.
 		 */
-		session().onStatementStack.pop(scopeMark);
+		runSession.onStatementStack.pop(scopeMark);
 
 		/*
 		 * If there was an unresolved error, now is the time to print it out.
 		 */
 		if (sts.failed())
-			sts.print(session());
-		fProgramActive = lastActive;
-		session().programs.setCurrent(oldProgram);
-		loopManager = null;
+			sts.print(runSession);
+		activations.decrementAndGet();
+		runSession.programs.setCurrent(oldProgram);
 		return sts;
 	}
 
@@ -1051,7 +1092,7 @@ public class Program {
 	 */
 	Status addSource(final String fileName) {
 
-		if( executable != null & executable.fRunning & executable.debugger != null )
+		if( executable != null && isDebugging() )
 			return new Status(Status.INVDBGOP);
 
 		sourceFileName = fileName;
@@ -1138,7 +1179,7 @@ public class Program {
 	 */
 	public Status link(boolean strip) {
 		
-		if( executable != null && executable.fRunning & executable.debugger != null )
+		if( executable != null && isDebugging() )
 			return new Status(Status.INVDBGOP);
 
 		Functions.flushCache(null);
@@ -1183,7 +1224,7 @@ public class Program {
 	 */
 	public Statement removeStatement(final int i) throws JBasicException {
 		
-		if( executable != null && executable.fRunning )
+		if( isActive() )
 			throw new JBasicException(Status.INVDBGOP);
 
 		if( executable != null )
@@ -1218,10 +1259,29 @@ public class Program {
 	 *         executable to run.
 	 */
 	public Status runExecutable(final SymbolTable symbols, int start) {
+		final ExecutionFrame frame = new ExecutionFrame(session());
+		final Status sts = runExecutable(frame, symbols, start);
+		frame.release();
+		return sts;
+	}
+
+	/**
+	 * Invoke the linked executable code for the program using a given
+	 * frame to hold the state of the run.
+	 * 
+	 * @param frame
+	 *            The frame for this run of the program.
+	 * @param symbols
+	 *            The symbol table to use for this execution context.
+	 * @param start
+	 * 			  The starting line number to begin execution at, or zero.
+	 * @return A status indicating if execution was successful.
+	 */
+	public Status runExecutable(final ExecutionFrame frame, final SymbolTable symbols, int start) {
 		if (!hasExecutable())
 			return new Status(Status.FAULT, "no executable bytecode to run");
 		rewindDataElements();
-		return executable.run(symbols, start);
+		return executable.run(frame, symbols, start);
 	}
 
 	/**
@@ -1233,8 +1293,10 @@ public class Program {
 		
 		boolean hadCode = (executable != null);
 		
-		if (hadCode)
+		if (hadCode) {
+			Inliner.recordProfile(this, executable);
 			executable.labelMap = null;
+		}
 		executable = null;
 		
 	
@@ -1366,7 +1428,7 @@ public class Program {
 	 */
 	public Status renumber(final int startLineNumber, final int increment) {
 
-		if( executable != null && executable.fRunning & executable.debugger != null )
+		if( executable != null && isDebugging() )
 			return new Status(Status.INVDBGOP);
 
 		class LineNumberDescription {
@@ -1668,6 +1730,33 @@ public class Program {
 		return p;
 	}
 
+	/**
+	 * Make a compiled copy of the current program for another session.  Unlike
+	 * copy(), the statements keep their compiled bytecode, so the new program
+	 * can be linked and run without compiling each statement again.  The copy
+	 * is not registered in the new session.  This is used to give each new
+	 * session its own copy of the system library, which is only compiled once.
+	 *
+	 * @param newSession
+	 *            The session that owns the copy, or null if the copy is not
+	 *            owned by any session.
+	 * @return a new Program object that is a copy of the current object.
+	 */
+	public Program copy(final JBasic newSession) {
+
+		final Program p = new Program(newSession, name);
+
+		p.sourceFileName = sourceFileName;
+		p.fSystemObject = fSystemObject;
+		p.fStaticTyping = fStaticTyping;
+		p.statements = new ArrayList<Statement>(statements.size());
+
+		for (int stmtNumber = 0; stmtNumber < statements.size(); stmtNumber++)
+			p.statements.add(statements.get(stmtNumber).copy(newSession, p));
+
+		return p;
+	}
+
 	/**
 	 * Given a line number, return the statement with that line number.
 	 * @param ln The line number (100, 110, 120, etc.) to search for.  The
@@ -1762,6 +1851,36 @@ public class Program {
 		return bc;
 	}
 
+	/**
+	 * Record the number of times a GOSUB target or local function was
+	 * called.  The largest count recorded for each one is kept.
+	 * @param target the label of the GOSUB target, or the function name
+	 * followed by "()"
+	 * @param count the number of calls
+	 */
+	public void recordCallCount( String target, int count ) {
+		if( callProfile == null )
+			callProfile = new HashMap<String,Integer>();
+		Integer previous = callProfile.get(target);
+		if( previous == null || previous.intValue() < count )
+			callProfile.put(target, Integer.valueOf(count));
+	}
+
+	/**
+	 * Get the number of times a GOSUB target or local function was called
+	 * during a previous run of the program.
+	 * @param target the label of the GOSUB target, or the function name
+	 * followed by "()"
+	 * @return the largest number of calls recorded, or zero if there is no
+	 * record of calls.
+	 */
+	public int getCallCount( String target ) {
+		if( callProfile == null )
+			return 0;
+		Integer count = callProfile.get(target);
+		return count == null ? 0 : count.intValue();
+	}
+
 	/**
 	 * Ready the local function definitions in the current program for
 	 * use by the runtime.
@@ -1850,7 +1969,7 @@ public class Program {
 		 * If there were no statements before, make this the first statement.
 		 */
 		if( statementCount() == 0 )
-			this.setStatement(0, targetStatement);
+			addCompiledStatement(targetStatement);
 		
 		/*
 		 * Otherwise, if there were multiple statements, discard all but the first
@@ -1891,15 +2010,16 @@ public class Program {
 	}
 
 	/**
-	 * Determine if the current program has active/pending FOR..NEXT or DO..LOOP
-	 * constructs. 
-	 * @return true if there are active loops, or false if there are no active
-	 * loops (or no loops ever created).
+	 * Determine how many FOR..NEXT or DO..LOOP constructs are active in the
+	 * innermost running activation of the program in its session.
+	 * @return the number of active loops, or zero if there are no active
+	 * loops (or the program isn't running).
 	 */
-	public boolean hasLoops() {
-		if( loopManager == null )
-			return false;
-		return (loopManager.loopStackSize()>0);
+	public int loopCount() {
+		final ExecutionFrame frame = ExecutionFrame.find(session().currentFrame, this);
+		if( frame == null || frame.loopManager == null )
+			return 0;
+		return frame.loopManager.loopStackSize();
 	}
 
 	/**
@@ -0,0 +1,308 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.fernwood.jbasic.runtime.BinaryValueReader;
+import org.fernwood.jbasic.runtime.BinaryValueWriter;
+import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * The compiled program cache used by the Loader.  When a source file is
+ * loaded, the programs compiled from it are written to a <code>.jbc</code>
+ * file in the directory named by SYS$COMPILE_CACHE_PATH.  The next time the
+ * same source is loaded, the compiled statements are read from that file
+ * instead of being tokenized and compiled again.  The programs are stored
+ * with a BinaryValueWriter, after a header that identifies the cache file.
+ * <p>
+ * A cache file is named for the source file, a hash of the full path of
+ * the source file, and a hash of everything that
+ * affects how the source is compiled: the source text (after macros are
+ * substituted), the JBasic version and build date, and the settings of the
+ * compiler options.  So a cache file is only ever used for exactly the
+ * source and options it was made from, and there is nothing to check for
+ * staleness; a changed file or option just has a different name.  When a
+ * new cache file is written, older ones for the same source file are
+ * deleted.  Files with the same name in different directories have
+ * different path hashes, so they don't replace each other's cache files.
+ * <p>
+ * Files are only cached if every statement compiled without error, so any
+ * errors in a file are reported each time it is loaded.  The cache is not
+ * used at all if SYS$COMPILE_CACHE is false, or in a sandboxed session.
+ *
+ * @author cole
+ *
+ */
+class ProgramCache {
+
+	/**
+	 * The version of the cache file layout, which is also part of the hash
+	 * so files written in an older layout are never read.
+	 */
+	private static final int FORMAT = 2;
+
+	/**
+	 * The first four bytes of a cache file, "JBC" followed by the layout
+	 * version.
+	 */
+	private static final int MAGIC = 0x4A424300 + FORMAT;
+
+	/**
+	 * The file name extension for cache files.
+	 */
+	static final String EXTENSION = ".jbc";
+
+	/**
+	 * The global symbols whose values change how a statement is compiled.
+	 * These are all part of the hash that names the cache file.
+	 */
+	private static final String[] COMPILE_OPTIONS = new String[] {
+		"SYS$OPTIMIZE", "SYS$OPT_ASM", "SYS$OPT_DEADCODE", "SYS$OPT_SLOTS",
+		"SYS$LOOP_OPT", "SYS$STRUCTURE_POOLING", "SYS$STATIC_TYPES",
+		"SYS$STATEMENT_TEXT", "SYS$RETOKENIZE", "SYS$AUTORENUMBER",
+		"SYS$COMPRESS", "SYS$SQL_COMMANDS", "SYS$SQL_OPT", "SYS$ALIASES",
+		JBasic.PACKAGES };
+
+	/**
+	 * The cache file for the source being loaded.
+	 */
+	private final File file;
+
+	/**
+	 * The hash of the source and compiler options, which is also stored in
+	 * the file to guard against a truncated or mismatched file.
+	 */
+	private final String key;
+
+	/**
+	 * The prefix shared by all cache file names for the same source file.
+	 */
+	private final String prefix;
+
+	/**
+	 * Create a cache reference for a source file.
+	 * @param dir the cache directory
+	 * @param thePrefix the file name prefix for the source file
+	 * @param theKey the hash of the source and options
+	 */
+	private ProgramCache(final File dir, final String thePrefix, final String theKey) {
+		prefix = thePrefix;
+		key = theKey;
+		file = new File(dir, prefix + key + EXTENSION);
+	}
+
+	/**
+	 * Locate the cache file for the source being loaded.
+	 * @param session the session loading the source
+	 * @param fileName the name of the source file
+	 * @param lines the source lines, after macro substitution
+	 * @return the cache reference, or null if the cache is not used
+	 */
+	static ProgramCache find(final JBasic session, final String fileName,
+			final List<String> lines) {
+
+		if (!session.getBoolean("SYS$COMPILE_CACHE") || session.inSandbox())
+			return null;
+		final String path = session.getString("SYS$COMPILE_CACHE_PATH");
+		if (path == null || path.length() == 0)
+			return null;
+
+		/*
+		 * The file name prefix is the source file name, and a hash of the
+		 * full path so files with the same name in different directories
+		 * have different cache files.  A resource name is used as-is.
+		 */
+		final String baseName = Utility.baseName(fileName);
+		final StringBuffer name = new StringBuffer();
+		for (int ix = 0; ix < baseName.length(); ix++) {
+			final char ch = baseName.charAt(ix);
+			name.append(Character.isLetterOrDigit(ch) || ch == '_' ? ch : '_');
+		}
+		final String fullPath = fileName.startsWith("@") ? fileName
+				: new File(fileName).getAbsolutePath();
+		name.append('-');
+		name.append(Integer.toHexString(fullPath.hashCode()));
+		name.append('-');
+
+		try {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			update(digest, Integer.toString(FORMAT));
+			update(digest, JBasic.version);
+			update(digest, baseName);
+			update(digest, Boolean.toString(session.isLoadingSystemObjects()));
+			for (int ix = 0; ix < COMPILE_OPTIONS.length; ix++) {
+				final Value v = session.globals().localReference(COMPILE_OPTIONS[ix]);
+				update(digest, v == null ? "" : v.toString());
+			}
+			for (int ix = 0; ix < lines.size(); ix++)
+				update(digest, lines.get(ix));
+
+			final byte[] hash = digest.digest();
+			final StringBuffer hex = new StringBuffer();
+			for (int ix = 0; ix < hash.length; ix++)
+				hex.append(Integer.toHexString(0x100 + (hash[ix] & 0xFF)).substring(1));
+			return new ProgramCache(new File(path), name.toString(), hex.toString());
+
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		} catch (UnsupportedEncodingException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Add a string to the hash, followed by a line separator so adjacent
+	 * strings can't run together.
+	 */
+	private static void update(final MessageDigest digest, final String s)
+			throws UnsupportedEncodingException {
+		digest.update(s.getBytes("UTF-8"));
+		digest.update((byte) '\n');
+	}
+
+	/**
+	 * Load the programs stored in the cache file into a session, if the
+	 * file exists.  Nothing is registered in the session unless the whole
+	 * file is read successfully.
+	 * @param session the session loading the source
+	 * @return true if the programs were loaded from the cache, or false if
+	 * the source must be compiled.
+	 */
+	boolean load(final JBasic session) {
+
+		if (!file.isFile())
+			return false;
+
+		final ArrayList<Program> programs = new ArrayList<Program>();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || !in.readUTF().equals(key))
+				return false;
+
+			final BinaryValueReader reader = new BinaryValueReader(in);
+			final int count = in.readInt();
+			for (int px = 0; px < count; px++) {
+				final Program p = reader.readProgram(session);
+				if (p == null)
+					return false;
+				programs.add(p);
+			}
+			final String currentName = in.readUTF();
+
+			for (int px = 0; px < programs.size(); px++) {
+				final Program p = programs.get(px);
+				p.register();
+				p.clearModifiedState();
+			}
+			session.setCurrentProgramName(currentName);
+			return true;
+
+		} catch (IOException e) {
+			return false;
+		} catch (JBasicException e) {
+			return false;
+		} finally {
+			if (in != null)
+				try {
+					in.close();
+				} catch (IOException e) {
+					/* Nothing more to do */
+				}
+		}
+	}
+
+	/**
+	 * Write the programs compiled from the source to the cache file.  The
+	 * file is written under a temporary name and then renamed, so another
+	 * session never sees a partly written file.  Any error just means the
+	 * source will be compiled again next time.
+	 * @param session the session that loaded the source
+	 * @param programs the programs compiled from the source, in order
+	 */
+	void save(final JBasic session, final List<Program> programs) {
+
+		for (int px = 0; px < programs.size(); px++) {
+			final Program p = programs.get(px);
+			if (p.hasExecutable() || p.isProtected())
+				return;
+			for (int sx = 0; sx < p.statementCount(); sx++) {
+				final Status sts = p.getStatement(sx).status;
+				if (sts != null && sts.failed() && !sts.equals(Status.NOCOMPILE))
+					return;
+			}
+		}
+
+		final File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return;
+
+		File temp = null;
+		DataOutputStream out = null;
+		try {
+			temp = File.createTempFile(prefix + "new", ".tmp", dir);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			out.writeInt(MAGIC);
+			out.writeUTF(key);
+			final BinaryValueWriter writer = new BinaryValueWriter(out);
+			out.writeInt(programs.size());
+			for (int px = 0; px < programs.size(); px++)
+				writer.writeProgram(programs.get(px));
+			out.writeUTF(session.getString("SYS$CURRENT_PROGRAM"));
+			out.close();
+			out = null;
+
+			final File[] old = dir.listFiles();
+			if (old != null)
+				for (int ix = 0; ix < old.length; ix++) {
+					final String name = old[ix].getName();
+					if (name.startsWith(prefix) && name.endsWith(EXTENSION)
+							&& name.length() == file.getName().length())
+						old[ix].delete();
+				}
+			if (temp.renameTo(file))
+				temp = null;
+
+		} catch (IOException e) {
+			/* The file just isn't cached */
+		} catch (JBasicException e) {
+			/* The file just isn't cached */
+		} finally {
+			if (out != null)
+				try {
+					out.close();
+				} catch (IOException e) {
+					/* Nothing more to do */
+				}
+			if (temp != null)
+				temp.delete();
+		}
+	}
+}
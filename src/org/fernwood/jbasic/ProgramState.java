@@ -23,15 +23,17 @@ import org.fernwood.jbasic.runtime.ByteCode;
 import org.fernwood.jbasic.runtime.LoopManager;
 import org.fernwood.jbasic.runtime.RegisterArray;
 import org.fernwood.jbasic.runtime.ScopeControlBlock;
-import org.fernwood.jbasic.value.Value;
+import org.fernwood.jbasic.runtime.ValueStack;
 
 /**
  * This object can hold the transient execution state of a program object. This
  * is used when recursion is possible, to capture runtime program state before
  * allowing a recursive call, and to restore it when done.
  * <p>
- * It should be noted that this information is stored here from fields found in
- * both the Program and ByteCode classes.
+ * Only the state that belongs to the Program itself, such as the DATA
+ * element position used by READ, is kept here.  The program counter, data
+ * stack, and GOSUB and loop stacks of each run are in the ExecutionFrame for
+ * that run, so they don't need to be saved.
  * 
  * @author cole
  * @version version 1.0 Aug 28, 2007
@@ -39,24 +41,14 @@ import org.fernwood.jbasic.value.Value;
  */
 public class ProgramState {
 
-	ArrayList<ScopeControlBlock> gosubStack;
-
 	int next;
 
 	int dataElementPosition;
 
 	boolean atEOD;
 
-	int programCounter;
-
-	RegisterArray registers;
-
-	ArrayList<Value> datastack;
-
 	boolean valid;
 
-	private LoopManager loopStack;
-
 	/**
 	 * Create a program state object using data from an existing Program
 	 * 
@@ -74,18 +66,9 @@ public class ProgramState {
 		 * If it is already running, then we must remember it's state.
 		 */
 		if (valid) {
-			ByteCode bc = p.getExecutable();
-			this.gosubStack = p.gosubStack;
 			this.next = p.next;
 			this.dataElementPosition = p.dataElementPosition;
 			this.atEOD = p.fAtEOD;
-			this.loopStack = p.loopManager;
-			
-			if (bc != null) {
-				this.datastack = bc.dataStack;
-				this.programCounter = bc.programCounter;
-				this.registers = bc.registers;
-			}
 		}
 	}
 
@@ -101,34 +84,17 @@ public class ProgramState {
 		/*
 		 * If the program was running at the time we were asked to save
 		 * it's state, then put the state back.  If it was not running,
-		 * we do nothing.
+		 * we reset it.
 		 */
 		if (valid) {
-			p.gosubStack = this.gosubStack;
 			p.next = this.next;
 			p.dataElementPosition = this.dataElementPosition;
 			p.fAtEOD = this.atEOD;
-			p.loopManager = this.loopStack;
-			
-			ByteCode bc = p.getExecutable();
-			if (bc != null) {
-				bc.programCounter = this.programCounter;
-				bc.registers = this.registers;
-				bc.dataStack = this.datastack;
-			}
 		}
 		else {
-			p.gosubStack = null;
 			p.next = 0;
 			p.dataElementPosition = 0;
 			p.fAtEOD = true;
-			ByteCode bc = p.getExecutable();
-			if (bc != null) {
-				bc.programCounter = 0;
-				bc.registers = null;
-				bc.dataStack = null;
-			}
-			
 		}
 	}
 }
@@ -1287,6 +1287,21 @@ public class Status {
 	 */
 	public static final String SQLDUPFIELD = "SQLDUPFIELD";
 
+	/**
+	 * Message: Invalid or unknown index []
+	 */
+	public static final String SQLINDEX = "SQLINDEX";
+
+	/**
+	 * Message: Column [] must be in the GROUP BY list
+	 */
+	public static final String SQLGROUP = "SQLGROUP";
+
+	/**
+	 * Message: Column [] is not numeric
+	 */
+	public static final String SQLNUMCOL = "SQLNUMCOL";
+
 	/**
 	 * Message: Invalid TABLE []
 	 */
@@ -1306,6 +1321,11 @@ public class Status {
 	 * Message: Error in tokenizer buffer positioning
 	 */
 	public static final String TOKBUFFER = "TOKBUFFER";
+
+	/**
+	 * Message: Invalid binary data, %s
+	 */
+	public static final String BINFMT = "BINFMT";
 	
 	/**
 	 * Access function for string substitution parameter.
@@ -18,6 +18,7 @@ package org.fernwood.jbasic.compiler;
 import org.fernwood.jbasic.JBasic;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
 import org.fernwood.jbasic.runtime.Functions;
 import org.fernwood.jbasic.runtime.Instruction;
 import org.fernwood.jbasic.runtime.JBasicException;
@@ -1835,14 +1836,15 @@ public class Expression {
 		 * Seal the bytecode stream and run it.
 		 */
 		bc.add(ByteCode._END, 0);
-		bc.run(symbols, 0);
+		final ExecutionFrame frame = new ExecutionFrame(bc.getSession());
+		bc.run(frame, symbols, 0);
 		
 		/*
 		 * Restore the current expression states to match the states
 		 * stored in the nested expression we just compiled and executed,
 		 * in case anyone wants to query these after the execution.
 		 */
-		status = bc.status;
+		status = frame.status;
 		isSingleton = cx.isSingleton;
 		isVariable = cx.isVariable;
 		variableName = cx.variableName;
@@ -1850,7 +1852,9 @@ public class Expression {
 		/*
 		 * Return the results of the expression to the caller.
 		 */
-		return bc.getResult();
+		final Value result = frame.getResult();
+		frame.release();
+		return result;
 	}
 
 	/**
@@ -0,0 +1,437 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.compiler;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.fernwood.jbasic.Program;
+import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.Instruction;
+
+/**
+ * The inlining pass of the linker.  Calls to small local functions (created
+ * with DEFFN) and GOSUBs to small subroutines are replaced by a copy of the
+ * code they would run, which saves the cost of creating a new symbol table
+ * for each function call, or of pushing and popping a GOSUB scope.
+ * <p>
+ * A function is inlined if its expression is no more than SYS$OPT_INLINE_SIZE
+ * instructions long and does not branch or call another local function.  The
+ * arguments are stored in frame registers instead of local variables, and
+ * each reference to an argument name in the expression is changed to load
+ * the register.  A function that refers to its arguments in any other way
+ * (such as passing an argument name to EXISTS()) is not inlined.
+ * <p>
+ * A subroutine is inlined if it runs straight from its label to a RETURN
+ * statement, is no more than SYS$OPT_INLINE_SIZE instructions long (not
+ * counting _STMT instructions), and has no branches except to other places
+ * in the subroutine, which are changed to branch within the copy.  It cannot
+ * contain another GOSUB, a loop, or a conditional RETURN.  The original
+ * subroutine is left in place for any GOSUB that isn't inlined.
+ * <p>
+ * When a linked program is discarded, the number of times each GOSUB and
+ * local function was called is remembered in the Program object.  The next
+ * time the program is linked, a subroutine or function that was called
+ * often enough in the earlier run can be up to HOT_FACTOR times larger than
+ * the usual limit.  So a program can be run once and then re-linked with the
+ * LINK command to inline based on how it was actually used.
+ *
+ * @author cole
+ *
+ */
+public class Inliner {
+
+	/**
+	 * The number of calls in a previous run that makes a subroutine or
+	 * function "hot".
+	 */
+	private static final int HOT_CALLS = 100;
+
+	/**
+	 * How many times larger than the size limit a hot subroutine or
+	 * function may be.
+	 */
+	private static final int HOT_FACTOR = 4;
+
+	/**
+	 * The first frame register used to hold function arguments.  Registers
+	 * below this are used by statements such as MID$() = that need
+	 * temporary values.
+	 */
+	private static final int FIRST_REGISTER = 90;
+
+	/**
+	 * The number of registers available for function arguments.  A function
+	 * with more arguments than this is not inlined.
+	 */
+	private static final int MAXIMUM_ARGUMENTS = 10;
+
+	/**
+	 * The suffix added to a local function name to form its key in the call
+	 * profile, so it can't be confused with a statement label.
+	 */
+	private static final String FUNCTION_SUFFIX = "()";
+
+	/**
+	 * This class is never instantiated.
+	 */
+	private Inliner() {
+	}
+
+	/**
+	 * Inline the eligible function calls and GOSUBs in a linked program.
+	 * The total number of instructions added is never more than the size of
+	 * the program before inlining.
+	 *
+	 * @param pgm the program being linked, which has already had its local
+	 *            functions readied.
+	 * @param bc the linked bytecode stream for the program
+	 * @param sizeLimit the largest subroutine or function inlined, in
+	 *            instructions.
+	 * @return the number of call sites that were inlined.
+	 */
+	public static int inline(final Program pgm, final ByteCode bc, final int sizeLimit) {
+
+		if (sizeLimit <= 0)
+			return 0;
+
+		final int[] budget = new int[] { bc.size() };
+		int count = 0;
+
+		/*
+		 * Do functions first, so a subroutine that calls a local function
+		 * can be inlined with the function already expanded in it.  In each
+		 * case the call sites are found first and then inlined from the end
+		 * of the program backwards; inserting instructions only moves the
+		 * instructions after the call site, so the sites still to be done
+		 * are not disturbed.
+		 */
+		ArrayList<Integer> sites = findSites(bc, ByteCode._CALLFL);
+		for (int ix = sites.size() - 1; ix >= 0; ix--)
+			if (inlineFunction(pgm, bc, sites.get(ix).intValue(), sizeLimit, budget))
+				count++;
+
+		sites = findSites(bc, ByteCode._JSB);
+		for (int ix = sites.size() - 1; ix >= 0; ix--)
+			if (inlineSubroutine(pgm, bc, sites.get(ix).intValue(), sizeLimit, budget))
+				count++;
+
+		return count;
+	}
+
+	/**
+	 * Record how many times each GOSUB and local function call in a linked
+	 * program was executed, so the counts can be used the next time the
+	 * program is linked.  This must be called before the label map of the
+	 * bytecode is discarded.
+	 *
+	 * @param pgm the program whose executable is being discarded
+	 * @param bc the linked bytecode stream for the program
+	 */
+	public static void recordProfile(final Program pgm, final ByteCode bc) {
+
+		if (bc == null || !bc.fLinked)
+			return;
+
+		for (int ix = 0; ix < bc.size(); ix++) {
+			final Instruction i = bc.getInstruction(ix);
+			if (i.counter == 0)
+				continue;
+			if (i.opCode == ByteCode._CALLFL && i.stringValid)
+				pgm.recordCallCount(i.stringOperand + FUNCTION_SUFFIX, i.counter);
+			else if (i.opCode == ByteCode._JSB && i.integerValid && bc.labelMap != null) {
+				final Iterator<Linkage> labels = bc.labelMap.values().iterator();
+				while (labels.hasNext()) {
+					final Linkage l = labels.next();
+					if (l.byteAddress == i.integerOperand
+							&& !l.label.startsWith(Linkage.ENTRY_PREFIX))
+						pgm.recordCallCount(l.label, i.counter);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the addresses of all instructions with a given opcode that are
+	 * not part of a local function definition.
+	 */
+	private static ArrayList<Integer> findSites(final ByteCode bc, final int opCode) {
+
+		final ArrayList<Integer> sites = new ArrayList<Integer>();
+		for (int ix = 0; ix < bc.size(); ix++) {
+			final Instruction i = bc.getInstruction(ix);
+			if (i.opCode == ByteCode._DEFFN)
+				ix = ix + i.integerOperand;
+			else if (i.opCode == opCode)
+				sites.add(Integer.valueOf(ix));
+		}
+		return sites;
+	}
+
+	/**
+	 * Get the size limit for a subroutine or function, which is larger if
+	 * it was called often in a previous run.
+	 */
+	private static int limit(final Program pgm, final String key, final int sizeLimit) {
+		if (pgm.getCallCount(key) >= HOT_CALLS)
+			return sizeLimit * HOT_FACTOR;
+		return sizeLimit;
+	}
+
+	/**
+	 * Replace a _CALLFL instruction with the expression of the local
+	 * function it calls, if the function is eligible.  The local function
+	 * bytecode is an _ENTRY, an _ARG for each argument, the expression, and
+	 * a _RET that returns the expression value.
+	 *
+	 * @return true if the call was inlined.
+	 */
+	private static boolean inlineFunction(final Program pgm, final ByteCode bc,
+			final int site, final int sizeLimit, final int[] budget) {
+
+		final Instruction call = bc.getInstruction(site);
+		final ByteCode fn = pgm.findLocalFunction(call.stringOperand);
+		if (fn == null || !call.integerValid)
+			return false;
+
+		/*
+		 * The function's bytecode may start with a _STMT for the program.
+		 */
+		int entry = 0;
+		while (entry < fn.size() && fn.getInstruction(entry).opCode == ByteCode._STMT)
+			entry++;
+
+		final int argCount = call.integerOperand;
+		final int last = fn.size() - 1;
+		if (argCount > MAXIMUM_ARGUMENTS || last < entry + argCount + 2)
+			return false;
+		if (fn.getInstruction(entry).opCode != ByteCode._ENTRY)
+			return false;
+		final Instruction ret = fn.getInstruction(last);
+		if (ret.opCode != ByteCode._RET || ret.integerOperand != 1)
+			return false;
+
+		/*
+		 * The arguments must be named, and given in order, and the call must
+		 * pass exactly that many.
+		 */
+		final String[] argNames = new String[argCount];
+		for (int ix = 0; ix < argCount; ix++) {
+			final Instruction arg = fn.getInstruction(entry + ix + 1);
+			if (arg.opCode != ByteCode._ARG || arg.integerOperand != ix + 1 || !arg.stringValid)
+				return false;
+			argNames[ix] = arg.stringOperand;
+		}
+		final int first = entry + argCount + 1;
+		if (fn.getInstruction(first).opCode == ByteCode._ARG)
+			return false;
+
+		final int size = last - first;
+		if (size > limit(pgm, call.stringOperand + FUNCTION_SUFFIX, sizeLimit))
+			return false;
+		if (argCount + size > budget[0])
+			return false;
+
+		/*
+		 * Copy the expression, changing each load of an argument to a load
+		 * of its register.  Anything else that mentions an argument name, or
+		 * that needs the function's own call frame, means we can't inline.
+		 */
+		final ArrayList<Instruction> code = new ArrayList<Instruction>();
+		for (int ix = argCount - 1; ix >= 0; ix--)
+			code.add(new Instruction(ByteCode._STORREG, FIRST_REGISTER + ix));
+
+		for (int ix = first; ix < last; ix++) {
+			final Instruction i = fn.getInstruction(ix);
+			if (i.opCode > ByteCode._BRANCH_FLAG)
+				return false;
+			switch (i.opCode) {
+			case ByteCode._CALLFL:
+			case ByteCode._RET:
+			case ByteCode._ARG:
+			case ByteCode._ARGDEF:
+			case ByteCode._ARGC:
+			case ByteCode._ENTRY:
+			case ByteCode._DEFFN:
+			case ByteCode._LOADREG:
+			case ByteCode._STORREG:
+				return false;
+			}
+
+			final int argNumber = i.stringValid ? argumentNumber(argNames, i.stringOperand) : -1;
+			if (argNumber >= 0) {
+				if (i.opCode != ByteCode._LOAD && i.opCode != ByteCode._LOADREF)
+					return false;
+				code.add(new Instruction(ByteCode._LOADREG, FIRST_REGISTER + argNumber));
+			}
+			else if (i.stringValid && i.stringOperand != null
+					&& i.stringOperand.toUpperCase().startsWith("$ARGS"))
+				return false;
+			else
+				code.add(new Instruction(i));
+		}
+
+		replace(bc, site, code);
+		budget[0] -= code.size() - 1;
+		return true;
+	}
+
+	/**
+	 * Find the position of a name in a list of argument names.
+	 * @return the zero-based position, or -1 if it isn't an argument name.
+	 */
+	private static int argumentNumber(final String[] argNames, final String name) {
+		for (int ix = 0; ix < argNames.length; ix++)
+			if (argNames[ix].equalsIgnoreCase(name))
+				return ix;
+		return -1;
+	}
+
+	/**
+	 * Replace a _JSB instruction with the subroutine it calls, if the
+	 * subroutine is eligible.
+	 *
+	 * @return true if the GOSUB was inlined.
+	 */
+	private static boolean inlineSubroutine(final Program pgm, final ByteCode bc,
+			final int site, final int sizeLimit, final int[] budget) {
+
+		final Instruction call = bc.getInstruction(site);
+		if (!call.integerValid || call.stringValid)
+			return false;
+		final int target = call.integerOperand;
+		if (target < 0 || target >= bc.size())
+			return false;
+
+		int limit = sizeLimit;
+		if (bc.labelMap != null) {
+			final Iterator<Linkage> labels = bc.labelMap.values().iterator();
+			while (labels.hasNext()) {
+				final Linkage l = labels.next();
+				if (l.byteAddress == target)
+					limit = Math.max(limit, limit(pgm, l.label, sizeLimit));
+			}
+		}
+
+		/*
+		 * Scan the subroutine up to its RETURN, making sure it only contains
+		 * instructions that can be copied.
+		 */
+		int end = target;
+		int size = 0;
+		for (;; end++) {
+			if (end >= bc.size())
+				return false;
+			final Instruction i = bc.getInstruction(end);
+			if (i.opCode == ByteCode._RET) {
+				if (i.integerOperand != 0)
+					return false;
+				break;
+			}
+			switch (i.opCode) {
+			case ByteCode._END:
+			case ByteCode._JSB:
+			case ByteCode._JSBIND:
+			case ByteCode._JMPIND:
+			case ByteCode._GOTO:
+			case ByteCode._GOSUB:
+			case ByteCode._ENTRY:
+			case ByteCode._DEFFN:
+			case ByteCode._DATA:
+			case ByteCode._FOR:
+			case ByteCode._FORX:
+			case ByteCode._FOREACH:
+			case ByteCode._NEXT:
+			case ByteCode._DO:
+			case ByteCode._LOOP:
+			case ByteCode._BRLOOP:
+				return false;
+			}
+			if (i.opCode != ByteCode._STMT && ++size > limit)
+				return false;
+		}
+
+		/*
+		 * Branches must stay within the subroutine.  The RETURN at the end
+		 * counts as part of the subroutine, since branching to it means
+		 * continuing after the GOSUB.
+		 */
+		final int length = end - target;
+		for (int ix = target; ix < end; ix++) {
+			final Instruction i = bc.getInstruction(ix);
+			if (i.opCode > ByteCode._BRANCH_FLAG && i.integerValid
+					&& (i.integerOperand < target || i.integerOperand > end))
+				return false;
+		}
+		if (length > budget[0])
+			return false;
+
+		final ArrayList<Instruction> code = new ArrayList<Instruction>();
+		for (int ix = target; ix < end; ix++) {
+			final Instruction i = new Instruction(bc.getInstruction(ix));
+			if (i.opCode > ByteCode._BRANCH_FLAG && i.integerValid)
+				i.integerOperand = i.integerOperand - target + site;
+			code.add(i);
+		}
+
+		replace(bc, site, code);
+		budget[0] -= length - 1;
+		return true;
+	}
+
+	/**
+	 * Replace a single instruction with a sequence of instructions.  Any
+	 * branch to the instruction goes to the start of the sequence, and any
+	 * branch operands in the new instructions must already be correct for
+	 * their final location.
+	 *
+	 * @param bc the bytecode stream
+	 * @param site the address of the instruction to replace
+	 * @param code the instructions to put in its place
+	 */
+	private static void replace(final ByteCode bc, final int site,
+			final ArrayList<Instruction> code) {
+
+		if (code.size() == 0) {
+			bc.remove(site);
+			return;
+		}
+
+		/*
+		 * Inserting before the site moves everything after it, including
+		 * branch targets, but also moves any label that points to the site;
+		 * those are put back afterwards since the label should now mark the
+		 * start of the inlined code.
+		 */
+		final ArrayList<Linkage> siteLabels = new ArrayList<Linkage>();
+		if (bc.labelMap != null) {
+			final Iterator<Linkage> labels = bc.labelMap.values().iterator();
+			while (labels.hasNext()) {
+				final Linkage l = labels.next();
+				if (l.byteAddress == site)
+					siteLabels.add(l);
+			}
+		}
+
+		for (int ix = 1; ix < code.size(); ix++)
+			bc.insert(site, new Instruction(ByteCode._NOOP));
+		for (int ix = 0; ix < code.size(); ix++)
+			bc.setInstruction(code.get(ix), site + ix);
+
+		for (int ix = 0; ix < siteLabels.size(); ix++)
+			siteLabels.get(ix).byteAddress = site;
+	}
+}
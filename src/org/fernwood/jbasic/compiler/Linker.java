@@ -15,6 +15,7 @@
  */
 package org.fernwood.jbasic.compiler;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.TreeMap;
 
@@ -23,8 +24,10 @@ import org.fernwood.jbasic.Program;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.ByteCode;
 import org.fernwood.jbasic.runtime.DataByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
 import org.fernwood.jbasic.runtime.Instruction;
 import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.runtime.SlotLayout;
 import org.fernwood.jbasic.runtime.SymbolTable;
 import org.fernwood.jbasic.statements.Statement;
 import org.fernwood.jbasic.value.Value;
@@ -749,8 +752,9 @@ public class Linker {
 			 * know about this value.
 			 */
 						
-			constantBlock.run(constantPool, 0);
-			Value result = constantBlock.getResult();
+			final ExecutionFrame frame = new ExecutionFrame(null);
+			constantBlock.run(frame, constantPool, 0);
+			Value result = frame.getResult();
 			Iterator i = constantPool.table.keySet().iterator();
 			boolean found = false;
 			
@@ -913,6 +917,16 @@ public class Linker {
 			optFlag = pgm.session().getBoolean("SYS$OPTIMIZE");
 		
 		if( optFlag ) {
+			
+			/*
+			 * Copy small subroutines and local functions into the places
+			 * they are called from, before the other optimizations so they
+			 * can work on the inlined code as well.
+			 */
+			if( pgm.session().getBoolean("SYS$OPT_INLINE"))
+				Inliner.inline(pgm, linkedStream, 
+						pgm.session().getInteger("SYS$OPT_INLINE_SIZE"));
+			
 			while( count > lastCount ) {
 				lastCount = count;
 				count = opt.optBranches(linkedStream, count );
@@ -924,6 +938,13 @@ public class Linker {
 			Status status = pgm.session().pmOptimizer.optimize(linkedStream);
 			if( status.failed())
 				return status;
+
+			/*
+			 * Give each simple local variable a frame slot so loads and
+			 * stores don't have to look the name up each time.
+			 */
+			if( pgm.session().getBoolean("SYS$OPT_SLOTS"))
+				assignSlots(linkedStream);
 		}
 		
 		/*
@@ -937,6 +958,52 @@ public class Linker {
 
 
 
+	/**
+	 * Scan a linked bytecode stream for loads and stores of simple variables
+	 * in the local symbol table, and convert them to slot-indexed _LOADS and
+	 * _STORS instructions.  Each distinct variable name is given a slot number,
+	 * and the resulting name-to-slot map is stored in the bytecode so the
+	 * symbol table running the program can cache the variable in an array.
+	 * <p>
+	 * Global (SYS$) variables and stores to explicit scopes are left alone,
+	 * since they are not found in the local table.
+	 * @param bc the linked ByteCode stream to rewrite.
+	 */
+	private static void assignSlots(final ByteCode bc) {
+
+		final TreeMap<String, Integer> slotMap = new TreeMap<String, Integer>();
+		final ArrayList<String> names = new ArrayList<String>();
+
+		for (int ix = 0; ix < bc.size(); ix++) {
+			final Instruction i = bc.getInstruction(ix);
+			int newOp;
+			if (i.opCode == ByteCode._LOADREF || i.opCode == ByteCode._LOADS)
+				newOp = ByteCode._LOADS;
+			else if (i.opCode == ByteCode._STOR || i.opCode == ByteCode._STORS)
+				newOp = ByteCode._STORS;
+			else
+				continue;
+
+			if (!i.stringValid || i.stringOperand == null)
+				continue;
+			if (i.opCode != newOp && i.integerValid && i.integerOperand != 0)
+				continue;
+			final String name = i.stringOperand.toUpperCase();
+			if (name.startsWith("SYS$"))
+				continue;
+
+			Integer slot = slotMap.get(name);
+			if (slot == null) {
+				slot = Integer.valueOf(names.size());
+				slotMap.put(name, slot);
+				names.add(name);
+			}
+			bc.setInstruction(new Instruction(newOp, slot.intValue(), name), ix);
+		}
+
+		bc.slotLayout = names.isEmpty() ? null : new SlotLayout(names);
+	}
+
 	/**
 	 * Given a bytecode stream, resolve any pending IF-THEN-ELSE branches nested in
 	 * the stream.  This is done for both full programs that are being linked, and 
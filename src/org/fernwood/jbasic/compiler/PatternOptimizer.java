@@ -526,7 +526,14 @@ public class PatternOptimizer {
 					pc = 0;
 			}
 		}
-		
+
+		/*
+		 * If the stream ended inside a block (a _JOIN is often the last
+		 * thing in a SELECT) then its size still needs to be updated.
+		 */
+		if( blockBase >= 0 )
+			bc.getInstruction(blockBase).integerOperand = blockSize;
+
 		/*
 		 * After all that, if we have dead code we can clean it up.
 		 */
@@ -35,7 +35,7 @@ public class ReservedWords {
 		/* VERBS */
 		"ASM", "BREAK", "CALL", "CHAIN", "CLASS", "CLEAR", "CLOSE", "COMMON",
 		"COMPILE", "DATA", "DEBUG", "DELETE", "DEFFN", "DIM", "DO", "ELSE", 
-		"END", "EXECUTE", "FOR", "FUNCTION", "GET", "GOSUB", "GOTO", "IF", 
+		"END", "EXECUTE", "FLUSH", "FOR", "FUNCTION", "GET", "GOSUB", "GOTO", "IF", 
 		"INPUT", "KILL", "LET", "LINE", "LINK", "LIST", "LOAD", "LOCK", 
 		"MESSAGE", "MID$", "NEW", "NEXT", "OLD", "ON", "OPEN", "PRINT", 
 		"PROGRAM", "PROTECT", "PUT", "QUIT", "RANDOMIZE", "READ", "RECORD", 
@@ -118,4 +118,12 @@ public class StringPool {
 		pool.set(stringID - 1, stringToAdd);
 	}
 
+	/**
+	 * Remove all strings from the pool, so it can be used again without
+	 * creating a new one.
+	 */
+	public void clear() {
+		pool.clear();
+	}
+
 }
@@ -18,7 +18,10 @@ package org.fernwood.jbasic.funcs;
 import org.fernwood.jbasic.compiler.Expression;
 import org.fernwood.jbasic.compiler.Tokenizer;
 import org.fernwood.jbasic.runtime.ArgumentList;
+import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
 import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.runtime.StatementCache;
 import org.fernwood.jbasic.runtime.SymbolTable;
 import org.fernwood.jbasic.value.Value;
 
@@ -62,18 +65,33 @@ public class ExpressionFunction extends JBasicFunction {
 		arglist.validate(1, 1, new int [] { Value.STRING });
 
 		/*
-		 * Convert the argument into a token stream, which is required to
-		 * be able to evaluate the expression.
+		 * If this expression has been evaluated before, the compiled code
+		 * is in the session's statement cache.  Otherwise, convert the
+		 * argument into a token stream and compile it, saving the result
+		 * for the next time.
 		 */
-		
-		Tokenizer tokens = new Tokenizer(arglist.stringElement(0));
+		final String text = arglist.stringElement(0);
+		final StatementCache cache = arglist.session.statementCache;
+		ByteCode bc = cache.findExpression(text);
+		if (bc == null) {
+			bc = new ByteCode(arglist.session, null);
+			final Expression exp = new Expression(arglist.session);
+			exp.compile(bc, new Tokenizer(text));
+			if (exp.status.failed())
+				return null;
+			bc.add(ByteCode._END, 0);
+			cache.putExpression(text, bc);
+		}
 		
 		/*
-		 * Evaluate the resulting token stream immediately, and return the resulting
+		 * Evaluate the expression immediately, and return the resulting
 		 * value as the function's result.
 		 */
-		final Expression exp = new Expression(arglist.session);
-		return exp.evaluate(tokens, symbols);
+		final ExecutionFrame frame = new ExecutionFrame(arglist.session);
+		bc.run(frame, symbols, 0);
+		final Value result = frame.getResult();
+		frame.release();
+		return result;
 
 	}
 
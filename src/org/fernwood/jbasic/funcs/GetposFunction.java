@@ -18,6 +18,7 @@ package org.fernwood.jbasic.funcs;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.ArgumentList;
 import org.fernwood.jbasic.runtime.JBFBinary;
+import org.fernwood.jbasic.runtime.JBFInput;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.JBasicFile;
 import org.fernwood.jbasic.runtime.SymbolTable;
@@ -27,15 +28,17 @@ import org.fernwood.jbasic.value.Value;
  * <b>GETPOS()</b> JBasic Function
  * <p>
  * <table>
- * <tr><td><b>Description:</b></td><td>Return current position of a BINARY file.</td></tr>
+ * <tr><td><b>Description:</b></td><td>Return current position of a BINARY or INPUT file.</td></tr>
  * <tr><td><b>Invocation:</b></td><td><code>i = GETPOS( <em>file-identifier</em> )</code></td></tr>
  * <tr><td><b>Returns:</b></td><td>Integer</td></tr>
  * </table>
  * <p>
  * Return an integer indicating the current file position of the given
- * file. The file must be opened in BINARY mode or an error is signaled.
- * The result is a zero-based integer value indicating where the next
- * byte will be read from the file.
+ * file. The file must be opened in BINARY or INPUT mode or an error is
+ * signaled. The result is a zero-based integer value indicating where the
+ * next byte will be read from the file. For an INPUT file, this is the
+ * start of the next line to be read, and can be used in a SEEK statement
+ * to read that line again.
  * <p>
  * The file identifier can be an identifier or an integer; if it is an
  * integer then it references a file by number, as used in the <em>#n</em>
@@ -76,6 +79,9 @@ public class GetposFunction extends JBasicFunction {
 			return new Value(false);
 		}
 		
+		if( fx instanceof JBFInput && ((JBFInput) fx).getPos() >= 0 )
+			return new Value(((JBFInput) fx).getPos());
+
 		if( fx.getMode() != JBasicFile.MODE_BINARY) {
 			if( fSignal)
 				throw new JBasicException(Status.NOTBINARY, fx.getName());
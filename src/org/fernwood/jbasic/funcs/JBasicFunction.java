@@ -19,6 +19,7 @@ import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.compiler.CompileContext;
 import org.fernwood.jbasic.runtime.ArgumentList;
 import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.SymbolTable;
 import org.fernwood.jbasic.statements.SortStatement;
@@ -254,14 +255,16 @@ public class JBasicFunction {
 		 * Run the summation operation code now.  If it failed, then error
 		 * out.  Otherwise, get the resulting constant summation value.
 		 */
-		Status s = temp.run(work.byteCode.getSession().globals(), 0);
+		final ExecutionFrame frame = new ExecutionFrame(work.byteCode.getSession());
+		Status s = temp.run(frame, work.byteCode.getSession().globals(), 0);
 		if( s.failed())
 			throw new JBasicException(s);
 		
 		Value result[] = new Value[work.argumentCount];
 		
 		for( int idx = 0; idx < work.argumentCount;idx ++ ) 
-			result[(work.argumentCount - idx) - 1] = temp.getResult();
+			result[(work.argumentCount - idx) - 1] = frame.getResult();
+		frame.release();
 		
 		return result;
 
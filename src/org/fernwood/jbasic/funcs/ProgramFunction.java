@@ -100,10 +100,7 @@ public class ProgramFunction extends JBasicFunction {
 		result.setElement(new Value(!p.isSystemObject()), "USER");
 		result.setElement(new Value(p.getRunCount()), "COUNT");
 		result.setElement(new Value(p.isActive()), "ACTIVE");
-		if( p.hasLoops())
-			result.setElement(new Value(p.loopManager.loopStackSize()), "LOOPS");
-		else
-			result.setElement(new Value(0), "LOOPS");
+		result.setElement(new Value(p.loopCount()), "LOOPS");
 		
 		result.setElement(new Value(p.executableSize()), "BYTECODES");
 		result.setElement(new Value(p.fStaticTyping), "STATICTYPES");
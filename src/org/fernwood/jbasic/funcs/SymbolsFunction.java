@@ -93,6 +93,7 @@ public class SymbolsFunction extends JBasicFunction {
 		 */
 
 
+		start.defineCallVariables();
 		for (final Iterator i = start.table.keySet().iterator(); i.hasNext();) {
 			String name = (String) i.next();
 			result.addElement(new Value(name));
@@ -19,6 +19,7 @@ import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.ArgumentList;
 import org.fernwood.jbasic.runtime.ByteCode;
 import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.value.Value;
 
 /**
  * Abstract definition of an OpCode object. Each actual subclass defines a
@@ -116,6 +117,12 @@ public abstract class AbstractOpcode {
 	}
 
 	static final OpCodeDef[] nameMap = {
+		new OpCodeDef(ByteCode._FLUSH, "_FLUSH"),
+		new OpCodeDef(ByteCode._GROUP, "_GROUP"),
+		new OpCodeDef(ByteCode._TBLINDEX, "_TBLINDEX"),
+		new OpCodeDef(ByteCode._LOADC, "_LOADC"),
+		new OpCodeDef(ByteCode._STORS, "_STORS"),
+		new OpCodeDef(ByteCode._LOADS, "_LOADS"),
 		new OpCodeDef(ByteCode._DECOMP, "_DECOMP"),
 		new OpCodeDef(ByteCode._SCALE, "_SCALE"),
 		new OpCodeDef(ByteCode._CATALOG, "_CATALOG"),
@@ -360,17 +367,166 @@ public abstract class AbstractOpcode {
 
 		int stackSize;
 		int ix;
-		stackSize = env.codeStream.stackSize();
+		stackSize = env.stackSize();
 		if (stackSize < argc)
 			throw new JBasicException(Status.UNDERFLOW);
 
 		for (ix = stackSize - argc; ix < stackSize; ix++) {
-			funcArgs.insert(env.codeStream.getStackElement(ix));
+			funcArgs.insert(env.get(ix));
 		}
-		env.codeStream.discard(argc);
+		env.discard(argc);
 		return funcArgs;
 	}
 
+	/**
+	 * Value returned by compareNumbers() when the operands are not both
+	 * INTEGER or DOUBLE values.
+	 */
+	static final int NOT_NUMERIC = Integer.MIN_VALUE;
+
+	/**
+	 * Perform an arithmetic operation on two scalar numbers without the
+	 * general type negotiation done by the opcodes.  This is used as a fast
+	 * path by _ADD, _SUB, _MULT and _DIV when both operands are INTEGER or
+	 * DOUBLE values, which is the overwhelmingly common case in numeric
+	 * loops.  The result type is the same as Expression.bestType() would
+	 * have chosen.
+	 * <p>
+	 * If the target is a temporary value (not a symbol) of the result type,
+	 * it is updated in place and returned; otherwise a new Value is created.
+	 * 
+	 * @param opCode the opcode (_ADD, _SUB, _MULT or _DIV) to perform
+	 * @param target the left-hand operand
+	 * @param source the right-hand operand
+	 * @return the result, or null if the operands are not both INTEGER or
+	 * DOUBLE values and the general case must be used.
+	 */
+	static Value numericResult(final int opCode, final Value target,
+			final Value source) {
+
+		final int targetType = target.getType();
+		final int sourceType = source.getType();
+
+		if (targetType == Value.INTEGER && sourceType == Value.INTEGER) {
+			final int i1 = target.getInteger();
+			final int i2 = source.getInteger();
+			int result;
+			switch (opCode) {
+			case ByteCode._ADD:
+				result = i1 + i2;
+				break;
+			case ByteCode._SUB:
+				result = i1 - i2;
+				break;
+			case ByteCode._MULT:
+				result = i1 * i2;
+				break;
+			case ByteCode._DIV:
+				result = i1 / i2;
+				break;
+			default:
+				return null;
+			}
+			if (target.fSymbol)
+				return new Value(result);
+			target.setInteger(result);
+			return target;
+		}
+
+		if ((targetType != Value.DOUBLE && targetType != Value.INTEGER)
+				|| (sourceType != Value.DOUBLE && sourceType != Value.INTEGER))
+			return null;
+
+		final double d1 = target.getDouble();
+		final double d2 = source.getDouble();
+		double result;
+		switch (opCode) {
+		case ByteCode._ADD:
+			result = d1 + d2;
+			break;
+		case ByteCode._SUB:
+			result = d1 - d2;
+			break;
+		case ByteCode._MULT:
+			result = d1 * d2;
+			break;
+		case ByteCode._DIV:
+			result = d1 / d2;
+			break;
+		default:
+			return null;
+		}
+		if (target.fSymbol || targetType != Value.DOUBLE)
+			return new Value(result);
+		target.setDouble(result);
+		return target;
+	}
+
+	/**
+	 * Compare two scalar numbers without the general type negotiation done
+	 * by Value.compare().  The ordering is the same as Value.compare() for
+	 * INTEGER and DOUBLE values, including treating two NaN values as equal.
+	 * 
+	 * @param value1 the left-hand value
+	 * @param value2 the right-hand value
+	 * @return a negative number, zero, or a positive number if value1 is
+	 * less than, equal to, or greater than value2; or NOT_NUMERIC if the 
+	 * values are not both INTEGER or DOUBLE and Value.compare() must be used.
+	 */
+	static int compareNumbers(final Value value1, final Value value2) {
+
+		final int type1 = value1.getType();
+		final int type2 = value2.getType();
+
+		if (type1 == Value.INTEGER && type2 == Value.INTEGER) {
+			final int i1 = value1.getInteger();
+			final int i2 = value2.getInteger();
+			return (i1 < i2) ? -1 : ((i1 == i2) ? 0 : 1);
+		}
+		if ((type1 != Value.DOUBLE && type1 != Value.INTEGER)
+				|| (type2 != Value.DOUBLE && type2 != Value.INTEGER))
+			return NOT_NUMERIC;
+
+		return compareDoubles(value1.getDouble(), value2.getDouble());
+	}
+
+	/**
+	 * Compare a scalar number with an integer constant from an instruction,
+	 * as used by the comparison opcodes that carry an immediate operand.
+	 * 
+	 * @param value1 the value popped from the stack
+	 * @param constant the integer operand of the instruction
+	 * @return the comparison result, or NOT_NUMERIC if value1 is not an
+	 * INTEGER or DOUBLE.
+	 */
+	static int compareNumbers(final Value value1, final int constant) {
+
+		final int type1 = value1.getType();
+		if (type1 == Value.INTEGER) {
+			final int i1 = value1.getInteger();
+			return (i1 < constant) ? -1 : ((i1 == constant) ? 0 : 1);
+		}
+		if (type1 == Value.DOUBLE)
+			return compareDoubles(value1.getDouble(), constant);
+		return NOT_NUMERIC;
+	}
+
+	/**
+	 * Compare two doubles the way Value.compare() does.
+	 * @param d1 the left-hand value
+	 * @param d2 the right-hand value
+	 * @return -1, 0, or 1
+	 */
+	private static int compareDoubles(final double d1, final double d2) {
+		if (Double.isNaN(d1) && Double.isNaN(d2))
+			return 0;
+		if (d1 == d2)
+			return 0;
+		if (d1 > d2)
+			return 1;
+		return -1;
+	}
+
 	/**
 	 * Execute an instruction opcode. This executes a single ByteCode.
 	 * 
@@ -18,6 +18,7 @@ package org.fernwood.jbasic.opcodes;
 import org.fernwood.jbasic.JBasic;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
 import org.fernwood.jbasic.runtime.Instruction;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.SymbolTable;
@@ -40,6 +41,12 @@ public class InstructionContext {
 	 */
 	ByteCode codeStream;
 
+	/**
+	 * The frame holding the program counter, data stack, and other state
+	 * of this run of the code stream.
+	 */
+	ExecutionFrame frame;
+
 	/**
 	 * The JBasic session containing the executing code stream.
 	 */
@@ -70,10 +77,14 @@ public class InstructionContext {
 
 	/**
 	 * Return the active argument list array value for this exectuion block.
+	 * If the block was called and hasn't referenced $ARGS yet, this is the
+	 * argument array from the call, which is used without creating $ARGS.
 	 * @return a Value that is the argument array, or null if there is no
 	 * argument array.
 	 */
 	public Value getArgList() {
+		if( argList == null )
+			argList = this.localSymbols.getCallArguments();
 		if( argList == null ) {
 			argList = this.localSymbols.localReference("$ARGS");
 			if( argList == null ) {
@@ -96,6 +107,8 @@ public class InstructionContext {
 	 *            The JBasic environment that contains the current session.
 	 * @param b
 	 *            The ByteCode stream which is used for branch handling, etc.
+	 * @param f
+	 *            The frame holding the state of this run of the stream
 	 * @param x
 	 *            The Instruction sequence object being executed, which contains
 	 *            parameters, etc.
@@ -104,9 +117,10 @@ public class InstructionContext {
 	 * @param trace
 	 *            A flag indicating if tracing of this execution is required.
 	 */
-	public InstructionContext(final JBasic e, final ByteCode b, final Instruction x,
-			final SymbolTable t, final boolean trace) {
+	public InstructionContext(final JBasic e, final ByteCode b, final ExecutionFrame f,
+			final Instruction x, final SymbolTable t, final boolean trace) {
 		codeStream = b;
+		frame = f;
 		session = e;
 		localSymbols = t;
 		instruction = x;
@@ -122,7 +136,9 @@ public class InstructionContext {
 	 * @throws JBasicException if a stack undeflow occurs
 	 */
 	Value pop() throws JBasicException {
-		return codeStream.pop();
+		if (frame.dataStack.size() < 1)
+			throw new JBasicException(Status.UNDERFLOW);
+		return frame.dataStack.pop();
 	}
 
 	/**
@@ -136,7 +152,7 @@ public class InstructionContext {
 	 * @throws JBasicException
 	 */
 	Value popForUpdate() throws JBasicException {
-		Value v = codeStream.pop();
+		Value v = pop();
 				
 		if( v.fSymbol )
 			return v.copy();
@@ -150,7 +166,7 @@ public class InstructionContext {
 	 * current runtime stack.
 	 */
 	int stackSize() {
-		return codeStream.stackSize();
+		return frame.dataStack.size();
 	}
 
 	/**
@@ -160,7 +176,16 @@ public class InstructionContext {
 	 * @return
 	 */
 	Value get(final int ix) {
-		return codeStream.getStackElement(ix);
+		return frame.dataStack.get(ix);
+	}
+
+	/**
+	 * Discard a given number of elements from the top of the stack.
+	 * @param count the number of elements to discard
+	 */
+	void discard(final int count) {
+		if (count > 0)
+			frame.dataStack.discard(count);
 	}
 
 	/**
@@ -168,7 +193,7 @@ public class InstructionContext {
 	 * @param v the value to push.
 	 */
 	void push(final Value v) {
-		codeStream.push(v);
+		frame.dataStack.push(v);
 	}
 
 	/**
@@ -176,7 +201,7 @@ public class InstructionContext {
 	 * @param i the integer value to push.
 	 */
 	void push(final int i) {
-		codeStream.push(i);
+		frame.dataStack.push(new Value(i));
 	}
 
 	/**
@@ -184,7 +209,7 @@ public class InstructionContext {
 	 * @param i the string value to push.
 	 */	
 	void push(final String s) {
-		 codeStream.push(s);
+		 frame.dataStack.push(new Value(s));
 	 }
 
 	 /**
@@ -192,7 +217,7 @@ public class InstructionContext {
 	  * @param i the double value to push.
 	  */
 	 void push(final double d) {
-		  codeStream.push(d);
+		  frame.dataStack.push(new Value(d));
 	 }
 
 	  /**
@@ -200,7 +225,7 @@ public class InstructionContext {
 	   * @param i the boolean value to push.
 	   */
 	 void push(final boolean b) {
-		   codeStream.push(b);
+		   frame.dataStack.push(new Value(b));
 	 }
 
 	/**
@@ -17,6 +17,7 @@ package org.fernwood.jbasic.opcodes;
 
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.compiler.Expression;
+import org.fernwood.jbasic.runtime.ByteCode;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.value.RecordStreamValue;
 import org.fernwood.jbasic.value.Value;
@@ -46,8 +47,19 @@ public class OpADD extends AbstractOpcode {
 	public void execute(final InstructionContext env) throws JBasicException {
 
 		final Value sourceValue = env.pop();
-		final Value targetValue = env.popForUpdate();
+		Value targetValue = env.pop();
 
+		/*
+		 * Two scalar numbers can be added without any type negotiation.
+		 */
+		final Value sum = numericResult(ByteCode._ADD, targetValue, sourceValue);
+		if( sum != null ) {
+			env.push(sum);
+			return;
+		}
+		
+		if( targetValue.fSymbol )
+			targetValue = targetValue.copy();
 		env.push(addValue(sourceValue, targetValue));
 
 		return;
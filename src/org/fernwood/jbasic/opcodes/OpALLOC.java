@@ -35,7 +35,7 @@ public class OpALLOC extends AbstractOpcode {
 		int size = env.instruction.integerOperand;
 		if( size < 1 | size > 1000 )
 			throw new JBasicException(Status.FAULT, new Status(Status.REGARRSIZ, size));
-		env.codeStream.registers = new RegisterArray(size);
+		env.frame.registers = new RegisterArray(size);
 
 	}
 
@@ -42,9 +42,9 @@ public class OpAND extends AbstractOpcode {
 
 	public void execute(final InstructionContext env) throws JBasicException {
 
-		final boolean left = env.codeStream.pop().getBoolean();
-		final boolean right = env.codeStream.pop().getBoolean();
+		final boolean left = env.pop().getBoolean();
+		final boolean right = env.pop().getBoolean();
 
-		env.codeStream.push(left && right);
+		env.push(left && right);
 	}
 }
@@ -66,7 +66,7 @@ public class OpARGDEF extends AbstractOpcode {
 
 		final SymbolTable s = env.localSymbols;
 		final Instruction i = env.instruction;
-		final Value defaultValue = env.codeStream.pop();
+		final Value defaultValue = env.pop();
 		final Value argList = env.getArgList();
 		final int argNum = i.integerOperand;
 		
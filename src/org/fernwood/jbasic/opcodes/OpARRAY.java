@@ -71,10 +71,10 @@ public class OpARRAY extends AbstractOpcode {
 		 */
 
 		for (int ix = 0; ix < arraySize; ix++) {
-			newArray.setElement(env.codeStream.pop().copy(), arraySize - ix);
+			newArray.setElement(env.pop().copy(), arraySize - ix);
 		}
 		
-		env.codeStream.push(newArray);
+		env.push(newArray);
 
 	}
 
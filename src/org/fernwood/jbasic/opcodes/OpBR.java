@@ -42,9 +42,9 @@ public class OpBR extends AbstractOpcode {
 	public void execute(final InstructionContext env) throws JBasicException {
 		
 		if (env.instruction.integerValid)
-			env.codeStream.programCounter = env.instruction.integerOperand;
+			env.frame.programCounter = env.instruction.integerOperand;
 		else
-			env.codeStream.fRunning = false;
+			env.frame.fRunning = false;
 
 	}
 
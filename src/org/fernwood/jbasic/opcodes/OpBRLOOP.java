@@ -48,13 +48,13 @@ public class OpBRLOOP extends AbstractOpcode {
 		
 		int dest = env.instruction.integerOperand;
 		
-		LoopManager lm = env.codeStream.statement.program.loopManager;
+		LoopManager lm = env.frame.loopManager;
 		
 		if( lm == null || lm.loopStackSize() == 0 )
 			throw new JBasicException(Status.NOLOOP);
 		lm.removeTopLoop();
 		
-		env.codeStream.programCounter = dest;
+		env.frame.programCounter = dest;
 		
 	}
 
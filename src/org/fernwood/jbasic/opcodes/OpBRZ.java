@@ -31,7 +31,7 @@ public class OpBRZ extends AbstractOpcode {
 	public void execute(final InstructionContext env) throws JBasicException {
 
 		if (!env.pop().getBoolean()) {
-			env.codeStream.programCounter = env.instruction.integerOperand;
+			env.frame.programCounter = env.instruction.integerOperand;
 		}
 	}
 
@@ -81,7 +81,7 @@ public class OpCALLF extends AbstractOpcode {
 		 * active? If not then the next scope we call doesn't inherit the
 		 * debugger.
 		 */
-		JBasicDebugger dbg = env.codeStream.debugger;
+		JBasicDebugger dbg = env.frame.debugger;
 		if (dbg != null && (!dbg.stepInto()))
 				dbg = null;
 
@@ -111,10 +111,10 @@ public class OpCALLF extends AbstractOpcode {
 			
 			SymbolTable parent = env.localSymbols;
 			if( env.codeStream.fLocallyScoped)
-				parent = new SymbolTable(session, "Temp Table " + JBasic.getUniqueID(), env.localSymbols.findGlobalTable());
+				parent = new SymbolTable(session, "Temp Table", env.localSymbols.findGlobalTable());
 			
 			SymbolTable symbols = new SymbolTable(session, "Local to " + funcName,
-					parent);
+					parent, env.codeStream.localVariableCount());
 			symbols.insert(Linkage.ENTRY_PREFIX, funcName);
 			Value v = Functions.callUserFunction(funcArgs, symbols, dbg, newPgm, -entryAddress);
 			env.push(v);
@@ -129,8 +129,9 @@ public class OpCALLF extends AbstractOpcode {
 		
 		Value value1 = null;
 		try {
-			value1 = Functions.invokeFunction(session, funcName, funcArgs, localSymbols,
-					dbg);
+			value1 = Functions.invokeFunction(session, 
+					instruction.stringValid ? instruction : null, 
+					funcName, funcArgs, localSymbols, dbg);
 		} catch (IllegalArgumentException e) {
 			throw new JBasicException(Status.FAULT, "illegal argument exception");
 		} catch (IllegalAccessException e) {
@@ -142,7 +143,7 @@ public class OpCALLF extends AbstractOpcode {
 		if (value1 == null)
 			throw new JBasicException(Status.EXPRESSION, new Status(Status.EXPRETVAL));
 		
-		env.codeStream.push(value1);
+		env.push(value1);
 
 	}
 
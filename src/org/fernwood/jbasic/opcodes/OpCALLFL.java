@@ -81,7 +81,7 @@ public class OpCALLFL extends AbstractOpcode {
 		if (result == null)
 			throw new JBasicException(Status.EXPRESSION, new Status(Status.EXPRETVAL));
 		
-		env.codeStream.push(result);
+		env.push(result);
 
 	}
 
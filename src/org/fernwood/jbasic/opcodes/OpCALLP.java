@@ -15,12 +15,12 @@
  */
 package org.fernwood.jbasic.opcodes;
 
-import org.fernwood.jbasic.JBasic;
 import org.fernwood.jbasic.Program;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.compiler.Linkage;
 import org.fernwood.jbasic.runtime.ArgumentList;
 import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.CallInfo;
 import org.fernwood.jbasic.runtime.Instruction;
 import org.fernwood.jbasic.runtime.JBasicDebugger;
 import org.fernwood.jbasic.runtime.JBasicException;
@@ -58,20 +58,14 @@ public class OpCALLP extends AbstractOpcode {
 	public void execute(final InstructionContext env) throws JBasicException {
 
 		final Instruction i = env.instruction;
-		int argc = i.integerOperand;
-		int ix;
 
 		/*
 		 * If we are here because of a RUN command, then the argument list will
-		 * be negative. If so, remember it was a RUN and then zero out the
-		 * argument list (RUN cannot pass arguments).
+		 * be negative. If so, remember it was a RUN; fetchArgs() returns an
+		 * empty argument list in this case (RUN cannot pass arguments).
 		 */
 
-		boolean isRun = false;
-		if (argc < 0) {
-			isRun = true;
-			argc = 0;
-		}
+		final boolean isRun = i.integerOperand < 0;
 		
 		/*
 		 * The argument list was pushed on the stack.
@@ -91,7 +85,7 @@ public class OpCALLP extends AbstractOpcode {
 		if (i.stringValid)
 			targetProgramName = i.stringOperand;
 		else {
-			final Value pNameItem = env.codeStream.pop();
+			final Value pNameItem = env.pop();
 			
 			/*
 			 * It is *possible* that this is a Java object wrapper and
@@ -140,26 +134,19 @@ public class OpCALLP extends AbstractOpcode {
 		}
 		
 		/*
-		 * Create a new symbol table for this instance of the program.
+		 * Create a new symbol table for this instance of the program, sized
+		 * to hold the program's local variables.
 		 */
 		
 		SymbolTable parentTable = env.localSymbols;
 		if( env.codeStream.fLocallyScoped)
-			parentTable = new SymbolTable(env.session, "Temp Table " + JBasic.getUniqueID(), 
+			parentTable = new SymbolTable(env.session, "Temp Table", 
 					env.localSymbols.findGlobalTable());		
 
+		final ByteCode newPgmExec = newPgm.getExecutable();
 		final SymbolTable newTable = new SymbolTable(env.session, "Local to "
-				+ targetProgramName, parentTable);
-
-		/*
-		 * Copy the argument list to a new ARG$LIST arrayValue
-		 */
-		final Value argArray = new Value(Value.ARRAY, "$ARGS");
-		for (ix = 0; ix < argc; ix++) {
-			final Value item = funcArgs.element(ix);
-			argArray.setElement(item, ix + 1);
-		}
-		newTable.insertLocal("$ARGS", argArray);
+				+ targetProgramName, parentTable, 
+				newPgmExec == null ? 0 : newPgmExec.localVariableCount());
 
 		/*
 		 * If this is a METHOD call, then we make a reference in the local table
@@ -170,20 +157,19 @@ public class OpCALLP extends AbstractOpcode {
 
 		Value targetObject = null;
 		if (i.opCode == ByteCode._CALLM) {
-			targetObject = env.codeStream.pop();
+			targetObject = env.pop();
 			newTable.insertLocal("THIS", targetObject);
 		}
 		
 		/*
 		 * Set up additional ancestry information the program might want.
 		 * If the current environment doesn't have a $THIS variable, assume
-		 * the Console.
+		 * the Console.  The argument list and these values are attached to
+		 * the new table, which creates the $ variables for them only if the
+		 * program references them.
 		 */
 
 		Value parent = env.localSymbols.findReference("$THIS", false);
-		if( parent == null ) {
-			parent = new Value("Console");
-		}
 		
 		String modeName = null;
 		if( isRun )
@@ -191,18 +177,16 @@ public class OpCALLP extends AbstractOpcode {
 		else
 			modeName = i.opCode == ByteCode._CALLM ? "METHOD" : "CALL";
 			
-		newTable.insertLocal("$PARENT", parent);
-		newTable.insertLocal("$THIS", new Value(newPgm.getName()));
-		newTable.insertLocal("$MODE", new Value(modeName));
-		newTable.insertLocal("$START_TIME", new Value(System
-				.currentTimeMillis()));
+		newTable.setCallInfo(new CallInfo(funcArgs, modeName, newPgm.getName(),
+				parent == null ? "Console" : parent.getString(), 
+				System.currentTimeMillis()));
 
 		/*
 		 * See if we are under control of a debugger. If so, is STEP INTO
 		 * active? If not then the next scope we call doesn't inherit the
 		 * debugger.
 		 */
-		JBasicDebugger dbg = env.codeStream.debugger;
+		JBasicDebugger dbg = env.frame.debugger;
 		if (dbg != null && (!dbg.stepInto()))
 			dbg = null;
 
@@ -218,18 +202,7 @@ public class OpCALLP extends AbstractOpcode {
 
 		if (isRun)
 			env.session.programs.setCurrent(newPgm);
-		JBasic savedSession = newPgm.session();
-		if( savedSession != null && savedSession != env.session ) {
-			//env.session.stdout.println("UNEXPECTED CHANGE OF SESSIONS!");
-			newPgm.setSession(env.session);
-		}
-		
-		ByteCode newPgmExec = newPgm.getExecutable();
-		if( newPgmExec != null )
-			newPgmExec.setSession(env.session);
-		
-		final Status returnStatus = newPgm.run(newTable, -entryAddress, dbg);
-		newPgm.setSession(savedSession);
+		final Status returnStatus = newPgm.run(env.session, newTable, -entryAddress, dbg);
 		
 		/*
 		 * If the run went okay, then there might have been a result value in
@@ -66,7 +66,7 @@ public class OpCALLT extends AbstractOpcode {
 		if (i.stringValid)
 			targetProgramName = i.stringOperand;
 		else {
-			final Value pNameItem = env.codeStream.pop();
+			final Value pNameItem = env.pop();
 			if (pNameItem == null)
 				throw new JBasicException(Status.UNDERFLOW);
 			targetProgramName = pNameItem.getString().toUpperCase();
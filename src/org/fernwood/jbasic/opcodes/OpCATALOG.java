@@ -20,6 +20,7 @@ import java.util.Iterator;
 import org.fernwood.jbasic.JBasic;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.runtime.JBasicFile;
 import org.fernwood.jbasic.runtime.SymbolTable;
 import org.fernwood.jbasic.value.RecordStreamValue;
 import org.fernwood.jbasic.value.Value;
@@ -153,7 +154,7 @@ public class OpCATALOG extends AbstractOpcode {
 		
 		case IS_VALID:
 			
-			if( sourceValue.getElement(CATALOG_FLAG) == null )
+			if( sourceValue.getElement(CATALOG_FLAG) == null && !isDatabase(env, sourceValue))
 				throw new JBasicException(Status.INVCATALOG);
 			return;	
 				
@@ -209,6 +210,22 @@ public class OpCATALOG extends AbstractOpcode {
 		
 	}
 	
+	/**
+	 * Determine if a record is the identifier of an open DATABASE file.  A
+	 * SQL SELECT can read a table from the database as if the file were a
+	 * catalog.
+	 * @param env the instruction context
+	 * @param sourceValue the record to test
+	 * @return true if the record identifies an open DATABASE file
+	 */
+	private static boolean isDatabase( InstructionContext env, Value sourceValue ) {
+		Value seqno = sourceValue.getElement("SEQNO");
+		if( seqno == null || env.session.openUserFiles == null )
+			return false;
+		JBasicFile f = env.session.openUserFiles.get(Integer.valueOf(seqno.getInteger()));
+		return f != null && f.getMode() == JBasicFile.MODE_DATABASE;
+	}
+
 	/**
 	 * Mark the catalog object as dirty; that is, the catalog definition
 	 * or the tables within have been modified since the last LOAD or SAVE
@@ -114,7 +114,7 @@ public class OpCHAIN extends AbstractOpcode {
 		 * active? If not then the next scope we call doesn't inherit the
 		 * debugger.
 		 */
-		JBasicDebugger dbg = env.codeStream.debugger;
+		JBasicDebugger dbg = env.frame.debugger;
 		if (dbg != null && (!dbg.stepInto()))
 				dbg = null;
 
@@ -126,7 +126,7 @@ public class OpCHAIN extends AbstractOpcode {
 		 */
 		
 		env.session.programs.setCurrent(newPgm);
-		Status returnStatus = newPgm.run(newTable, startingLineNumber, dbg);
+		Status returnStatus = newPgm.run(env.session, newTable, startingLineNumber, dbg);
 
 		/*
 		 * If the run went okay, then terminate execution... we don't
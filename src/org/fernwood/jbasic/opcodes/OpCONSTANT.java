@@ -17,6 +17,7 @@ package org.fernwood.jbasic.opcodes;
 
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.SymbolTable;
 
@@ -54,19 +55,21 @@ public class OpCONSTANT extends AbstractOpcode {
 				new Status(Status.INVOPARG, env.instruction.integerOperand));
 
 		for( int ix = 0; ix < count; ix++ ) {
-			code.add(env.codeStream.getInstruction(env.codeStream.programCounter+ix));
+			code.add(env.codeStream.getInstruction(env.frame.programCounter+ix));
 		}
 		
-		code.run(new SymbolTable(env.session, "Local to constant", null), 0);
-		if( code.status.failed())
-			throw new JBasicException(code.status);
+		final ExecutionFrame frame = new ExecutionFrame(env.session);
+		final Status sts = code.run(frame, new SymbolTable(env.session, "Local to constant", null), 0);
+		if( sts.failed())
+			throw new JBasicException(sts);
 		
 		SymbolTable table = env.localSymbols;
 		while( table != null && table.size() == 0 )
 			table = table.parentTable;
 		
-		env.localSymbols.insert(name, code.getResult());
-		env.codeStream.programCounter += count;
+		env.localSymbols.insert(name, frame.getResult());
+		frame.release();
+		env.frame.programCounter += count;
 		
 	}
 
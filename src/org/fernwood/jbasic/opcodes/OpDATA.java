@@ -42,7 +42,7 @@ public class OpDATA extends AbstractOpcode {
 			throw new JBasicException(Status.FAULT, 
 					new Status(Status.INVOPARG, instructionCount));
 
-		env.codeStream.programCounter += instructionCount;
+		env.frame.programCounter += instructionCount;
 
 		return;
 	}
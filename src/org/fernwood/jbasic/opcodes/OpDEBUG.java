@@ -19,7 +19,7 @@ import java.util.Iterator;
 
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.Utility;
-import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
 import org.fernwood.jbasic.runtime.JBasicDebugger;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.JBasicFile;
@@ -125,21 +125,21 @@ public class OpDEBUG extends AbstractOpcode {
 			/* Fall through to STEP now */
 
 		case STEP:
-			if (env.codeStream.debugger == null)
-				env.codeStream.debugger = dbg;
+			if (env.frame.debugger == null)
+				env.frame.debugger = dbg;
 			break;
 
 		case PRINT_STACK:
-			if( env.codeStream.dataStack == null )
+			if( env.frame.dataStack == null )
 				env.session.stdout.println("NO RUNTIME STACK AVAILABLE");
 			else {
-				int count = env.codeStream.dataStack.size();
+				int count = env.frame.dataStack.size();
 				if( count == 0 ) 
 					env.session.stdout.println("RUNTIME STACK IS EMPTY");
 				else {
 					env.session.stdout.println("RUNTIME STACK (SIZE=" + count + "):");
 					for( int i = 0; i < count; i++ ) {
-						Value element = env.codeStream.dataStack.get(i);
+						Value element = env.frame.dataStack.get(i);
 						String idx = null;
 						if( i == 0 )
 							idx = "(TOP)0";
@@ -154,14 +154,14 @@ public class OpDEBUG extends AbstractOpcode {
 			break;
 
 		case PRINT_OBJECT:
-			printStackObject(env.session.stdout, env.codeStream);
+			printStackObject(env.session.stdout, env.frame);
 			break;
 			
 		case PRINT_DEEP_OBJECT:
-			int stackSize = env.codeStream.stackSize();
+			int stackSize = env.stackSize();
 			if( stackSize < 1 )
 				env.session.stdout.println("No stack object to print");
-			v = env.codeStream.getStackElement(stackSize - 1);
+			v = env.get(stackSize - 1);
 			printDeepObject(env.session.stdout, null, v, 0);
 
 			break;
@@ -192,12 +192,12 @@ public class OpDEBUG extends AbstractOpcode {
 	 * 
 	 * @param basicFile the JBasic output file to direct the output to. Usually the
 	 * session's stdout file.
-	 * @param codeStream  the active bytecode stream being executed, which
+	 * @param frame  the frame of the bytecode stream being executed, which
 	 * gives access to the runtime stack.
 	 * @return the value that was printed. 
 	 */
-	public static Value printStackObject(JBasicFile basicFile, ByteCode codeStream) {
-		int stackSize = codeStream.stackSize();
+	public static Value printStackObject(JBasicFile basicFile, ExecutionFrame frame) {
+		int stackSize = frame.stackSize();
 		StringBuffer message = new StringBuffer("Stack element");
 		message.append('[');
 		message.append(Utility.pad(Integer.toString(stackSize), -3));
@@ -207,7 +207,7 @@ public class OpDEBUG extends AbstractOpcode {
 			message.append(" - no object on stack!");
 		}
 		else {
-			v = codeStream.getStackElement(stackSize - 1);
+			v = frame.dataStack.get(stackSize - 1);
 			
 
 			message.append(objectHashData(null, v, 0));
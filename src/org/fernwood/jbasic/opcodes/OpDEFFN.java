@@ -38,7 +38,7 @@ public class OpDEFFN extends AbstractOpcode {
 			throw new JBasicException(Status.FAULT, 
 				new Status(Status.INVOPARG, count));
 
-		env.codeStream.programCounter += count;
+		env.frame.programCounter += count;
 		
 		return;
 	}
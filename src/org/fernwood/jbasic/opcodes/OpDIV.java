@@ -19,6 +19,7 @@ import java.math.BigDecimal;
 
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.compiler.Expression;
+import org.fernwood.jbasic.runtime.ByteCode;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.value.Value;
 
@@ -36,7 +37,19 @@ public class OpDIV extends AbstractOpcode {
 	public void execute(final InstructionContext env) throws JBasicException {
 
 		final Value sourceValue = env.pop();
-		Value targetValue = env.popForUpdate();
+		Value targetValue = env.pop();
+
+		/*
+		 * Two scalar numbers can be divided without any type negotiation.
+		 */
+		final Value quotient = numericResult(ByteCode._DIV, targetValue, sourceValue);
+		if( quotient != null ) {
+			env.push(quotient);
+			return;
+		}
+		
+		if( targetValue.fSymbol )
+			targetValue = targetValue.copy();
 
 		/*
 		 * Based on a mutually agreed-upon type, do the right kind of math.
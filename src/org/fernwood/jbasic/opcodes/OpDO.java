@@ -45,8 +45,8 @@ public class OpDO extends AbstractOpcode {
 		if (env.codeStream.fLinked) {
 			ByteCode bc = env.codeStream;
 
-			loop.statementID = env.codeStream.programCounter - 1;
-			loop.startAddress = bc.programCounter;
+			loop.statementID = env.frame.programCounter - 1;
+			loop.startAddress = env.frame.programCounter;
 
 			/*
 			 * Search ahead for the matching _LOOP
@@ -54,7 +54,7 @@ public class OpDO extends AbstractOpcode {
 			
 			int nest = 0;
 			
-			for( int idx = bc.programCounter+1; idx < bc.size(); idx++ ) {
+			for( int idx = env.frame.programCounter+1; idx < bc.size(); idx++ ) {
 				final Instruction i = bc.getInstruction(idx);
 				if( i.opCode == ByteCode._DO)
 					nest++;
@@ -72,7 +72,7 @@ public class OpDO extends AbstractOpcode {
 			loop.statementID = env.codeStream.statement.statementID;
 		
 		
-		env.codeStream.statement.program.loopManager.addLoop(loop);
+		env.frame.loops().addLoop(loop);
 
 		/*
 		 * If this is a DO..LOOP where the comparison is done at the
@@ -81,7 +81,7 @@ public class OpDO extends AbstractOpcode {
 		 */
 		
 		if( env.instruction.integerOperand > 0 )
-			env.codeStream.programCounter = env.instruction.integerOperand;
+			env.frame.programCounter = env.instruction.integerOperand;
 		
 		return;
 	}
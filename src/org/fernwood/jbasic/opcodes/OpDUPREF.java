@@ -39,8 +39,8 @@ public class OpDUPREF extends AbstractOpcode {
 		 * it.  So see how big the stack is, and get a reference to the top
 		 * item.
 		 */
-		final int tos = env.codeStream.stackSize();
-		final Value value = env.codeStream.getStackElement(tos-1);
+		final int tos = env.stackSize();
+		final Value value = env.get(tos-1);
 		
 		/* 
 		 * Now add the reference to the same item to the stack again.
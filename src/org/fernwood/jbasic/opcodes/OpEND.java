@@ -48,7 +48,7 @@ public class OpEND extends AbstractOpcode {
 		/*
 		 * This instance of the bytecode is done running. Clear out of Dodge.
 		 */
-		env.codeStream.fRunning = false;
+		env.frame.fRunning = false;
 		return;
 	}
 
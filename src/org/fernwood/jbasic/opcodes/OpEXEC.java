@@ -54,7 +54,7 @@ public class OpEXEC extends AbstractOpcode {
 		 * it to look like a statement owned by the execution context of
 		 * this bytecode.
 		 */
-		final Statement execStmt = new Statement(env.session, env.codeStream.debugger);
+		final Statement execStmt = new Statement(env.session, env.frame.debugger);
 		execStmt.program = null  /* env.session.programs.getCurrent() */ ;
 		execStmt.byteCode = null;
 		execStmt.statementObject = null;
@@ -93,9 +93,10 @@ public class OpEXEC extends AbstractOpcode {
 		
 		/*
 		 * Attempt to store/compile the statement text we've been given
-		 * and/or pieced together from aliases.
+		 * and/or pieced together from aliases.  If the same text has been
+		 * executed before, the compiled code is reused.
 		 */
-		execStmt.store(cmd);
+		env.session.statementCache.store(execStmt, cmd);
 
 		/*
 		 * If it wasn't compilable, zap the byteCode. This prevents recursive
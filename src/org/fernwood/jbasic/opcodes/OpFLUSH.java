@@ -0,0 +1,61 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ * 
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ * 
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ * 
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.opcodes;
+
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.runtime.JBFOutput;
+import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.runtime.JBasicFile;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * FLUSH operator. This pops a fileID and either writes any buffered output
+ * to the file (mode 0, for the FLUSH statement), or pops an interval and
+ * sets how often the file's output is written (for the BUFFERED and SYNC
+ * clauses of the OPEN statement).
+ * 
+ * @author cole
+ * 
+ */
+public class OpFLUSH extends AbstractOpcode {
+
+	public void execute(final InstructionContext env) throws JBasicException {
+
+		final Value fileID = env.pop();
+		final int mode = env.instruction.integerOperand;
+
+		final JBasicFile aFile = JBasicFile.lookup(env.session, fileID);
+		if (aFile == null)
+			throw new JBasicException(Status.FNOPEN, fileID.toString());
+
+		/*
+		 * Only OUTPUT (and APPEND) files buffer their output.
+		 */
+		if (!(aFile instanceof JBFOutput))
+			throw new JBasicException(Status.WRONGMODE, "OUTPUT");
+		final JBFOutput outputFile = (JBFOutput) aFile;
+
+		if (mode == 0)
+			outputFile.flush();
+		else
+			outputFile.setSync(mode, env.pop().getInteger());
+
+		final Status sts = outputFile.getStatus();
+		if (sts != null && sts.failed())
+			throw new JBasicException(sts);
+	}
+
+}
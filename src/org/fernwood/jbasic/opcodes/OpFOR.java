@@ -18,7 +18,6 @@ package org.fernwood.jbasic.opcodes;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.LoopControlBlock;
-import org.fernwood.jbasic.runtime.LoopManager;
 import org.fernwood.jbasic.value.Value;
 
 /**
@@ -78,7 +77,7 @@ public class OpFOR extends AbstractOpcode {
 			 * The loop need not run at all. 
 			 */
 			if (env.instruction.integerOperand > 0) {
-				env.codeStream.programCounter = env.instruction.integerOperand;
+				env.frame.programCounter = env.instruction.integerOperand;
 				return;
 			}
 
@@ -91,14 +90,11 @@ public class OpFOR extends AbstractOpcode {
 		loop.statementID = env.codeStream.statement.statementID + 1;
 
 		/*
-		 * Add the loop to the loop manager.  The loop manager normally
-		 * already exists, but not if this is a FOR..DO statement.  In 
-		 * such cases, go ahead and create a loop manager even though it
-		 * will live only as long as the FOR..DO statement.
+		 * Add the loop to the loop manager for this run of the code, which
+		 * is created by the first loop.  For a FOR..DO statement, the loop
+		 * manager lives only as long as the statement.
 		 */
-		if( env.codeStream.statement.program.loopManager == null )
-			env.codeStream.statement.program.loopManager = new LoopManager();
-		env.codeStream.statement.program.loopManager.addLoop(loop);
+		env.frame.loops().addLoop(loop);
 
 		return;
 	}
@@ -18,7 +18,6 @@ package org.fernwood.jbasic.opcodes;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.LoopControlBlock;
-import org.fernwood.jbasic.runtime.LoopManager;
 import org.fernwood.jbasic.value.Value;
 
 /**
@@ -74,7 +73,7 @@ public class OpFOREACH extends AbstractOpcode {
 			 * is we care about. Use it.
 			 */
 			if (env.instruction.integerOperand > 0) {
-				env.codeStream.programCounter = env.instruction.integerOperand;
+				env.frame.programCounter = env.instruction.integerOperand;
 				return;
 			}
 			throw new JBasicException(Status.FAULT, "Unlinked _FOREACH");
@@ -96,15 +95,11 @@ public class OpFOREACH extends AbstractOpcode {
 		env.localSymbols.insert(loop.indexVariableName, elementList.getElement(1));
 		
 		/*
-		 * Add the loop to the loop manager.  The loop manager normally
-		 * already exists, but not if this is a FOR..DO statement.  In 
-		 * such cases, go ahead and create a loop manager even though it
-		 * will live only as long as the FOR..DO statement.
+		 * Add the loop to the loop manager for this run of the code, which
+		 * is created by the first loop.  For a FOR..DO statement, the loop
+		 * manager lives only as long as the statement.
 		 */
-		if( env.codeStream.statement.program.loopManager == null )
-			env.codeStream.statement.program.loopManager = new LoopManager();
-		
-		env.codeStream.statement.program.loopManager.addLoop(loop);
+		env.frame.loops().addLoop(loop);
 
 		return;
 	}
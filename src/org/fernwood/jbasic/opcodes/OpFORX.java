@@ -20,7 +20,6 @@ import org.fernwood.jbasic.Program;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.LoopControlBlock;
-import org.fernwood.jbasic.runtime.LoopManager;
 import org.fernwood.jbasic.value.Value;
 
 /**
@@ -83,7 +82,7 @@ public class OpFORX extends AbstractOpcode {
 			 * is we care about. Use it.
 			 */
 			if (env.instruction.integerOperand > 0) {
-				env.codeStream.programCounter = env.instruction.integerOperand;
+				env.frame.programCounter = env.instruction.integerOperand;
 				return;
 			}
 			throw new JBasicException(Status.FAULT, "Unlinked _FORX");
@@ -95,19 +94,16 @@ public class OpFORX extends AbstractOpcode {
 		loop.statementID = env.codeStream.statement.statementID + 1;
 
 		/*
-		 * Add the loop to the loop manager.  The loop manager normally
-		 * already exists, but not if this is a FOR..DO statement.  In 
-		 * such cases, go ahead and create a loop manager even though it
-		 * will live only as long as the FOR..DO statement.
+		 * Add the loop to the loop manager for this run of the code, which
+		 * is created by the first loop.  For a FOR..DO statement, the loop
+		 * manager lives only as long as the statement.
 		 */
 		
 		if( env.codeStream.statement.program == null ) {
 			env.codeStream.statement.program = new Program(env.session, "_TEMP" + JBasic.getUniqueID());
 			env.codeStream.statement.program.fIsStub = true;
 		}
-		if( env.codeStream.statement.program.loopManager == null )
-			env.codeStream.statement.program.loopManager = new LoopManager();
-		env.codeStream.statement.program.loopManager.addLoop(loop);
+		env.frame.loops().addLoop(loop);
 
 		return;
 	}
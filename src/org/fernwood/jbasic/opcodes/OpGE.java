@@ -33,8 +33,19 @@ public class OpGE extends AbstractOpcode {
 	public void execute(final InstructionContext env) throws JBasicException {
 		Value value2 = null;
 		
-		if( env.instruction.integerValid)
-			value2 = new Value(env.instruction.integerOperand);
+		if( env.instruction.integerValid) {
+
+			/*
+			 * Numbers are compared to the integer constant directly, 
+			 * without making a Value for it.
+			 */
+			final Value value1 = env.pop();
+			int result = compareNumbers(value1, env.instruction.integerOperand);
+			if( result == NOT_NUMERIC )
+				result = value1.compare(new Value(env.instruction.integerOperand));
+			env.push(result >= 0);
+			return;
+		}
 		else
 			if( env.instruction.doubleValid )
 				value2 = new Value(env.instruction.doubleOperand);
@@ -45,7 +56,11 @@ public class OpGE extends AbstractOpcode {
 					value2 = env.pop();
 		
 		final Value value1 = env.pop();
-		env.push(value1.compare(value2) >= 0);
+
+		int result = compareNumbers(value1, value2);
+		if( result == NOT_NUMERIC )
+			result = value1.compare(value2);
+		env.push(result >= 0);
 		return;
 	}
 
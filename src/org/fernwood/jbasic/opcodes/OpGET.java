@@ -19,9 +19,12 @@ import org.fernwood.jbasic.JBasic;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.BitFieldMap;
 import org.fernwood.jbasic.runtime.JBFBinary;
+import org.fernwood.jbasic.runtime.JBFData;
 import org.fernwood.jbasic.runtime.JBFDatabase;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.JBasicFile;
+import org.fernwood.jbasic.runtime.RecordLayout;
+import org.fernwood.jbasic.value.RecordStreamValue;
 import org.fernwood.jbasic.value.Value;
 
 /**
@@ -32,8 +35,9 @@ public class OpGET extends AbstractOpcode {
 
 
 	/**
-	 * Get a record from a BINARY file. Top of stack is record definition array,
-	 * second on stack is file identifier.
+	 * Get a record from a BINARY, DATA, or DATABASE file. Top of stack is
+	 * record definition array, second on stack is file identifier.  If the
+	 * mode is 5 or 6, many records are read into a TABLE; see getRecords().
 	 * 
 	 * @see org.fernwood.jbasic.opcodes.AbstractOpcode#execute(org.fernwood.jbasic.opcodes.InstructionContext)
 	 */
@@ -48,6 +52,10 @@ public class OpGET extends AbstractOpcode {
 		 */
 
 		mode = env.instruction.integerOperand;
+		if (mode == 5 || mode == 6) {
+			getRecords(env, mode == 5);
+			return;
+		}
 		Value fieldList = null;
 
 		if (mode < 2)
@@ -58,6 +66,7 @@ public class OpGET extends AbstractOpcode {
 		final JBasicFile tempf = JBasicFile.lookup(env.session, fileID);
 		JBFBinary inFile = null;
 		JBFDatabase db = null;
+		JBFData dataFile = null;
 
 		if (tempf == null)
 			throw new JBasicException(Status.FNOPENOUTPUT, fileID.toString());
@@ -70,6 +79,8 @@ public class OpGET extends AbstractOpcode {
 			isBinary = true;
 		} else if (fileMode == JBasicFile.MODE_DATABASE)
 			db = (JBFDatabase) tempf;
+		else if (fileMode == JBasicFile.MODE_DATA)
+			dataFile = (JBFData) tempf;
 		else
 			throw new JBasicException(Status.NOTBINARY);
 
@@ -77,7 +88,7 @@ public class OpGET extends AbstractOpcode {
 		 * If we are a database, we need to advance to the next result set.
 		 */
 
-		if (!isBinary)
+		if (db != null)
 			if (!db.nextResult()) {
 				Status dbStatus = db.getStatus();
 				if( !dbStatus.success())
@@ -106,7 +117,7 @@ public class OpGET extends AbstractOpcode {
 		 */
 
 		if (mode == 2) {
-			if (isBinary)
+			if (db == null)
 				throw new JBasicException(Status.IOERROR,
 				"implicit records invalid for BINARY file");
 			fieldList = db.getFieldList();
@@ -135,6 +146,33 @@ public class OpGET extends AbstractOpcode {
 				throw new JBasicException(Status.INVRECDEF, fieldList.toString());
 		}
 
+		/*
+		 * If every field in a BINARY record has a fixed size, read the whole
+		 * record at once and get the fields from the buffer.  If there isn't
+		 * a whole record left in the file, read it a field at a time below
+		 * so the end of file is reported the same way.
+		 */
+		if (isBinary) {
+			final RecordLayout layout = inFile.getLayout(fieldList);
+			final byte[] record = layout == null ? null : inFile.readRecord(layout.size());
+			if (record != null) {
+				for (n = 0; n < fCount; n++) {
+					if (layout.isBitField(n)) {
+						layout.getBitField(record, n, env.localSymbols);
+						continue;
+					}
+					final Value datum = layout.get(record, n);
+					if (mode == 0)
+						env.localSymbols.insertLocal(layout.name(n), datum);
+					else
+						destination.setElement(datum, layout.name(n));
+				}
+				if (mode > 0)
+					env.push(destination);
+				return;
+			}
+		}
+
 		/*
 		 * Loop over each item in the field list and get the datum from the
 		 * input file stream, wherever it is currently positioned.
@@ -154,7 +192,15 @@ public class OpGET extends AbstractOpcode {
 			int kind = Value.UNDEFINED;
 			Value datum = null;
 
-			if (isBinary & typeString.equals("VARYING")) {
+			/*
+			 * Each field in a DATA file is a complete value that records its
+			 * own type, so the type in the field definition isn't used.
+			 */
+			if (dataFile != null) {
+				datum = dataFile.get();
+				kind = datum.getType();
+			}
+			else if (isBinary & typeString.equals("VARYING")) {
 				Value fieldSize = fieldRecord.getElement("SIZE");
 				if( fieldSize == null )
 					fieldSize = new Value(256);
@@ -328,9 +374,12 @@ public class OpGET extends AbstractOpcode {
 				else
 					datum = db.getBoolean(fieldName.getString());
 
+			} else if (isBinary & typeString.equals("VALUE")) {
+				datum = inFile.getValue();
+				kind = datum.getType();
 			}
 
-			if (kind == Value.UNDEFINED)
+			if (kind == Value.UNDEFINED && datum == null)
 				throw new JBasicException(Status.INVRECDEF, "unknown type "
 						+ typeString);
 
@@ -341,7 +390,7 @@ public class OpGET extends AbstractOpcode {
 			 */
 
 			if (datum == null) {
-				if (!isBinary) {
+				if (db != null) {
 					Status dbStatus = db.getStatus();
 					if( !dbStatus.success())
 						throw new JBasicException(dbStatus);
@@ -367,5 +416,76 @@ public class OpGET extends AbstractOpcode {
 		return;
 	}
 
+	/**
+	 * Read many records from a BINARY file, or rows from a DATABASE file,
+	 * into a TABLE, for GET...ARRAY.  Top of stack is the number of records
+	 * to read, second is the record definition array if there is one, and
+	 * third is the file identifier.  For a BINARY file, every field in the
+	 * record must have a fixed size, so all the records can be read in a
+	 * single operation.  The TABLE has a column for each field, and is left
+	 * on the stack.  If there are fewer records left in the file, the TABLE
+	 * has just the records that were left.
+	 * <p>
+	 * A DATABASE file doesn't need a record definition, in which case the
+	 * TABLE has a column for each column of the result set.
+	 * 
+	 * @param env the instruction context
+	 * @param hasFieldList true if there is a record definition on the stack
+	 * @throws JBasicException if the file isn't an open BINARY or DATABASE
+	 * file, the record definition is invalid, or an I/O error occurs
+	 */
+	private void getRecords(final InstructionContext env, final boolean hasFieldList)
+			throws JBasicException {
+
+		final int count = env.pop().getInteger();
+		final Value fieldList = hasFieldList ? env.pop() : null;
+		final Value fileID = env.pop();
+
+		if (count < 0)
+			throw new JBasicException(Status.INVCOUNT, Integer.toString(count));
+
+		final JBasicFile tempf = JBasicFile.lookup(env.session, fileID);
+		if (tempf == null)
+			throw new JBasicException(Status.FNOPENOUTPUT, fileID.toString());
+
+		if (tempf.getMode() == JBasicFile.MODE_DATABASE) {
+			if (fieldList != null
+					&& (fieldList.getType() != Value.ARRAY || fieldList.size() < 1))
+				throw new JBasicException(Status.INVRECDEF, fieldList.toString());
+			env.push(((JBFDatabase) tempf).fetchRows(fieldList, count));
+			return;
+		}
 
+		if (tempf.getMode() != JBasicFile.MODE_BINARY)
+			throw new JBasicException(Status.NOTBINARY);
+		final JBFBinary inFile = (JBFBinary) tempf;
+
+		if (fieldList == null)
+			throw new JBasicException(Status.INVRECDEF, new Status(Status.EXPREC));
+		if (fieldList.getType() != Value.ARRAY || fieldList.size() < 1)
+			throw new JBasicException(Status.INVRECDEF, fieldList.toString());
+		final RecordLayout layout = inFile.getLayout(fieldList);
+		if (layout == null)
+			throw new JBasicException(Status.INVRECDEF, "ARRAY requires fixed size fields");
+
+		/*
+		 * If two fields have the same name the TABLE has fewer columns than
+		 * the records have values, so the rows can't be stored.
+		 */
+		final RecordStreamValue table = new RecordStreamValue(layout.columnNames());
+		if (table.rowSize() != layout.columnCount())
+			throw new JBasicException(Status.INVRECDEF, "duplicate field name");
+
+		final byte[] data = inFile.readRecords(layout.size(), count);
+		if (data == null)
+			throw new JBasicException(inFile.getStatus());
+
+		final int size = layout.size();
+		for (int base = 0; base < data.length; base += size) {
+			final Value row = new Value(Value.ARRAY, null);
+			layout.getRow(data, base, row);
+			table.addElement(row);
+		}
+		env.push(table);
+	}
 }
@@ -70,7 +70,7 @@ public class OpGOTO extends AbstractOpcode {
 		 * says that the next pointer has been explicitly set.
 		 */
 		
-		env.codeStream.programCounter = target;
+		env.frame.programCounter = target;
 
 
 	}
@@ -0,0 +1,316 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.opcodes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.value.RecordStreamValue;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * Group the rows of a TABLE and calculate aggregate functions for each
+ * group, for a SQL SELECT statement with COUNT(), SUM(), AVG(), MIN(), or
+ * MAX() in the select list or with a GROUP BY clause.
+ * <p>
+ * Each row is assigned a group number with one pass over each GROUP BY
+ * column, using the column codes from the table so rows are compared as
+ * integers rather than as Values.  Each aggregate function is then one
+ * pass over its column's data.
+ *
+ * @author cole
+ *
+ */
+public class OpGROUP extends AbstractOpcode {
+
+	/**
+	 * Function name for a result column that is a GROUP BY column.
+	 */
+	public static final String GROUP = "GROUP";
+
+	/**
+	 * Function name for a result column that is a count of rows.
+	 */
+	public static final String COUNT = "COUNT";
+
+	/**
+	 * Function name for a result column that is the sum of a column.
+	 */
+	public static final String SUM = "SUM";
+
+	/**
+	 * Function name for a result column that is the average of a column.
+	 */
+	public static final String AVG = "AVG";
+
+	/**
+	 * Function name for a result column that is the smallest value of a
+	 * column.
+	 */
+	public static final String MIN = "MIN";
+
+	/**
+	 * Function name for a result column that is the largest value of a
+	 * column.
+	 */
+	public static final String MAX = "MAX";
+
+	/**
+	 * Determine if a name is one of the aggregate functions.
+	 * @param name the uppercase function name
+	 * @return true if it is COUNT, SUM, AVG, MIN, or MAX
+	 */
+	public static boolean isAggregate(final String name) {
+		return name.equals(COUNT) || name.equals(SUM) || name.equals(AVG)
+				|| name.equals(MIN) || name.equals(MAX);
+	}
+
+	/**
+	 * <b><code>_GROUP <em>count</em>, "columns"</code><br><br></b>
+	 * Group the rows of the TABLE on the stack and calculate the result
+	 * columns described by the <em>count</em> strings on top of it.
+	 *
+	 * @see org.fernwood.jbasic.opcodes.AbstractOpcode#execute(org.fernwood.jbasic.opcodes.InstructionContext)
+	 */
+	public void execute(final InstructionContext env) throws JBasicException {
+
+		final int count = env.instruction.integerOperand;
+		if (count < 1)
+			throw new JBasicException(Status.FAULT,
+					new Status(Status.INVOPARG, count));
+
+		/*
+		 * Get the result column descriptions, which are on the stack in
+		 * reverse order, and then the table.
+		 */
+		final String[][] items = new String[count][];
+		for (int ix = count - 1; ix >= 0; ix--)
+			items[ix] = env.pop().getString().split(" ");
+
+		final Value tableValue = env.pop();
+		if (!tableValue.isType(Value.TABLE))
+			throw new JBasicException(Status.INVTABLE);
+		final RecordStreamValue table = (RecordStreamValue) tableValue;
+		final int rowCount = table.size();
+
+		/*
+		 * Assign each row to a group.  Each GROUP BY column splits the
+		 * existing groups further; a (group, code) pair is packed into a
+		 * long so the groups can be found with a single hash lookup.
+		 * Groups are numbered in order of their first row.  Without a
+		 * GROUP BY clause, all the rows are in one group, even if there
+		 * are no rows.
+		 */
+		final int[] group = new int[rowCount];
+		int groupCount = 1;
+		String groupBy = null;
+		if (env.instruction.stringValid) {
+			groupBy = env.instruction.stringOperand;
+			groupCount = (rowCount > 0) ? 1 : 0;
+			final String[] groupColumns = groupBy.split(",");
+			for (int cx = 0; cx < groupColumns.length; cx++) {
+				final int[] codes = table.getColumnCodes(column(table, groupColumns[cx]));
+				final HashMap<Long, Integer> groups = new HashMap<Long, Integer>();
+				for (int row = 0; row < rowCount; row++) {
+					final Long key = Long.valueOf(((long) group[row] << 32) | (codes[row] & 0xFFFFFFFFL));
+					Integer g = groups.get(key);
+					if (g == null) {
+						g = Integer.valueOf(groups.size());
+						groups.put(key, g);
+					}
+					group[row] = g.intValue();
+				}
+				groupCount = groups.size();
+			}
+		}
+
+		final int[] firstRow = new int[groupCount];
+		Arrays.fill(firstRow, -1);
+		final int[] rows = new int[groupCount];
+		for (int row = 0; row < rowCount; row++) {
+			final int g = group[row];
+			if (firstRow[g] < 0)
+				firstRow[g] = row;
+			rows[g]++;
+		}
+
+		if (env.localSymbols.getBoolean("SYS$SQL_EXPLAIN"))
+			env.session.stdout.println("GROUP " +
+					(table.getName() == null ? "TABLE" : table.getName()) +
+					(groupBy == null ? "" : " BY " + groupBy) + ", " +
+					rowCount + " ROWS INTO " + groupCount + " GROUPS");
+
+		/*
+		 * Calculate each result column for all the groups at once.
+		 */
+		final Value names = new Value(Value.ARRAY, null);
+		final Value[][] results = new Value[count][];
+		for (int ix = 0; ix < count; ix++) {
+			final String function = items[ix][0];
+			final int resultType;
+			if (function.equals(COUNT)) {
+				results[ix] = new Value[groupCount];
+				for (int g = 0; g < groupCount; g++)
+					results[ix][g] = new Value(rows[g]);
+				resultType = Value.INTEGER;
+			} else {
+				final int c = column(table, items[ix][1]);
+				if (function.equals(GROUP)) {
+					results[ix] = new Value[groupCount];
+					for (int g = 0; g < groupCount; g++)
+						results[ix][g] = table.getCell(firstRow[g] + 1, c);
+					resultType = table.getColumnType(c);
+				} else if (function.equals(MIN) || function.equals(MAX))
+					resultType = extreme(table, c, function.equals(MAX), group,
+							groupCount, results, ix);
+				else
+					resultType = sum(table, c, items[ix][1], function.equals(AVG),
+							group, rows, results, ix);
+			}
+			names.addElement(new Value(items[ix][2] + "@" + Value.typeToName(resultType)));
+		}
+
+		/*
+		 * Build the result table with a row for each group.
+		 */
+		final RecordStreamValue result = new RecordStreamValue(names);
+		for (int g = 0; g < groupCount; g++) {
+			final Value row = new Value(Value.ARRAY, null);
+			for (int ix = 0; ix < count; ix++)
+				row.addElement(results[ix][g]);
+			result.addElement(row);
+		}
+		if (table.getName() != null)
+			result.setName(table.getName());
+		env.push(result);
+	}
+
+	/**
+	 * Find a column of the table by name.
+	 * @param table the table
+	 * @param name the column name
+	 * @return the 1-based column number
+	 * @throws JBasicException if there is no such column
+	 */
+	private static int column(final RecordStreamValue table, final String name)
+			throws JBasicException {
+		final int c = table.getColumnNumber(name);
+		if (c < 1)
+			throw new JBasicException(Status.SQLCOL, name);
+		return c;
+	}
+
+	/**
+	 * Calculate the SUM() or AVG() of a numeric column for each group.
+	 * The sum of an INTEGER column is an INTEGER as long as every group's
+	 * sum fits in one.
+	 * @param table the table
+	 * @param c the 1-based column number
+	 * @param columnName the column name, for error messages
+	 * @param fAverage true for AVG(), false for SUM()
+	 * @param group the group number of each row
+	 * @param rows the number of rows in each group
+	 * @param results the result array to fill in
+	 * @param ix the position of this result column
+	 * @return the type of the result column
+	 * @throws JBasicException if the column is not numeric
+	 */
+	private static int sum(final RecordStreamValue table, final int c,
+			final String columnName, final boolean fAverage,
+			final int[] group, final int[] rows, final Value[][] results, final int ix)
+			throws JBasicException {
+
+		final double[] data = table.getNumericColumn(c);
+		if (data == null)
+			throw new JBasicException(Status.SQLNUMCOL, columnName);
+
+		final int groupCount = rows.length;
+		final double[] sums = new double[groupCount];
+		for (int row = 0; row < data.length; row++)
+			sums[group[row]] += data[row];
+
+		results[ix] = new Value[groupCount];
+		if (fAverage) {
+			for (int g = 0; g < groupCount; g++)
+				results[ix][g] = new Value(rows[g] == 0 ? 0.0 : sums[g] / rows[g]);
+			return Value.DOUBLE;
+		}
+
+		boolean fInteger = table.getColumnType(c) == Value.INTEGER;
+		for (int g = 0; fInteger && g < groupCount; g++)
+			if (sums[g] < Integer.MIN_VALUE || sums[g] > Integer.MAX_VALUE)
+				fInteger = false;
+		for (int g = 0; g < groupCount; g++)
+			results[ix][g] = fInteger ? new Value((int) sums[g]) : new Value(sums[g]);
+		return fInteger ? Value.INTEGER : Value.DOUBLE;
+	}
+
+	/**
+	 * Calculate the MIN() or MAX() of a column for each group.  Numeric
+	 * columns are compared as numbers, and anything else as strings.
+	 * @param table the table
+	 * @param c the 1-based column number
+	 * @param fMax true for MAX(), false for MIN()
+	 * @param group the group number of each row
+	 * @param groupCount the number of groups
+	 * @param results the result array to fill in
+	 * @param ix the position of this result column
+	 * @return the type of the result column
+	 */
+	private static int extreme(final RecordStreamValue table, final int c, final boolean fMax,
+			final int[] group, final int groupCount, final Value[][] results, final int ix) {
+
+		final int columnType = table.getColumnType(c);
+		final double[] data = table.getNumericColumn(c);
+		results[ix] = new Value[groupCount];
+
+		if (data != null) {
+			final double[] best = new double[groupCount];
+			final boolean[] found = new boolean[groupCount];
+			for (int row = 0; row < data.length; row++) {
+				final int g = group[row];
+				final double d = data[row];
+				if (!found[g] || (fMax ? d > best[g] : d < best[g])) {
+					best[g] = d;
+					found[g] = true;
+				}
+			}
+			final boolean fInteger = columnType == Value.INTEGER;
+			for (int g = 0; g < groupCount; g++)
+				results[ix][g] = fInteger ? new Value((int) best[g]) : new Value(best[g]);
+			return fInteger ? Value.INTEGER : Value.DOUBLE;
+		}
+
+		final Value[] best = results[ix];
+		final String[] bestString = new String[groupCount];
+		for (int row = 0; row < group.length; row++) {
+			final int g = group[row];
+			final Value v = table.getCell(row + 1, c);
+			final String s = v.getString();
+			final int compare = (bestString[g] == null) ? 0 : s.compareTo(bestString[g]);
+			if (bestString[g] == null || (fMax ? compare > 0 : compare < 0)) {
+				best[g] = v;
+				bestString[g] = s;
+			}
+		}
+		for (int g = 0; g < groupCount; g++)
+			if (best[g] == null)
+				best[g] = new Value(columnType == Value.UNDEFINED ? Value.STRING : columnType, null);
+		return columnType;
+	}
+}
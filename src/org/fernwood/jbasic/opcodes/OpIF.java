@@ -36,7 +36,7 @@ public class OpIF extends AbstractOpcode {
 	 * @see org.fernwood.jbasic.opcodes.AbstractOpcode#execute(org.fernwood.jbasic.opcodes.InstructionContext)
 	 */
 	public void execute(final InstructionContext env) throws JBasicException {
-		throw new JBasicException(Status.IFERR, env.codeStream.lastLineNumber);
+		throw new JBasicException(Status.IFERR, env.frame.lastLineNumber);
 	}
 
 }
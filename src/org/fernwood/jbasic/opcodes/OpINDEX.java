@@ -78,10 +78,8 @@ public class OpINDEX extends AbstractOpcode {
 				throw new JBasicException(Status.NOMEMBER, memberName);
 			}
 			Value result = new Value(Value.ARRAY, null);
-			for( int idx = 1; idx <= t.size(); idx++ ) {
-				Value row = t.getElementAsArray(idx);
-				result.addElement(row.getElement(pos));
-			}
+			for( int idx = 1; idx <= t.size(); idx++ )
+				result.addElement(t.getCell(idx, pos));
 			env.push(result);
 			return;
 		}
@@ -63,7 +63,7 @@ public class OpJMPIND extends AbstractOpcode {
 			final Linkage lx = env.codeStream.labelMap.get(labelString);
 			if (lx == null)
 				throw new JBasicException(Status.NOSUCHLABEL, labelString);
-			env.codeStream.programCounter = lx.byteAddress;
+			env.frame.programCounter = lx.byteAddress;
 		}
 		else if (destination.getType() == Value.INTEGER) {
 			int lineNumber = 0;
@@ -74,7 +74,7 @@ public class OpJMPIND extends AbstractOpcode {
 				lineNumber = activePgm.findExecutableLine(destination.getInteger());
 				int addr = env.codeStream.findLineNumber(lineNumber);
 				if( addr > 0)
-					env.codeStream.programCounter = addr;
+					env.frame.programCounter = addr;
 				else
 					lineNumber = 0;
 				}
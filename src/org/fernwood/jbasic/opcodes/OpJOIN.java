@@ -16,9 +16,13 @@
 package org.fernwood.jbasic.opcodes;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
+import org.fernwood.jbasic.runtime.Instruction;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.SymbolTable;
 import org.fernwood.jbasic.value.RecordStreamValue;
@@ -27,6 +31,12 @@ import org.fernwood.jbasic.value.Value;
 /**
  * Join two tables using an ORDER BY expression captured as a sequence
  * of instructions following the _JOIN instruction.
+ * <p>
+ * When the expression is a simple equality between a column of each table,
+ * the matching rows are found with a hash join (or a merge join if both
+ * tables are already in key order) instead of evaluating the expression
+ * for every pair of rows.  <code>SET SQLEXPLAIN</code> reports which
+ * strategy was used.
  * @author cole
  * 
  */
@@ -106,8 +116,9 @@ public class OpJOIN extends AbstractOpcode {
 
 		ByteCode joinCompareStream = new ByteCode(env.session);
 		joinCompareStream.statement = env.codeStream.statement;
+		final ExecutionFrame joinFrame = new ExecutionFrame(env.session);
 
-		int pc = env.codeStream.programCounter;
+		int pc = env.frame.programCounter;
 		for( int idx = 0; idx < count; idx++ )
 			joinCompareStream.add(env.codeStream.getInstruction(pc+idx));		
 
@@ -133,7 +144,7 @@ public class OpJOIN extends AbstractOpcode {
 		for( int idx = 1; idx <= leftMemCount; idx++) {
 			String name = leftColumnNames.getString(idx);
 			int atPos = name.indexOf('@');
-			if( atPos > 1 )
+			if( atPos > 0 )
 				name = name.substring(0,atPos);
 			leftMemNames[idx-1] = name;
 		}
@@ -141,13 +152,13 @@ public class OpJOIN extends AbstractOpcode {
 		/*
 		 * Step two, repeat for the right table.
 		 */
-		int rightMemCount = leftColumnNames.size();
+		int rightMemCount = rightColumnNames.size();
 
 		String rightMemNames[] = new String[rightMemCount];
 		for( int idx = 1; idx <= rightMemCount; idx++) {
 			String name = rightColumnNames.getString(idx);
 			int atPos = name.indexOf('@');
-			if( atPos > 1 )
+			if( atPos > 0 )
 				name = name.substring(0,atPos);
 			rightMemNames[idx-1] = name;
 		}
@@ -185,14 +196,52 @@ public class OpJOIN extends AbstractOpcode {
 		
 
 		boolean fDebugSymbols = env.localSymbols.getBoolean("SYS$SQL_DBGSYMS");
-		
+		boolean fExplain = env.localSymbols.getBoolean("SYS$SQL_EXPLAIN");
+
+		/*
+		 * If the clause is a simple equality between a column of each
+		 * table, we don't need to run it for every pair of rows.  Use the
+		 * key values to find the matching pairs directly; if the keys
+		 * turn out not to be usable (mixed types, etc.) we fall back to
+		 * running the clause for every pair.  The debugging symbol dump
+		 * needs the clause to run, so it always uses the nested loop.
+		 */
+		String strategy = null;
+		String[] keyColumns = fDebugSymbols ? null :
+			findEquiJoin(env.codeStream, pc, count, leftTable, rightTable, 
+					uniqueLeftNames, uniqueRightNames);
+
+		if( keyColumns != null ) {
+			Object[] leftKeys = new Object[leftTable.size()];
+			Object[] rightKeys = new Object[rightTable.size()];
+			if( getJoinKeys(leftTable, keyColumns[0], rightTable, keyColumns[1], leftKeys, rightKeys)) {
+				long[] pairs;
+				if( isSorted(leftKeys) && isSorted(rightKeys)) {
+					strategy = "MERGE JOIN";
+					pairs = mergeJoin(leftKeys, rightKeys);
+				}
+				else {
+					strategy = "HASH JOIN";
+					pairs = hashJoin(leftKeys, rightKeys);
+				}
+				for( long pair : pairs ) {
+					int leftIdx = (int) (pair >>> 32);
+					int rightIdx = (int) (pair & 0xFFFFFFFFL);
+					result.addElement(joinRows(leftTable.rowRecord(leftIdx+1), 
+							rightTable.rowRecord(rightIdx+1)));
+				}
+				strategy = strategy + " ON " + describe(leftTable, "LEFT") + "." + keyColumns[0] 
+					+ " = " + describe(rightTable, "RIGHT") + "." + keyColumns[1];
+			}
+		}
+
 		/*
 		 * Now step over each row in the input array. For each
 		 * row, copy the column data into the symbol table for the
 		 * join clause.
 		 */
-		for( int leftIdx = 0; leftIdx < leftTable.size(); leftIdx++ ) {
-			Value leftRow = leftTable.getElement(leftIdx+1);
+		for( int leftIdx = 0; strategy == null && leftIdx < leftTable.size(); leftIdx++ ) {
+			Value leftRow = leftTable.rowRecord(leftIdx+1);
 
 			for( int memberIdx = 0; memberIdx < uniqueLeftNames.size(); memberIdx++) {
 				String key = uniqueLeftNames.get(memberIdx);
@@ -216,7 +265,7 @@ public class OpJOIN extends AbstractOpcode {
 			 */
 
 			for( int rightIdx = 0; rightIdx < rightTable.size(); rightIdx++) {
-				Value rightRow = rightTable.getElement(rightIdx+1);
+				Value rightRow = rightTable.rowRecord(rightIdx+1);
 				rightRowIndex.setInteger(rightIdx+1);
 
 				for( int memberIdx = 0; memberIdx < uniqueRightNames.size(); memberIdx++) {
@@ -232,7 +281,7 @@ public class OpJOIN extends AbstractOpcode {
 					//fDebugSymbols = false;
 					joinSymbols.dumpTable(env.session, false);
 				}
-				status = joinCompareStream.run(joinSymbols, 0);
+				status = joinCompareStream.run(joinFrame, joinSymbols, 0);
 
 				/*
 				 * If the stream had an error, throw it now.  Otherwise,
@@ -242,37 +291,374 @@ public class OpJOIN extends AbstractOpcode {
 				if( status.failed())
 					throw new JBasicException(status);
 
-				Value include = joinCompareStream.getResult();
+				Value include = joinFrame.getResult();
 
 				/*
 				 * Construct a new row for the output table.
 				 */
-				if( include != null && include.getBoolean()) {
-
-					Value newRow = new Value(Value.RECORD, null);
-					ArrayList<String> members = leftRow.recordFieldNames();
-
-					for( int ix = 1; ix <= leftRow.memberCount(); ix++ ) {
-						String memberName = members.get(ix-1);
-						newRow.setElement(leftRow.getElement(memberName), memberName);
-					}
-
-					members = rightRow.recordFieldNames();
-					for( int ix = 1; ix <= rightRow.memberCount(); ix++ ) {
-						String memberName = members.get(ix-1);
-						newRow.setElement(rightRow.getElement(memberName), memberName);
-					}
-					result.addElement(newRow);
-				}
+				if( include != null && include.getBoolean())
+					result.addElement(joinRows(leftRow, rightRow));
 			}
 
 		}
 
+		if( fExplain )
+			env.session.stdout.println("JOIN " + describe(leftTable, "LEFT") + ", " 
+					+ describe(rightTable, "RIGHT") + " USING " 
+					+ (strategy == null ? "NESTED LOOP" : strategy) + ", "
+					+ result.size() + " ROWS");
+
+		joinFrame.release();
 		result.dirty(true);
-		env.codeStream.programCounter += count;
+		env.frame.programCounter += count;
 		env.push(result);
 
 		return;
 	}
 
+	/**
+	 * Construct a row of the output table from a row of each input table.
+	 * Members of the right row replace members of the same name from the
+	 * left row.
+	 * @param leftRow the RECORD for the row of the left table
+	 * @param rightRow the RECORD for the row of the right table
+	 * @return a new RECORD with the members of both rows
+	 */
+	private static Value joinRows(Value leftRow, Value rightRow) {
+
+		Value newRow = new Value(Value.RECORD, null);
+		ArrayList<String> members = leftRow.recordFieldNames();
+
+		for( int ix = 1; ix <= leftRow.memberCount(); ix++ ) {
+			String memberName = members.get(ix-1);
+			newRow.setElement(leftRow.getElement(memberName), memberName);
+		}
+
+		members = rightRow.recordFieldNames();
+		for( int ix = 1; ix <= rightRow.memberCount(); ix++ ) {
+			String memberName = members.get(ix-1);
+			newRow.setElement(rightRow.getElement(memberName), memberName);
+		}
+		return newRow;
+	}
+
+	/**
+	 * Return the name a table is known by in the JOIN clause, for use in
+	 * the EXPLAIN output.
+	 * @param table the table
+	 * @param side "LEFT" or "RIGHT", used if the table has no name
+	 * @return the name of the table
+	 */
+	private static String describe(RecordStreamValue table, String side) {
+		String name = table.getName();
+		return name == null ? side : name;
+	}
+
+	/**
+	 * Determine if the JOIN clause is a simple equality test between a
+	 * column of the left table and a column of the right table, such as
+	 * <code>T1.ID = T2.ID</code> or <code>LEFT.ID = EMPID</code>.  The
+	 * clause must be exactly two column references followed by an _EQ.
+	 * 
+	 * @param code the code stream containing the clause
+	 * @param pc the address of the first instruction of the clause
+	 * @param count the number of instructions in the clause
+	 * @param leftTable the left table
+	 * @param rightTable the right table
+	 * @param uniqueLeftNames the columns that can be named without a table
+	 * in the left table
+	 * @param uniqueRightNames the columns that can be named without a table
+	 * in the right table
+	 * @return an array with the left column name and the right column name,
+	 * or null if the clause is not an equi-join.
+	 */
+	private static String[] findEquiJoin(ByteCode code, int pc, int count,
+			RecordStreamValue leftTable, RecordStreamValue rightTable,
+			ArrayList<String> uniqueLeftNames, ArrayList<String> uniqueRightNames) {
+
+		if( count < 3 || count > 5 )
+			return null;
+		Instruction last = code.getInstruction(pc + count - 1);
+		if( last.opCode != ByteCode._EQ || last.integerOperand != 0 )
+			return null;
+
+		String[] keys = new String[2];
+		int ix = pc;
+		int end = pc + count - 1;
+		for( int operand = 0; operand < 2; operand++ ) {
+			if( ix >= end )
+				return null;
+			Instruction i = code.getInstruction(ix);
+			String tableRef = null;
+			String column = null;
+
+			if( i.opCode == ByteCode._STRING && ix + 1 < end ) {
+				Instruction next = code.getInstruction(ix+1);
+				if( next.opCode != ByteCode._LOADR || !next.stringValid )
+					return null;
+				tableRef = next.stringOperand;
+				column = i.stringOperand;
+				ix += 2;
+			}
+			else if((i.opCode == ByteCode._LOADREF || i.opCode == ByteCode._LOAD 
+					|| i.opCode == ByteCode._LOADS) && i.stringValid ) {
+				if( i.opCode != ByteCode._LOADS && i.integerOperand != 0 )
+					return null;
+				column = i.stringOperand;
+				ix++;
+			}
+			else
+				return null;
+
+			/*
+			 * Figure out which table the reference is to.  The right
+			 * table's names are stored last for each pair of rows, so
+			 * they win if the same name means something in both tables.
+			 */
+			int side;
+			if( tableRef != null ) {
+				if( tableRef.equals("RIGHT") || tableRef.equals(rightTable.getName()))
+					side = 1;
+				else if( uniqueRightNames.contains(tableRef))
+					return null;
+				else if( tableRef.equals("LEFT") || tableRef.equals(leftTable.getName()))
+					side = 0;
+				else
+					return null;
+				RecordStreamValue table = (side == 0) ? leftTable : rightTable;
+				if( table.getColumnNumber(column) < 1 )
+					return null;
+			}
+			else {
+				if( column.equals("RIGHT") || column.equals(rightTable.getName()))
+					return null;
+				else if( uniqueRightNames.contains(column))
+					side = 1;
+				else if( column.equals("LEFT") || column.equals(leftTable.getName()))
+					return null;
+				else if( uniqueLeftNames.contains(column))
+					side = 0;
+				else
+					return null;
+			}
+			if( keys[side] != null )
+				return null;
+			keys[side] = column;
+		}
+
+		if( ix != end )
+			return null;
+		return keys;
+	}
+
+	/**
+	 * Get the key value of each row of the two tables being joined, in a
+	 * form that can be hashed and ordered with the same notion of equality
+	 * that the _EQ opcode uses.  This is only possible when the keys are
+	 * all INTEGER, all numeric, all STRING, or all BOOLEAN values.
+	 * 
+	 * @param leftTable the left table
+	 * @param leftColumn the key column in the left table
+	 * @param rightTable the right table
+	 * @param rightColumn the key column in the right table
+	 * @param leftKeys array to fill in with the key of each left row
+	 * @param rightKeys array to fill in with the key of each right row
+	 * @return true if the keys were all usable
+	 */
+	private static boolean getJoinKeys(RecordStreamValue leftTable, String leftColumn,
+			RecordStreamValue rightTable, String rightColumn, 
+			Object[] leftKeys, Object[] rightKeys) {
+
+		Value[] leftValues = getColumn(leftTable, leftColumn);
+		Value[] rightValues = getColumn(rightTable, rightColumn);
+		if( leftValues == null || rightValues == null )
+			return false;
+
+		int keyType = Value.UNDEFINED;
+		for( int pass = 0; pass < 2; pass++ )
+			for( Value v : pass == 0 ? leftValues : rightValues ) {
+				int t = v.getType();
+				if( t != Value.INTEGER && t != Value.DOUBLE 
+						&& t != Value.STRING && t != Value.BOOLEAN )
+					return false;
+				if( keyType == Value.UNDEFINED || keyType == t )
+					keyType = t;
+				else if((keyType == Value.INTEGER || keyType == Value.DOUBLE) &&
+						(t == Value.INTEGER || t == Value.DOUBLE))
+					keyType = Value.DOUBLE;
+				else
+					return false;
+			}
+
+		for( int ix = 0; ix < leftValues.length; ix++ )
+			leftKeys[ix] = joinKey(leftValues[ix], keyType);
+		for( int ix = 0; ix < rightValues.length; ix++ )
+			rightKeys[ix] = joinKey(rightValues[ix], keyType);
+		return true;
+	}
+
+	/**
+	 * Get the values of a single column of a table.
+	 * @param table the table
+	 * @param column the column name
+	 * @return an array of the column values, or null if a row is missing
+	 * the column.
+	 */
+	private static Value[] getColumn(RecordStreamValue table, String column) {
+		int columnNumber = table.getColumnNumber(column);
+		Value[] values = new Value[table.size()];
+		for( int ix = 0; ix < values.length; ix++ ) {
+			values[ix] = table.getCell(ix+1, columnNumber);
+			if( values[ix] == null )
+				return null;
+		}
+		return values;
+	}
+
+	/**
+	 * Convert a key value to a Java object of the given key type.  Doubles
+	 * are normalized so that 0.0 and -0.0 are the same key, as they
+	 * compare equal.
+	 * @param v the key value
+	 * @param keyType the type all keys are converted to
+	 * @return the key object
+	 */
+	private static Object joinKey(Value v, int keyType) {
+		switch( keyType ) {
+		case Value.INTEGER:
+			return Integer.valueOf(v.getInteger());
+		case Value.DOUBLE:
+			double d = v.getDouble();
+			return Double.valueOf(d == 0.0 ? 0.0 : d);
+		case Value.BOOLEAN:
+			return Boolean.valueOf(v.getBoolean());
+		default:
+			return v.getString();
+		}
+	}
+
+	/**
+	 * Compare two key objects created by joinKey().
+	 * @param key1 the first key
+	 * @param key2 the second key
+	 * @return less than, equal to, or greater than zero
+	 */
+	@SuppressWarnings("unchecked")
+	private static int compareKeys(Object key1, Object key2) {
+		return ((Comparable<Object>) key1).compareTo(key2);
+	}
+
+	/**
+	 * Determine if a list of keys is already in ascending order.
+	 * @param keys the keys
+	 * @return true if each key is no greater than the one after it.
+	 */
+	private static boolean isSorted(Object[] keys) {
+		for( int ix = 1; ix < keys.length; ix++ )
+			if( compareKeys(keys[ix-1], keys[ix]) > 0 )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Add a pair of matching row indexes to a list of pairs.  Each pair
+	 * is packed into a long with the left index in the upper half, so 
+	 * sorting the list puts it in the same order the nested loop produces.
+	 * @param pairs the list of pairs
+	 * @param count the number of pairs in the list
+	 * @param leftIdx the 0-based left row index
+	 * @param rightIdx the 0-based right row index
+	 * @return the list, which may have been reallocated to make room
+	 */
+	private static long[] addPair(long[] pairs, int count, int leftIdx, int rightIdx) {
+		if( count == pairs.length )
+			pairs = Arrays.copyOf(pairs, count * 2 + 16);
+		pairs[count] = ((long) leftIdx << 32) | rightIdx;
+		return pairs;
+	}
+
+	/**
+	 * Find the matching rows of two tables by building a hash table of
+	 * the keys of the smaller table and looking up the key of each row
+	 * of the larger table.
+	 * @param leftKeys the key of each row of the left table
+	 * @param rightKeys the key of each row of the right table
+	 * @return the matching pairs of row indexes, in nested loop order
+	 */
+	private static long[] hashJoin(Object[] leftKeys, Object[] rightKeys) {
+
+		boolean buildLeft = leftKeys.length < rightKeys.length;
+		Object[] buildKeys = buildLeft ? leftKeys : rightKeys;
+		Object[] probeKeys = buildLeft ? rightKeys : leftKeys;
+
+		HashMap<Object, ArrayList<Integer>> buckets = 
+			new HashMap<Object, ArrayList<Integer>>(buildKeys.length * 2);
+		for( int ix = 0; ix < buildKeys.length; ix++ ) {
+			ArrayList<Integer> bucket = buckets.get(buildKeys[ix]);
+			if( bucket == null ) {
+				bucket = new ArrayList<Integer>(1);
+				buckets.put(buildKeys[ix], bucket);
+			}
+			bucket.add(Integer.valueOf(ix));
+		}
+
+		long[] pairs = new long[16];
+		int count = 0;
+		for( int ix = 0; ix < probeKeys.length; ix++ ) {
+			ArrayList<Integer> bucket = buckets.get(probeKeys[ix]);
+			if( bucket == null )
+				continue;
+			for( Integer match : bucket ) {
+				if( buildLeft )
+					pairs = addPair(pairs, count++, match.intValue(), ix);
+				else
+					pairs = addPair(pairs, count++, ix, match.intValue());
+			}
+		}
+
+		/*
+		 * Probing with the right table finds the pairs in right-major
+		 * order, so sort them back into the order the nested loop uses.
+		 */
+		if( buildLeft )
+			Arrays.sort(pairs, 0, count);
+		return Arrays.copyOf(pairs, count);
+	}
+
+	/**
+	 * Find the matching rows of two tables whose keys are both already in
+	 * ascending order by stepping through the two lists together.
+	 * @param leftKeys the key of each row of the left table
+	 * @param rightKeys the key of each row of the right table
+	 * @return the matching pairs of row indexes, in nested loop order
+	 */
+	private static long[] mergeJoin(Object[] leftKeys, Object[] rightKeys) {
+
+		long[] pairs = new long[16];
+		int count = 0;
+		int leftIdx = 0;
+		int rightIdx = 0;
+
+		while( leftIdx < leftKeys.length && rightIdx < rightKeys.length ) {
+			int c = compareKeys(leftKeys[leftIdx], rightKeys[rightIdx]);
+			if( c < 0 )
+				leftIdx++;
+			else if( c > 0 )
+				rightIdx++;
+			else {
+				int rightEnd = rightIdx + 1;
+				while( rightEnd < rightKeys.length && 
+						compareKeys(rightKeys[rightEnd], rightKeys[rightIdx]) == 0 )
+					rightEnd++;
+				while( leftIdx < leftKeys.length && 
+						compareKeys(leftKeys[leftIdx], rightKeys[rightIdx]) == 0 ) {
+					for( int ix = rightIdx; ix < rightEnd; ix++ )
+						pairs = addPair(pairs, count++, leftIdx, ix);
+					leftIdx++;
+				}
+				rightIdx = rightEnd;
+			}
+		}
+		return Arrays.copyOf(pairs, count);
+	}
 }
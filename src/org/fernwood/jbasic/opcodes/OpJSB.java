@@ -15,8 +15,6 @@
  */
 package org.fernwood.jbasic.opcodes;
 
-import java.util.ArrayList;
-
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.compiler.Linkage;
 import org.fernwood.jbasic.runtime.JBasicException;
@@ -52,14 +50,11 @@ public class OpJSB extends AbstractOpcode {
 				scope.targetStatement = env.instruction.integerOperand;
 
 			scope.scopeType = ScopeControlBlock.GOSUB;
-			scope.returnStatement = env.codeStream.programCounter;
+			scope.returnStatement = env.frame.programCounter;
 			scope.activeProgram = env.codeStream.statement.program;
 
-			if (env.codeStream.statement.program.gosubStack == null)
-				env.codeStream.statement.program.gosubStack = new ArrayList<ScopeControlBlock>();
-
-			env.codeStream.statement.program.gosubStack.add(scope);
-			env.codeStream.programCounter = scope.targetStatement;
+			env.frame.pushGosub(scope);
+			env.frame.programCounter = scope.targetStatement;
 			return;
 		}
 
@@ -15,8 +15,6 @@
  */
 package org.fernwood.jbasic.opcodes;
 
-import java.util.ArrayList;
-
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.compiler.Linkage;
 import org.fernwood.jbasic.runtime.JBasicException;
@@ -43,15 +41,12 @@ public class OpJSBIND extends AbstractOpcode {
 			final Linkage t = env.codeStream.labelMap.get(labelString);
 			scope.scopeType = ScopeControlBlock.GOSUB;
 
-			scope.returnStatement = env.codeStream.programCounter;
+			scope.returnStatement = env.frame.programCounter;
 			scope.targetStatement = t.byteAddress;
 			scope.activeProgram = env.codeStream.statement.program;
 
-			if (env.codeStream.statement.program.gosubStack == null)
-				env.codeStream.statement.program.gosubStack = new ArrayList<ScopeControlBlock>();
-
-			env.codeStream.statement.program.gosubStack.add(scope);
-			env.codeStream.programCounter = t.byteAddress;
+			env.frame.pushGosub(scope);
+			env.frame.programCounter = t.byteAddress;
 			return;
 
 		}
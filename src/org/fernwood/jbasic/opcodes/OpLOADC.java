@@ -0,0 +1,50 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ * 
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ * 
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ * 
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.opcodes;
+
+import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * @author cole
+ * 
+ */
+public class OpLOADC extends AbstractOpcode {
+
+	/**
+	 * Load a copy of a column from the current row of a WHERE clause on the
+	 * stack, using the column position bound when the clause was prepared.
+	 * If there is no current row, the column is found by name just like
+	 * _LOADREF.
+	 * 
+	 * @see org.fernwood.jbasic.opcodes.AbstractOpcode#execute(org.fernwood.jbasic.opcodes.InstructionContext)
+	 */
+	public void execute(final InstructionContext env) throws JBasicException {
+
+		final String symbolName = env.instruction.stringOperand;
+		env.codeStream.refPrimary(symbolName, false);
+
+		final Value row = env.frame.currentRow;
+		final Value column = (row == null) ? null : 
+			row.getElement(env.instruction.integerOperand);
+
+		if (column == null)
+			env.push(env.localSymbols.reference(symbolName));
+		else
+			env.push(column.copy());
+	}
+
+}
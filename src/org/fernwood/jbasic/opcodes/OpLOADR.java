@@ -15,10 +15,10 @@
  */
 package org.fernwood.jbasic.opcodes;
 
-import org.fernwood.jbasic.JBasic;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.ByteCode;
 import org.fernwood.jbasic.runtime.Instruction;
+import org.fernwood.jbasic.runtime.JBFDatabase;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.JBasicFile;
 import org.fernwood.jbasic.value.RecordStreamValue;
@@ -88,14 +88,14 @@ public class OpLOADR extends AbstractOpcode {
 			
 			if( valid ) {
 				/* Peek past the "DISABLE SQL" flag and see if there is a WHERE clause we need to steal. */
-				Instruction nextInst = env.codeStream.getInstruction(env.codeStream.programCounter);
+				Instruction nextInst = env.codeStream.getInstruction(env.frame.programCounter);
 				if( nextInst.opCode == ByteCode._WHERE) {
 					int whereSize = nextInst.integerOperand;
 					if( whereSize == 0 ) 
 						whereClause = " WHERE 0=1";
 					else {
 						whereClause = " WHERE " + nextInst.stringOperand;
-						env.codeStream.programCounter += (whereSize + 1);
+						env.frame.programCounter += (whereSize + 1);
 					}
 				}
 				else
@@ -117,55 +117,17 @@ public class OpLOADR extends AbstractOpcode {
 
 				
 				/*
-				 * We're going to generate a new code stream to do the read of the results
-				 * into a table we can push on the stack.
+				 * Run the query, and read all of the rows of the result set into a
+				 * table in a single call.  If there is an error, complain.  If not,
+				 * then put the result on the stack and we're done.
 				 */
-				
-				ByteCode select = new ByteCode(env.session);
-				
-				/*
-				 * Generate code to create the query and register the result set map
-				 */
-				select.add(ByteCode._LOADFREF, 0, recordName);
-				select.add(ByteCode._OUTNL, 1, "SELECT * FROM " + memberName + whereClause);
-				
-				
-				/*
-				 * Generate code to create a table using the map, which is left on the
-				 * top of the stack
-				 */
-				select.add(ByteCode._STRING, "MAP");
-				select.add(ByteCode._LOADR, recordName);
-				select.add(ByteCode._TABLE);
-				String tableName = "__GEN_TABLE_" + Integer.toString(JBasic.getUniqueID());
-				select.add(ByteCode._STOR, tableName);
-				
-				/*
-				 * Generate code to read the data from the database
-				 */
-		
-				int top = select.size();
-				select.add(ByteCode._EOF, recordName);
-				int fwd = select.size();
-				select.add(ByteCode._BRNZ, 0);
-				select.add(ByteCode._LOADREF, tableName);
-				select.add(ByteCode._LOADFREF, recordName);
-				select.add(ByteCode._GET, 2);
-				select.add(ByteCode._INSERT);
-				select.add(ByteCode._BR, top);
-				Instruction patch = select.getInstruction(fwd);
-				patch.integerOperand = select.size();
-				select.add(ByteCode._LOADREF, tableName);
-				
-				/*
-				 * Run the resulting code.  If there is an error, complain.  If not, then put
-				 * the result on the stack and we're done.
-				 */
-				
-				Status status = select.run(env.localSymbols, 0);
-				if( status.failed())
-					throw new JBasicException(Status.SQL, status);
-				env.push(select.getResult());
+				final JBFDatabase db = (JBFDatabase) f;
+				try {
+					db.execute("SELECT * FROM " + memberName + whereClause, true);
+					env.push(db.fetchRows(null, -1));
+				} catch (final JBasicException e) {
+					throw new JBasicException(Status.SQL, e.getStatus());
+				}
 				return;
 
 				//throw new JBasicException(Status.FAULT, 
@@ -184,10 +146,8 @@ public class OpLOADR extends AbstractOpcode {
 				throw new JBasicException(Status.NOMEMBER, memberName);
 			}
 			Value result = new Value(Value.ARRAY, null);
-			for( int idx = 1; idx <= t.size(); idx++ ) {
-				Value row = t.getElementAsArray(idx);
-				result.addElement(row.getElement(pos));
-			}
+			for( int idx = 1; idx <= t.size(); idx++ )
+				result.addElement(t.getCell(idx, pos));
 			env.push(result);
 			return;
 		}
@@ -17,6 +17,7 @@ package org.fernwood.jbasic.opcodes;
 
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.runtime.RegisterArray;
 
 /**
  * @author cole
@@ -33,15 +34,15 @@ public class OpLOADREG extends AbstractOpcode {
 	 */
 	public void execute(final InstructionContext env) throws JBasicException {
 
-		if( env.codeStream.registers == null )
-			throw new JBasicException(Status.FAULT, new Status(Status.REGARRSIZ, "0"));
+		if( env.frame.registers == null )
+			env.frame.registers = new RegisterArray(100);
 
 		int regNum = env.instruction.integerOperand;
 		
-		if ((regNum < 0) | (regNum >= env.codeStream.registers.size()))
+		if ((regNum < 0) | (regNum >= env.frame.registers.size()))
 			throw new JBasicException(Status.FAULT, new Status(Status.REGNUM, regNum));
 		
-		env.push(env.codeStream.registers.get(regNum).copy());
+		env.push(env.frame.registers.get(regNum).copy());
 
 	}
 
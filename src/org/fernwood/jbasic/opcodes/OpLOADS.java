@@ -0,0 +1,48 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ * 
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ * 
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ * 
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.opcodes;
+
+import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.runtime.SlotLayout;
+
+/**
+ * @author cole
+ * 
+ */
+public class OpLOADS extends AbstractOpcode {
+
+	/**
+	 * Load a reference (not a copy) to a local variable on the stack, using
+	 * the slot number assigned by the Linker.  If the code stream has no slot
+	 * layout (such as assembled protected code) then the variable is found
+	 * by name just like _LOADREF.
+	 * 
+	 * @see org.fernwood.jbasic.opcodes.AbstractOpcode#execute(org.fernwood.jbasic.opcodes.InstructionContext)
+	 */
+	public void execute(final InstructionContext env) throws JBasicException {
+
+		final String symbolName = env.instruction.stringOperand;
+		env.codeStream.refPrimary(symbolName, false);
+
+		final SlotLayout layout = env.codeStream.slotLayout;
+		if (layout == null)
+			env.push(env.localSymbols.reference(symbolName));
+		else
+			env.push(env.localSymbols.slotReference(layout, 
+					env.instruction.integerOperand, symbolName));
+	}
+
+}
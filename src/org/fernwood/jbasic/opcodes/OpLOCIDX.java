@@ -17,6 +17,7 @@ package org.fernwood.jbasic.opcodes;
 
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.value.RecordStreamValue;
 import org.fernwood.jbasic.value.Value;
 
 /**
@@ -55,6 +56,12 @@ public class OpLOCIDX extends AbstractOpcode {
 		} else
 			arrayValue = env.pop(); /* Array */
 
+		/*
+		 * The element we return is going to be written to, so make sure
+		 * the container isn't sharing its members with another copy.
+		 */
+		arrayValue.unshare();
+
 		if (arrayValue.isType(Value.RECORD)) {
 			final String key = indexValue.getString().toUpperCase();
 			elementValue = arrayValue.getElement(key);
@@ -75,6 +82,17 @@ public class OpLOCIDX extends AbstractOpcode {
 				if( ix > arrayValue.size())
 					for( int i = arrayValue.size()+1; i <= ix; i++ )
 						arrayValue.setElement(new Value(0), i);
+
+				/*
+				 * A TABLE row is returned as a RECORD whose members are
+				 * the row elements themselves, so the row must not be
+				 * sharing its elements either.
+				 */
+				if( arrayValue.getType() == Value.TABLE) {
+					Value row = ((RecordStreamValue) arrayValue).getElementAsArray(ix);
+					if( row != null )
+						row.unshare();
+				}
 				elementValue = arrayValue.getElement(ix);
 				env.codeStream.refSecondary("[" + ix + "]");
 				
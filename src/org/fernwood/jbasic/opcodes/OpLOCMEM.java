@@ -62,6 +62,8 @@ public class OpLOCMEM extends AbstractOpcode {
 		 */
 
 		env.codeStream.refSecondary("." + memberName);
+		if( theRecord != null )
+			theRecord.unshare();
 		Value recordElement = theRecord == null ? null : theRecord.getElement(memberName);
 		if (recordElement == null) {
 			if( !env.codeStream.fDynamicSymbolCreation )
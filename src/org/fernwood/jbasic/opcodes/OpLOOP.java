@@ -32,7 +32,7 @@ public class OpLOOP extends AbstractOpcode {
 	 * @see org.fernwood.jbasic.opcodes.AbstractOpcode#execute(org.fernwood.jbasic.opcodes.InstructionContext)
 	 */
 	public void execute(final InstructionContext env) throws JBasicException {
-		if (!env.codeStream.statement.program.hasLoops()) {
+		if (!env.frame.hasLoops()) {
 			String loopType = "LOOP";
 			final String loopTypes[] = new String[] { "LOOP", "UNTIL", "WHILE" };
 			if( env.instruction.integerValid)
@@ -41,7 +41,7 @@ public class OpLOOP extends AbstractOpcode {
 		}
 		
 		
-		final LoopControlBlock endloop = env.codeStream.statement.program.loopManager.topLoop();
+		final LoopControlBlock endloop = env.frame.loopManager.topLoop();
 		Value value1;
 		
 		/*
@@ -57,9 +57,9 @@ public class OpLOOP extends AbstractOpcode {
 		value1.coerce(Value.BOOLEAN);
 		
 		if (value1.getBoolean()) {
-			env.codeStream.programCounter = endloop.statementID + 1;
+			env.frame.programCounter = endloop.statementID + 1;
 		} else
-			env.codeStream.statement.program.loopManager.removeTopLoop();
+			env.frame.loopManager.removeTopLoop();
 	}
 
 }
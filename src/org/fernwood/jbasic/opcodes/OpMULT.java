@@ -19,6 +19,7 @@ import java.math.BigDecimal;
 
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.compiler.Expression;
+import org.fernwood.jbasic.runtime.ByteCode;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.value.Value;
 
@@ -37,9 +38,21 @@ public class OpMULT extends AbstractOpcode {
 	 */
 	public void execute(final InstructionContext env) throws JBasicException {
 
-		Value targetValue = env.popForUpdate();
+		Value targetValue = env.pop();
 		final Value sourceValue = env.pop();
 
+		/*
+		 * Two scalar numbers can be multiplied without any type negotiation.
+		 */
+		final Value product = numericResult(ByteCode._MULT, targetValue, sourceValue);
+		if( product != null ) {
+			env.push(product);
+			return;
+		}
+		
+		if( targetValue.fSymbol )
+			targetValue = targetValue.copy();
+
 		/*
 		 * See if this is the special case of the REPEAT operation on
 		 * a string.
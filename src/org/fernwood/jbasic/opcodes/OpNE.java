@@ -25,18 +25,22 @@ public class OpNE extends AbstractOpcode {
 		boolean state;
 		
 		/*
-		 * If both types are RECORD types, then we must use the MATCH function
+		 * Scalar numbers are compared directly.  If both types are RECORD
+		 * types, then we must use the MATCH function
 		 * which can only test for equal or not equal.  For other data types,
 		 * we can do an ordinal comparison.
 		 */
-		if( value1.getType() == Value.RECORD && value2.getType() == Value.RECORD)
+		final int result = compareNumbers(value1, value2);
+		if( result != NOT_NUMERIC )
+			state = (result != 0);
+		else if( value1.getType() == Value.RECORD && value2.getType() == Value.RECORD)
 			state = !value1.match(value2);
 		else
 			state = (value1.compare(value2) != 0);
 
 		if( env.instruction.integerOperand > 0 ) {
 			if( state )
-				env.codeStream.programCounter = env.instruction.integerOperand;
+				env.frame.programCounter = env.instruction.integerOperand;
 		}
 		else
 			env.push(state);
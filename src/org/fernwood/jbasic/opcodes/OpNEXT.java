@@ -37,10 +37,10 @@ public class OpNEXT extends AbstractOpcode {
 		Statement stmt = env.codeStream.statement;
 		String index = env.instruction.stringOperand;
 		
-		if (!stmt.program.hasLoops())
+		if (!env.frame.hasLoops())
 			throw new JBasicException(Status.NOFOR);
 
-		loop = stmt.program.loopManager.findLoop(index);
+		loop = env.frame.loopManager.findLoop(index);
 		if (loop == null)
 			throw new JBasicException(Status.FORINDEX, index);
 
@@ -51,7 +51,7 @@ public class OpNEXT extends AbstractOpcode {
 		 */
 
 		if (done) {
-			stmt.program.loopManager.removeTopLoop();
+			env.frame.loopManager.removeTopLoop();
 			return;
 		}
 
@@ -69,7 +69,7 @@ public class OpNEXT extends AbstractOpcode {
 		 * Use the operand to return to the top of the loop. 
 		 */
 		
-		env.codeStream.programCounter = env.instruction.integerOperand;
+		env.frame.programCounter = env.instruction.integerOperand;
 		return;
 
 	}
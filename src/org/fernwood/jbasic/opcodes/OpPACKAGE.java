@@ -66,6 +66,10 @@ public class OpPACKAGE extends AbstractOpcode {
 			else
 				throw new JBasicException(Status.ARGTYPE);
 		
+		/*
+		 * Builtin functions may now be found in a different package.
+		 */
+		env.session.functionCache.packagesChanged();
 		return;
 	}
 
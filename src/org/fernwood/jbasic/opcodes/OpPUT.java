@@ -18,8 +18,12 @@ package org.fernwood.jbasic.opcodes;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.BitFieldMap;
 import org.fernwood.jbasic.runtime.JBFBinary;
+import org.fernwood.jbasic.runtime.JBFData;
+import org.fernwood.jbasic.runtime.JBFDatabase;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.JBasicFile;
+import org.fernwood.jbasic.runtime.RecordLayout;
+import org.fernwood.jbasic.value.RecordStreamValue;
 import org.fernwood.jbasic.value.Value;
 
 /**
@@ -29,8 +33,14 @@ import org.fernwood.jbasic.value.Value;
 public class OpPUT extends AbstractOpcode {
 
 	/**
-	 * Write a record to a BINARY file. Top of stack is record definition array,
-	 * second on stack is file identifier.
+	 * Write a record to a BINARY or DATA file. Top of stack is record
+	 * definition array, second on stack is file identifier.  If there is a
+	 * FROM value that is a TABLE, each row is written to a BINARY file as a
+	 * record; see putRecords().
+	 * <p>
+	 * For a DATABASE file, the USING value is the text of a SQL statement
+	 * instead of a record definition, and the FROM value has the parameters
+	 * for the statement.
 	 * 
 	 * @see org.fernwood.jbasic.opcodes.AbstractOpcode#execute(org.fernwood.jbasic.opcodes.InstructionContext)
 	 */
@@ -71,11 +81,31 @@ public class OpPUT extends AbstractOpcode {
 		 */
 
 		final Value fileID = env.pop();
-		randomFile = (JBFBinary) JBasicFile.lookup(env.session, fileID);
-		if (randomFile == null)
+		final JBasicFile outFile = JBasicFile.lookup(env.session, fileID);
+		if (outFile == null)
 			throw new JBasicException(Status.FNOPENOUTPUT, fileID.toString());
 
-		if (randomFile.getMode() != JBasicFile.MODE_BINARY)
+		/*
+		 * A DATABASE file executes the SQL statement, using the FROM value as
+		 * the parameters.
+		 */
+		if (outFile.getMode() == JBasicFile.MODE_DATABASE) {
+			if (fieldList == null)
+				throw new JBasicException(Status.EXPCLAUSE, "USING");
+			((JBFDatabase) outFile).execute(fieldList.getString(), source);
+			return;
+		}
+
+		/*
+		 * A DATA file stores each field as a complete value, so it is handled
+		 * separately from a BINARY file below.
+		 */
+		JBFData dataFile = null;
+		if (outFile.getMode() == JBasicFile.MODE_DATA)
+			dataFile = (JBFData) outFile;
+		else if (outFile.getMode() == JBasicFile.MODE_BINARY)
+			randomFile = (JBFBinary) outFile;
+		else
 			throw new JBasicException(Status.NOTBINARY);
 
 		/*
@@ -103,6 +133,39 @@ public class OpPUT extends AbstractOpcode {
 				throw new JBasicException(Status.INVRECDEF, fieldList.toString());
 		}
 
+		/*
+		 * If every field in a BINARY record has a fixed size, build the whole
+		 * record in a buffer and write it at once.
+		 */
+		if (randomFile != null) {
+			final RecordLayout layout = randomFile.getLayout(fieldList);
+			if (fromRecord && source != null && source.getType() == Value.TABLE) {
+				if (layout == null)
+					throw new JBasicException(Status.INVRECDEF, "TABLE requires fixed size fields");
+				putRecords(randomFile, layout, (RecordStreamValue) source);
+				return;
+			}
+			if (layout != null) {
+				final byte[] record = new byte[layout.size()];
+				for (n = 0; n < fCount; n++) {
+					if (layout.isBitField(n)) {
+						layout.putBitField(record, n, env.localSymbols);
+						continue;
+					}
+					final String nameString = layout.name(n);
+					Value datum = null;
+					if (fromRecord && source != null)
+						datum = source.getElement(nameString);
+					else 
+						datum = env.localSymbols.findReference(nameString, false);
+					if (datum == null)
+						throw new JBasicException(Status.UNKVAR, nameString);
+					layout.put(record, n, datum);
+				}
+				randomFile.putBytes(record);
+				return;
+			}
+		}
 
 		/*
 		 * Loop over each item in the field list and get the datum from the
@@ -134,6 +197,17 @@ public class OpPUT extends AbstractOpcode {
 			if (!typeString.equals("BITFIELD") && datum == null)
 				throw new JBasicException(Status.UNKVAR, nameString);
 
+			/*
+			 * For a DATA file, the value is written as-is, whatever the type
+			 * in the field definition.
+			 */
+			if (dataFile != null) {
+				if (datum == null)
+					throw new JBasicException(Status.UNKVAR, nameString);
+				dataFile.put(datum);
+				continue;
+			}
+
 
 			if (typeString.equals("UNICODE")) {
 				final String stringValue = datum.getString();
@@ -303,6 +377,9 @@ public class OpPUT extends AbstractOpcode {
 				size = 1;
 				kind = Value.BOOLEAN;
 				randomFile.putBoolean(datum.getBoolean());
+			} else if (typeString.equals("VALUE")) {
+				kind = datum.getType();
+				randomFile.putValue(datum);
 			}
 
 			if (kind == Value.UNDEFINED)
@@ -313,4 +390,45 @@ public class OpPUT extends AbstractOpcode {
 		return;
 	}
 
+	/**
+	 * Write every row of a TABLE to a BINARY file as a record, for PUT...FROM
+	 * with a TABLE.  The value of each field is taken from the column of the
+	 * same name, and all the records are written in a single operation.
+	 * 
+	 * @param randomFile the file to write to
+	 * @param layout the layout of the records, which must have a fixed size
+	 * @param table the TABLE holding the rows to write
+	 * @throws JBasicException if the TABLE has no column for a field
+	 */
+	private void putRecords(final JBFBinary randomFile, final RecordLayout layout,
+			final RecordStreamValue table) throws JBasicException {
+
+		/*
+		 * Find the TABLE column for each value in the record.
+		 */
+		final Value columnList = layout.columnNames();
+		final int columnCount = columnList.size();
+		final int[] columns = new int[columnCount];
+		for (int ix = 0; ix < columnCount; ix++) {
+			String name = columnList.getString(ix + 1);
+			name = name.substring(0, name.indexOf('@'));
+			columns[ix] = table.getColumnNumber(name);
+			if (columns[ix] < 1)
+				throw new JBasicException(Status.UNKVAR, name);
+		}
+
+		final int size = layout.size();
+		final int rowCount = table.size();
+		if ((long) rowCount * size > Integer.MAX_VALUE - 8)
+			throw new JBasicException(Status.IOERROR, "TABLE too large to write");
+
+		final byte[] data = new byte[rowCount * size];
+		final Value[] cells = new Value[columnCount];
+		for (int row = 1; row <= rowCount; row++) {
+			for (int ix = 0; ix < columnCount; ix++)
+				cells[ix] = table.getCell(row, columns[ix]);
+			layout.putRow(data, (row - 1) * size, cells);
+		}
+		randomFile.putBytes(data);
+	}
 }
@@ -111,11 +111,17 @@ public class OpQUIT extends AbstractOpcode {
 		}
 		
 		
+		/*
+		 * Files that are still open aren't closed when the session ends, so
+		 * write any output that OUTPUT files are holding in their buffers.
+		 */
+		env.session.flushUserFiles();
+		
 		/*
 		 * Power down the session by reporting that we're no longer
 		 * running, and signal the get-out-of-Dodge message.
 		 */
-		env.codeStream.fRunning = false;
+		env.frame.fRunning = false;
 		env.session.running(false);
 		throw new JBasicException(Status.QUIT);
 
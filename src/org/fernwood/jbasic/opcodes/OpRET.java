@@ -51,8 +51,8 @@ public class OpRET extends AbstractOpcode {
 			 */
 			env.localSymbols.insertLocal("ARG$RESULT", value1);
 
-			if (env.codeStream.debugger != null)
-				env.codeStream.debugger.markReturn();
+			if (env.frame.debugger != null)
+				env.frame.debugger.markReturn();
 			throw new JBasicException(Status.RETURN);
 
 		}
@@ -66,13 +66,13 @@ public class OpRET extends AbstractOpcode {
 			int stackSize = 0;
 
 			if (env.codeStream.fLinked) {
-				if (env.codeStream.statement.program.gosubStack != null)
-					if ((stackSize = env.codeStream.statement.program.gosubStack.size()) != 0) {
+				if (env.frame.gosubStack != null)
+					if ((stackSize = env.frame.gosubStack.size()) != 0) {
 
-						final ScopeControlBlock scope = env.codeStream.statement.program.gosubStack
+						final ScopeControlBlock scope = env.frame.gosubStack
 								.get(stackSize-1);
-						env.codeStream.programCounter = scope.returnStatement + 1;
-						env.codeStream.statement.program.gosubStack.remove(stackSize-1);
+						env.frame.programCounter = scope.returnStatement + 1;
+						env.frame.gosubStack.remove(stackSize-1);
 
 						return;
 					}
@@ -81,8 +81,8 @@ public class OpRET extends AbstractOpcode {
 			}
 		}
 
-		if (env.codeStream.debugger != null)
-			env.codeStream.debugger.markReturn();
+		if (env.frame.debugger != null)
+			env.frame.debugger.markReturn();
 
 		throw new JBasicException(Status.RETURN);
 
@@ -17,6 +17,10 @@
  */
 package org.fernwood.jbasic.opcodes;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.Date;
 import java.util.Iterator;
 
@@ -25,6 +29,7 @@ import org.fernwood.jbasic.Permissions;
 import org.fernwood.jbasic.Program;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.Utility;
+import org.fernwood.jbasic.runtime.BinaryValueWriter;
 import org.fernwood.jbasic.runtime.JBFOutput;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.statements.Statement;
@@ -60,6 +65,8 @@ public class OpSAVE extends AbstractOpcode {
 	 * <li> 1 - save the current program to a file whose name is on the stack
 	 * <li> 2 - save the workspace to a file whose name is on the stack
 	 * <li> 3 - save the workspace to the default filename.
+	 * <li> 4 - save the current program in binary form to a file whose name
+	 * is on the stack
 	 * </list><br><br>
 	 * @param env The instruction context.
 	 * @throws JBasicException indicating a stack over- or under-flow.
@@ -100,6 +107,7 @@ public class OpSAVE extends AbstractOpcode {
 		name = null;
 
 		JBFOutput outFile = null;
+		Program program = null;
 
 		/*
 		 * If the mode is other than 3 and we are in "sandbox" mode we are
@@ -234,7 +242,7 @@ public class OpSAVE extends AbstractOpcode {
 			 * Start by making sure there is a current program.
 			 */
 
-			Program program = null;
+			program = null;
 			if (env.codeStream.statement != null)
 				program = env.codeStream.statement.program;
 
@@ -316,6 +324,52 @@ public class OpSAVE extends AbstractOpcode {
 			break;
 			
 			
+		case 4:
+
+			/*
+			 * SAVE BINARY "file-name"
+			 * 
+			 * The program is written with its compiled code, so loading it
+			 * doesn't need to compile it again.  A protected program is
+			 * written as its protected bytecode.
+			 */
+
+			program = null;
+			if (env.codeStream.statement != null)
+				program = env.codeStream.statement.program;
+
+			if (program == null)
+				program = env.session.programs.getCurrent();
+
+			if (program == null)
+				throw new JBasicException(Status.NOPGM);
+
+			DataOutputStream binaryFile = null;
+			try {
+				binaryFile = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(JBasic.userManager.makeFSPath(env.session, 
+								name.getString()))));
+				final BinaryValueWriter writer = new BinaryValueWriter(binaryFile);
+				writer.writeHeader();
+				writer.writeProgram(program);
+				binaryFile.close();
+				binaryFile = null;
+			} catch (IOException e) {
+				throw new JBasicException(Status.IOERROR, e.toString());
+			} finally {
+				if (binaryFile != null)
+					try {
+						binaryFile.close();
+					} catch (IOException e) {
+						/* Already reporting an error */
+					}
+			}
+
+			program.clearModifiedState();
+			env.session.stdout.println("Program " + program.getName()
+					+ " saved to " + name);
+			break;
+
 		default:
 			throw new JBasicException(Status.FAULT, 
 					new Status(Status.INVOPARG, env.instruction.integerOperand));
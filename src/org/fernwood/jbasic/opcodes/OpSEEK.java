@@ -29,8 +29,9 @@ import org.fernwood.jbasic.value.Value;
 public class OpSEEK extends AbstractOpcode {
 
 	/**
-	 * Position a BINARY file to a given location. The top of stack is the
-	 * location, and the second item is the file identifier.
+	 * Position a BINARY or INPUT file to a given location. The top of stack
+	 * is the location, and the second item is the file identifier.  A mode
+	 * of 2 means the location is a line number in an INPUT file.
 	 * 
 	 * @see org.fernwood.jbasic.opcodes.AbstractOpcode#execute(org.fernwood.jbasic.opcodes.InstructionContext)
 	 */
@@ -42,7 +43,8 @@ public class OpSEEK extends AbstractOpcode {
 		 * Get the file position value.
 		 */
 		final Value filePos = env.pop();
-		long newPos = filePos.getInteger();
+		long newPos = filePos.isType(Value.DOUBLE) ? (long) filePos.getDouble()
+				: filePos.getInteger();
 		int mode = env.instruction.integerOperand;
 		
 		/*
@@ -68,6 +70,8 @@ public class OpSEEK extends AbstractOpcode {
 			 * done for REWIND and SEEK..USING statements.
 			 */
 			
+			if( mode == 2 )
+				throw new JBasicException(Status.WRONGMODE, "INPUT");
 			Value fieldSpec = fileID.getElement("FIELD");
 			if( fieldSpec != null && mode == 0 && newPos > 0) {
 				newPos = (newPos-1) * OpSIZEOF.sizeof(fieldSpec);
@@ -78,15 +82,19 @@ public class OpSEEK extends AbstractOpcode {
 		}
 		
 		/*
-		 * If it's an INPUT file then we have to close and reopen the file
-		 * because it's a stream.  Also, we can only do this if the seek
-		 * location is zero.
+		 * If it's an INPUT file then it can be positioned by line number, or
+		 * by a byte position from GETPOS().  If the file is a stream that
+		 * can't be positioned, the only location allowed is zero.
 		 */
 		if( aFile.getClass() == JBFInput.class) {
-			if( newPos != 0 )
-				throw new JBasicException(Status.WRONGMODE, "BINARY");
 			JBFInput inputFile = (JBFInput) aFile;
-			inputFile.setPos(0);
+			if( mode == 2 ) {
+				inputFile.setLine((int) newPos);
+				return;
+			}
+			if( newPos != 0 && !inputFile.isSeekable())
+				throw new JBasicException(Status.WRONGMODE, "BINARY");
+			inputFile.setPos(newPos);
 			
 			return;
 		}
@@ -43,7 +43,7 @@ public class OpSTMT extends AbstractOpcode {
 			env.session.statementsExecuted++;
 		final int lineNumber = env.instruction.integerOperand;
 		if( lineNumber > 0 )
-			env.codeStream.lastLineNumber = lineNumber;
+			env.frame.lastLineNumber = lineNumber;
 		
 		/*
 		 * If tracing is requested, but we're a protected program, then we don't
@@ -90,11 +90,11 @@ public class OpSTMT extends AbstractOpcode {
 		 * If there is a debugger attached to this code stream, then give it
 		 * a chance to take control on a statement STEP boundary.
 		 */
-		if (env.codeStream.debugger != null) {
-			Status sts = env.codeStream.debugger.step(env.codeStream, env.localSymbols);
+		if (env.frame.debugger != null) {
+			Status sts = env.frame.debugger.step(env.codeStream, env.frame, env.localSymbols);
 			if (sts != null)
 				if (sts.equals(Status.QUIT)) {
-					env.codeStream.debugger = null;
+					env.frame.debugger = null;
 					return;
 				}
 			if( sts != null )
@@ -106,9 +106,9 @@ public class OpSTMT extends AbstractOpcode {
 		 * of a code generation error or an unhandled runtime fault, since the stack
 		 * must be exhausted on each statement boundary.
 		 */
-		if( env.codeStream.dataStack.size() > 0 ) {
+		if( env.frame.dataStack.size() > 0 ) {
 			/* This is only permitted when we are doing ASM operations */
-			Instruction nextOp = env.codeStream.getInstruction(env.codeStream.programCounter);
+			Instruction nextOp = env.codeStream.getInstruction(env.frame.programCounter);
 			if( nextOp.opCode == ByteCode._SBOX)
 				if( nextOp.stringValid)
 					if( nextOp.stringOperand.equals(Permissions.ASM))
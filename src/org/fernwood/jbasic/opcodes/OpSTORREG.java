@@ -35,16 +35,16 @@ public class OpSTORREG extends AbstractOpcode {
 		
 		final Value value1 = env.popForUpdate();
 
-		if( env.codeStream.registers == null )
-			env.codeStream.registers = new RegisterArray(100);
+		if( env.frame.registers == null )
+			env.frame.registers = new RegisterArray(100);
 
 		final int idx = env.instruction.integerOperand;
 		
-		if ((idx < 0) | (idx >= env.codeStream.registers.size()))
+		if ((idx < 0) | (idx >= env.frame.registers.size()))
 			throw new JBasicException(Status.FAULT, 
 				new Status(Status.REGNUM, idx));
 		
-		env.codeStream.registers.set(idx, value1);
+		env.frame.registers.set(idx, value1);
 
 	}
 
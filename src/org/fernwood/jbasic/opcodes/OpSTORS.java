@@ -0,0 +1,65 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ * 
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ * 
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ * 
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.opcodes;
+
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.runtime.SlotLayout;
+import org.fernwood.jbasic.runtime.SymbolTable;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * @author cole
+ * 
+ */
+public class OpSTORS extends AbstractOpcode {
+
+	/**
+	 * Store top stack item in a local variable, using the slot number
+	 * assigned by the Linker.  This is the same as a _STOR to the local
+	 * table, but avoids searching for the variable by name once it has
+	 * been created.
+	 * 
+	 * @see org.fernwood.jbasic.opcodes.AbstractOpcode#execute(org.fernwood.jbasic.opcodes.InstructionContext)
+	 */
+	public void execute(final InstructionContext env) throws JBasicException {
+
+		final Value value1 = env.popForUpdate();
+		final String symbolName = env.instruction.stringOperand;
+		final SymbolTable localTable = env.localSymbols;
+		final SlotLayout layout = env.codeStream.slotLayout;
+
+		/*
+		 * Without a slot layout, this is just a _STOR to the local table.
+		 */
+		if (layout == null) {
+			if( !env.codeStream.fDynamicSymbolCreation && localTable.localReference(symbolName) == null)
+				throw new JBasicException(Status.UNKVAR, symbolName);
+			if( localTable.fRootTable)
+				localTable.insertSynchronized(symbolName, value1);
+			else
+				localTable.insert(symbolName, value1);
+			return;
+		}
+
+		final int slot = env.instruction.integerOperand;
+		if( !env.codeStream.fDynamicSymbolCreation && localTable.localSlot(layout, slot, symbolName) == null)
+			throw new JBasicException(Status.UNKVAR, symbolName);
+
+		localTable.insertSlot(layout, slot, symbolName, value1);
+	}
+
+}
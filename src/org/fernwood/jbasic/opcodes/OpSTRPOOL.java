@@ -15,6 +15,7 @@
  */
 package org.fernwood.jbasic.opcodes;
 
+import org.fernwood.jbasic.compiler.StringPool;
 import org.fernwood.jbasic.runtime.JBasicException;
 
 /**
@@ -31,12 +32,14 @@ public class OpSTRPOOL extends AbstractOpcode {
 	public void execute(final InstructionContext env) throws JBasicException {
 
 		int code = env.instruction.integerOperand;
+		if( env.frame.stringPool == null )
+			env.frame.stringPool = new StringPool();
 				
 		if( env.instruction.integerValid & !env.instruction.stringValid) {
-			env.push(env.codeStream.stringPool.getString(code));
+			env.push(env.frame.stringPool.getString(code));
 		}
 		else
-			env.codeStream.stringPool.addString(env.instruction.stringOperand);
+			env.frame.stringPool.addString(env.instruction.stringOperand);
 	}
 
 }
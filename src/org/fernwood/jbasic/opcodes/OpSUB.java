@@ -17,6 +17,7 @@ package org.fernwood.jbasic.opcodes;
 
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.compiler.Expression;
+import org.fernwood.jbasic.runtime.ByteCode;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.value.Value;
 
@@ -34,8 +35,20 @@ public class OpSUB extends AbstractOpcode {
 	public void execute(final InstructionContext env) throws JBasicException {
 
 		Value sourceValue = env.pop();
-		Value targetValue = env.popForUpdate();
+		Value targetValue = env.pop();
 		
+		/*
+		 * Two scalar numbers can be subtracted without any type negotiation.
+		 */
+		final Value difference = numericResult(ByteCode._SUB, targetValue, sourceValue);
+		if( difference != null ) {
+			env.push(difference);
+			return;
+		}
+		
+		if( targetValue.fSymbol )
+			targetValue = targetValue.copy();
+
 		/*
 		 * You can subtract a string from a record which removes the
 		 * named field if found.  
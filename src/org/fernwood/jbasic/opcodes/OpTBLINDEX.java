@@ -0,0 +1,66 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ * 
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ * 
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ * 
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.opcodes;
+
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.runtime.JBasicException;
+import org.fernwood.jbasic.value.RecordStreamValue;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * Create or drop a secondary index on a TABLE, for the SQL CREATE INDEX
+ * and DROP INDEX statements.
+ * @author cole
+ * 
+ */
+public class OpTBLINDEX extends AbstractOpcode {
+
+	/**
+	 * Opcode argument: delete the named index.
+	 */
+	public static final int DROP = 0;
+
+	/**
+	 * Create or drop the index named in the string operand.  The integer
+	 * operand is DROP, or the TableIndex kind of index to create.
+	 * 
+	 * @see org.fernwood.jbasic.opcodes.AbstractOpcode#execute(org.fernwood.jbasic.opcodes.InstructionContext)
+	 */
+	public void execute(final InstructionContext env) throws JBasicException {
+
+		final String indexName = env.instruction.stringOperand;
+		final int kind = env.instruction.integerOperand;
+
+		String column = null;
+		if( kind != DROP )
+			column = env.pop().getString().toUpperCase();
+
+		final Value tableValue = env.pop();
+		if( !tableValue.isType(Value.TABLE))
+			throw new JBasicException(Status.INVTABLE, tableValue.getName());
+
+		final RecordStreamValue table = (RecordStreamValue) tableValue;
+		Status sts;
+		if( kind == DROP )
+			sts = table.dropIndex(indexName);
+		else
+			sts = table.createIndex(indexName, column, kind);
+
+		if( sts.failed())
+			throw new JBasicException(sts);
+	}
+
+}
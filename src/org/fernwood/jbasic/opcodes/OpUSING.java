@@ -41,7 +41,7 @@ public class OpUSING extends AbstractOpcode {
 		 * in reverse order.
 		 */
 		final int argc = env.instruction.integerOperand;
-		final int top = env.codeStream.stackSize();
+		final int top = env.stackSize();
 		int ix;
 		
 		if( argc < 0 )
@@ -50,7 +50,7 @@ public class OpUSING extends AbstractOpcode {
 
 		for (ix = top - argc; ix < top; ix++) {
 
-			final Value value1 = env.codeStream.getStackElement(ix);
+			final Value value1 = env.get(ix);
 
 			/*
 			 * Format the value. We'll use the result (which contains any
@@ -83,7 +83,7 @@ public class OpUSING extends AbstractOpcode {
 		 * the stack.
 		 */
 
-		env.codeStream.discard(argc);
+		env.discard(argc);
 
 		/*
 		 * Put the formatted string buffer back and we're done.
@@ -15,11 +15,16 @@
  */
 package org.fernwood.jbasic.opcodes;
 
+import java.util.HashMap;
+
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
+import org.fernwood.jbasic.runtime.Instruction;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.SymbolTable;
 import org.fernwood.jbasic.value.RecordStreamValue;
+import org.fernwood.jbasic.value.TableIndex;
 import org.fernwood.jbasic.value.Value;
 
 /**
@@ -86,7 +91,7 @@ public class OpWHERE extends AbstractOpcode {
 
 			boolean fDebugSymbols = env.localSymbols.getBoolean("SYS$SQL_DBGSYMS");
 
-			int pc = env.codeStream.programCounter;
+			int pc = env.frame.programCounter;
 			for( int idx = 0; idx < count; idx++ )
 				whereStream.add(env.codeStream.getInstruction(pc+idx));		
 
@@ -109,29 +114,57 @@ public class OpWHERE extends AbstractOpcode {
 			for( int idx = 1; idx <= memberCount; idx++) {
 				String name = columnNames.getString(idx);
 				int atPos = name.indexOf('@');
-				if( atPos > 1 )
+				if( atPos > 0 )
 					name = name.substring(0,atPos);
 				memberNames[idx-1] = name;
 			}
 
+			/*
+			 * Step three, bind the column references in the clause to
+			 * column positions if possible, so each row can be evaluated
+			 * directly instead of storing its columns in the symbol table.
+			 * This isn't done when the symbol table is being dumped for
+			 * debugging, since the columns wouldn't be in it.
+			 */
+			final boolean fBound = !fDebugSymbols && bindColumns(whereStream, memberNames);
+
+			/*
+			 * Step four, if the clause requires a column to be equal to
+			 * (or in a range of) a constant, and the table has an index
+			 * on that column, only the rows found by the index need to
+			 * be checked.  The whole clause is still run for those rows.
+			 */
+			int[] indexedRows = null;
+			if( fBound )
+				indexedRows = indexedRows(array, whereStream, memberNames, whereTable);
+			final int rowCount = (indexedRows == null) ? array.size() : indexedRows.length;
+
+			if( env.localSymbols.getBoolean("SYS$SQL_EXPLAIN"))
+				env.session.stdout.println("WHERE " + 
+						(array.getName() == null ? "TABLE" : array.getName()) + " USING " + 
+						(indexedRows == null ? "SCAN" : "INDEX") + ", " + 
+						rowCount + " OF " + array.size() + " ROWS CHECKED");
+
 			Value element = null;
 
 			/*
 			 * Now step over each row in the input array. For each
-			 * row, copy the column data into the symbol table for the
-			 * where clause and execute it.
+			 * row, make the column data available to the where clause
+			 * and execute it.  The same frame is used for every row,
+			 * so the clause's data stack is only allocated once.
 			 */
-			for( int idx = 0; idx < array.size(); idx++ ) {
+			final ExecutionFrame whereFrame = new ExecutionFrame(env.session);
+			for( int n = 0; n < rowCount; n++ ) {
+				final int idx = (indexedRows == null) ? n : indexedRows[n] - 1;
 				element = array.getElementAsArray(idx+1);
 
-				for( int memberIdx = 0; memberIdx < memberNames.length; memberIdx++) {
-					String key = memberNames[memberIdx];
-					int at = key.indexOf("@");
-					if( at >=0  )
-						key = key.substring(0,at);
-					Value v = element.getElement(memberIdx+1);
-					whereTable.insertLocal(key, v);
-				}
+				if( fBound )
+					whereFrame.currentRow = element;
+				else
+					for( int memberIdx = 0; memberIdx < memberNames.length; memberIdx++) {
+						Value v = element.getElement(memberIdx+1);
+						whereTable.insertLocal(memberNames[memberIdx], v);
+					}
 
 				/*
 				 * Set the value of the _INDEX_ pseudo variable that is
@@ -143,7 +176,7 @@ public class OpWHERE extends AbstractOpcode {
 				if( fDebugSymbols )
 					whereTable.dumpTable(env.session, true);
 				
-				status = whereStream.run(whereTable, 0);
+				status = whereStream.run(whereFrame, whereTable, 0);
 
 				/*
 				 * If the stream had an error, throw it now.  Otherwise,
@@ -153,14 +186,15 @@ public class OpWHERE extends AbstractOpcode {
 				if( status.failed())
 					throw new JBasicException(status);
 
-				Value include = whereStream.getResult();
+				Value include = whereFrame.getResult();
 
 				if( include != null && include.getBoolean())
 					result.addElement(element);
 			}
+			whereFrame.release();
 		}
 
-		env.codeStream.programCounter += count;
+		env.frame.programCounter += count;
 		
 		if( array.getName() !=null )
 			result.setName(array.getName());
@@ -170,4 +204,272 @@ public class OpWHERE extends AbstractOpcode {
 		return;
 	}
 
+	/**
+	 * Rewrite the variable loads in a WHERE clause that refer to columns of
+	 * the table as _LOADC instructions, which get the column value by
+	 * position from the row the clause is being run against.  Column names
+	 * in string constants, member names, and function names are left alone.
+	 * <p>
+	 * If a column is referenced any other way (such as being stored into),
+	 * the clause can't be bound and the caller must store each row's columns
+	 * in the symbol table.  Any _LOADC instructions already written are
+	 * still correct in that case, because with no current row they look up
+	 * the column by name.
+	 * 
+	 * @param stream the bytecode for the WHERE clause, which is rewritten.
+	 * @param memberNames the column names of the table, in column order.
+	 * @return true if all references to columns were bound to positions.
+	 */
+	static boolean bindColumns(final ByteCode stream, final String[] memberNames) {
+
+		final HashMap<String, Integer> columns = new HashMap<String, Integer>();
+		for( int idx = 0; idx < memberNames.length; idx++ )
+			columns.put(memberNames[idx], Integer.valueOf(idx+1));
+
+		for( int ix = 0; ix < stream.size(); ix++ ) {
+			final Instruction i = stream.getInstruction(ix);
+			if( !i.stringValid || i.stringOperand == null )
+				continue;
+			final Integer column = columns.get(i.stringOperand);
+			if( column == null )
+				continue;
+
+			final int op = i.opCode;
+			if( op == ByteCode._STRING || op == ByteCode._STRPOOL || 
+					op == ByteCode._LOCMEM || op == ByteCode._CALLF || 
+					op == ByteCode._CALLM )
+				continue;
+
+			if( op == ByteCode._LOADS || 
+					((op == ByteCode._LOADREF || op == ByteCode._LOAD) && 
+							(!i.integerValid || i.integerOperand == 0)))
+				stream.setInstruction(new Instruction(ByteCode._LOADC, 
+						column.intValue(), i.stringOperand), ix);
+			else
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Look for a comparison between a column and a constant that must be
+	 * true for a row to be selected, and use an index on the table to find
+	 * the rows where it is true.  The comparison can be the whole clause
+	 * or one of the terms joined by AND at the top level of the clause.
+	 * A variable that isn't a column counts as a constant, since it can't
+	 * change while the clause is being evaluated.
+	 * 
+	 * @param table the table being searched
+	 * @param stream the WHERE clause, with its columns already bound
+	 * @param memberNames the column names of the table, in column order.
+	 * @param symbols the symbol table the clause is run with
+	 * @return the row numbers that need to be checked, or null if no index
+	 * could be used and every row must be checked.
+	 */
+	static int[] indexedRows(final RecordStreamValue table, final ByteCode stream, 
+			final String[] memberNames, final SymbolTable symbols) {
+
+		int end = stream.size();
+		while( true ) {
+			if( end == 2 || end == 3 )
+				return lookupTerm(table, stream, 0, end, memberNames, symbols);
+
+			if( end < 4 )
+				return null;
+			final Instruction last = stream.getInstruction(end-1);
+			if( last.opCode != ByteCode._AND || last.integerOperand != 0 )
+				return null;
+
+			/*
+			 * The right side of the AND is the term that ends just before
+			 * it.  If it is a comparison, use it if there's an index, or
+			 * else go on to the left side of the AND.
+			 */
+			boolean found = false;
+			for( int len = 2; len <= 3 && !found; len++ ) {
+				final int start = end - 1 - len;
+				if( start < 0 || termOperation(stream, start, end-1) < 0 )
+					continue;
+				found = true;
+				final int[] rows = lookupTerm(table, stream, start, end-1, memberNames, symbols);
+				if( rows != null )
+					return rows;
+				end = start;
+			}
+			if( !found )
+				return null;
+		}
+	}
+
+	/**
+	 * Determine if a sequence of instructions is a comparison between a
+	 * column and a constant, and return the comparison it makes.  This is
+	 * a bound column and a constant followed by a comparison opcode (in
+	 * either order), or a bound column followed by a comparison with an
+	 * immediate operand.
+	 * 
+	 * @param stream the code stream
+	 * @param start the first instruction of the term
+	 * @param end the instruction after the last instruction of the term
+	 * @return the TableIndex lookup operation, with the column on the
+	 * left side, or -1 if this isn't a comparison to a constant.
+	 */
+	private static int termOperation(final ByteCode stream, final int start, final int end) {
+
+		final Instruction cmp = stream.getInstruction(end-1);
+		int op;
+		switch( cmp.opCode ) {
+		case ByteCode._EQ:
+			if( cmp.integerOperand != 0 )
+				return -1;
+			op = TableIndex.EQ;
+			break;
+		case ByteCode._LT:
+			op = TableIndex.LT;
+			break;
+		case ByteCode._LE:
+			op = TableIndex.LE;
+			break;
+		case ByteCode._GT:
+			op = TableIndex.GT;
+			break;
+		case ByteCode._GE:
+			op = TableIndex.GE;
+			break;
+		default:
+			return -1;
+		}
+		final boolean immediate = cmp.opCode != ByteCode._EQ && 
+			(cmp.integerValid || cmp.doubleValid || cmp.stringValid);
+
+		if( end - start == 2 ) {
+			if( !immediate || stream.getInstruction(start).opCode != ByteCode._LOADC )
+				return -1;
+			return op;
+		}
+		if( end - start != 3 || immediate )
+			return -1;
+
+		final Instruction first = stream.getInstruction(start);
+		final Instruction second = stream.getInstruction(start+1);
+		if( first.opCode == ByteCode._LOADC && isConstant(second))
+			return op;
+		if( second.opCode != ByteCode._LOADC || !isConstant(first))
+			return -1;
+
+		/*
+		 * The constant is on the left, so flip the comparison around.
+		 */
+		switch( op ) {
+		case TableIndex.LT:
+			return TableIndex.GT;
+		case TableIndex.LE:
+			return TableIndex.GE;
+		case TableIndex.GT:
+			return TableIndex.LT;
+		case TableIndex.GE:
+			return TableIndex.LE;
+		default:
+			return op;
+		}
+	}
+
+	/**
+	 * Use an index to find the rows that satisfy a comparison between a
+	 * column and a constant.
+	 * @param table the table being searched
+	 * @param stream the code stream
+	 * @param start the first instruction of the comparison
+	 * @param end the instruction after the last instruction of the comparison
+	 * @param memberNames the column names of the table, in column order.
+	 * @param symbols the symbol table the clause is run with
+	 * @return the matching row numbers, or null if no index could be used.
+	 */
+	private static int[] lookupTerm(final RecordStreamValue table, final ByteCode stream,
+			final int start, final int end, final String[] memberNames, 
+			final SymbolTable symbols) {
+
+		final int op = termOperation(stream, start, end);
+		if( op < 0 )
+			return null;
+
+		Instruction column = stream.getInstruction(start);
+		Value constant;
+		if( end - start == 2 )
+			constant = immediateValue(stream.getInstruction(start+1));
+		else if( column.opCode == ByteCode._LOADC )
+			constant = constantValue(stream.getInstruction(start+1), symbols);
+		else {
+			constant = constantValue(column, symbols);
+			column = stream.getInstruction(start+1);
+		}
+		if( constant == null || column.integerOperand < 1 || 
+				column.integerOperand > memberNames.length )
+			return null;
+
+		return table.indexLookup(memberNames[column.integerOperand-1], op, constant);
+	}
+
+	/**
+	 * Determine if an instruction pushes a value that doesn't change from
+	 * row to row: a constant, or a variable that isn't a column.
+	 * @param i the instruction
+	 * @return true if the value is the same for every row
+	 */
+	private static boolean isConstant(final Instruction i) {
+		switch( i.opCode ) {
+		case ByteCode._INTEGER:
+		case ByteCode._DOUBLE:
+		case ByteCode._STRING:
+		case ByteCode._BOOL:
+			return true;
+		case ByteCode._LOAD:
+		case ByteCode._LOADREF:
+			if( i.integerValid && i.integerOperand != 0 )
+				return false;
+			return i.stringValid && !i.stringOperand.equals(WHERE_INDEX_NAME);
+		case ByteCode._LOADS:
+			return i.stringValid && !i.stringOperand.equals(WHERE_INDEX_NAME);
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Get the value pushed by an instruction that isConstant() accepts.
+	 * @param i the instruction
+	 * @param symbols the symbol table used to find variables
+	 * @return the value, or null if it isn't available
+	 */
+	private static Value constantValue(final Instruction i, final SymbolTable symbols) {
+		if( !isConstant(i))
+			return null;
+		switch( i.opCode ) {
+		case ByteCode._INTEGER:
+			return new Value(i.integerOperand);
+		case ByteCode._DOUBLE:
+			return new Value(i.doubleOperand);
+		case ByteCode._STRING:
+			return new Value(i.stringOperand);
+		case ByteCode._BOOL:
+			return new Value(i.integerOperand != 0);
+		default:
+			return symbols.findReference(i.stringOperand, true);
+		}
+	}
+
+	/**
+	 * Get the immediate operand of a comparison instruction.
+	 * @param i the instruction
+	 * @return the constant, or null if the instruction doesn't have one
+	 */
+	private static Value immediateValue(final Instruction i) {
+		if( i.integerValid )
+			return new Value(i.integerOperand);
+		if( i.doubleValid )
+			return new Value(i.doubleOperand);
+		if( i.stringValid )
+			return new Value(i.stringOperand);
+		return null;
+	}
 }
@@ -0,0 +1,483 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ * 
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ * 
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ * 
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The storage behind a BINARY file.  The methods have the same behavior as
+ * the RandomAccessFile methods of the same names, including throwing an
+ * EOFException when reading past the end of the file, so JBFBinary can use
+ * either kind of storage without knowing which it has.
+ * <p>
+ * Normally the storage is a RandomAccessFile.  A file opened with the MAPPED
+ * clause is instead accessed through windows of the file mapped into memory,
+ * so each GET or PUT of a field is a memory access rather than a call to the
+ * operating system.
+ * 
+ * @author cole
+ * 
+ */
+abstract class BinaryStore {
+
+	/**
+	 * Open the storage for a file, creating the file if it does not exist.
+	 * @param fsName the file system path name of the file
+	 * @param mapped true if the file is to be memory-mapped
+	 * @return the storage object
+	 * @throws IOException if the file can't be opened
+	 */
+	static BinaryStore open(final String fsName, final boolean mapped) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile(fsName, "rw");
+		if (mapped)
+			return new Mapped(file);
+		return new Direct(file);
+	}
+
+	abstract int read() throws IOException;
+
+	abstract int read(byte[] buffer) throws IOException;
+
+	abstract void readFully(byte[] buffer) throws IOException;
+
+	abstract byte readByte() throws IOException;
+
+	abstract boolean readBoolean() throws IOException;
+
+	abstract short readShort() throws IOException;
+
+	abstract int readInt() throws IOException;
+
+	abstract float readFloat() throws IOException;
+
+	abstract double readDouble() throws IOException;
+
+	abstract void write(int b) throws IOException;
+
+	abstract void write(byte[] buffer) throws IOException;
+
+	abstract void writeBoolean(boolean b) throws IOException;
+
+	abstract void writeShort(int s) throws IOException;
+
+	abstract void writeChar(int c) throws IOException;
+
+	abstract void writeInt(int i) throws IOException;
+
+	abstract void writeFloat(float f) throws IOException;
+
+	abstract void writeDouble(double d) throws IOException;
+
+	abstract long getFilePointer() throws IOException;
+
+	abstract void seek(long position) throws IOException;
+
+	abstract long length() throws IOException;
+
+	abstract void close() throws IOException;
+
+	/**
+	 * Storage that is a RandomAccessFile.
+	 */
+	static final class Direct extends BinaryStore {
+
+		private final RandomAccessFile file;
+
+		Direct(final RandomAccessFile theFile) {
+			file = theFile;
+		}
+
+		int read() throws IOException {
+			return file.read();
+		}
+
+		int read(final byte[] buffer) throws IOException {
+			return file.read(buffer);
+		}
+
+		void readFully(final byte[] buffer) throws IOException {
+			file.readFully(buffer);
+		}
+
+		byte readByte() throws IOException {
+			return file.readByte();
+		}
+
+		boolean readBoolean() throws IOException {
+			return file.readBoolean();
+		}
+
+		short readShort() throws IOException {
+			return file.readShort();
+		}
+
+		int readInt() throws IOException {
+			return file.readInt();
+		}
+
+		float readFloat() throws IOException {
+			return file.readFloat();
+		}
+
+		double readDouble() throws IOException {
+			return file.readDouble();
+		}
+
+		void write(final int b) throws IOException {
+			file.write(b);
+		}
+
+		void write(final byte[] buffer) throws IOException {
+			file.write(buffer);
+		}
+
+		void writeBoolean(final boolean b) throws IOException {
+			file.writeBoolean(b);
+		}
+
+		void writeShort(final int s) throws IOException {
+			file.writeShort(s);
+		}
+
+		void writeChar(final int c) throws IOException {
+			file.writeChar(c);
+		}
+
+		void writeInt(final int i) throws IOException {
+			file.writeInt(i);
+		}
+
+		void writeFloat(final float f) throws IOException {
+			file.writeFloat(f);
+		}
+
+		void writeDouble(final double d) throws IOException {
+			file.writeDouble(d);
+		}
+
+		long getFilePointer() throws IOException {
+			return file.getFilePointer();
+		}
+
+		void seek(final long position) throws IOException {
+			file.seek(position);
+		}
+
+		long length() throws IOException {
+			return file.length();
+		}
+
+		void close() throws IOException {
+			file.close();
+		}
+	}
+
+	/**
+	 * Storage that maps the file into memory, one window at a time.  Each
+	 * window starts at a multiple of WINDOW_SIZE, which is a multiple of the
+	 * page size, and a new window is mapped when an access falls outside the
+	 * current one.  An access that spans two windows is done a byte at a
+	 * time.
+	 * <p>
+	 * Writing past the end of the file makes the file larger by at least a
+	 * window at a time, so that it doesn't have to grow on every PUT, and the
+	 * file is cut back to the size that was actually written when it is
+	 * closed.
+	 */
+	static final class Mapped extends BinaryStore {
+
+		/**
+		 * The size of each window of the file that is mapped.
+		 */
+		private static final int WINDOW_SIZE = 1 << 24;
+
+		private final RandomAccessFile file;
+
+		private final FileChannel channel;
+
+		/**
+		 * The mapped window, or null if no window is mapped.
+		 */
+		private MappedByteBuffer window;
+
+		/**
+		 * The position in the file of the first byte of the window.
+		 */
+		private long windowStart;
+
+		/**
+		 * The number of bytes in the window.
+		 */
+		private int windowSize;
+
+		/**
+		 * The current position in the file.
+		 */
+		private long position;
+
+		/**
+		 * The length of the data in the file, which is less than the size of
+		 * the file on disk if it has been made larger for writing.
+		 */
+		private long length;
+
+		/**
+		 * The size of the file on disk.
+		 */
+		private long capacity;
+
+		/**
+		 * A buffer used to assemble a value that spans two windows.
+		 */
+		private final ByteBuffer scratch = ByteBuffer.allocate(8);
+
+		Mapped(final RandomAccessFile theFile) throws IOException {
+			file = theFile;
+			channel = file.getChannel();
+			length = file.length();
+			capacity = length;
+		}
+
+		/**
+		 * Get the offset in the window of the bytes to be read or written
+		 * at the current position, mapping a new window if needed.
+		 * @param count the number of bytes to access
+		 * @param writing true if the bytes are to be written
+		 * @return the offset in the window, or -1 if the bytes span two
+		 * windows
+		 * @throws IOException if the bytes are past the end of the file when
+		 * reading, or the file can't be mapped
+		 */
+		private int locate(final int count, final boolean writing) throws IOException {
+			final long end = position + count;
+			if (writing) {
+				if (end > capacity) {
+					capacity = ((end + WINDOW_SIZE - 1) / WINDOW_SIZE) * WINDOW_SIZE;
+					file.setLength(capacity);
+					window = null;
+				}
+			} else if (end > length)
+				throw new EOFException();
+
+			if (window == null || position < windowStart || end > windowStart + windowSize) {
+				final long start = (position / WINDOW_SIZE) * WINDOW_SIZE;
+				if (end > start + WINDOW_SIZE)
+					return -1;
+				windowStart = start;
+				windowSize = (int) Math.min(WINDOW_SIZE, capacity - start);
+				window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, windowSize);
+			}
+			return (int) (position - windowStart);
+		}
+
+		/**
+		 * Move past bytes that have been accessed.
+		 * @param count the number of bytes accessed
+		 * @param writing true if the bytes were written
+		 */
+		private void advance(final int count, final boolean writing) {
+			position += count;
+			if (writing && position > length)
+				length = position;
+		}
+
+		/**
+		 * Read bytes that span two windows into the scratch buffer.
+		 */
+		private ByteBuffer readSpan(final int count) throws IOException {
+			scratch.clear();
+			for (int ix = 0; ix < count; ix++)
+				scratch.put(readByte());
+			scratch.flip();
+			return scratch;
+		}
+
+		/**
+		 * Write the bytes in the scratch buffer, which span two windows.
+		 */
+		private void writeSpan() throws IOException {
+			scratch.flip();
+			while (scratch.hasRemaining())
+				write(scratch.get());
+		}
+
+		int read() throws IOException {
+			if (position >= length)
+				return -1;
+			return readByte() & 0xFF;
+		}
+
+		int read(final byte[] buffer) throws IOException {
+			if (buffer.length == 0)
+				return 0;
+			if (position >= length)
+				return -1;
+			final int count = (int) Math.min(buffer.length, length - position);
+			int done = 0;
+			while (done < count) {
+				final long start = (position / WINDOW_SIZE) * WINDOW_SIZE;
+				final int part = (int) Math.min(count - done, start + WINDOW_SIZE - position);
+				final int offset = locate(part, false);
+				window.position(offset);
+				window.get(buffer, done, part);
+				advance(part, false);
+				done += part;
+			}
+			return count;
+		}
+
+		void readFully(final byte[] buffer) throws IOException {
+			if (position + buffer.length > length)
+				throw new EOFException();
+			read(buffer);
+		}
+
+		byte readByte() throws IOException {
+			final int offset = locate(1, false);
+			final byte b = window.get(offset);
+			advance(1, false);
+			return b;
+		}
+
+		boolean readBoolean() throws IOException {
+			return readByte() != 0;
+		}
+
+		short readShort() throws IOException {
+			final int offset = locate(2, false);
+			if (offset < 0)
+				return readSpan(2).getShort();
+			advance(2, false);
+			return window.getShort(offset);
+		}
+
+		int readInt() throws IOException {
+			final int offset = locate(4, false);
+			if (offset < 0)
+				return readSpan(4).getInt();
+			advance(4, false);
+			return window.getInt(offset);
+		}
+
+		float readFloat() throws IOException {
+			return Float.intBitsToFloat(readInt());
+		}
+
+		double readDouble() throws IOException {
+			final int offset = locate(8, false);
+			if (offset < 0)
+				return readSpan(8).getDouble();
+			advance(8, false);
+			return window.getDouble(offset);
+		}
+
+		void write(final int b) throws IOException {
+			final int offset = locate(1, true);
+			window.put(offset, (byte) b);
+			advance(1, true);
+		}
+
+		void write(final byte[] buffer) throws IOException {
+			int done = 0;
+			while (done < buffer.length) {
+				final long start = (position / WINDOW_SIZE) * WINDOW_SIZE;
+				final int part = (int) Math.min(buffer.length - done, start + WINDOW_SIZE - position);
+				final int offset = locate(part, true);
+				window.position(offset);
+				window.put(buffer, done, part);
+				advance(part, true);
+				done += part;
+			}
+		}
+
+		void writeBoolean(final boolean b) throws IOException {
+			write(b ? 1 : 0);
+		}
+
+		void writeShort(final int s) throws IOException {
+			final int offset = locate(2, true);
+			if (offset < 0) {
+				scratch.clear();
+				scratch.putShort((short) s);
+				writeSpan();
+				return;
+			}
+			window.putShort(offset, (short) s);
+			advance(2, true);
+		}
+
+		void writeChar(final int c) throws IOException {
+			writeShort(c);
+		}
+
+		void writeInt(final int i) throws IOException {
+			final int offset = locate(4, true);
+			if (offset < 0) {
+				scratch.clear();
+				scratch.putInt(i);
+				writeSpan();
+				return;
+			}
+			window.putInt(offset, i);
+			advance(4, true);
+		}
+
+		void writeFloat(final float f) throws IOException {
+			writeInt(Float.floatToIntBits(f));
+		}
+
+		void writeDouble(final double d) throws IOException {
+			final int offset = locate(8, true);
+			if (offset < 0) {
+				scratch.clear();
+				scratch.putDouble(d);
+				writeSpan();
+				return;
+			}
+			window.putDouble(offset, d);
+			advance(8, true);
+		}
+
+		long getFilePointer() {
+			return position;
+		}
+
+		void seek(final long newPosition) throws IOException {
+			if (newPosition < 0)
+				throw new IOException("Negative seek offset");
+			position = newPosition;
+		}
+
+		long length() {
+			return length;
+		}
+
+		void close() throws IOException {
+			window = null;
+			try {
+				if (capacity > length)
+					file.setLength(length);
+			} finally {
+				file.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,391 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+import org.fernwood.jbasic.JBasic;
+import org.fernwood.jbasic.Program;
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.compiler.Linkage;
+import org.fernwood.jbasic.statements.Statement;
+import org.fernwood.jbasic.value.RecordStreamValue;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * Read Values, ByteCode, and programs written by a BinaryValueWriter.  See
+ * that class for a description of the format.
+ * <p>
+ * Each read method reads one complete item from the stream.  If the stream
+ * ends before an item is started, the read method returns null so the caller
+ * can tell the end of a file from a file that was cut off in the middle of
+ * an item, which is reported as an error.
+ *
+ * @author cole
+ *
+ */
+public class BinaryValueReader {
+
+	/**
+	 * The stream the data is read from.
+	 */
+	private final DataInput in;
+
+	/**
+	 * The strings read in full so far in the current item, in the order they
+	 * were read, so references to them can be resolved.
+	 */
+	private final ArrayList<String> strings;
+
+	/**
+	 * Create a reader.
+	 * @param stream the stream to read from, which may be a DataInputStream
+	 * or the RandomAccessFile of a BINARY file.
+	 */
+	public BinaryValueReader(final DataInput stream) {
+		in = stream;
+		strings = new ArrayList<String>();
+	}
+
+	/**
+	 * Read and check the header that identifies a binary stream.
+	 * @throws JBasicException if the stream does not start with a header in
+	 * a format this reader understands, or an I/O error occurs
+	 */
+	public void readHeader() throws JBasicException {
+		try {
+			final int magic = in.readInt();
+			if ((magic & 0xFFFFFF00) != (BinaryValueWriter.MAGIC & 0xFFFFFF00))
+				throw new JBasicException(Status.BINFMT, "not a binary data file");
+			if ((magic & 0xFF) > BinaryValueWriter.FORMAT)
+				throw new JBasicException(Status.BINFMT, "format version " + (magic & 0xFF));
+		} catch (EOFException e) {
+			throw new JBasicException(Status.BINFMT, "not a binary data file");
+		} catch (IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Read a Value.
+	 * @return the Value, or null if the stream is at its end
+	 * @throws JBasicException if the data is not valid, or an I/O error occurs
+	 */
+	public Value readValue() throws JBasicException {
+		strings.clear();
+		final int tag = first();
+		if (tag < 0)
+			return null;
+		try {
+			return value(tag);
+		} catch (EOFException e) {
+			throw new JBasicException(Status.BINFMT, "incomplete value");
+		} catch (IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Read a ByteCode stream written by writeByteCode().
+	 * @param session the session that will own the bytecode
+	 * @return the bytecode, or null if the stream is at its end
+	 * @throws JBasicException if the data is not valid, or an I/O error occurs
+	 */
+	public ByteCode readByteCode(final JBasic session) throws JBasicException {
+		strings.clear();
+		final int first = first();
+		if (first < 0)
+			return null;
+		try {
+			return byteCode(session, first, true);
+		} catch (EOFException e) {
+			throw new JBasicException(Status.BINFMT, "incomplete bytecode");
+		} catch (IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Read a program written by writeProgram().  The program is not
+	 * registered in the session; a protected program must also be linked
+	 * before it is run.
+	 * @param session the session that will own the program
+	 * @return the program, or null if the stream is at its end
+	 * @throws JBasicException if the data is not valid, or an I/O error occurs
+	 */
+	public Program readProgram(final JBasic session) throws JBasicException {
+		strings.clear();
+		final int kind = first();
+		if (kind < 0)
+			return null;
+		try {
+			final Program p = new Program(session, string());
+
+			if (kind == BinaryValueWriter.PROGRAM_PROTECTED) {
+				p.setByteCode(byteCode(session, in.readUnsignedByte(), true));
+				return p;
+			}
+			if (kind != BinaryValueWriter.PROGRAM_SOURCE)
+				throw new JBasicException(Status.BINFMT, "invalid program");
+
+			p.setSystemObject(in.readBoolean());
+			p.fStaticTyping = in.readBoolean();
+			final int count = integer();
+			for (int ix = 0; ix < count; ix++)
+				p.addCompiledStatement(statement(session));
+			return p;
+
+		} catch (EOFException e) {
+			throw new JBasicException(Status.BINFMT, "incomplete program");
+		} catch (IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Read the first byte of an item.
+	 * @return the byte, or -1 if the stream is at its end
+	 */
+	private int first() throws JBasicException {
+		try {
+			return in.readUnsignedByte();
+		} catch (EOFException e) {
+			return -1;
+		} catch (IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Read one Value, given the tag that starts it.
+	 */
+	private Value value(final int tag) throws IOException, JBasicException {
+
+		int count;
+		Value v;
+
+		switch (tag) {
+
+		case BinaryValueWriter.TAG_UNDEFINED:
+			return new Value(Value.UNDEFINED, null);
+
+		case BinaryValueWriter.TAG_FALSE:
+			return new Value(false);
+
+		case BinaryValueWriter.TAG_TRUE:
+			return new Value(true);
+
+		case BinaryValueWriter.TAG_INTEGER:
+			return new Value(signed());
+
+		case BinaryValueWriter.TAG_DOUBLE:
+			return new Value(in.readDouble());
+
+		case BinaryValueWriter.TAG_DECIMAL:
+			final int scale = signed();
+			final byte[] digits = new byte[integer()];
+			in.readFully(digits);
+			return new Value(new BigDecimal(new BigInteger(digits), scale));
+
+		case BinaryValueWriter.TAG_STRING:
+			return new Value(text());
+
+		case BinaryValueWriter.TAG_ARRAY:
+			count = integer();
+			v = new Value(Value.ARRAY, null);
+			for (int ix = 0; ix < count; ix++)
+				v.addElementAsIs(value(in.readUnsignedByte()));
+			return v;
+
+		case BinaryValueWriter.TAG_RECORD:
+			count = integer();
+			v = new Value(Value.RECORD, null);
+			for (int ix = 0; ix < count; ix++) {
+				final String key = string();
+				v.setElement(value(in.readUnsignedByte()), key);
+			}
+			return v;
+
+		case BinaryValueWriter.TAG_TABLE:
+			final int width = integer();
+			final Value columns = new Value(Value.ARRAY, null);
+			for (int col = 0; col < width; col++)
+				columns.addElementAsIs(new Value(string()));
+			final RecordStreamValue table = new RecordStreamValue(columns);
+			count = integer();
+			for (int row = 0; row < count; row++) {
+				final Value rowArray = new Value(Value.ARRAY, null);
+				for (int col = 0; col < width; col++)
+					rowArray.addElementAsIs(value(in.readUnsignedByte()));
+				table.addElement(rowArray);
+			}
+			return table;
+
+		default:
+			throw new JBasicException(Status.BINFMT, "invalid value type " + tag);
+		}
+	}
+
+	/**
+	 * Read a ByteCode stream, given its first byte, which tells if the
+	 * bytecode has a name.
+	 * @param withLabels true if a label map follows the instructions
+	 */
+	private ByteCode byteCode(final JBasic session, final int first, final boolean withLabels)
+			throws IOException {
+
+		final ByteCode bc = new ByteCode(session);
+		bc.setName(first != 0 ? string() : null);
+		final int flags = in.readUnsignedByte();
+		bc.fLinked = (flags & 1) != 0;
+		bc.fDynamicSymbolCreation = (flags & 2) != 0;
+		bc.fLocallyScoped = (flags & 4) != 0;
+		bc.fHasErrorHandler = (flags & 8) != 0;
+		bc.returnType = integer();
+
+		final int count = integer();
+		bc.byteCode = new ArrayList<Instruction>(count);
+		for (int ix = 0; ix < count; ix++) {
+			final Instruction i = new Instruction(integer());
+			final int operands = in.readUnsignedByte();
+			i.integerValid = (operands & 1) != 0;
+			i.doubleValid = (operands & 2) != 0;
+			i.stringValid = (operands & 4) != 0;
+			i.branchTarget = (operands & 8) != 0;
+			if (i.integerValid)
+				i.integerOperand = signed();
+			if (i.doubleValid)
+				i.doubleOperand = in.readDouble();
+			if (i.stringValid)
+				i.stringOperand = string();
+			bc.byteCode.add(i);
+		}
+
+		if (!withLabels)
+			return bc;
+		final int labels = integer();
+		if (labels > 0) {
+			bc.labelMap = new TreeMap<String, Linkage>();
+			for (int ix = 0; ix < labels; ix++) {
+				final String label = string();
+				bc.labelMap.put(label, new Linkage(label, integer()));
+			}
+		}
+		return bc;
+	}
+
+	/**
+	 * Read a compiled statement.
+	 */
+	private Statement statement(final JBasic session) throws IOException {
+
+		final Statement s = new Statement(session);
+		s.statementText = text();
+		s.statementLabel = optional();
+		s.declarationName = optional();
+		s.lineNumber = signed();
+		s.statementID = signed();
+		final int flags = in.readUnsignedByte();
+		s.fEmptyStatement = (flags & 1) != 0;
+		s.fDeclaration = (flags & 2) != 0;
+		s.indent = integer();
+		final String code = optional();
+		s.status = (code == null) ? null : new Status(code);
+
+		final int positions = integer();
+		if (positions > 0) {
+			s.lineNumberPositions = new int[Math.max(positions, JBasic.LINENUMBERSPERSTATEMENT)];
+			for (int ix = 0; ix < positions; ix++)
+				s.lineNumberPositions[ix] = integer();
+			s.lineNumberPosCount = positions;
+		}
+
+		if ((flags & 4) != 0) {
+			s.byteCode = byteCode(session, in.readUnsignedByte(), false);
+			s.byteCode.statement = s;
+		}
+		return s;
+	}
+
+	/**
+	 * Read a non-negative integer written by BinaryValueWriter.integer().
+	 */
+	private int integer() throws IOException {
+		int result = 0;
+		int shift = 0;
+		while (true) {
+			final int b = in.readUnsignedByte();
+			result |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return result;
+			shift += 7;
+			if (shift > 28)
+				throw new IOException("invalid integer in binary data");
+		}
+	}
+
+	/**
+	 * Read an integer written by BinaryValueWriter.signed().
+	 */
+	private int signed() throws IOException {
+		final int n = integer();
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	/**
+	 * Read a string written by BinaryValueWriter.text().
+	 */
+	private String text() throws IOException {
+		final byte[] bytes = new byte[integer()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	/**
+	 * Read a string written by BinaryValueWriter.string().
+	 */
+	private String string() throws IOException {
+		return string(integer());
+	}
+
+	/**
+	 * Read a string written by BinaryValueWriter.string(), given the number
+	 * already read that starts it.
+	 */
+	private String string(final int id) throws IOException {
+		if (id > 0) {
+			if (id > strings.size())
+				throw new IOException("invalid string reference in binary data");
+			return strings.get(id - 1);
+		}
+		final String s = text();
+		strings.add(s);
+		return s;
+	}
+
+	/**
+	 * Read a string that may be null.
+	 */
+	private String optional() throws IOException {
+		return in.readBoolean() ? string() : null;
+	}
+}
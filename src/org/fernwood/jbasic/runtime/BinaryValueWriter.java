@@ -0,0 +1,385 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.fernwood.jbasic.Program;
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.compiler.Linkage;
+import org.fernwood.jbasic.statements.Statement;
+import org.fernwood.jbasic.value.RecordStreamValue;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * Write Values, ByteCode, and programs to a stream in the JBasic binary
+ * format.  This is much smaller and faster to write and read than the XML
+ * representation of a Value, and is used for DATA files, for the VALUE field
+ * type in BINARY files, for SAVE BINARY, and for the compiled program cache.
+ * The data is read back with a BinaryValueReader.
+ * <p>
+ * Each item written by writeValue(), writeByteCode(), or writeProgram() is
+ * self-contained; it can be read without reading anything else in the
+ * stream first.  Within an item, integers are written in a variable length
+ * form so small numbers take a single byte, and each record field name or
+ * bytecode string operand is written in full only the first time it is
+ * used.  After that it is written as a reference to the first use, so an
+ * array of records with the same fields only stores the field names once.
+ * <p>
+ * A stream that holds nothing but binary items (a DATA file or a SAVE
+ * BINARY file) starts with a header written by writeHeader(), which the
+ * reader uses to recognize the file and its format version.
+ *
+ * @author cole
+ *
+ */
+public class BinaryValueWriter {
+
+	/**
+	 * The version of the binary format.  A reader will not read data written
+	 * in a newer format than it knows.
+	 */
+	public static final int FORMAT = 1;
+
+	/**
+	 * The first four bytes of a binary stream, "JBV" followed by the format
+	 * version.
+	 */
+	public static final int MAGIC = 0x4A425600 + FORMAT;
+
+	/*
+	 * The tags that start each Value in the stream.
+	 */
+	static final int TAG_UNDEFINED = 0;
+	static final int TAG_FALSE = 1;
+	static final int TAG_TRUE = 2;
+	static final int TAG_INTEGER = 3;
+	static final int TAG_DOUBLE = 4;
+	static final int TAG_DECIMAL = 5;
+	static final int TAG_STRING = 6;
+	static final int TAG_ARRAY = 7;
+	static final int TAG_RECORD = 8;
+	static final int TAG_TABLE = 9;
+
+	/*
+	 * The tags that start each item written by writeProgram(), which say if
+	 * the program is stored as statements or as protected bytecode.
+	 */
+	static final int PROGRAM_SOURCE = 1;
+	static final int PROGRAM_PROTECTED = 2;
+
+	/**
+	 * The stream the data is written to.
+	 */
+	private final DataOutput out;
+
+	/**
+	 * The strings written in full in the current item, and the number each
+	 * is referred to by after that.
+	 */
+	private final HashMap<String, Integer> strings;
+
+	/**
+	 * Create a writer.
+	 * @param stream the stream to write to, which may be a DataOutputStream
+	 * or the RandomAccessFile of a BINARY file.
+	 */
+	public BinaryValueWriter(final DataOutput stream) {
+		out = stream;
+		strings = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Write the header that identifies a binary stream.
+	 * @throws JBasicException if an I/O error occurs
+	 */
+	public void writeHeader() throws JBasicException {
+		try {
+			out.writeInt(MAGIC);
+		} catch (IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Write a Value, including all the members of an ARRAY, RECORD, or TABLE.
+	 * @param value the value to write
+	 * @throws JBasicException if the value contains an OBJECT, or an I/O error
+	 * occurs
+	 */
+	public void writeValue(final Value value) throws JBasicException {
+		strings.clear();
+		try {
+			value(value);
+		} catch (IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Write a ByteCode stream, with its label map if it has one.
+	 * @param bc the bytecode to write
+	 * @throws JBasicException if an I/O error occurs
+	 */
+	public void writeByteCode(final ByteCode bc) throws JBasicException {
+		strings.clear();
+		try {
+			byteCode(bc, true);
+		} catch (IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Write a program.  An unprotected program is written as its statements,
+	 * each with the statement text and compiled bytecode, so it can be listed
+	 * and changed after it is read back.  A protected program is written as
+	 * its linked executable bytecode, since it has no statements.
+	 * @param program the program to write
+	 * @throws JBasicException if an I/O error occurs
+	 */
+	public void writeProgram(final Program program) throws JBasicException {
+		strings.clear();
+		try {
+			if (program.isProtected()) {
+				out.writeByte(PROGRAM_PROTECTED);
+				string(program.getName());
+				byteCode(program.getExecutable(), true);
+				return;
+			}
+			out.writeByte(PROGRAM_SOURCE);
+			string(program.getName());
+			out.writeBoolean(program.isSystemObject());
+			out.writeBoolean(program.fStaticTyping);
+			final int count = program.statementCount();
+			integer(count);
+			for (int ix = 0; ix < count; ix++)
+				statement(program.getStatement(ix));
+		} catch (IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Write one Value.
+	 */
+	private void value(final Value value) throws IOException, JBasicException {
+
+		if (value == null) {
+			out.writeByte(TAG_UNDEFINED);
+			return;
+		}
+
+		int count;
+		switch (value.getType()) {
+
+		case Value.UNDEFINED:
+			out.writeByte(TAG_UNDEFINED);
+			break;
+
+		case Value.BOOLEAN:
+			out.writeByte(value.getBoolean() ? TAG_TRUE : TAG_FALSE);
+			break;
+
+		case Value.INTEGER:
+			out.writeByte(TAG_INTEGER);
+			signed(value.getInteger());
+			break;
+
+		case Value.DOUBLE:
+			out.writeByte(TAG_DOUBLE);
+			out.writeDouble(value.getDouble());
+			break;
+
+		case Value.DECIMAL:
+			final BigDecimal d = value.getDecimal();
+			final byte[] digits = d.unscaledValue().toByteArray();
+			out.writeByte(TAG_DECIMAL);
+			signed(d.scale());
+			integer(digits.length);
+			out.write(digits);
+			break;
+
+		case Value.STRING:
+			out.writeByte(TAG_STRING);
+			text(value.getString());
+			break;
+
+		case Value.ARRAY:
+			count = value.size();
+			out.writeByte(TAG_ARRAY);
+			integer(count);
+			for (int ix = 1; ix <= count; ix++)
+				value(value.getElement(ix));
+			break;
+
+		case Value.RECORD:
+			final ArrayList<String> keys = value.recordFieldNames();
+			out.writeByte(TAG_RECORD);
+			integer(keys.size());
+			for (final Iterator<String> i = keys.iterator(); i.hasNext();) {
+				final String key = i.next();
+				string(key);
+				value(value.getElement(key));
+			}
+			break;
+
+		case Value.TABLE:
+			final RecordStreamValue table = (RecordStreamValue) value;
+			final Value columns = table.columnNames();
+			final int width = columns.size();
+			count = table.size();
+			out.writeByte(TAG_TABLE);
+			integer(width);
+			for (int col = 1; col <= width; col++)
+				string(columns.getString(col));
+			integer(count);
+			for (int row = 1; row <= count; row++)
+				for (int col = 1; col <= width; col++)
+					value(table.getCell(row, col));
+			break;
+
+		default:
+			throw new JBasicException(Status.WRONGTYPE, "a value that can be written to a file");
+		}
+	}
+
+	/**
+	 * Write a ByteCode stream.
+	 * @param withLabels true if the label map is written too
+	 */
+	private void byteCode(final ByteCode bc, final boolean withLabels) throws IOException {
+
+		optional(bc.getName());
+		out.writeByte((bc.fLinked ? 1 : 0) | (bc.fDynamicSymbolCreation ? 2 : 0)
+				| (bc.fLocallyScoped ? 4 : 0) | (bc.fHasErrorHandler ? 8 : 0));
+		integer(bc.returnType);
+
+		final int count = bc.size();
+		integer(count);
+		for (int ix = 0; ix < count; ix++) {
+			final Instruction i = bc.getInstruction(ix);
+			integer(i.opCode);
+			out.writeByte((i.integerValid ? 1 : 0) | (i.doubleValid ? 2 : 0)
+					| (i.stringValid ? 4 : 0) | (i.branchTarget ? 8 : 0));
+			if (i.integerValid)
+				signed(i.integerOperand);
+			if (i.doubleValid)
+				out.writeDouble(i.doubleOperand);
+			if (i.stringValid)
+				string(i.stringOperand);
+		}
+
+		if (!withLabels)
+			return;
+		if (bc.labelMap == null) {
+			integer(0);
+			return;
+		}
+		integer(bc.labelMap.size());
+		for (final Iterator<Map.Entry<String, Linkage>> i = bc.labelMap.entrySet().iterator(); i.hasNext();) {
+			final Map.Entry<String, Linkage> entry = i.next();
+			string(entry.getKey());
+			integer(entry.getValue().byteAddress);
+		}
+	}
+
+	/**
+	 * Write a compiled statement.  The statement's bytecode has no label map,
+	 * which is only created when the program is linked.
+	 */
+	private void statement(final Statement s) throws IOException {
+
+		text(s.statementText == null ? "" : s.statementText);
+		optional(s.statementLabel);
+		optional(s.declarationName);
+		signed(s.lineNumber);
+		signed(s.statementID);
+		out.writeByte((s.fEmptyStatement ? 1 : 0) | (s.fDeclaration ? 2 : 0)
+				| (s.byteCode != null ? 4 : 0));
+		integer(s.indent);
+		optional(s.status == null ? null : s.status.getCode());
+
+		integer(s.lineNumberPosCount);
+		for (int ix = 0; ix < s.lineNumberPosCount; ix++)
+			integer(s.lineNumberPositions[ix]);
+
+		if (s.byteCode != null)
+			byteCode(s.byteCode, false);
+	}
+
+	/**
+	 * Write a non-negative integer, seven bits at a time with the high bit of
+	 * each byte set if there are more bytes to follow.
+	 */
+	private void integer(final int n) throws IOException {
+		int v = n;
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	/**
+	 * Write an integer that may be negative, mapping small negative numbers
+	 * to small positive ones so they are also short.
+	 */
+	private void signed(final int n) throws IOException {
+		integer((n << 1) ^ (n >> 31));
+	}
+
+	/**
+	 * Write the characters of a string as UTF-8, preceded by the length in
+	 * bytes.  Unlike DataOutput.writeUTF() there is no limit on the length.
+	 */
+	private void text(final String s) throws IOException {
+		final byte[] bytes = s.getBytes("UTF-8");
+		integer(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Write a string that is likely to be used more than once in an item.
+	 * The first time it is written in full, preceded by a zero; after that
+	 * it is written as its number, counting from one.
+	 */
+	private void string(final String s) throws IOException {
+		final Integer id = strings.get(s);
+		if (id != null) {
+			integer(id.intValue());
+			return;
+		}
+		integer(0);
+		text(s);
+		strings.put(s, Integer.valueOf(strings.size() + 1));
+	}
+
+	/**
+	 * Write a string that may be null.
+	 */
+	private void optional(final String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null)
+			string(s);
+	}
+}
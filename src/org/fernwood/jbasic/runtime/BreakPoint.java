@@ -146,13 +146,15 @@ public class BreakPoint {
 			return false;
 		}
 
-		final Status sts = whenClause.run(t, 0);
+		final ExecutionFrame frame = new ExecutionFrame(whenClause.getSession());
+		final Status sts = whenClause.run(frame, t, 0);
+		final Value v = frame.getResult();
+		frame.release();
 		if (sts.failed()) {
 			//alreadySignalled = false;
 			return false;
 		}
 
-		final Value v = whenClause.getResult();
 		if (v == null) {
 			//alreadySignalled = false;
 			return false;
@@ -62,6 +62,9 @@ import org.fernwood.jbasic.value.Value;
  * execution scope (i.e. the currently CALLed program, etc.) and links to the
  * symbol tables of parents and the global tables.  When you execute a stream,
  * you can optionally fetch a result from it if it contains only an expression.
+ * The state of each execution (the program counter, data stack, and so on)
+ * is kept in an ExecutionFrame rather than in the ByteCode, so the same
+ * stream can be run by several sessions at once.
  * <br>
  * <p><br>
  * <code>
@@ -73,8 +76,9 @@ import org.fernwood.jbasic.value.Value;
  * </code>
  * <p><br>
  * <code>
- * Status sts = bc.run( <em>symbols</em> );<br>
- * Value v = bc.getResult();<br>
+ * ExecutionFrame frame = new ExecutionFrame( session );<br>
+ * Status sts = bc.run( frame, <em>symbols</em>, 0 );<br>
+ * Value v = frame.getResult();<br>
  * </code>
  * <br>
  * <p>
@@ -1743,93 +1747,78 @@ public class ByteCode {
 	 */
 	public static final int _DECOMP = 174;
 	
-	
 	/**
-	 * The instance of the debugger to attach to this bytecode stream, if any.
+	 * <code>_LOADS <em>slot</em>, "symbol"</code><br><br>
+	 * Load a reference to a local variable using the frame slot number 
+	 * assigned by the Linker.  This is the same as _LOADREF "symbol" but
+	 * once the variable has been found in the local table it is located
+	 * by slot number rather than by name.
 	 */
-	public JBasicDebugger debugger;
+	public static final int _LOADS = 175;
 
 	/**
-	 * The vector of "compiled" opcodes that will be executed.  Note that this
-	 * is implemented as an ArrayList, not a Vector, so it is not thread-safe.
-	 * A byteCode array should not be compiled by two or more threads simultaneously.
-	 * <p>
-	 * <strong>There is currently no code to explicitly prevent threads competing
-	 * for use of this data structure!</strong>
+	 * <code>_STORS <em>slot</em>, "symbol"</code><br><br>
+	 * Store the top stack item in a local variable using the frame slot
+	 * number assigned by the Linker.  This is the same as _STOR "symbol".
 	 */
-	public ArrayList<Instruction> byteCode;
+	public static final int _STORS = 176;
 
 	/**
-	 * An arrayValue of registers used to hold temporary values.
+	 * <code>_LOADC <em>column</em>, "symbol"</code><br><br>
+	 * Load a copy of a column of the TABLE row that a WHERE clause is being
+	 * evaluated against, using the 1-based column position.  The symbol
+	 * name is the column name, and is used to look up the value by name if
+	 * there is no current row.
 	 */
-
-	public RegisterArray registers;
+	public static final int _LOADC = 177;
 
 	/**
-	 * The runtime stack used to hold values. ByteCode is essentially an RPN
-	 * notation language. Data items are pushed on a stack to make them
-	 * available to instructions. Instructions then pop zero or more items from
-	 * the stack to get data items to operate on, as required by each
-	 * instruction. The stack is last-in, first-out.
-	 * 
-	 * This was originally implemented as a Vector, but since stacks are always
-	 * private to the threads running them, ArrayList was used instead because
-	 * it is not synchronized. (This runs about 15% faster.)
-	 * 
+	 * <code>_TBLINDEX <em>kind</em>, "index"</code><br><br>
+	 * Create or drop a secondary index on a TABLE.  If the kind is
+	 * zero, the TABLE on the stack has the named index deleted.  Otherwise
+	 * the kind is the kind of index to create (1 for HASH, 2 for TREE),
+	 * and the stack holds the column name on top of the TABLE.
 	 */
-	public ArrayList<Value> dataStack;
+	public static final int _TBLINDEX = 178;
 
 	/**
-	 * Return the size of the stack.
-	 * 
-	 * @return An integer indicating the size of the runtime data stack,or zero
-	 *         if one has not been created yet.
+	 * <code>_GROUP <em>count</em>, "columns"</code><br><br>
+	 * Group the rows of a TABLE for a SQL SELECT with aggregate functions
+	 * or a GROUP BY clause.  The stack holds the TABLE, with <em>count</em>
+	 * strings on top of it that describe each column of the result, in the
+	 * form "function column name".  The string operand, if present, is
+	 * the comma-separated list of GROUP BY columns.  The resulting TABLE
+	 * has one row for each group.
 	 */
-	public int stackSize() {
-		if( dataStack == null )
-			return 0;
-		return dataStack.size();
-	}
+	public static final int _GROUP = 179;
 
 	/**
-	 * Return a specific element from the stack by ordinal position, rather than
-	 * just the "top item". This is used when reading lists pushed on the stack
-	 * in reverse order, such as function arguments. The stack is not modified
-	 * by this operation.
-	 * 
-	 * @param i
-	 *            The 0-based ordinal position on the stack
-	 * @return The Value object at that location on the stack.
+	 * <code>_FLUSH <em>mode</em></code><br><br>
+	 * Flush or set the buffering of the OUTPUT file whose identifier is on
+	 * the top of the stack.  A mode of zero writes any buffered output to
+	 * the file.  Otherwise the mode is one of the JBFOutput SYNC_ modes, and
+	 * the stack holds the interval (a count of lines or milliseconds) under
+	 * the file identifier.
 	 */
-	public Value getStackElement(final int i) {
-		if (dataStack == null)
-			return null;
-		return dataStack.get(i);
-	}
-
+	public static final int _FLUSH = 180;
+	
+	
 	/**
-	 * Get the top of the active expression stack. This is used when a bytecode
-	 * stream is used to calculate an expression, and the result of the
-	 * expression has been left on the top of the stack.
-	 * 
-	 * @return The top item is popped from the stack, and returned to the
-	 *         caller. If there is no top item on the stack, a null is returned.
-	 */
-	public Value getResult() {
-		Value v = null;
-		final int top = dataStack.size();
-		if (top > 0) {
-			v = dataStack.remove(top - 1);
-		}
-		return v;
-	}
+	 * The instance of the debugger to attach to each run of this bytecode
+	 * stream, if any.  A debugger can also be attached to a single run of
+	 * the stream through its ExecutionFrame.
+	 */
+	public JBasicDebugger debugger;
 
 	/**
-	 * Flag indicating if the ByteCode stream is currently running. The run()
-	 * method uses this to control the execution loop, and it is set to false
-	 * when an _END instruction is encountered.
+	 * The vector of "compiled" opcodes that will be executed.  Note that this
+	 * is implemented as an ArrayList, not a Vector, so it is not thread-safe.
+	 * A byteCode array should not be compiled by two or more threads simultaneously.
+	 * <p>
+	 * <strong>There is currently no code to explicitly prevent threads competing
+	 * for use of this data structure!</strong>
 	 */
-	public boolean fRunning;
+	public ArrayList<Instruction> byteCode;
 
 	/**
 	 * This flag indicates if the byteCode is a fully linked program versus a
@@ -1838,12 +1827,6 @@ public class ByteCode {
 	 */
 	public boolean fLinked;
 
-	/**
-	 * The current instruction being executed by the run() method, in the
-	 * arrayValue of byteCode instructions.
-	 */
-	public int programCounter;
-
 	/**
 	 * A reference to the containing statement. This is required for branch
 	 * management, etc. to find the program that goes with this statement.
@@ -1851,13 +1834,6 @@ public class ByteCode {
 
 	public Statement statement;
 
-	/**
-	 * A stored Status value that reflects the ending state of the bytecode
-	 * stream when the statement ended. This is examined after the run() method
-	 * is called to determine the results of the statement execution.
-	 */
-	public Status status;
-
 	/**
 	 * This is a cross-reference map (of linkage objects) that are used to match
 	 * statement labels to byteCode addresses. This is created when a byteCode
@@ -1867,6 +1843,26 @@ public class ByteCode {
 	 */
 	public TreeMap<String, Linkage> labelMap;
 
+	/**
+	 * The map of local variable names to frame slot numbers used by the
+	 * _LOADS and _STORS instructions in this stream.  This is created by
+	 * the Linker, and is null if the stream has no slot instructions (or
+	 * came from assembled protected code, in which case the slot 
+	 * instructions fall back to looking up the variable by name).
+	 */
+	public SlotLayout slotLayout;
+
+	/**
+	 * Return the number of distinct local variables the linker found in this
+	 * bytecode stream.  This is used to size the symbol table created when
+	 * the code is called.
+	 * @return the number of slot-addressed variables, or zero if the stream
+	 * has not been linked.
+	 */
+	public int localVariableCount() {
+		return slotLayout == null ? 0 : slotLayout.size();
+	}
+
 	/**
 	 * This is a string pool used to handle string constants in protected code
 	 * that must pass through the assembler. This is not used otherwise.
@@ -1878,12 +1874,6 @@ public class ByteCode {
 	 */
 	private String name;
 
-	/**
-	 * This is the last line number found in a STMT opcode.  This is used to
-	 * report errors at runtime by locating the offending statement.
-	 */
-	public int lastLineNumber;
-
 	/**
 	 * If this string buffer is non-null, then reference operations (_LOADREF,
 	 * _LOADR, etc.) are converted into text representations and put in this
@@ -1896,7 +1886,7 @@ public class ByteCode {
 
 	/**
 	 * This is the initial stack size for the runtime stack.  This stack is 
-	 * created each time an execution context is started, and manages the
+	 * created the first time an execution context is started, and manages the
 	 * runtime data stack used for expression handling, etc.  This number
 	 * should be low enough that we don't waste memory, but large enough
 	 * that the likelihood of the stack growing beyond this is small, since
@@ -1918,14 +1908,6 @@ public class ByteCode {
 	 */
 	public boolean fHasErrorHandler;
 
-	/**
-	 * This is the storage structure for the pooled string area for the
-	 * current byte code stream.  This will be null if string pooling was
-	 * not enabled, and is not used until the code stream is linked.
-	 */
-	
-	public StringPool stringPool;
-
 	/**
 	 * Flag used to indicate if symbols can be dynamically constructed when they are 
 	 * referenced as lvalues but do not yet exist.  The default BASIC behavior is that
@@ -1939,6 +1921,24 @@ public class ByteCode {
 	 * be scoped locally or allowed to participate in a multiply-scoped table set.
 	 */
 	public boolean fLocallyScoped;
+
+	/**
+	 * The JVM class generated for this bytecode stream by the JIT compiler,
+	 * if it has been compiled.  This is discarded whenever the instruction
+	 * vector is modified.
+	 */
+	private CompiledByteCode compiled;
+
+	/**
+	 * Set if this stream could not be compiled, so it isn't tried again.
+	 */
+	private boolean compileFailed;
+
+	/**
+	 * The number of instructions executed in this stream by the standard
+	 * loop while waiting to reach the JIT compile threshold.
+	 */
+	private int hotCount;
 	
 	/**
 	 * Constructor for making a new byteCode object, which contains executable
@@ -2044,7 +2044,6 @@ public class ByteCode {
 		}
 		returnType = Value.UNDEFINED;
 		popReturn = false;
-		registers = new RegisterArray(100);
 	}
 
 	/**
@@ -2053,8 +2052,7 @@ public class ByteCode {
 	 * characteristics and state as a string.
 	 * 
 	 * @return A string containing a description of the object, including it's
-	 *         linked and running state, number of instructions, and current
-	 *         program counter.
+	 *         linked state and number of instructions.
 	 */
 	public String toString() {
 		String result = "Bytecode";
@@ -2062,10 +2060,6 @@ public class ByteCode {
 			result = result + ", " + byteCode.size() + " instructions";
 		if (fLinked)
 			result = result + ", linked";
-		if (fRunning)
-			result = result + ", running";
-		if (programCounter > 0)
-			result = result + ", PC=" + programCounter;
 		if (statement != null)
 			result = result + ", statement=" + statement;
 		return result;
@@ -2106,6 +2100,7 @@ public class ByteCode {
 	public void setInstruction(final Instruction i, final int n) {
 		if ((n < 0) | (n > byteCode.size() + 1))
 			return;
+		compiled = null;
 		if (n > byteCode.size())
 			byteCode.add(i);
 		else
@@ -2359,6 +2354,38 @@ public class ByteCode {
 		return new Status(Status.SUCCESS);
 	}
 
+	/**
+	 * Make a copy of an unlinked ByteCode stream for use by another statement,
+	 * possibly in another session.  Each instruction is copied, because
+	 * linking a program modifies the instructions of its statements as they
+	 * are concatenated into the program's executable.
+	 *
+	 * @param newSession
+	 *            The session that owns the copy, or null if it is not yet
+	 *            owned by a session.
+	 * @param newStatement
+	 *            The statement that will contain the copy.
+	 * @return a new ByteCode object with the same instructions.
+	 */
+	public ByteCode copy(final JBasic newSession, final Statement newStatement) {
+
+		final ByteCode bc = new ByteCode(newSession);
+		bc.statement = newStatement;
+		bc.byteCode = new ArrayList<Instruction>(byteCode.size());
+		for (int ix = 0; ix < byteCode.size(); ix++)
+			bc.byteCode.add(new Instruction(byteCode.get(ix)));
+
+		bc.name = name;
+		bc.fLinked = fLinked;
+		bc.popReturn = popReturn;
+		bc.returnType = returnType;
+		bc.fHasErrorHandler = fHasErrorHandler;
+		bc.fDynamicSymbolCreation = fDynamicSymbolCreation;
+		bc.fLocallyScoped = fLocallyScoped;
+		bc.initialStackSize = initialStackSize;
+		return bc;
+	}
+
 	/**
 	 * Disassemble the instructions for the current ByteCode stream.
 	 * 
@@ -2510,7 +2537,7 @@ public class ByteCode {
 	 *         specifics of the syntax error.
 	 */
 	public Status assemble(final String buffer) {
-		status = new Status(Status.SUCCESS);
+		Status status = new Status(Status.SUCCESS);
 		final Tokenizer t = new Tokenizer(buffer, JBasic.compoundStatementSeparator);
 
 		while (!t.testNextToken(Tokenizer.END_OF_STRING)) {
@@ -2676,6 +2703,7 @@ public class ByteCode {
 		/*
 		 * Step one. Remove the actual byte-code
 		 */
+		compiled = null;
 		byteCode.remove(addr);
 
 		/*
@@ -2726,6 +2754,7 @@ public class ByteCode {
 		 * Step one. Insert the actual instruction
 		 */
 		
+		compiled = null;
 		byteCode.add(addr, newInstruction);
 
 		/*
@@ -2800,80 +2829,7 @@ public class ByteCode {
 		final Instruction i = byteCode.get(addr);
 		i.integerOperand = byteCode.size();
 		i.integerValid = true;
-	}
-
-	/**
-	 * Pop the topmost value from the stack. The stack pointer is adjusted to
-	 * remove this item from the stack.
-	 * 
-	 * @return The top Value object.
-	 * @throws JBasicException
-	 *             indicates a stack underflow
-	 */
-	public Value pop() throws JBasicException /* throws JBasicException */{
-		final int top = dataStack.size();
-		if (top < 1) {
-			status = new Status(Status.UNDERFLOW);
-			throw new JBasicException(Status.UNDERFLOW);
-		}
-		/* The stack is zero based */
-		Value v = dataStack.remove(top - 1);
-		return v ; 
-	}
-
-
-	/**
-	 * Push an already-typed Value object on the stack.
-	 * 
-	 * @param d
-	 *            The Value to add to the top of the stack.
-	 */
-	public void push(final Value d) {		
-		dataStack.add(d);
-	}
-
-	/**
-	 * Push an integer on the stack. Creates a Value object from the integer,
-	 * and pushes it.
-	 * 
-	 * @param i
-	 *            The integer to add to the top of the stack.
-	 */
-	public void push(final int i) {
-		push(new Value(i));
-	}
-
-	/**
-	 * Push a double on the stack. Creates a Value object from the double, and
-	 * pushes it.
-	 * 
-	 * @param d
-	 *            The double to add to the top of the stack.
-	 */
-	public void push(final double d) {
-		push(new Value(d));
-	}
-
-	/**
-	 * Push a string on the stack. Creates a Value object from the string, and
-	 * pushes it.
-	 * 
-	 * @param s
-	 *            The string to add to the top of the stack.
-	 */
-	public void push(final String s) {
-		push(new Value(s));
-	}
-
-	/**
-	 * Push a boolean on the stack. Creates a Value object from the boolean, and
-	 * pushes it.
-	 * 
-	 * @param b
-	 *            The boolean to add to the top of the stack.
-	 */
-	public void push(final boolean b) {
-		push(new Value(b));
+		compiled = null;
 	}
 
 	/**
@@ -2921,25 +2877,71 @@ public class ByteCode {
 	 */
 
 	public Status run(final SymbolTable s, int start) {
+		final ExecutionFrame frame = new ExecutionFrame(getSession());
+		final Status sts = run(frame, s, start);
+		frame.release();
+		return sts;
+	}
+
+	/**
+	 * Execute stored Bytecode using a caller-supplied frame to hold the
+	 * state of the execution.  The ByteCode object itself is not modified by
+	 * running it, so the same code can be run in any number of frames at
+	 * once, by different sessions or by recursive calls.  When the run is
+	 * done, any result of the code is still on the frame's data stack.
+	 * 
+	 * @param frame
+	 *            The frame that holds the program counter, data stack, and
+	 *            other state of this run.  The frame's session is the one
+	 *            used to run the code.
+	 * @param s
+	 *            The symbol table used to manage symbol resolution
+	 * @param start
+	 *            The starting line number, or the negative of the starting
+	 *            bytecode address, or zero to start at the beginning.
+	 * @return Returns a Status object describing the success of the execution.
+	 */
+	public Status run(final ExecutionFrame frame, final SymbolTable s, final int start) {
+
+		frame.reset(initialStackSize);
+		if( frame.debugger == null )
+			frame.debugger = debugger;
+		frame.program = (statement == null) ? null : statement.program;
 
-		programCounter = 0;
-		fRunning = true;
-		lastLineNumber = 0;
-		JBasic currentSession = getSession();
-		boolean savedTraceState = ( s == null? false : s.getBoolean("SYS$TRACE_STATEMENTS"));
-		stringPool = new StringPool();
-		
 		/*
-		 * The stack rarely exceeds 32 elements.  Pre-allocate 
-		 * the space so that we eliminate early vector doubling
-		 * (the actual default initial size depends on the
-		 * underlying implementation.)
+		 * The frame is the session's current frame while it runs, so the
+		 * debugger and PROGRAM() function can find the active program
+		 * states in this session.
 		 */
-		dataStack = new ArrayList<Value>(initialStackSize);
+		final JBasic currentSession = frame.session;
+		if( currentSession == null )
+			return execute(frame, s, start);
+		frame.caller = currentSession.currentFrame;
+		currentSession.currentFrame = frame;
+		try {
+			return execute(frame, s, start);
+		}
+		finally {
+			currentSession.currentFrame = frame.caller;
+			frame.caller = null;
+		}
+	}
+
+	/**
+	 * This is the main execution loop used by run().
+	 * @param frame the frame holding the state of this run
+	 * @param s the symbol table used to manage symbol resolution
+	 * @param start the starting line number or negative bytecode address
+	 * @return the completion status
+	 */
+	private Status execute(final ExecutionFrame frame, final SymbolTable s, final int start) {
+
+		final JBasic currentSession = frame.session;
+		boolean savedTraceState = ( s == null? false : s.getBoolean("SYS$TRACE_STATEMENTS"));
 		
 		final int maxPC = byteCode.size();
 		boolean fByteCodeTrace = s == null ? false : s.getBoolean("SYS$TRACE_BYTECODE");
-		boolean fStatementTrace = s == null ? false : s.getBoolean("SYS$TRACE_STATEMENTS");
+		boolean fStatementTrace = savedTraceState;
 		boolean fProtected = false;
 		if( statement != null )
 			if( statement.program != null )
@@ -2992,14 +2994,12 @@ public class ByteCode {
 		 * If this code segment has an error handler, then we need to
 		 * create a new slot in the ON statement handler stack.
 		 */
-		int mark = -1;
-		
 		if ( fHasErrorHandler && currentSession != null )
-			mark = currentSession.onStatementStack.push("Frame for "
+			frame.errorMark = currentSession.onStatementStack.push("Frame for "
 					+ statement.statementText);
 
 		InstructionContext env = new InstructionContext(currentSession, 
-				this, null, s, fStatementTrace);
+				this, frame, null, s, fStatementTrace);
 		
 		/*
 		 * If we were given a starting line number, find that now and make it
@@ -3016,15 +3016,15 @@ public class ByteCode {
 		if( start > 0 ) {
 			boolean foundStart = false;
 
-			for( programCounter = 0; programCounter < maxPC; programCounter++ ) {
-				i = byteCode.get(programCounter);
+			for( frame.programCounter = 0; frame.programCounter < maxPC; frame.programCounter++ ) {
+				i = byteCode.get(frame.programCounter);
 				if( i.opCode == ByteCode._STMT && i.integerOperand == start ) {
 					foundStart = true;
 					break;
 				}
 			}
 			if(!foundStart)
-				return status = new Status(Status.LINENUM, start);
+				return frame.status = new Status(Status.LINENUM, start);
 		}
 		
 		/*
@@ -3034,16 +3034,52 @@ public class ByteCode {
 		 */
 		else
 			if( start < 0 )
-				programCounter = -start;
+				frame.programCounter = -start;
+		
+		/*
+		 * If the JIT compiler is enabled, use the compiled form of the 
+		 * program if there is one.  If not, count the instructions run by
+		 * the standard loop until the program has run enough to be worth
+		 * compiling.
+		 */
+		CompiledByteCode jitCode = null;
+		boolean jitStep = false;
+		int jitThreshold = 0;
+		if( fLinked && currentSession != null && frame.debugger == null 
+				&& !fByteCodeTrace && !fStatementTrace
+				&& currentSession.getBoolean("SYS$JIT") && !compileFailed ) {
+			jitCode = compiled;
+			if( jitCode == null )
+				jitThreshold = Math.max(1, currentSession.getInteger("SYS$JIT_THRESHOLD"));
+		}
+		
 		/*
 		 * Run the program in a loop until there is an interrupt, an error,
 		 * or we run past the end of the bytecode array.
 		 */
-		while (fRunning) {
+		while (frame.fRunning) {
 
-			if (programCounter >= maxPC)
+			if (frame.programCounter >= maxPC)
 				break;
 
+			/*
+			 * If the program has been compiled, run the compiled code until
+			 * it has a status to report.  If it stops at an instruction it
+			 * can't run, the standard loop runs that one instruction (and
+			 * then goes back to the compiled code), or runs the rest of the
+			 * program if a debugger was attached or tracing turned on.
+			 */
+			if( jitCode != null && !jitStep ) {
+				final int completion = jitCode.run(frame, env);
+				if( completion == CompiledByteCode.INTERPRET_ONE ) {
+					jitStep = true;
+					continue;
+				}
+				if( completion == CompiledByteCode.INTERPRET ) {
+					jitCode = null;
+					continue;
+				}
+			}
 
 			/*
 			 * CHECK FOR INTERRUPT FROM THE USER. This isn't thread-safe,
@@ -3051,15 +3087,8 @@ public class ByteCode {
 			 * serialized yet....
 			 */
 			
-			boolean fAbort = JBasic.interruptSignalled;
-			if( currentSession != null )
-				fAbort = fAbort | currentSession.isAbortSignalled();
-			if (fAbort) {
-				if( JBasic.interruptSignalled )
-					JBasic.interruptSignalled = false;
-				if( currentSession != null )
-					currentSession.setAbort(false);
-				status = new Status(Status.INTERRUPT);
+			else if (checkInterrupt(currentSession)) {
+				frame.status = new Status(Status.INTERRUPT);
 			}
 
 			/*
@@ -3067,11 +3096,24 @@ public class ByteCode {
 			 */
 			else {
 				
+				/*
+				 * If this program has now run enough instructions, compile
+				 * it and continue using the compiled code.  If it can't be
+				 * compiled, go on with this loop.
+				 */
+				if( jitThreshold > 0 && ++hotCount >= jitThreshold ) {
+					jitThreshold = 0;
+					jitCode = compile();
+					if( jitCode != null )
+						continue;
+				}
+				jitStep = false;
+
 				/*
 				 * Get the instruction from the byteCode array.
 				 */
 				
-				i = byteCode.get(programCounter++);
+				i = byteCode.get(frame.programCounter++);
 				
 				if( i.opCode == _TRACE && i.integerOperand > 0 && !fProtected ) {
 					if(( i.integerOperand % 2 ) == 1 )
@@ -3085,16 +3127,16 @@ public class ByteCode {
 				 */
 				if (fByteCodeTrace ) {
 
-					String pc = Integer.toString(programCounter - 1);
+					String pc = Integer.toString(frame.programCounter - 1);
 					while (pc.length() < 5)
 						pc = "0" + pc;
 
 					if( currentSession != null ) {
 						currentSession.stdout.print("ByteCode " + pc + ": ");
-						OpDEBUG.printStackObject(currentSession.stdout, this);
+						OpDEBUG.printStackObject(currentSession.stdout, frame);
 						currentSession.stdout.println("         "
 							+ ByteCode.disassembleInstruction(
-									programCounter - 1, i));
+									frame.programCounter - 1, i));
 
 						currentSession.stdout.println();
 					}
@@ -3112,7 +3154,7 @@ public class ByteCode {
 					env.setInstruction( i );
 					if( currentSession != null )
 						currentSession.instructionsExecuted++;
-					status = null;
+					frame.status = null;
 					
 					int opCode = i.opCode;
 					if( opCode > ByteCode._BRANCH_FLAG)
@@ -3125,17 +3167,17 @@ public class ByteCode {
 					}
 					else
 					if (opCode == ByteCode._NOOP)
-						status = null;
+						frame.status = null;
 					else
-						status = new Status(Status.UNIMPBYTECODE, AbstractOpcode
+						frame.status = new Status(Status.UNIMPBYTECODE, AbstractOpcode
 							.getName(opCode));
 
 				} catch (ArithmeticException e) {
-					status = new Status(Status.MATH, e.getMessage());
+					frame.status = new Status(Status.MATH, e.getMessage());
 				} catch (final JBasicException e) {
-					status = e.getStatus();
+					frame.status = e.getStatus();
 				} catch (final Exception e) {
-					status = new Status(Status.FAULT, e.toString());
+					frame.status = new Status(Status.FAULT, e.toString());
 				}
 			}
 
@@ -3143,38 +3185,40 @@ public class ByteCode {
 			 * The default case is that status is still null, which 
 			 * means success - loop to the next instruction.
 			 */
-			if (status == null)
+			if (frame.status == null)
 				continue;
 
 			/*
 			 * If the statement causes a flow-of-control change, quit executing
 			 * tokens.
 			 */
-			if (status.equals(Status.RETURN) |
-				status.equals("*END") | 
-				status.equals("*STEP"))
+			if (frame.status.equals(Status.RETURN) |
+				frame.status.equals("*END") | 
+				frame.status.equals("*STEP"))
 					break;
 
 			/*
 			 * And of course if there was an error, can we handle it ourselves?
 			 * If we're a linked bytecode stream, then we do this ourselves.
 			 * Otherwise it's handled by the interpreter level that called us,
-			 * and we just pass it on up.
+			 * and we just pass it on up.  A linked stream with no labels
+			 * (such as a DEFFN function) has nowhere to branch to, so it
+			 * passes the error up as well.
 			 */
 			
-			if (status.failed()) {
-				if( this.lastLineNumber > 0 )
-					status.setWhere( this.name, this.lastLineNumber);
+			if (frame.status.failed()) {
+				if( frame.lastLineNumber > 0 )
+					frame.status.setWhere( this.name, frame.lastLineNumber);
 				
 				if( s != null )
 					try {
-						s.insert("SYS$STATUS", new Value(status));
+						s.insert("SYS$STATUS", new Value(frame.status));
 					} catch (JBasicException e) {
 						return e.getStatus();
 					}
-				if (fLinked) {
+				if (fLinked && labelMap != null) {
 					
-					String code = status.getCode();
+					String code = frame.status.getCode();
 					String label = null;
 					if( currentSession != null ) {
 						label = currentSession.onStatementStack.fetch(code);
@@ -3195,13 +3239,7 @@ public class ByteCode {
 						 * don't give them a clean runtime stack.
 						 */
 						
-						while(stackSize() > 0 ) {
-							try {
-								pop();
-							} catch (JBasicException e) {
-								break;
-							}
-						}
+						frame.dataStack.clear();
 						/*
 						 * We'll need a location to jump to based on the label.
 						 */
@@ -3227,27 +3265,24 @@ public class ByteCode {
 							 * next statement boundary.
 							 */
 							
-							Instruction skipInst = getInstruction(programCounter);
+							Instruction skipInst = getInstruction(frame.programCounter);
 							if( skipInst.opCode != ByteCode._STMT)
-								while( programCounter < this.size()) {
-									skipInst = getInstruction(programCounter);
+								while( frame.programCounter < this.size()) {
+									skipInst = getInstruction(frame.programCounter);
 									if( skipInst.opCode == ByteCode._STMT)
 										break;
-									programCounter++;
+									frame.programCounter++;
 							}
 							else
-								programCounter = programCounter + 1;
+								frame.programCounter = frame.programCounter + 1;
 							
-							scope.returnStatement = programCounter-1;
+							scope.returnStatement = frame.programCounter-1;
 							
 							scope.activeProgram = statement.program;
 
-							if (statement.program.gosubStack == null)
-								statement.program.gosubStack = new ArrayList<ScopeControlBlock>();
-
-							statement.program.gosubStack.add(scope);
-							programCounter = scope.targetStatement;
-							status = new Status();
+							frame.pushGosub(scope);
+							frame.programCounter = scope.targetStatement;
+							frame.status = new Status();
 							continue;
 						}
 						
@@ -3256,8 +3291,8 @@ public class ByteCode {
 						 */
 						whereTo = labelMap.get(label);
 						if (whereTo != null) {
-							programCounter = whereTo.byteAddress;
-							status = new Status();
+							frame.programCounter = whereTo.byteAddress;
+							frame.status = new Status();
 							continue;
 						}
 
@@ -3278,8 +3313,8 @@ public class ByteCode {
 		 * go ahead and make it real.
 		 */
 
-		if (status == null)
-			status = new Status();
+		if (frame.status == null)
+			frame.status = new Status();
 
 		/*
 		 * Release the execution stack for this element, if it was set. Also, if
@@ -3288,20 +3323,60 @@ public class ByteCode {
 		 * case.
 		 */
 
-		if( mark >= 0 && currentSession != null )
-			currentSession.onStatementStack.pop(mark);
-		if (status.equals(Status.RETURN))
-			status = new Status();
+		if( frame.errorMark >= 0 && currentSession != null )
+			currentSession.onStatementStack.pop(frame.errorMark);
+		if (frame.status.equals(Status.RETURN))
+			frame.status = new Status();
 		
 		boolean newTraceState = s == null ? false : s.getBoolean("SYS$TRACE_STATEMENTS");
 		if( newTraceState != savedTraceState && s != null ) {
 			Value v = s.findGlobalTable().localReference("SYS$TRACE_STATEMENTS");
 			v.setBoolean(savedTraceState);
 		}
-		return status;
+		return frame.status;
 	}
 
 
+	/**
+	 * Check for an interrupt (console attention or session abort) and clear
+	 * it if one is pending.
+	 * 
+	 * @param currentSession the session running the bytecode, or null
+	 * @return true if an interrupt was signalled.
+	 */
+	static boolean checkInterrupt(final JBasic currentSession) {
+		boolean fAbort = JBasic.interruptSignalled;
+		if( currentSession != null )
+			fAbort = fAbort | currentSession.isAbortSignalled();
+		if (fAbort) {
+			if( JBasic.interruptSignalled )
+				JBasic.interruptSignalled = false;
+			if( currentSession != null )
+				currentSession.setAbort(false);
+		}
+		return fAbort;
+	}
+
+	/**
+	 * Get the JIT compiled form of this bytecode stream, compiling it if it
+	 * has not been compiled yet.
+	 * 
+	 * @return the CompiledByteCode for this stream, or null if it can't be
+	 * compiled.
+	 */
+	private CompiledByteCode compile() {
+		if( compiled == null && !compileFailed ) {
+			compiled = JitCompiler.compile(this, dispatchVector);
+			compileFailed = (compiled == null);
+			if( compiled != null ) {
+				JBasic.log.debug("JIT compiled " + name + ", " + byteCode.size() + " instructions");
+				if( session != null )
+					session.jitCompiled++;
+			}
+		}
+		return compiled;
+	}
+
 	/**
 	 * Dump the current ByteCode stream (either human-readable or encoded) to a
 	 * file referenced previously opened.  This is used to save programs to
@@ -3485,21 +3560,6 @@ public class ByteCode {
 		name = bytecodeName;
 	}
 
-	/**
-	 * Discard a given number of elements from the stack.
-	 * @param argc the number of arguments to discard.  This
-	 * value must be a positive integer.
-	 */
-	public void discard(int argc) {
-		
-		if( argc < 0 )
-			return;
-		
-		int top = dataStack.size();
-		for( int ix = 0; ix < argc; ix++ )
-			dataStack.remove(--top);	
-	}
-	
 	/**
 	 * Return a pointer to a bytecode stream for a locally-defined function.
 	 * @param functionName The name of the function in UPPERCASE.
@@ -3528,47 +3588,25 @@ public class ByteCode {
 	 * in which case the call is made with only a local-to-the-call
 	 * temporary symbol table.
 	 * @return a Value containing the result of the function call.
-	 * @throws JBasicException EXPRETVAL if the called byte code
-	 * stream does not have a RETURN statement that returns a value
-	 * to the caller.
+	 * @throws JBasicException the error from the function, or EXPRETVAL
+	 * if the called byte code stream does not have a RETURN statement
+	 * that returns a value to the caller.
 	 */
 	public Value call(JBasic session, String functionName, ArgumentList args,
 			SymbolTable symbols) throws JBasicException {
 		
 		/*
-		 * The argument list must be broken apart again to set up
-		 * the implicit "CALL" operation that is implied by the
-		 * function invocation.
-		 * 
-		 * This means that each argument is given a slot in the new
-		 * function's symbol table in the array $ARGS.  The calling
-		 * program can reference the argument list via this array at
-		 * any time, in addition to referencing the arguments via
-		 * explicitly named parameters.
+		 * The argument list is attached to the new table along with the
+		 * information about how the function was called.  The function can
+		 * reference the argument list via the array $ARGS at any time, in
+		 * addition to referencing the arguments via explicitly named
+		 * parameters.  Note that you can call with a null argument list,
+		 * which means no arguments processed.
 		 */
 
 		final SymbolTable newTable = new SymbolTable(session, "Local to "
-				+ functionName, symbols);
-		
-		final Value argArray = new Value(Value.ARRAY, null);
-		
-		/*
-		 * Note that you can call with a null argument list, which means
-		 * no arguments processed.
-		 */
-		
-		if( args != null )
-			for (int argcount = 0; argcount < args.size(); argcount++)
-				argArray.addElement(args.element(argcount));
-		newTable.insertLocal("$ARGS", argArray);
+				+ functionName, symbols, localVariableCount());
 		
-		/*
-		 * Define additional local variables that tell the function
-		 * about itself, how it got called, and the name of the
-		 * calling program or function.
-		 */
-		newTable.insertLocal("$MODE", new Value("FUNCTION"));
-		newTable.insertLocal("$THIS", new Value(functionName));
 		String parentName = "Console";
 		
 		Program cp = session.programs.getCurrent();
@@ -3576,18 +3614,25 @@ public class ByteCode {
 			if (cp.isActive())
 				parentName = cp.getName();
 		}
-		newTable.insertLocal("$PARENT", new Value(parentName));
+		newTable.setCallInfo(new CallInfo(args, "FUNCTION", functionName, 
+				parentName, 0));
 
 		/*
-		 * Now run the program with the new symbol table and the
-		 * supplied debugger object (if any).  After we return,
-		 * we clear out the running status so it does not confuse
-		 * someone looking at the bytecode, such as a DISASM command.
+		 * Now run the program with the new symbol table, in the
+		 * calling session.
 		 */
-		Status sts = this.run(newTable, 0);
-		this.fRunning = false;
-		this.programCounter = 0;
+		final ExecutionFrame frame = new ExecutionFrame(session);
+		Status sts = this.run(frame, newTable, 0);
+		frame.release();
 		
+		/*
+		 * If the function failed with an error, report that error to the
+		 * caller, the same as if the expression had been part of the
+		 * calling program.
+		 */
+		if( sts.failed())
+			throw new JBasicException(sts);
+
 		/*
 		 * If there was a result, get it now.  If no result, then
 		 * this wasn't a valid CALL operation.
@@ -3645,34 +3690,6 @@ public class ByteCode {
 		return s.statementText;
 	}
 	
-	/**
-	 * Return an array object that contains the current contents of the runtime stack.
-	 * This is typically used by a debugger that wishes to examine or display the
-	 * runtime stack.  The actual runtime stack itself is not disturbed.  Note that
-	 * the resulting ARRAY Value contains the actual stack Values, not copies, so the
-	 * contents of the result of this function should not be modified unless the
-	 * user intends to change the runtime stack.
-	 * @return a Value containing an array.
-	 */
-	public Value getStack() {
-	
-		Value result = new Value(Value.ARRAY, null);
-		
-		if( this.dataStack != null ) {
-			for( int i = 0; i < dataStack.size(); i++ ) 
-				result.addElement(dataStack.get(i));
-		}
-		return result;
-	}
-	
-	/**
-	 * Return the current runtime stack as a string-formatted array.
-	 * @return string containing formatted copy of runtime stack information.
-	 */
-	public String stackToString() {
-		return getStack().toString();
-	}
-
 	/**
 	 * Add a reference capture string to the current reference operation,
 	 * if there is one in effect.
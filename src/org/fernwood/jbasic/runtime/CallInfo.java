@@ -0,0 +1,122 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * Information about a CALL or function call, attached to the symbol table
+ * created for the called program.  The variables that describe the call
+ * ($ARGS, $THIS, $PARENT, $MODE, and $START_TIME) are not stored in the
+ * table when the call is made; each one is created from this object the
+ * first time it is referenced.  Most programs and functions never look at
+ * most of them, so this saves creating and hashing several Values on every
+ * call.
+ * <p>
+ * The argument list is kept here as an array so the _ARG instructions in the
+ * program's prolog can fetch each argument by position without looking up
+ * $ARGS by name.  If $ARGS is referenced, it is this same array.
+ *
+ * @author cole
+ *
+ */
+public class CallInfo {
+
+	/**
+	 * The names of the variables that can be created from a CallInfo.
+	 */
+	static final String[] NAMES = new String[] { "$ARGS", "$THIS", "$PARENT",
+			"$MODE", "$START_TIME" };
+
+	/**
+	 * The argument array, which becomes the value of $ARGS.
+	 */
+	final Value arguments;
+
+	/**
+	 * The name of the program or function being called, for $THIS.
+	 */
+	private final String thisName;
+
+	/**
+	 * The name of the caller, for $PARENT.
+	 */
+	private final String parentName;
+
+	/**
+	 * The kind of call, for $MODE.
+	 */
+	private final String mode;
+
+	/**
+	 * The time the call was made in milliseconds, for $START_TIME, or zero
+	 * if this kind of call doesn't define $START_TIME.
+	 */
+	private final long startTime;
+
+	/**
+	 * Create the information for a call.
+	 * @param args the argument list, or null if there are no arguments
+	 * @param theMode the kind of call, such as "CALL" or "FUNCTION"
+	 * @param theName the name of the program or function being called
+	 * @param theParent the name of the caller
+	 * @param theStartTime the time of the call for $START_TIME, or zero if
+	 * $START_TIME is not defined for this call.
+	 */
+	public CallInfo(final ArgumentList args, final String theMode,
+			final String theName, final String theParent, final long theStartTime) {
+
+		arguments = new Value(Value.ARRAY, null);
+		if (args != null)
+			for (int ix = 0; ix < args.size(); ix++)
+				arguments.addElementAsIs(args.element(ix));
+
+		mode = theMode;
+		thisName = theName;
+		parentName = theParent;
+		startTime = theStartTime;
+	}
+
+	/**
+	 * Get the argument array.
+	 * @return an ARRAY Value with one element for each argument
+	 */
+	public Value getArguments() {
+		return arguments;
+	}
+
+	/**
+	 * Create the value of one of the call variables.
+	 * @param name the uppercase variable name
+	 * @return the value, or null if the name isn't one of the call
+	 * variables.
+	 */
+	Value value(final String name) {
+		if (name.length() < 5 || name.charAt(0) != '$')
+			return null;
+		if (name.equals("$ARGS"))
+			return arguments;
+		if (name.equals("$THIS"))
+			return new Value(thisName);
+		if (name.equals("$PARENT"))
+			return new Value(parentName);
+		if (name.equals("$MODE"))
+			return new Value(mode);
+		if (startTime != 0 && name.equals("$START_TIME"))
+			return new Value(startTime);
+		return null;
+	}
+}
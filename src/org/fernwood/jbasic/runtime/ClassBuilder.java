@@ -0,0 +1,453 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A minimal writer for Java class files, used by the JIT compiler to build
+ * the classes it loads.  It supports only what the compiler needs: a class
+ * with no fields or interfaces, and methods made of the handful of JVM
+ * instructions the compiler emits, with forward and backward branches to
+ * labels.
+ * <p>
+ * Classes are written in the Java 5 (version 49) format, which doesn't
+ * require stack map frames; the JVM verifies them by type inference.  The
+ * caller is responsible for keeping the operand stack empty at every label.
+ *
+ * @author cole
+ *
+ */
+final class ClassBuilder {
+
+	/*
+	 * The JVM instructions used by the compiler.
+	 */
+	static final int ICONST_0 = 0x03;
+	static final int BIPUSH = 0x10;
+	static final int SIPUSH = 0x11;
+	static final int LDC_W = 0x13;
+	static final int ILOAD = 0x15;
+	static final int ILOAD_1 = 0x1b;
+	static final int ILOAD_3 = 0x1d;
+	static final int ALOAD_0 = 0x2a;
+	static final int ALOAD_1 = 0x2b;
+	static final int ALOAD_2 = 0x2c;
+	static final int ALOAD_3 = 0x2d;
+	static final int AALOAD = 0x32;
+	static final int ISTORE_3 = 0x3e;
+	static final int DUP = 0x59;
+	static final int IFEQ = 0x99;
+	static final int IFNE = 0x9a;
+	static final int IF_ICMPNE = 0xa0;
+	static final int GOTO = 0xa7;
+	static final int TABLESWITCH = 0xaa;
+	static final int IRETURN = 0xac;
+	static final int RETURN = 0xb1;
+	static final int GETFIELD = 0xb4;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESPECIAL = 0xb7;
+	static final int CHECKCAST = 0xc0;
+
+	/*
+	 * Access flags.
+	 */
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_PRIVATE = 0x0002;
+	static final int ACC_PROTECTED = 0x0004;
+	static final int ACC_FINAL = 0x0010;
+	static final int ACC_SUPER = 0x0020;
+
+	/**
+	 * A location in the code of a method, which may be referenced by
+	 * branches before its position is known.
+	 */
+	static final class Label {
+
+		/**
+		 * The offset of the label in the method code, or -1 if it hasn't
+		 * been placed yet.
+		 */
+		int position = -1;
+
+		/**
+		 * Each reference to the label not yet resolved, as pairs of the
+		 * offset of the branch instruction and the offset of the operand.
+		 */
+		final ArrayList<int[]> references = new ArrayList<int[]>();
+
+		/**
+		 * Does this reference use a four-byte offset?
+		 */
+		final ArrayList<Boolean> wide = new ArrayList<Boolean>();
+	}
+
+	/**
+	 * The code of one method being built.
+	 */
+	final class Code {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final ArrayList<Label> labels = new ArrayList<Label>();
+
+		/**
+		 * The current offset in the code.
+		 */
+		int size() {
+			return bytes.size();
+		}
+
+		/**
+		 * Add an instruction with no operands.
+		 */
+		void op(final int opcode) {
+			bytes.write(opcode);
+		}
+
+		/**
+		 * Add an instruction with a one-byte operand.
+		 */
+		void op1(final int opcode, final int operand) {
+			bytes.write(opcode);
+			bytes.write(operand);
+		}
+
+		/**
+		 * Add an instruction with a two-byte operand, such as a constant
+		 * pool index.
+		 */
+		void op2(final int opcode, final int operand) {
+			bytes.write(opcode);
+			u2(operand);
+		}
+
+		/**
+		 * Push an integer constant using the shortest instruction.
+		 */
+		void pushInt(final int value) {
+			if (value >= -1 && value <= 5)
+				op(ICONST_0 + value);
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+				op1(BIPUSH, value & 0xFF);
+			else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+				op2(SIPUSH, value & 0xFFFF);
+			else
+				op2(LDC_W, integer(value));
+		}
+
+		/**
+		 * Add a branch instruction to a label.
+		 */
+		void branch(final int opcode, final Label target) {
+			final int at = size();
+			bytes.write(opcode);
+			reference(target, at, false);
+		}
+
+		/**
+		 * Add a tableswitch for the values low..low+targets.length-1.
+		 */
+		void tableSwitch(final int low, final Label[] targets, final Label otherwise) {
+			final int at = size();
+			bytes.write(TABLESWITCH);
+			while (size() % 4 != 0)
+				bytes.write(0);
+			reference(otherwise, at, true);
+			u4(low);
+			u4(low + targets.length - 1);
+			for (int ix = 0; ix < targets.length; ix++)
+				reference(targets[ix], at, true);
+		}
+
+		/**
+		 * Place a label at the current offset.
+		 */
+		void place(final Label label) {
+			label.position = size();
+		}
+
+		/**
+		 * Write a placeholder for a branch offset and remember to fill it
+		 * in when the method is finished.
+		 */
+		private void reference(final Label target, final int at, final boolean isWide) {
+			if (!labels.contains(target))
+				labels.add(target);
+			target.references.add(new int[] { at, size() });
+			target.wide.add(Boolean.valueOf(isWide));
+			if (isWide)
+				u4(0);
+			else
+				u2(0);
+		}
+
+		private void u2(final int value) {
+			bytes.write((value >> 8) & 0xFF);
+			bytes.write(value & 0xFF);
+		}
+
+		private void u4(final int value) {
+			u2(value >>> 16);
+			u2(value & 0xFFFF);
+		}
+
+		/**
+		 * Get the finished code with every branch offset filled in.
+		 * @return the code bytes, or null if the code is too large or a
+		 * label was never placed.
+		 */
+		byte[] resolve() {
+			final byte[] code = bytes.toByteArray();
+			if (code.length >= 65536)
+				return null;
+			for (int ix = 0; ix < labels.size(); ix++) {
+				final Label l = labels.get(ix);
+				if (l.position < 0)
+					return null;
+				for (int rx = 0; rx < l.references.size(); rx++) {
+					final int[] ref = l.references.get(rx);
+					final int offset = l.position - ref[0];
+					final int p = ref[1];
+					if (l.wide.get(rx).booleanValue()) {
+						code[p] = (byte) (offset >> 24);
+						code[p + 1] = (byte) (offset >> 16);
+						code[p + 2] = (byte) (offset >> 8);
+						code[p + 3] = (byte) offset;
+					}
+					else {
+						if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+							return null;
+						code[p] = (byte) (offset >> 8);
+						code[p + 1] = (byte) offset;
+					}
+				}
+			}
+			return code;
+		}
+	}
+
+	/**
+	 * The constant pool, written as entries are added.
+	 */
+	private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+	private final DataOutputStream poolData = new DataOutputStream(pool);
+
+	/**
+	 * The index of each constant pool entry already added, keyed by its
+	 * tag and contents.
+	 */
+	private final HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+
+	/**
+	 * The next constant pool index.
+	 */
+	private int poolCount = 1;
+
+	/**
+	 * The methods already written.
+	 */
+	private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+	private final DataOutputStream methodData = new DataOutputStream(methods);
+	private int methodCount;
+
+	private final int thisClass;
+	private final int superClass;
+
+	/**
+	 * Start a new class.
+	 * @param className the internal name of the class, such as
+	 * "org/fernwood/Example"
+	 * @param superName the internal name of the superclass
+	 */
+	ClassBuilder(final String className, final String superName) {
+		thisClass = classRef(className);
+		superClass = classRef(superName);
+	}
+
+	/**
+	 * Create a code buffer for a new method.
+	 */
+	Code newCode() {
+		return new Code();
+	}
+
+	/**
+	 * Add a method to the class.
+	 * @param access the access flags
+	 * @param name the method name
+	 * @param descriptor the method descriptor
+	 * @param code the method code
+	 * @param maxStack the largest operand stack depth the code uses
+	 * @param maxLocals the number of local variable slots, including the
+	 * arguments and <code>this</code>
+	 * @return false if the code could not be resolved
+	 */
+	boolean addMethod(final int access, final String name, final String descriptor,
+			final Code code, final int maxStack, final int maxLocals) {
+
+		final byte[] bytes = code.resolve();
+		if (bytes == null)
+			return false;
+		try {
+			methodData.writeShort(access);
+			methodData.writeShort(utf8(name));
+			methodData.writeShort(utf8(descriptor));
+			methodData.writeShort(1);
+			methodData.writeShort(utf8("Code"));
+			methodData.writeInt(12 + bytes.length);
+			methodData.writeShort(maxStack);
+			methodData.writeShort(maxLocals);
+			methodData.writeInt(bytes.length);
+			methodData.write(bytes);
+			methodData.writeShort(0);
+			methodData.writeShort(0);
+		} catch (final IOException e) {
+			return false;
+		}
+		methodCount++;
+		return true;
+	}
+
+	/**
+	 * Get the finished class file.
+	 * @return the bytes of the class file, or null if the constant pool is
+	 * too large.
+	 */
+	byte[] toByteArray() {
+		if (poolCount > 65535)
+			return null;
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final DataOutputStream data = new DataOutputStream(out);
+		try {
+			data.writeInt(0xCAFEBABE);
+			data.writeShort(0);
+			data.writeShort(49);
+			data.writeShort(poolCount);
+			data.write(pool.toByteArray());
+			data.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			data.writeShort(thisClass);
+			data.writeShort(superClass);
+			data.writeShort(0);
+			data.writeShort(0);
+			data.writeShort(methodCount);
+			data.write(methods.toByteArray());
+			data.writeShort(0);
+		} catch (final IOException e) {
+			return null;
+		}
+		return out.toByteArray();
+	}
+
+	/*
+	 * Constant pool entries.  Each returns the index of the entry, adding
+	 * it if it isn't already in the pool.
+	 */
+
+	int utf8(final String s) {
+		final String key = "U" + s;
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			try {
+				poolData.writeByte(1);
+				poolData.writeUTF(s);
+			} catch (final IOException e) {
+				/* Can't happen with a ByteArrayOutputStream */
+			}
+			index = add(key, 1);
+		}
+		return index.intValue();
+	}
+
+	int integer(final int value) {
+		final String key = "I" + value;
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			write(3);
+			writeInt(value);
+			index = add(key, 1);
+		}
+		return index.intValue();
+	}
+
+	int classRef(final String internalName) {
+		final String key = "C" + internalName;
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			final int name = utf8(internalName);
+			write(7);
+			writeShort(name);
+			index = add(key, 1);
+		}
+		return index.intValue();
+	}
+
+	int fieldRef(final String owner, final String name, final String descriptor) {
+		return memberRef(9, owner, name, descriptor);
+	}
+
+	int methodRef(final String owner, final String name, final String descriptor) {
+		return memberRef(10, owner, name, descriptor);
+	}
+
+	private int memberRef(final int tag, final String owner, final String name,
+			final String descriptor) {
+		final String key = "M" + tag + owner + "." + name + ":" + descriptor;
+		Integer index = poolIndex.get(key);
+		if (index == null) {
+			final int ownerIndex = classRef(owner);
+			final String ntKey = "N" + name + ":" + descriptor;
+			Integer nameAndType = poolIndex.get(ntKey);
+			if (nameAndType == null) {
+				final int nameIndex = utf8(name);
+				final int descIndex = utf8(descriptor);
+				write(12);
+				writeShort(nameIndex);
+				writeShort(descIndex);
+				nameAndType = add(ntKey, 1);
+			}
+			write(tag);
+			writeShort(ownerIndex);
+			writeShort(nameAndType.intValue());
+			index = add(key, 1);
+		}
+		return index.intValue();
+	}
+
+	private Integer add(final String key, final int slots) {
+		final Integer index = Integer.valueOf(poolCount);
+		poolIndex.put(key, index);
+		poolCount += slots;
+		return index;
+	}
+
+	private void write(final int b) {
+		pool.write(b);
+	}
+
+	private void writeShort(final int value) {
+		pool.write((value >> 8) & 0xFF);
+		pool.write(value & 0xFF);
+	}
+
+	private void writeInt(final int value) {
+		writeShort(value >>> 16);
+		writeShort(value & 0xFFFF);
+	}
+}
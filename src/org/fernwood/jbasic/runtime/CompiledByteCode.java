@@ -0,0 +1,269 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import org.fernwood.jbasic.Permissions;
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.opcodes.AbstractOpcode;
+import org.fernwood.jbasic.opcodes.InstructionContext;
+
+/**
+ * The superclass of the JVM classes generated by the JIT compiler for a
+ * linked ByteCode stream (<code>SET JIT</code>).  A generated class has one
+ * method for each block of CHUNK_SIZE instructions, in which every
+ * instruction is a separate call to its opcode handler.  Since each call
+ * site always calls the same handler class, the JVM can inline the handlers
+ * into the generated code, which it can't do in the interpreter loop.
+ * Branches, _STMT, and a few other instructions are done by the generated
+ * code and the helper methods in this class rather than by the handlers.
+ * <p>
+ * The generated code can't run every instruction.  For _EXEC, _ASM, and
+ * instructions with no handler, it stops before the instruction and returns
+ * INTERPRET_ONE so the standard loop in ByteCode can run that instruction,
+ * after which the compiled code carries on.  If a debugger is attached or
+ * tracing is turned on, it returns INTERPRET and the rest of the run uses
+ * the standard loop.
+ * <p>
+ * Compiled code doesn't maintain the per-instruction profiling counters.
+ *
+ * @author cole
+ *
+ */
+public abstract class CompiledByteCode {
+
+	/**
+	 * The number of instructions compiled into each generated method.  This
+	 * keeps each method well under the JVM limit of 64K bytes of code.
+	 */
+	static final int CHUNK_SIZE = 512;
+
+	/**
+	 * Returned when the status field of the frame has been set, or the
+	 * program has stopped running, and the caller must handle it.
+	 */
+	static final int STOP = -1;
+
+	/**
+	 * Returned when the standard loop must run the next instruction, after
+	 * which the compiled code can be used again.
+	 */
+	static final int INTERPRET_ONE = -2;
+
+	/**
+	 * Returned when the rest of this run must use the standard loop.
+	 */
+	static final int INTERPRET = -3;
+
+	/**
+	 * The handler for each instruction, indexed by bytecode address.
+	 */
+	protected AbstractOpcode[] handlers;
+
+	/**
+	 * The instructions that were compiled, indexed by bytecode address.
+	 */
+	protected Instruction[] instructions;
+
+	/**
+	 * Create the compiled code object.  The generated subclass's constructor
+	 * calls this, and the compiler then calls bind().
+	 */
+	public CompiledByteCode() {
+	}
+
+	/**
+	 * Attach the instructions and handlers the generated code uses.
+	 * @param theInstructions the instructions that were compiled
+	 * @param theHandlers the handler for each instruction
+	 */
+	final void bind(final Instruction[] theInstructions, final AbstractOpcode[] theHandlers) {
+		instructions = theInstructions;
+		handlers = theHandlers;
+	}
+
+	/**
+	 * Run the generated code for one chunk.  This is implemented by the
+	 * generated subclass, and just calls the method for the chunk.
+	 * @param chunk the chunk number, which is the program counter divided by
+	 * CHUNK_SIZE
+	 * @param frame the frame holding the state of this run
+	 * @param env the instruction context for this run
+	 * @param pc the address of the instruction to start with
+	 * @return the address to continue at, which is outside the chunk, or
+	 * one of STOP, INTERPRET_ONE, or INTERPRET.
+	 * @throws Exception if an instruction throws an error
+	 */
+	protected abstract int runChunk(int chunk, ExecutionFrame frame,
+			InstructionContext env, int pc) throws Exception;
+
+	/**
+	 * Run the compiled code starting at the frame's program counter, until
+	 * a status is set, the program ends, or the standard loop is needed.
+	 * @param frame the frame holding the state of this run
+	 * @param env the instruction context for this run
+	 * @return STOP, INTERPRET_ONE, or INTERPRET
+	 */
+	final int run(final ExecutionFrame frame, final InstructionContext env) {
+
+		final int size = instructions.length;
+		int pc = frame.programCounter;
+		frame.status = null;
+		try {
+			while (pc >= 0 && pc < size)
+				pc = runChunk(pc / CHUNK_SIZE, frame, env, pc);
+		} catch (ArithmeticException e) {
+			frame.status = new Status(Status.MATH, e.getMessage());
+			return STOP;
+		} catch (final JBasicException e) {
+			frame.status = e.getStatus();
+			return STOP;
+		} catch (final Exception e) {
+			frame.status = new Status(Status.FAULT, e.toString());
+			return STOP;
+		}
+		if (pc < 0)
+			return pc;
+		frame.programCounter = pc;
+		return STOP;
+	}
+
+	/*
+	 * The methods below are called by the generated code.  Each takes the
+	 * address of the instruction being run, and sets the frame's program
+	 * counter past it, as the standard loop does, so errors are reported at
+	 * the right place.
+	 */
+
+	/**
+	 * Prepare to call the handler for an instruction.
+	 * @param frame the frame holding the state of this run
+	 * @param env the instruction context for this run
+	 * @param pc the address of the instruction
+	 */
+	protected final void prepare(final ExecutionFrame frame, final InstructionContext env,
+			final int pc) {
+		frame.programCounter = pc + 1;
+		frame.session.instructionsExecuted++;
+		env.setInstruction(instructions[pc]);
+	}
+
+	/**
+	 * Find out where to continue after a handler has run.
+	 * @param frame the frame holding the state of this run
+	 * @param next the address of the next instruction
+	 * @return the address of the instruction to run next, or STOP
+	 */
+	protected final int check(final ExecutionFrame frame, final int next) {
+		if (frame.status != null || !frame.fRunning)
+			return STOP;
+		final int pc = frame.programCounter;
+
+		/*
+		 * If the handler moved the program counter backwards then this is a
+		 * loop, so check for an interrupt.
+		 */
+		if (pc < next && ByteCode.checkInterrupt(frame.session)) {
+			frame.status = new Status(Status.INTERRUPT);
+			return STOP;
+		}
+		return pc;
+	}
+
+	/**
+	 * Run a _STMT instruction.
+	 * @param frame the frame holding the state of this run
+	 * @param pc the address of the instruction
+	 * @return the address of the next instruction, or STOP or INTERPRET
+	 * @throws JBasicException if there is data left on the stack
+	 */
+	protected final int statement(final ExecutionFrame frame, final int pc)
+			throws JBasicException {
+
+		if (frame.debugger != null) {
+			frame.programCounter = pc;
+			return INTERPRET;
+		}
+		if (ByteCode.checkInterrupt(frame.session)) {
+			frame.programCounter = pc;
+			frame.status = new Status(Status.INTERRUPT);
+			return STOP;
+		}
+		frame.programCounter = pc + 1;
+		frame.session.instructionsExecuted++;
+		frame.session.statementsExecuted++;
+		final int line = instructions[pc].integerOperand;
+		if (line > 0)
+			frame.lastLineNumber = line;
+
+		/*
+		 * The stack must be empty on a statement boundary unless this is the
+		 * start of an assembler block.
+		 */
+		if (frame.dataStack.size() > 0) {
+			final Instruction nextOp = pc + 1 < instructions.length ? instructions[pc + 1] : null;
+			if (nextOp == null || nextOp.opCode != ByteCode._SBOX || !nextOp.stringValid
+					|| !nextOp.stringOperand.equals(Permissions.ASM))
+				throw new JBasicException(Status.FAULT,
+						"data left on stack after previous statement");
+		}
+		return pc + 1;
+	}
+
+	/**
+	 * Pop the condition for a conditional branch.
+	 * @param frame the frame holding the state of this run
+	 * @param pc the address of the branch instruction
+	 * @return the boolean value of the top of the stack
+	 * @throws JBasicException if the stack is empty
+	 */
+	protected final boolean test(final ExecutionFrame frame, final int pc)
+			throws JBasicException {
+		frame.programCounter = pc + 1;
+		frame.session.instructionsExecuted++;
+		if (frame.dataStack.size() < 1)
+			throw new JBasicException(Status.UNDERFLOW);
+		return frame.dataStack.pop().getBoolean();
+	}
+
+	/**
+	 * Take a branch that isn't done directly by the generated code, which is
+	 * a backwards branch or one to another chunk.
+	 * @param frame the frame holding the state of this run
+	 * @param pc the address of the branch instruction
+	 * @param destination the address to branch to
+	 * @return the destination, or STOP if there is an interrupt
+	 */
+	protected final int branch(final ExecutionFrame frame, final int pc, final int destination) {
+		if (destination <= pc && ByteCode.checkInterrupt(frame.session)) {
+			frame.programCounter = pc + 1;
+			frame.status = new Status(Status.INTERRUPT);
+			return STOP;
+		}
+		return destination;
+	}
+
+	/**
+	 * Stop before an instruction the generated code can't run.
+	 * @param frame the frame holding the state of this run
+	 * @param pc the address of the instruction
+	 * @param code INTERPRET_ONE or INTERPRET
+	 * @return the code
+	 */
+	protected final int deoptimize(final ExecutionFrame frame, final int pc, final int code) {
+		frame.programCounter = pc;
+		return code;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.util.ArrayList;
+
+import org.fernwood.jbasic.JBasic;
+import org.fernwood.jbasic.Program;
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.compiler.StringPool;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * The state of one activation of a ByteCode stream.  A ByteCode object only
+ * holds the instructions and the information the linker attached to them,
+ * which don't change while the code runs.  Everything that changes as the
+ * code runs - the program counter, the data stack, the registers, and the
+ * GOSUB and loop stacks - is kept here instead.  This is what allows one
+ * linked program to be run by any number of sessions (or by recursive calls
+ * in the same session) at the same time, each with its own frame.
+ * <p>
+ * A frame is created for each call to ByteCode.run() unless the caller
+ * supplies one.  Callers that need the result left on the stack, or that
+ * run the same code over and over (such as a WHERE clause that is run once
+ * per row), create a frame and pass it to each run.  The data stack comes
+ * from the session's pool the first time the frame is run, and is given
+ * back to the pool by release().
+ * <p>
+ * While a frame is running it is the session's current frame; the frame
+ * it replaced is its caller.  The chain of callers lets the debugger and
+ * the PROGRAM() function find the activations of a program in a session.
+ *
+ * @author cole
+ *
+ */
+public class ExecutionFrame {
+
+	/**
+	 * The session running this activation.  This is not necessarily the
+	 * session that loaded the program being run.
+	 */
+	public final JBasic session;
+
+	/**
+	 * The frame that was running in this session when this one started, or
+	 * null if this is the outermost frame.
+	 */
+	public ExecutionFrame caller;
+
+	/**
+	 * The program that owns the code being run, or null if the code is not
+	 * part of a program.
+	 */
+	public Program program;
+
+	/**
+	 * The runtime stack used to hold values while instructions are executed.
+	 */
+	public ValueStack dataStack;
+
+	/**
+	 * The register array used to hold temporary values, created the first
+	 * time a register is stored.
+	 */
+	public RegisterArray registers;
+
+	/**
+	 * The address of the next instruction to execute.
+	 */
+	public int programCounter;
+
+	/**
+	 * The status of the last instruction, which is null while instructions
+	 * are succeeding.  When the run ends, this is the completion status.
+	 */
+	public Status status;
+
+	/**
+	 * Flag indicating if the code is still running.  This is cleared by an
+	 * _END instruction.
+	 */
+	public boolean fRunning;
+
+	/**
+	 * The row of a TABLE that a WHERE clause is being evaluated against.
+	 * The _LOADC instructions in the clause load their column values from
+	 * this array by position.  This is null for all other code.
+	 */
+	public Value currentRow;
+
+	/**
+	 * The last line number found in a _STMT instruction, used to report
+	 * where a runtime error occurred.
+	 */
+	public int lastLineNumber;
+
+	/**
+	 * The string pool filled in by _STRPOOL instructions as they run.
+	 */
+	public StringPool stringPool;
+
+	/**
+	 * The debugger controlling this activation, or null if it is not
+	 * being debugged.
+	 */
+	public JBasicDebugger debugger;
+
+	/**
+	 * The list of pending GOSUB/RETURN operations.
+	 */
+	public ArrayList<ScopeControlBlock> gosubStack;
+
+	/**
+	 * The active FOR..NEXT and DO..LOOP constructs.
+	 */
+	public LoopManager loopManager;
+
+	/**
+	 * The slot in the session's ON statement stack created for this
+	 * activation, or -1 if there isn't one.
+	 */
+	public int errorMark;
+
+	/**
+	 * Create a new frame for running code.
+	 * @param runSession the session that will run the code, which can be
+	 * null for code that is run at link time.
+	 */
+	public ExecutionFrame(final JBasic runSession) {
+		session = runSession;
+		errorMark = -1;
+	}
+
+	/**
+	 * Prepare the frame to run code from the start.  The data stack is
+	 * emptied (or allocated, the first time) and the rest of the state is
+	 * cleared.
+	 * @param initialStackSize the size of the data stack if one is created
+	 */
+	void reset(final int initialStackSize) {
+		if (dataStack != null) {
+			dataStack.clear();
+			if (session != null)
+				session.stacksReused++;
+		} else if (session != null)
+			dataStack = session.allocateStack(initialStackSize);
+		else
+			dataStack = new ValueStack(initialStackSize);
+
+		programCounter = 0;
+		fRunning = true;
+		status = null;
+		lastLineNumber = 0;
+		gosubStack = null;
+		loopManager = null;
+		errorMark = -1;
+		if (stringPool != null)
+			stringPool.clear();
+	}
+
+	/**
+	 * Give the data stack back to the session's pool.  The frame can still
+	 * be run again, in which case it gets a new stack.
+	 */
+	public void release() {
+		if (session != null)
+			session.releaseStack(dataStack);
+		dataStack = null;
+		registers = null;
+	}
+
+	/**
+	 * Get the loop manager, creating it if this is the first loop.
+	 * @return the LoopManager for this activation
+	 */
+	public LoopManager loops() {
+		if (loopManager == null)
+			loopManager = new LoopManager();
+		return loopManager;
+	}
+
+	/**
+	 * Determine if there are active FOR..NEXT or DO..LOOP constructs.
+	 * @return true if there are active loops
+	 */
+	public boolean hasLoops() {
+		return loopManager != null && loopManager.loopStackSize() > 0;
+	}
+
+	/**
+	 * Add a scope to the GOSUB stack.
+	 * @param scope the scope describing where RETURN goes back to
+	 */
+	public void pushGosub(final ScopeControlBlock scope) {
+		if (gosubStack == null)
+			gosubStack = new ArrayList<ScopeControlBlock>();
+		gosubStack.add(scope);
+	}
+
+	/**
+	 * Return the size of the stack.
+	 * @return the number of items on the data stack, or zero if there
+	 * isn't a stack.
+	 */
+	public int stackSize() {
+		if (dataStack == null)
+			return 0;
+		return dataStack.size();
+	}
+
+	/**
+	 * Get the top of the data stack after the code has run.  This is used
+	 * when a bytecode stream calculates an expression, and leaves the
+	 * result on the stack.
+	 * @return the top item, which is popped from the stack, or null if the
+	 * stack is empty.
+	 */
+	public Value getResult() {
+		if (dataStack == null || dataStack.size() == 0)
+			return null;
+		return dataStack.pop();
+	}
+
+	/**
+	 * Return an array that contains the current contents of the data stack.
+	 * This is used by the debugger to display the stack.  The array holds
+	 * the actual stack Values, not copies.
+	 * @return a Value containing an array.
+	 */
+	public Value getStack() {
+		final Value result = new Value(Value.ARRAY, null);
+		if (dataStack != null)
+			for (int i = 0; i < dataStack.size(); i++)
+				result.addElement(dataStack.get(i));
+		return result;
+	}
+
+	/**
+	 * Find the innermost activation of a program in a chain of frames.
+	 * @param frame the frame to start with, usually the session's current
+	 * frame.
+	 * @param p the program to look for
+	 * @return the frame, or null if the program isn't running in the chain.
+	 */
+	public static ExecutionFrame find(ExecutionFrame frame, final Program p) {
+		for (; frame != null; frame = frame.caller)
+			if (frame.program == p)
+				return frame;
+		return null;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fernwood.jbasic.JBasic;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * The function cache for a session, which remembers how each function name
+ * was resolved so later calls don't have to search the session's programs
+ * or use reflection to find the function class.
+ * <p>
+ * A name can resolve to a user-written FUNCTION (or a PROGRAM called as a
+ * function), which is stored in the session that loaded it, or to a builtin
+ * function class found in the session's SYS$PACKAGES list.  So each session
+ * has its own cache.  Builtin functions don't depend on the session's
+ * programs, so their resolution is also kept in a cache shared by all the
+ * sessions, keyed by the package list and the function name.
+ * <p>
+ * Entries are not removed when programs change.  Instead there is a global
+ * version number that is incremented whenever a program is added, removed,
+ * renamed, or linked in any session, or a session's SYS$PACKAGES list
+ * changes.  An entry made for an older version is ignored and replaced the
+ * next time the name is looked up.  The same check is used for entries that
+ * a _CALLF instruction remembers for itself, so the common case of calling
+ * the same function from the same place doesn't need a lookup at all.
+ *
+ * @author cole
+ *
+ */
+public class FunctionCache {
+
+	/**
+	 * The information needed to call a function, as resolved in one session.
+	 * Entries are immutable so they can be shared between threads without
+	 * locking.
+	 */
+	public static final class Entry {
+
+		/**
+		 * The cache that made this entry.
+		 */
+		final FunctionCache owner;
+
+		/**
+		 * The run() method to invoke for a builtin function, or null if the
+		 * function is user-written.
+		 */
+		final Method method;
+
+		/**
+		 * The object describing the function.  This is either a Program
+		 * object for user-written functions, or subclass of the
+		 * JBasicFunction class if it is a builtin.
+		 */
+		final Object instance;
+
+		/**
+		 * The cache version this entry was made for.
+		 */
+		final int version;
+
+		Entry(final FunctionCache theOwner, final Method m, final Object i,
+				final int theVersion) {
+			owner = theOwner;
+			method = m;
+			instance = i;
+			version = theVersion;
+		}
+	}
+
+	/**
+	 * The current version of all the function caches.
+	 */
+	private static final AtomicInteger version = new AtomicInteger();
+
+	/**
+	 * The builtin functions resolved by any session, keyed by the package
+	 * list and the function name.
+	 */
+	private static final ConcurrentHashMap<String, Entry> builtins =
+		new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * The number of attempts to find a function in a cache, reported by
+	 * SYS$$FCACHE_TRIES.
+	 */
+	private static final AtomicInteger tries = new AtomicInteger();
+
+	/**
+	 * The number of times a function was found in a cache, reported by
+	 * SYS$$FCACHE_HITS.
+	 */
+	private static final AtomicInteger hits = new AtomicInteger();
+
+	/**
+	 * The functions resolved in this session, keyed by function name.
+	 */
+	private final ConcurrentHashMap<String, Entry> entries =
+		new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * The session's SYS$PACKAGES list as a single string, used in the keys
+	 * of the builtin cache.  This is null until it is needed, and is reset
+	 * when the list changes.
+	 */
+	private volatile String packagePath;
+
+	/**
+	 * Determine if an entry can be used by this session.
+	 * @param e the entry, which can be null
+	 * @return true if the entry was made by this cache and no program or
+	 * package list has changed since.
+	 */
+	boolean isValid(final Entry e) {
+		return e != null && e.owner == this && e.version == version.get();
+	}
+
+	/**
+	 * Look up a function name in the session's cache.
+	 * @param fname the uppercase function name
+	 * @return the entry, or null if the function hasn't been resolved in
+	 * this session since the last change.
+	 */
+	Entry find(final String fname) {
+		tries.incrementAndGet();
+		final Entry e = entries.get(fname);
+		if (!isValid(e))
+			return null;
+		hits.incrementAndGet();
+		return e;
+	}
+
+	/**
+	 * Count a call that used an entry remembered by the calling instruction,
+	 * so the statistics include calls that didn't need a lookup.
+	 */
+	void countHit() {
+		tries.incrementAndGet();
+		hits.incrementAndGet();
+	}
+
+	/**
+	 * Store the resolution of a function name in the session's cache.
+	 * @param fname the uppercase function name
+	 * @param m the run() method of a builtin function, or null
+	 * @param i the Program or JBasicFunction object for the function
+	 * @return the new entry
+	 */
+	Entry bind(final String fname, final Method m, final Object i) {
+		final Entry e = new Entry(this, m, i, version.get());
+		entries.put(fname, e);
+		return e;
+	}
+
+	/**
+	 * Look up a builtin function resolved by any session with the same
+	 * package list.
+	 * @param session the session, whose SYS$PACKAGES list is used
+	 * @param fname the uppercase function name
+	 * @return an entry whose method and instance can be used for the
+	 * function, or null if it hasn't been resolved yet.
+	 */
+	Entry findBuiltin(final JBasic session, final String fname) {
+		return builtins.get(builtinKey(session, fname));
+	}
+
+	/**
+	 * Store the resolution of a builtin function so other sessions with the
+	 * same package list can use it.
+	 * @param session the session, whose SYS$PACKAGES list is used
+	 * @param fname the uppercase function name
+	 * @param m the run() method of the function
+	 * @param i the JBasicFunction object for the function
+	 */
+	void storeBuiltin(final JBasic session, final String fname,
+			final Method m, final Object i) {
+		builtins.putIfAbsent(builtinKey(session, fname), new Entry(null, m, i, 0));
+	}
+
+	/**
+	 * Form the key used for a function in the builtin cache.
+	 * @param session the session, whose SYS$PACKAGES list is used
+	 * @param fname the uppercase function name
+	 * @return the key string
+	 */
+	private String builtinKey(final JBasic session, final String fname) {
+		return getPackagePath(session) + fname;
+	}
+
+	/**
+	 * Get the session's SYS$PACKAGES list as a single string, which is used
+	 * as part of the key in caches shared by sessions that may have
+	 * different package lists.
+	 * @param session the session that owns this cache
+	 * @return the package names, each followed by a semicolon
+	 */
+	public String getPackagePath(final JBasic session) {
+		String path = packagePath;
+		if (path == null) {
+			final StringBuffer buffer = new StringBuffer();
+			final Value list = session.globals().localReference(JBasic.PACKAGES);
+			if (list != null)
+				for (int ix = 1; ix <= list.size(); ix++) {
+					buffer.append(list.getString(ix));
+					buffer.append(';');
+				}
+			path = buffer.toString();
+			packagePath = path;
+		}
+		return path;
+	}
+
+	/**
+	 * Note that the session's SYS$PACKAGES list has changed, so builtin
+	 * functions and statements may now resolve to different classes.
+	 */
+	public void packagesChanged() {
+		packagePath = null;
+		invalidate();
+	}
+
+	/**
+	 * Invalidate every entry in every session's cache, because a program
+	 * that may be a user-written function has been added, removed, or
+	 * changed.
+	 */
+	public static void invalidate() {
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Get the number of attempts to find a function in a cache.
+	 * @return the count of lookups
+	 */
+	public static int getTries() {
+		return tries.get();
+	}
+
+	/**
+	 * Get the number of times a function was found in a cache.
+	 * @return the count of cache hits
+	 */
+	public static int getHits() {
+		return hits.get();
+	}
+}
@@ -17,7 +17,6 @@ package org.fernwood.jbasic.runtime;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.HashMap;
 import org.fernwood.jbasic.JBasic;
 import org.fernwood.jbasic.Program;
 import org.fernwood.jbasic.Status;
@@ -61,42 +60,6 @@ import org.fernwood.jbasic.value.Value;
 
 public class Functions {
 
-	/**
-	 * This class contains the information stored in each node in the
-	 * function cache.  The fields describe the information needed to
-	 * call a user-written or built-in function.  An object of this
-	 * type is stored in the function cache for each function that
-	 * is successfully located.
-	 * 
-	 * @author tom
-	 * @version version 1.0 Nov 22, 2006
-	 *
-	 */
-	static class FunctionCacheEntry { 
-		/**
-		 * Create a function cache entry, and provide the invocation
-		 * information.
-		 * @param m The run() method to invoke in the object to call
-		 * a built-in function, or null if the function is not a
-		 * builtin function.  For user-written functions, this is null.
-		 * @param i The object describing the function.  This is either
-		 * a Program object for user-written functions, or subclass of 
-		 * the JBasicFunction class if it is a builtin.
-		 */
-		public FunctionCacheEntry(Method m, Object i) {
-			theMethod = m;
-			theInstance = i;
-			counter = 1;
-		}
-		Method theMethod;
-		Object theInstance;
-		int	counter;
-	}
-
-	static HashMap<String, FunctionCacheEntry> functionCache;
-	static int functionCacheTries;
-	static int functionCacheHits;
-
 	/**
 	 * Given a function name, determine if it should be remapped, based on any
 	 * current dialect settings, etc.  This mapping is stored in the global
@@ -197,71 +160,73 @@ public class Functions {
 	 * @throws JBasicException if a parameter count or type error occurs
 	 * @throws IllegalAccessException If a function name is invalid
 	 */
-	@SuppressWarnings("unchecked") 
 	public static Value invokeFunction(final JBasic session, final String fname,
 			final ArgumentList args, final SymbolTable symbols,
 			final JBasicDebugger debugger) throws IllegalArgumentException, JBasicException, IllegalAccessException, InvocationTargetException {
+		return invokeFunction(session, null, fname, args, symbols, debugger);
+	}
+
+	/**
+	 * Method to invoke a function from a call site that remembers how the
+	 * function was resolved.  This is the same as the other form of
+	 * invokeFunction(), except that the resolution is stored in the
+	 * instruction making the call.  The next time that instruction runs
+	 * in the same session, the function is called directly unless a program
+	 * or the package list has changed since.
+	 * 
+	 * @param session
+	 *            The JBasic object that contains the current session.
+	 * @param site
+	 *            The instruction calling the function, or null if the caller
+	 *            does not have an instruction that always calls the same
+	 *            function name.
+	 * @param fname
+	 *            The name of the function to call, i.e. "min"
+	 * @param args
+	 *            The arglist structure, which is an arg count and arg
+	 *            arrayValue
+	 * @param symbols
+	 *            The symbol table that is active at runtime when the function is
+	 *            invoked.
+	 * @param debugger the controlling debugger, if any
+	 * @return A Value containing the result of the function call
+	 * @throws IllegalArgumentException if a parameter count or type error occurs
+	 * @throws InvocationTargetException if an error occurs within the function
+	 * @throws JBasicException if a parameter count or type error occurs
+	 * @throws IllegalAccessException If a function name is invalid
+	 */
+	@SuppressWarnings("unchecked") 
+	public static Value invokeFunction(final JBasic session, final Instruction site,
+			final String fname, final ArgumentList args, final SymbolTable symbols,
+			final JBasicDebugger debugger) throws IllegalArgumentException, JBasicException, IllegalAccessException, InvocationTargetException {
 		
-	
-		/*
-		 * If no one has called a function before, create the function cache
-		 * which is a hash map used to map function names to an object with
-		 * the information needed to invoke the function.
-		 */
-		if( functionCache == null ) 
-			functionCache = new HashMap<String, FunctionCacheEntry>();
+		final FunctionCache cache = session.functionCache;
 
 		/*
-		 * First action; try to see if we've already called this puppy once
-		 * before.  Use the function name (which must already have been 
-		 * normalized to uppercase) to locate the cache entry object if
-		 * possible.
+		 * First action; see if the calling instruction already knows what
+		 * this function is, or if we've already called this puppy once 
+		 * before in this session.  Use the function name (which must 
+		 * already have been normalized to uppercase) to locate the cache 
+		 * entry object if possible.
 		 */
-		functionCacheTries++;
-		FunctionCacheEntry fe = functionCache.get(fname);
+		FunctionCache.Entry fe = null;
+		if( site != null && site.binding instanceof FunctionCache.Entry
+				&& cache.isValid((FunctionCache.Entry) site.binding)) {
+			fe = (FunctionCache.Entry) site.binding;
+			cache.countHit();
+		}
+		else {
+			fe = cache.find(fname);
+			if( fe != null && site != null )
+				site.binding = fe;
+		}
 		
 		/*
 		 * If the function cache entry is not null, we have enough information
 		 * to call the user-written or builtin function directly from here.
 		 */
-		if( fe != null ) {
-			functionCacheHits++;
-			fe.counter++;
-			
-			/*
-			 * If the method object is null it means this isn't a builtin
-			 * function, but is a user-written function.  Call it as a
-			 * subroutine of the current program.
-			 */
-			if( fe.theMethod == null) {
-				Program newPgm = (Program) fe.theInstance;
-				return callUserFunction(args, symbols, debugger, newPgm, 0);
-			}
-			
-			/*
-			 * The method object was non-null, so it is a built-in object
-			 * that we are calling.  Use the fields of the function cache
-			 * entry to form an invocation of the underlying function object.
-			 */
-			Value v = null;
-			try {
-				v =  ((JBasicFunction)fe.theInstance).run(args, symbols );
-			} catch (Exception e) {
-				
-				if( e.getClass() == JBasicException.class)
-					throw (JBasicException) e;
-				
-				Throwable cause = e.getCause();
-				if( cause != null && cause.getClass() == JBasicException.class) {
-					throw (JBasicException) cause;
-
-				}
-				Status s = new Status(Status.FAULT, 
-						new Status(Status.FUNCFAULT,e.toString()));
-				throw new JBasicException(s);
-			}
-			return v;
-		}
+		if( fe != null )
+			return callEntry(fe, args, symbols, debugger);
 
 		/*
 		 * A function can be built-in or identified as a program. Let's
@@ -273,7 +238,9 @@ public class Functions {
 		String programName = JBasic.FUNCTION + fname;
 		Program newPgm = session.programs.find(programName);
 		if (newPgm != null) {
-			functionCache.put(fname, new FunctionCacheEntry(null, newPgm));
+			fe = cache.bind(fname, null, newPgm);
+			if( site != null )
+				site.binding = fe;
 			return callUserFunction(args, symbols, debugger, newPgm, 0);
 		}
 
@@ -297,6 +264,18 @@ public class Functions {
 		Method m = null;
 		Object i = null;
 		
+		/*
+		 * Another session with the same package list may have already 
+		 * found the class for this function.
+		 */
+		final FunctionCache.Entry builtin = cache.findBuiltin(session, fname);
+		if( builtin != null ) {
+			fe = cache.bind(fname, builtin.method, builtin.instance);
+			if( site != null )
+				site.binding = fe;
+			return callEntry(fe, args, symbols, debugger);
+		}
+
 		try {
 				
 			c = findFunctionClass(session, fname);
@@ -374,9 +353,10 @@ public class Functions {
 						s = new Status(Status.FAULT, "null function compile method pointer");
 					
 					if( s.success()) {
-						s = tempCode.run(symbols, 0);
+						final ExecutionFrame frame = new ExecutionFrame(tempCode.getSession());
+						s = tempCode.run(frame, symbols, 0);
 						if( s.success()) 
-							return tempCode.getResult();
+							return frame.getResult();
 					}
 					throw new JBasicException(s);
 				}
@@ -389,7 +369,9 @@ public class Functions {
 			programName = JBasic.PROGRAM + fname;
 			newPgm = session.programs.find(programName);
 			if (newPgm != null) {
-				functionCache.put(fname, new FunctionCacheEntry(null, newPgm));
+				fe = cache.bind(fname, null, newPgm);
+				if( site != null )
+					site.binding = fe;
 				return callUserFunction(args, symbols, debugger, newPgm, 0);
 			}
 
@@ -404,13 +386,13 @@ public class Functions {
 		 * We now have enough information to store this in the function
 		 * cache so subsequent calls won't have to do the various
 		 * reflection operations (which are slightly slower than
-		 * the table lookup we use for the cache).  Note that, depending
-		 * on the way threads are started, the functionCache may not be
-		 * ready yet - in which case we just don't store it in the cache
-		 * this one time.
+		 * the table lookup we use for the cache).  The builtin cache lets
+		 * other sessions skip the reflection too.
 		 */
-		if( functionCache != null )
-			functionCache.put(fname, new FunctionCacheEntry(m, i));
+		cache.storeBuiltin(session, fname, m, i);
+		fe = cache.bind(fname, m, i);
+		if( site != null )
+			site.binding = fe;
 
 		/*
 		 * Invoke the method using the instance and an array containing
@@ -421,6 +403,55 @@ public class Functions {
 		return (Value) r;
 	}
 
+	/**
+	 * Call a function whose resolution was found in the function cache.
+	 * @param fe the cache entry for the function
+	 * @param args the argument list
+	 * @param symbols the symbol table that is active when the function is
+	 * invoked
+	 * @param debugger the controlling debugger, if any
+	 * @return a Value containing the result of the function call
+	 * @throws JBasicException if an error occurs in the function
+	 */
+	private static Value callEntry(final FunctionCache.Entry fe, 
+			final ArgumentList args, final SymbolTable symbols,
+			final JBasicDebugger debugger) throws JBasicException {
+
+		/*
+		 * If the method object is null it means this isn't a builtin
+		 * function, but is a user-written function.  Call it as a
+		 * subroutine of the current program.
+		 */
+		if( fe.method == null) {
+			Program newPgm = (Program) fe.instance;
+			return callUserFunction(args, symbols, debugger, newPgm, 0);
+		}
+		
+		/*
+		 * The method object was non-null, so it is a built-in object
+		 * that we are calling.  Use the fields of the function cache
+		 * entry to form an invocation of the underlying function object.
+		 */
+		Value v = null;
+		try {
+			v =  ((JBasicFunction)fe.instance).run(args, symbols );
+		} catch (Exception e) {
+			
+			if( e.getClass() == JBasicException.class)
+				throw (JBasicException) e;
+			
+			Throwable cause = e.getCause();
+			if( cause != null && cause.getClass() == JBasicException.class) {
+				throw (JBasicException) cause;
+
+			}
+			Status s = new Status(Status.FAULT, 
+					new Status(Status.FUNCFAULT,e.toString()));
+			throw new JBasicException(s);
+		}
+		return v;
+	}
+
 	/**
 	 * Given a function name in the current session, locate the function class that
 	 * supports the function. 
@@ -498,37 +529,23 @@ public class Functions {
 			String programName;
 			if( startAddress == 0 ) {
 				programName = functionPgm.getName();
+				final ByteCode code = functionPgm.getExecutable();
 				newTable = new SymbolTable(session, "Local to "
-						+ programName, symbols);
+						+ programName, symbols, 
+						code == null ? 0 : code.localVariableCount());
 			}
 			else {
 				programName = symbols.getString(Linkage.ENTRY_PREFIX);
 				newTable = symbols;
 			}
 			/*
-			 * The argument list must be broken apart again to set up
-			 * the implicit "CALL" operation that is implied by the
-			 * function invocation.
-			 * <p>
-			 * This means that each argument is given a slot in the new
-			 * function's symbol table in the array $ARGS.  The calling
-			 * program can reference the argument list via this array at
-			 * any time, in addition to referencing the arguments via
-			 * explicitly named parameters.
-			 */
-			
-			final Value argArray = new Value(Value.ARRAY, null);
-			for (int argcount = 0; argcount < args.size(); argcount++)
-				argArray.setElement(args.element(argcount), argcount + 1);
-			newTable.insertLocal("$ARGS", argArray);
-			
-			/*
-			 * Define additional local variables that tell the function
-			 * about itself, how it got called, and the name of the
-			 * calling program or function.
+			 * The argument list is attached to the new table along with
+			 * the information about how the function was called.  The
+			 * function can reference the argument list via the array $ARGS
+			 * at any time, in addition to referencing the arguments via
+			 * explicitly named parameters; $ARGS, $MODE, $THIS, and $PARENT
+			 * are created when the function first references them.
 			 */
-			newTable.insertLocal("$MODE", new Value("FUNCTION"));
-			newTable.insertLocal("$THIS", new Value(programName));
 			String parentName = "Console";
 			
 			Program cp = session.programs.getCurrent();
@@ -536,13 +553,14 @@ public class Functions {
 			if (cp != null)
 				if (cp.isActive())
 					parentName = cp.getName();
-			newTable.insertLocal("$PARENT", new Value(parentName));
+			newTable.setCallInfo(new CallInfo(args, "FUNCTION", programName, 
+					parentName, 0));
 			
 			/*
 			 * Now run the program with the new symbol table and the
 			 * supplied debugger object (if any).
 			 */
-			sts = functionPgm.run(newTable, startAddress, debugger);
+			sts = functionPgm.run(session, newTable, startAddress, debugger);
 			
 			/*
 			 * If there was a result, get it now
@@ -577,21 +595,16 @@ public class Functions {
 		 * case we need to remove the cache element so that a subsequent call to the
 		 * function will call the user program and not simply call the builtin function
 		 * again.
+		 * <p>
+		 * The caches of all sessions are invalidated, including the resolutions
+		 * remembered by _CALLF instructions, since a program can be shared by
+		 * sessions that each have their own function cache.
 		 * @param name The name of the function to remove.  If this parameter is null,
-		 * then all function names are removed from the cache.
+		 * then all function names are removed from the cache.  Currently every
+		 * name is removed in either case.
 		 */
 		public static void flushCache(String name) {
-			
-			if( functionCache == null )
-				return;
-			
-			if( name == null ) {
-				Functions.functionCache = null;
-				return;
-			}
-			
-			functionCache.remove(name);
-			return;
+			FunctionCache.invalidate();
 		}
 }
 
@@ -0,0 +1,267 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ * 
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ * 
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ * 
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Line reader for text INPUT files that can be positioned.  The file is read
+ * through a FileChannel into a buffer, and lines are split on the bytes for
+ * carriage return and line feed, the same as BufferedReader.readLine().  Each
+ * line is then decoded using the default character set, which is what a
+ * FileReader would use.  Because the reader works in bytes, it always knows
+ * the byte position of the next line, and can be moved to any byte position
+ * without reading the file from the start.
+ * <p>
+ * As lines are read in order, the reader records the byte position of
+ * every INDEX_INTERVAL'th line.  This sparse index lets seekLine() move to
+ * any line that has already been read past by reading at most
+ * INDEX_INTERVAL lines; a line beyond the end of the index is found by
+ * reading forward from the last indexed line, adding to the index as it
+ * goes.  The index is only kept while the reader knows the line number of
+ * the next line, which it doesn't after a move to an arbitrary byte
+ * position.
+ * 
+ * @author cole
+ * 
+ */
+final class IndexedLineReader {
+
+	/**
+	 * The size of the buffer the file is read into.
+	 */
+	private static final int BUFFER_SIZE = 65536;
+
+	/**
+	 * The number of lines between entries in the line index.
+	 */
+	private static final int INDEX_INTERVAL = 256;
+
+	/**
+	 * The file being read.
+	 */
+	private final RandomAccessFile file;
+
+	/**
+	 * The channel used to read the file.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The buffer holding bytes read from the file.  The next byte to read is
+	 * at the buffer's position.
+	 */
+	private final ByteBuffer bytes;
+
+	/**
+	 * The byte position in the file of the first byte in the buffer.
+	 */
+	private long bufferStart;
+
+	/**
+	 * The bytes of the line being read.
+	 */
+	private byte[] lineBytes;
+
+	/**
+	 * The character set used to decode each line.
+	 */
+	private final Charset charset;
+
+	/**
+	 * The byte position of line 1 + n * INDEX_INTERVAL, for each n less than
+	 * indexCount.
+	 */
+	private long[] index;
+
+	/**
+	 * The number of entries in the line index.
+	 */
+	private int indexCount;
+
+	/**
+	 * The line number of the next line to be read, counting from 1, or zero
+	 * if it is not known.
+	 */
+	private int nextLine;
+
+	/**
+	 * Open a file for reading.
+	 * @param fsName the file system path name of the file
+	 * @throws FileNotFoundException if the file can't be opened
+	 */
+	IndexedLineReader(final String fsName) throws FileNotFoundException {
+		file = new RandomAccessFile(fsName, "r");
+		channel = file.getChannel();
+		bytes = ByteBuffer.allocate(BUFFER_SIZE);
+		bytes.limit(0);
+		lineBytes = new byte[256];
+		charset = Charset.defaultCharset();
+		index = new long[64];
+		nextLine = 1;
+	}
+
+	/**
+	 * Read the next line.
+	 * @return the text of the line, without the line terminator, or null at
+	 * the end of the file
+	 * @throws IOException if the file can't be read
+	 */
+	String readLine() throws IOException {
+		final int length = scanLine(true);
+		if (length < 0)
+			return null;
+		return new String(lineBytes, 0, length, charset);
+	}
+
+	/**
+	 * Get the byte position of the next line to be read.
+	 * @return the byte position in the file
+	 */
+	long getPosition() {
+		return bufferStart + bytes.position();
+	}
+
+	/**
+	 * Move to a byte position in the file.  This should be the start of a
+	 * line, such as a value returned by getPosition().
+	 * @param position the byte position in the file
+	 */
+	void seek(final long position) {
+		final long offset = position - bufferStart;
+		if (offset >= 0 && offset <= bytes.limit())
+			bytes.position((int) offset);
+		else {
+			bufferStart = position;
+			bytes.clear();
+			bytes.limit(0);
+		}
+		nextLine = (position == 0) ? 1 : 0;
+	}
+
+	/**
+	 * Move to the start of a line.
+	 * @param line the line number, counting from 1
+	 * @return false if the file has fewer lines, in which case the reader is
+	 * at the end of the file
+	 * @throws IOException if the file can't be read
+	 */
+	boolean seekLine(final int line) throws IOException {
+		final int target = Math.max(line, 1);
+
+		/*
+		 * Start from the closest indexed line before the target, unless the
+		 * reader is already between that line and the target.
+		 */
+		int entry = Math.min((target - 1) / INDEX_INTERVAL, indexCount - 1);
+		if (nextLine == 0 || nextLine > target
+				|| (entry >= 0 && nextLine < entry * INDEX_INTERVAL + 1)) {
+			if (entry < 0)
+				seek(0);
+			else {
+				seek(index[entry]);
+				nextLine = entry * INDEX_INTERVAL + 1;
+			}
+		}
+
+		while (nextLine < target)
+			if (scanLine(false) < 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * Close the file.
+	 * @throws IOException if the file can't be closed
+	 */
+	void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Read past the next line, recording it in the line index if it is one
+	 * of the indexed lines.
+	 * @param keep true if the bytes of the line are to be stored in
+	 * lineBytes
+	 * @return the length of the line in bytes, or -1 at the end of the file
+	 * @throws IOException if the file can't be read
+	 */
+	private int scanLine(final boolean keep) throws IOException {
+
+		final long start = getPosition();
+		int length = 0;
+		boolean empty = true;
+
+		while (true) {
+			if (!bytes.hasRemaining() && !fill()) {
+				if (empty)
+					return -1;
+				break;
+			}
+			empty = false;
+			final byte b = bytes.get();
+			if (b == '\n')
+				break;
+			if (b == '\r') {
+				if ((bytes.hasRemaining() || fill()) && bytes.get(bytes.position()) == '\n')
+					bytes.get();
+				break;
+			}
+			if (keep) {
+				if (length == lineBytes.length) {
+					final byte[] newBytes = new byte[length * 2];
+					System.arraycopy(lineBytes, 0, newBytes, 0, length);
+					lineBytes = newBytes;
+				}
+				lineBytes[length] = b;
+			}
+			length++;
+		}
+
+		if (nextLine > 0) {
+			if ((nextLine - 1) % INDEX_INTERVAL == 0
+					&& (nextLine - 1) / INDEX_INTERVAL == indexCount) {
+				if (indexCount == index.length) {
+					final long[] newIndex = new long[indexCount * 2];
+					System.arraycopy(index, 0, newIndex, 0, indexCount);
+					index = newIndex;
+				}
+				index[indexCount++] = start;
+			}
+			nextLine++;
+		}
+		return length;
+	}
+
+	/**
+	 * Read the next block of the file into the buffer, after all of the
+	 * bytes in it have been used.
+	 * @return false if there are no more bytes in the file
+	 * @throws IOException if the file can't be read
+	 */
+	private boolean fill() throws IOException {
+		bufferStart += bytes.limit();
+		bytes.clear();
+		final int count = channel.read(bytes, bufferStart);
+		bytes.flip();
+		return count > 0;
+	}
+}
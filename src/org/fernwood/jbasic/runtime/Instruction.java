@@ -89,6 +89,15 @@ public class Instruction {
 	 * phases and is not used at runtime.
 	 */
 	public boolean branchTarget;
+
+	/**
+	 * Information the opcode has remembered about this instruction while
+	 * running it, such as how the function called by a _CALLF was resolved.
+	 * This is not part of the instruction; it isn't displayed, compared, or
+	 * saved with the bytecode.  Since the bytecode can be run by more than
+	 * one thread, the object stored here must not change once stored.
+	 */
+	public Object binding;
 	
 	/**
 	 * This is a developer's trap. This should not be called, <em>ever</em>. 
@@ -194,6 +203,25 @@ public class Instruction {
 		doubleValid = false;
 	}
 
+	/**
+	 * Initialize an instruction as a copy of another instruction.  The
+	 * operands are copied, but not the profiling counter or any binding
+	 * the original has remembered while running.
+	 *
+	 * @param source
+	 *            The instruction to copy
+	 */
+	public Instruction(final Instruction source) {
+		opCode = source.opCode;
+		integerOperand = source.integerOperand;
+		integerValid = source.integerValid;
+		doubleOperand = source.doubleOperand;
+		doubleValid = source.doubleValid;
+		stringOperand = source.stringOperand;
+		stringValid = source.stringValid;
+		branchTarget = source.branchTarget;
+	}
+
 	public String toString() {
 		return ByteCode.disassembleInstruction(-1, this);
 	}
@@ -15,9 +15,13 @@
  */
 package org.fernwood.jbasic.runtime;
 
-import java.io.FileNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.util.IdentityHashMap;
 
 import org.fernwood.jbasic.JBasic;
 import org.fernwood.jbasic.Status;
@@ -43,6 +47,12 @@ import org.fernwood.jbasic.value.Value;
  * identify which record number (as opposed to byte number) is to be used; this
  * must be calculated at runtime by the _SEEK bytecode, and passed to the
  * JBFBinary file as a byte position.
+ * <p>
+ * If the file is opened with the MAPPED option, it is accessed through
+ * memory-mapped windows of the file rather than by individual reads and
+ * writes.  The file also keeps the compiled RecordLayout for each record
+ * definition it is used with, so that GET and PUT of a record whose fields
+ * all have fixed sizes can transfer the whole record at once.
  * 
  * @author cole
  * 
@@ -50,10 +60,25 @@ import org.fernwood.jbasic.value.Value;
 public class JBFBinary extends JBasicFile {
 
 	/**
-	 * This is the random access file handle from the java.io package that is
-	 * used to actually perform the random file I/O operations.
+	 * The largest number of record layouts kept for a file.  If a program
+	 * uses more record definitions than this, the layouts are discarded and
+	 * compiled again as needed.
+	 */
+	private static final int MAX_LAYOUTS = 16;
+
+	/**
+	 * This is the random access file handle that is used to actually perform
+	 * the random file I/O operations.  It is either a RandomAccessFile or a
+	 * memory-mapped view of the file.
+	 */
+	BinaryStore dataStream;
+
+	/**
+	 * The compiled layouts of the record definitions used with this file,
+	 * keyed by the array that holds the definition.
 	 */
-	RandomAccessFile dataStream;
+	private final IdentityHashMap<Value, RecordLayout> layouts = 
+		new IdentityHashMap<Value, RecordLayout>();
 	
 	/**
 	 * This is the default size for STRING fields if the length is not given.
@@ -84,6 +109,8 @@ public class JBFBinary extends JBasicFile {
 	 * @param fn
 	 *            The external physical file name expressed as a Value object.
 	 *            Normally this is a string.
+	 * @param symbols the symbol table used to find the options for the
+	 *            file.  If __MAPPED is true the file is memory-mapped.
 	 * @throws JBasicException  if a file I/O error occurs
 	 */
 
@@ -101,8 +128,9 @@ public class JBFBinary extends JBasicFile {
 
 		try {
 			String fsName = JBasic.userManager.makeFSPath(this.jbenv, extName);
-			dataStream = new RandomAccessFile(fsName, "rw");
-		} catch (final FileNotFoundException e) {
+			final Value mapped = symbols.findReference("__MAPPED", false);
+			dataStream = BinaryStore.open(fsName, mapped != null && mapped.getBoolean());
+		} catch (final IOException e) {
 			lastStatus = new Status(Status.IOERROR, e.toString());
 			lastStatus.print(jbenv);
 			throw new JBasicException(lastStatus);
@@ -463,6 +491,68 @@ public class JBFBinary extends JBasicFile {
 		}
 	}
 
+	/**
+	 * Read a complete value of any type from a BINARY mode file, which was
+	 * written by putValue().  An ARRAY, RECORD, or TABLE is read along with
+	 * all its members.
+	 * 
+	 * @return A Value containing the data read.
+	 * @throws JBasicException if the file is at end-of-file, the data is not
+	 *         a valid value, or a file I/O error occurs
+	 */
+	public Value getValue() throws JBasicException {
+		if (mode != MODE_BINARY)
+			throw new JBasicException(Status.NOTBINARY);
+
+		/*
+		 * The value is read into memory in one operation, since reading it
+		 * a byte at a time from the random access file would be slow.
+		 */
+		final byte[] buffer;
+		try {
+			final int length = dataStream.readInt();
+			if (length < 0)
+				throw new JBasicException(Status.BINFMT, "invalid value length");
+			buffer = new byte[length];
+			dataStream.readFully(buffer);
+		} catch (final EOFException e) {
+			throw new JBasicException(Status.EOF);
+		} catch (final IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+
+		final Value v = new BinaryValueReader(new DataInputStream(
+				new ByteArrayInputStream(buffer))).readValue();
+		if (v == null)
+			throw new JBasicException(Status.BINFMT, "empty value");
+		return v;
+	}
+
+	/**
+	 * Write a complete value of any type to a BINARY mode file.  The value
+	 * is written in the form created by BinaryValueWriter, preceded by its
+	 * length in bytes, so it can be read back with getValue() without knowing
+	 * its type or size.
+	 * 
+	 * @param v
+	 *            The value to write
+	 * @throws JBasicException if the value can't be written, or a file I/O
+	 *         error occurs
+	 */
+	public void putValue(final Value v) throws JBasicException {
+		if (mode != MODE_BINARY)
+			throw new JBasicException(Status.NOTBINARY);
+
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		new BinaryValueWriter(new DataOutputStream(buffer)).writeValue(v);
+		try {
+			dataStream.writeInt(buffer.size());
+			dataStream.write(buffer.toByteArray());
+		} catch (final IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+	}
+
 	/**
 	 * Determine if the file is at end-of-file. This means that there is no more
 	 * data that can be read from the file from it's current position. For an
@@ -588,4 +678,75 @@ public class JBFBinary extends JBasicFile {
 		}
 		return buffer.length;
 	}
+
+	/**
+	 * Get the compiled layout of a record definition.  The layout is kept
+	 * for the next time the same definition is used, as long as it hasn't
+	 * been changed.
+	 * @param fieldList the array of field records
+	 * @return the layout, or null if the record doesn't have a fixed size
+	 * and must be read or written a field at a time
+	 * @throws JBasicException if a BITFIELD map is invalid
+	 */
+	public RecordLayout getLayout(final Value fieldList) throws JBasicException {
+
+		RecordLayout layout = layouts.get(fieldList);
+		if (layout == null || !layout.matches(fieldList, defaultStringSize)) {
+			layout = RecordLayout.compile(fieldList, defaultStringSize);
+			if (layout == null)
+				return null;
+			if (layouts.size() >= MAX_LAYOUTS)
+				layouts.clear();
+			layouts.put(fieldList, layout);
+		}
+		return layout.isFixed() ? layout : null;
+	}
+
+	/**
+	 * Read a complete record of a given size from the file.
+	 * @param size the number of bytes in the record
+	 * @return a byte[] containing the record, or null if there aren't that
+	 * many bytes left in the file, in which case the position of the file
+	 * isn't changed.
+	 */
+	public byte[] readRecord(final int size) {
+		final byte[] buffer = readRecords(size, 1);
+		if (buffer == null || buffer.length < size)
+			return null;
+		return buffer;
+	}
+
+	/**
+	 * Read complete records of a given size from the file in a single
+	 * operation.  If there are fewer than the given number of records left
+	 * in the file, all the complete records that are left are read, and the
+	 * file is positioned after the last one.
+	 * @param size the number of bytes in each record
+	 * @param count the largest number of records to read
+	 * @return a byte[] containing the records, which is empty if there isn't
+	 * a complete record left in the file, or null if an error occurred.
+	 */
+	public byte[] readRecords(final int size, final int count) {
+		if (mode != MODE_BINARY) {
+			lastStatus = new Status(Status.NOTBINARY);
+			return null;
+		}
+
+		if (size <= 0)
+			return new byte[0];
+		try {
+			final long available = dataStream.length() - dataStream.getFilePointer();
+			long records = Math.min(count, available / size);
+			if (records < 0)
+				records = 0;
+			if (records * size > Integer.MAX_VALUE - 8)
+				records = (Integer.MAX_VALUE - 8) / size;
+			final byte[] buffer = new byte[(int) records * size];
+			dataStream.readFully(buffer);
+			return buffer;
+		} catch (final IOException e) {
+			lastStatus = new Status(Status.IOERROR, e.toString());
+			return null;
+		}
+	}
 }
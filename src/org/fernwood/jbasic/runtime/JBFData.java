@@ -0,0 +1,228 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.fernwood.jbasic.JBasic;
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * DATA version of JBasicFile.  A DATA file holds a sequence of complete
+ * JBasic values of any type, including ARRAY, RECORD, TABLE, and DECIMAL
+ * values, stored in the binary form written by BinaryValueWriter.  This is
+ * used to save large data sets from one program and read them back in
+ * another, which is much faster than converting them to and from XML.
+ * <p>
+ * The operations that can be performed on a DATA file are OPEN, GET, PUT,
+ * EOF(), and CLOSE.  Each variable named in a PUT statement is written to
+ * the end of the file as a separate value, and each variable in a GET
+ * statement is set to the next value read from the file, starting with the
+ * first value in the file.  The types given in the GET or PUT statement are
+ * not used, since each value in the file records its own type.
+ * <p>
+ * If the file does not exist when it is opened, it is created.  An existing
+ * file is never truncated, so PUT adds to any values already in the file;
+ * use KILL to delete a file before writing a new data set to it.
+ *
+ * @author cole
+ *
+ */
+public class JBFData extends JBasicFile {
+
+	/**
+	 * The physical file.
+	 */
+	private File file;
+
+	/**
+	 * The stream that reads values from the start of the file, and the
+	 * buffered stream beneath it, which is used to test for end-of-file.
+	 */
+	private DataInputStream input;
+	private BufferedInputStream inputBuffer;
+
+	/**
+	 * The stream that appends values to the end of the file, created the
+	 * first time a value is written.
+	 */
+	private DataOutputStream output;
+
+	private BinaryValueReader reader;
+	private BinaryValueWriter writer;
+
+	/**
+	 * Create a JBasic DATA file.
+	 * @param jb the controlling session that owns the file.
+	 */
+	public JBFData(final JBasic jb) {
+		super(jb);
+		mode = MODE_DATA;
+	}
+
+	/**
+	 * Open the data file, using a provided file name.  If the file is new or
+	 * empty the header is written to it, otherwise the header is checked to
+	 * make sure it really is a DATA file.
+	 *
+	 * @param fn
+	 *            The external physical file name expressed as a Value object.
+	 * @param symbols
+	 *            The symbol table of the program opening the file (unused)
+	 * @throws JBasicException  if a file I/O error occurs
+	 */
+	public void open(final Value fn, final SymbolTable symbols) throws JBasicException {
+
+		final String extName = fn.getString();
+		if (extName.equalsIgnoreCase(JBasic.CONSOLE_NAME))
+			throw new JBasicException(Status.FILECONSOLE);
+
+		fname = extName;
+		mode = MODE_DATA;
+		type = FILE;
+		lastStatus = new Status(Status.SUCCESS);
+
+		file = new File(JBasic.userManager.makeFSPath(this.jbenv, extName));
+		try {
+			if (file.length() == 0) {
+				openOutput();
+				writer.writeHeader();
+				output.flush();
+			}
+			inputBuffer = new BufferedInputStream(new FileInputStream(file));
+			input = new DataInputStream(inputBuffer);
+			reader = new BinaryValueReader(input);
+			reader.readHeader();
+		} catch (final IOException e) {
+			closeStreams();
+			lastStatus = new Status(Status.IOERROR, e.toString());
+			throw new JBasicException(lastStatus);
+		} catch (final JBasicException e) {
+			closeStreams();
+			lastStatus = e.getStatus();
+			throw e;
+		}
+
+		register();
+	}
+
+	/**
+	 * Create the stream used to write to the end of the file.
+	 */
+	private void openOutput() throws IOException {
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		writer = new BinaryValueWriter(output);
+	}
+
+	/**
+	 * Write a value to the end of the file.
+	 * @param value the value to write
+	 * @throws JBasicException if the value can't be written
+	 */
+	public void put(final Value value) throws JBasicException {
+		try {
+			if (output == null)
+				openOutput();
+		} catch (final IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+		writer.writeValue(value);
+	}
+
+	/**
+	 * Read the next value from the file.  Any values written since the file
+	 * was opened can also be read.
+	 * @return the value read
+	 * @throws JBasicException if there are no more values in the file, or
+	 * the data is not valid
+	 */
+	public Value get() throws JBasicException {
+		flush();
+		final Value value = reader.readValue();
+		if (value == null)
+			throw new JBasicException(Status.EOF);
+		return value;
+	}
+
+	/**
+	 * Write any buffered values to the file, so they can be read.
+	 */
+	private void flush() throws JBasicException {
+		if (output != null)
+			try {
+				output.flush();
+			} catch (final IOException e) {
+				throw new JBasicException(Status.IOERROR, e.toString());
+			}
+	}
+
+	/**
+	 * Determine if there are no more values to be read from the file.
+	 * @return true if a GET would fail because there is no more data
+	 */
+	public boolean eof() {
+		try {
+			flush();
+			inputBuffer.mark(1);
+			final int next = inputBuffer.read();
+			inputBuffer.reset();
+			return next < 0;
+		} catch (final IOException e) {
+			lastStatus = new Status(Status.IOERROR, e.toString());
+		} catch (final JBasicException e) {
+			lastStatus = e.getStatus();
+		}
+		return true;
+	}
+
+	public void close() {
+		try {
+			if (output != null)
+				output.close();
+		} catch (final IOException e) {
+			lastStatus = new Status(Status.IOERROR, e.toString());
+			lastStatus.print(jbenv);
+		}
+		output = null;
+		closeStreams();
+		super.close();
+	}
+
+	/**
+	 * Close the streams without reporting errors, which is done when the
+	 * file could not be opened.
+	 */
+	private void closeStreams() {
+		try {
+			if (output != null)
+				output.close();
+			if (input != null)
+				input.close();
+		} catch (final IOException e) {
+			/* Nothing more can be done */
+		}
+		output = null;
+		input = null;
+	}
+}
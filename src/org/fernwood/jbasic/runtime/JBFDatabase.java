@@ -17,16 +17,22 @@ package org.fernwood.jbasic.runtime;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.fernwood.jbasic.JBasic;
 import org.fernwood.jbasic.Status;
 import org.fernwood.jbasic.compiler.Expression;
 import org.fernwood.jbasic.compiler.Tokenizer;
+import org.fernwood.jbasic.value.RecordStreamValue;
 import org.fernwood.jbasic.value.Value;
 
 /**
@@ -42,6 +48,13 @@ import org.fernwood.jbasic.value.Value;
  * names. All classes in this list are loaded if possible before a database is
  * opened, making them avaialble to the JDBC driver.
  * <p>
+ * Each SQL statement is prepared once and kept in a cache for the
+ * connection, so a statement that is executed again with the same text (or
+ * with different parameters, by PUT...USING) doesn't have to be compiled by
+ * the database again.  A TABLE of parameters is sent to the database in
+ * batches, and the rows of a result set can be read into a TABLE in a single
+ * call.
+ * <p>
  * 
  * @author cole
  * 
@@ -56,12 +69,39 @@ public class JBFDatabase extends JBasicFile {
 	Connection connectionHandle;
 
 	/**
-	 * The JDBC statement handle. This is created each time a PRINT statement
-	 * directs a string to the DATABASE file. The statement is compiled and
-	 * executed, and optionally a result set may be created.
+	 * The JDBC statement handle. This is prepared each time a PRINT statement
+	 * directs a string to the DATABASE file, unless it is found in the
+	 * statement cache. The statement is executed, and optionally a result set
+	 * may be created.
 	 */
 	Statement statementHandle;
 
+	/**
+	 * True if the statement handle is kept in the statement cache, so it
+	 * must not be closed when the statement is cleaned up.
+	 */
+	private boolean statementCached;
+
+	/**
+	 * The prepared statements for this connection, keyed by the SQL text, in
+	 * order from least to most recently used.  The cache holds at most
+	 * SYS$DB_STATEMENT_CACHE statements; setting the size to zero disables
+	 * the cache.
+	 */
+	private LinkedHashMap<String, PreparedStatement> statementCache;
+
+	/**
+	 * The maximum number of statements in the cache, read from
+	 * SYS$DB_STATEMENT_CACHE each time a statement is prepared.
+	 */
+	private int statementCacheSize;
+
+	/**
+	 * Map of upper case column names to column numbers in the current result
+	 * set, so fields can be read by number rather than by name.
+	 */
+	private HashMap<String, Integer> columnMap;
+
 	/**
 	 * This is the result set, which is created by a statement that is a query.
 	 * Not all statements will generate a result set. The result set is what is
@@ -374,31 +414,226 @@ public class JBFDatabase extends JBasicFile {
 		fileID.setElement(new Value(Value.RECORD, null), "MAP");
 
 		/*
-		 * Create a statement object, which is needed for just about anything we
-		 * do here.
+		 * Get a prepared statement object for the command, and execute it.
 		 */
 		try {
-			statementHandle = connectionHandle.createStatement();
+			final PreparedStatement ps = prepare(localCommandBuffer);
+			ps.clearParameters();
+			runStatement(ps);
+		} catch (final Exception e) {
+			cleanup();
+			throw new JBasicException(Status.JDBC, "statement failure " + e);
+		}
+		return;
+	}
+
+	/**
+	 * Execute a SQL statement with parameters, for a PUT statement with a
+	 * USING clause that gives the SQL text.  Each ? in the text is replaced
+	 * by a parameter value.  If the statement is a query, its result set can
+	 * be read with GET as usual.
+	 * <p>
+	 * If the parameters are a TABLE, the statement is executed once for each
+	 * row, with the columns of the row as the parameters.  The rows are sent
+	 * to the database in batches of SYS$DB_BATCH_SIZE rows, and if the
+	 * connection commits each statement automatically, all the rows are
+	 * committed together at the end.
+	 * 
+	 * @param sql the SQL text
+	 * @param parameters an ARRAY of parameter values, a TABLE with a row of
+	 * parameter values for each execution, a single value, or null if there
+	 * are no parameters
+	 * @throws JBasicException usually a Status.JDBC error with the underlying
+	 * JDBC error returned by the driver
+	 */
+	public void execute(final String sql, final Value parameters) throws JBasicException {
+
+		lastStatus = new Status();
+		cleanup();
+
+		if (parameters != null && parameters.getType() == Value.RECORD)
+			throw new JBasicException(Status.WRONGTYPE, "ARRAY");
+
+		jbenv.globals().insert("SYS$DB_LAST_STATEMENT", sql);
+		fileID.setElement(new Value(Value.RECORD, null), "MAP");
+
+		try {
+			final PreparedStatement ps = prepare(sql);
+			if (parameters != null && parameters.getType() == Value.TABLE) {
+				executeBatch(ps, (RecordStreamValue) parameters);
+				return;
+			}
+			ps.clearParameters();
+			if (parameters != null) {
+				if (parameters.getType() == Value.ARRAY)
+					for (int ix = 1; ix <= parameters.size(); ix++)
+						bind(ps, ix, parameters.getElement(ix));
+				else
+					bind(ps, 1, parameters);
+			}
+			runStatement(ps);
 		} catch (final Exception e) {
 			cleanup();
-			throw new JBasicException(Status.JDBC, "statement failure, " + e);			
+			throw new JBasicException(Status.JDBC, "statement failure " + e);
+		}
+	}
+
+	/**
+	 * Get a prepared statement for SQL text, which becomes the statement
+	 * handle.  If the same text was prepared before, the statement is found
+	 * in the statement cache.
+	 * 
+	 * @param sql the SQL text
+	 * @return the prepared statement
+	 * @throws SQLException if the statement can't be prepared
+	 */
+	private PreparedStatement prepare(final String sql) throws SQLException {
+
+		statementCacheSize = jbenv.getInteger("SYS$DB_STATEMENT_CACHE");
+		PreparedStatement ps = null;
+		if (statementCacheSize > 0) {
+			if (statementCache == null)
+				statementCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+					private static final long serialVersionUID = 1L;
+
+					protected boolean removeEldestEntry(
+							final Map.Entry<String, PreparedStatement> eldest) {
+						if (size() <= statementCacheSize)
+							return false;
+						closeStatement(eldest.getValue());
+						return true;
+					}
+				};
+			ps = statementCache.get(sql);
 		}
 
+		if (ps == null) {
+			ps = connectionHandle.prepareStatement(sql);
+			if (statementCacheSize > 0)
+				statementCache.put(sql, ps);
+		}
+		statementHandle = ps;
+		statementCached = statementCacheSize > 0;
+
 		/*
-		 * Execute the statement.  If there is a result set, then capture that
-		 * and build a field list for the database.
+		 * Always set the fetch size, so a cached statement doesn't keep a
+		 * size that was set before SYS$DB_FETCH_SIZE went back to zero.
 		 */
-		try {
-			resultSetHandle = statementHandle.executeQuery(localCommandBuffer);
+		final int fetchSize = jbenv.getInteger("SYS$DB_FETCH_SIZE");
+		ps.setFetchSize(fetchSize > 0 ? fetchSize : 0);
+		return ps;
+	}
+
+	/**
+	 * Execute a prepared statement.  If there is a result set, then capture
+	 * that and build a field list for the database.
+	 * 
+	 * @param ps the statement, with any parameters already set
+	 * @throws SQLException if the statement fails
+	 */
+	private void runStatement(final PreparedStatement ps) throws SQLException {
+		if (ps.execute()) {
+			resultSetHandle = ps.getResultSet();
 			if (resultSetHandle != null) {
 				fieldList = getFieldList();
 				fileID.setElement(fieldList, "MAP");
 			}
-		} catch (final Exception e) {
-			cleanup();
-			throw new JBasicException(Status.JDBC, "statement failure " + e);
 		}
-		return;
+	}
+
+	/**
+	 * Execute a prepared statement once for each row of a TABLE, sending
+	 * the rows to the database in batches.
+	 * 
+	 * @param ps the statement
+	 * @param rows the TABLE, with the parameter values for each execution in
+	 * a row
+	 * @throws SQLException if the statement fails, in which case none of the
+	 * rows are committed if this method started the transaction
+	 */
+	private void executeBatch(final PreparedStatement ps, final RecordStreamValue rows)
+			throws SQLException {
+
+		final int batchSize = jbenv.getInteger("SYS$DB_BATCH_SIZE");
+		final boolean batching = batchSize > 1
+				&& connectionHandle.getMetaData().supportsBatchUpdates();
+		final boolean autoCommit = connectionHandle.getAutoCommit();
+		if (autoCommit)
+			connectionHandle.setAutoCommit(false);
+
+		boolean complete = false;
+		try {
+			final int columns = rows.rowSize();
+			final int rowCount = rows.size();
+			int pending = 0;
+			for (int row = 1; row <= rowCount; row++) {
+				ps.clearParameters();
+				for (int column = 1; column <= columns; column++)
+					bind(ps, column, rows.getCell(row, column));
+				if (!batching) {
+					ps.executeUpdate();
+					continue;
+				}
+				ps.addBatch();
+				if (++pending >= batchSize) {
+					ps.executeBatch();
+					pending = 0;
+				}
+			}
+			if (pending > 0)
+				ps.executeBatch();
+			if (autoCommit)
+				connectionHandle.commit();
+			complete = true;
+		} finally {
+
+			/*
+			 * The statement is kept in the cache, so make sure nothing is left
+			 * in its batch if there was an error.
+			 */
+			if (!complete) {
+				if (batching)
+					ps.clearBatch();
+				if (autoCommit)
+					connectionHandle.rollback();
+			}
+			if (autoCommit)
+				connectionHandle.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Set a parameter of a prepared statement from a value.
+	 * 
+	 * @param ps the statement
+	 * @param ix the parameter number, starting at 1
+	 * @param v the value of the parameter
+	 * @throws SQLException if the parameter can't be set
+	 */
+	private static void bind(final PreparedStatement ps, final int ix, final Value v)
+			throws SQLException {
+
+		/*
+		 * Several drivers reject a null of Types.NULL, but accept a VARCHAR
+		 * null for a parameter of any type.
+		 */
+		if (v == null) {
+			ps.setNull(ix, Types.VARCHAR);
+			return;
+		}
+		switch (v.getType()) {
+		case Value.INTEGER:
+			ps.setInt(ix, v.getInteger());
+			break;
+		case Value.DOUBLE:
+			ps.setDouble(ix, v.getDouble());
+			break;
+		case Value.BOOLEAN:
+			ps.setBoolean(ix, v.getBoolean());
+			break;
+		default:
+			ps.setString(ix, v.getString());
+		}
 	}
 
 	/**
@@ -407,6 +642,11 @@ public class JBFDatabase extends JBasicFile {
 	 */
 	public void close() {
 		cleanup();
+		if (statementCache != null) {
+			for (final Iterator<PreparedStatement> i = statementCache.values().iterator(); i.hasNext();)
+				closeStatement(i.next());
+			statementCache = null;
+		}
 		if (connectionHandle != null)
 			try {
 				connectionHandle.close();
@@ -426,6 +666,7 @@ public class JBFDatabase extends JBasicFile {
 	void cleanup() {
 
 		fieldList = null;
+		columnMap = null;
 
 		try {
 			if (resultSetHandle != null) {
@@ -433,7 +674,8 @@ public class JBFDatabase extends JBasicFile {
 				resultSetHandle = null;
 			}
 			if (statementHandle != null) {
-				statementHandle.close();
+				if (!statementCached)
+					statementHandle.close();
 				statementHandle = null;
 			}
 		} catch (final Exception e) {
@@ -442,6 +684,35 @@ public class JBFDatabase extends JBasicFile {
 		}
 	}
 
+	/**
+	 * Close a statement that is no longer kept in the statement cache.
+	 * Errors are printed directly to the current session console.
+	 * 
+	 * @param ps the statement to close
+	 */
+	void closeStatement(final PreparedStatement ps) {
+		try {
+			ps.close();
+		} catch (final Exception e) {
+			final Status sts = new Status(Status.JDBC, "close error " + e.toString());
+			sts.print(jbenv);
+		}
+	}
+
+	/**
+	 * Find the number of a column in the current result set.
+	 * 
+	 * @param fieldName the name of the column
+	 * @return the column number, or zero if the column isn't known, in
+	 * which case it must be found by name.
+	 */
+	private int column(final String fieldName) {
+		if (columnMap == null)
+			return 0;
+		final Integer columnNumber = columnMap.get(fieldName.toUpperCase());
+		return columnNumber == null ? 0 : columnNumber.intValue();
+	}
+
 	/**
 	 * Get a field from the current row of the result set by name.
 	 * 
@@ -456,7 +727,9 @@ public class JBFDatabase extends JBasicFile {
 		 */
 		Value v = null;
 		try {
-			v = new Value(resultSetHandle.getString(fieldName));
+			final int n = column(fieldName);
+			v = new Value(n > 0 ? resultSetHandle.getString(n)
+					: resultSetHandle.getString(fieldName));
 		} catch (final SQLException e) {
 			lastStatus = new Status(Status.JDBC, "field " + fieldName
 					+ " read error " + e);
@@ -479,7 +752,9 @@ public class JBFDatabase extends JBasicFile {
 		 */
 		Value v = null;
 		try {
-			v = new Value(resultSetHandle.getInt(fieldName));
+			final int n = column(fieldName);
+			v = new Value(n > 0 ? resultSetHandle.getInt(n)
+					: resultSetHandle.getInt(fieldName));
 		} catch (final SQLException e) {
 			lastStatus = new Status(Status.JDBC, "field " + fieldName
 					+ " read error " + e);
@@ -502,7 +777,9 @@ public class JBFDatabase extends JBasicFile {
 		 */
 		Value v = null;
 		try {
-			v = new Value(resultSetHandle.getDouble(fieldName));
+			final int n = column(fieldName);
+			v = new Value(n > 0 ? resultSetHandle.getDouble(n)
+					: resultSetHandle.getDouble(fieldName));
 		} catch (final SQLException e) {
 			lastStatus = new Status(Status.JDBC, "field " + fieldName
 					+ " read error " + e);
@@ -525,7 +802,9 @@ public class JBFDatabase extends JBasicFile {
 		 */
 		Value v = null;
 		try {
-			v = new Value(resultSetHandle.getBoolean(fieldName));
+			final int n = column(fieldName);
+			v = new Value(n > 0 ? resultSetHandle.getBoolean(n)
+					: resultSetHandle.getBoolean(fieldName));
 		} catch (final SQLException e) {
 			lastStatus = new Status(Status.JDBC, "field " + fieldName
 					+ " read error " + e);
@@ -582,10 +861,19 @@ public class JBFDatabase extends JBasicFile {
 		try {
 			x = resultSetHandle.getMetaData();
 			final int count = x.getColumnCount();
+			columnMap = new HashMap<String, Integer>(count * 2);
 
 			for (int ix = 1; ix <= count; ix++) {
 
 				final String name = x.getColumnName(ix);
+
+				/*
+				 * If more than one column has the same name, reading by name
+				 * gets the first one, so the map must as well.
+				 */
+				final String key = name.toUpperCase();
+				if (!columnMap.containsKey(key))
+					columnMap.put(key, Integer.valueOf(ix));
 				final int type = x.getColumnType(ix);
 				final int size = x.getColumnDisplaySize(ix);
 
@@ -633,6 +921,98 @@ public class JBFDatabase extends JBasicFile {
 		return fieldList;
 	}
 
+	/**
+	 * Read rows from the current result set into a TABLE in a single call,
+	 * for GET...ARRAY and for a SQL SELECT that reads a DATABASE file.
+	 * 
+	 * @param fields the record definition with the NAME and TYPE of each
+	 * column to read, or null to read every column of the result set
+	 * @param count the largest number of rows to read, or -1 to read all the
+	 * rows that are left
+	 * @return a TABLE with a column for each field and a row for each row
+	 * read from the result set, which is empty if there were no more rows.
+	 * @throws JBasicException if there is no result set, the record
+	 * definition is invalid, or a SQL error occurs
+	 */
+	public RecordStreamValue fetchRows(final Value fields, final int count)
+			throws JBasicException {
+
+		if (resultSetHandle == null)
+			throw new JBasicException(Status.JDBC, "no result set to get rows from");
+
+		Value columnList = fields;
+		if (columnList == null) {
+			columnList = getFieldList();
+			if (columnList == null)
+				throw new JBasicException(lastStatus);
+		}
+
+		/*
+		 * Find the number and type of each column once, rather than for
+		 * every row.
+		 */
+		final int columnCount = columnList.size();
+		final int[] columns = new int[columnCount];
+		final int[] types = new int[columnCount];
+		final Value names = new Value(Value.ARRAY, null);
+		try {
+			for (int ix = 0; ix < columnCount; ix++) {
+				final Value field = columnList.getElement(ix + 1);
+				final Value name = field.getElement("NAME");
+				final Value type = field.getElement("TYPE");
+				if (name == null || type == null)
+					throw new JBasicException(Status.INVRECDEF, columnList.toString());
+				types[ix] = Value.nameToType(type.getString().toUpperCase());
+				if (types[ix] != Value.INTEGER && types[ix] != Value.DOUBLE
+						&& types[ix] != Value.BOOLEAN)
+					types[ix] = Value.STRING;
+				columns[ix] = column(name.getString());
+				if (columns[ix] == 0)
+					columns[ix] = resultSetHandle.findColumn(name.getString());
+				names.addElement(new Value(name.getString() + "@" + Value.typeToName(types[ix])));
+			}
+		} catch (final SQLException e) {
+			throw new JBasicException(Status.JDBC, "error getting metadata, " + e);
+		}
+
+		final RecordStreamValue table = new RecordStreamValue(names);
+		if (table.rowSize() != columnCount)
+			throw new JBasicException(Status.INVRECDEF, "duplicate field name");
+
+		try {
+			int rowCount = 0;
+			while (count < 0 || rowCount < count) {
+				if (!resultSetHandle.next()) {
+					lastStatus = new Status(Status.EOF);
+					break;
+				}
+				final Value row = new Value(Value.ARRAY, null);
+				for (int ix = 0; ix < columnCount; ix++) {
+					final int n = columns[ix];
+					switch (types[ix]) {
+					case Value.INTEGER:
+						row.addElementAsIs(new Value(resultSetHandle.getInt(n)));
+						break;
+					case Value.DOUBLE:
+						row.addElementAsIs(new Value(resultSetHandle.getDouble(n)));
+						break;
+					case Value.BOOLEAN:
+						row.addElementAsIs(new Value(resultSetHandle.getBoolean(n)));
+						break;
+					default:
+						final String s = resultSetHandle.getString(n);
+						row.addElementAsIs(new Value(s == null ? "" : s));
+					}
+				}
+				table.addElement(row);
+				rowCount++;
+			}
+		} catch (final SQLException e) {
+			throw new JBasicException(Status.JDBC, "result set read error, " + e);
+		}
+		return table;
+	}
+
 	/**
 	 * End of file test for database; tests to see if the result set is
 	 * exhausted or not.
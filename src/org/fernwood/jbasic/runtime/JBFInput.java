@@ -17,7 +17,6 @@ package org.fernwood.jbasic.runtime;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -42,6 +41,10 @@ import org.fernwood.jbasic.value.Value;
  * and LINE INPUT. The input operation supported by this program reads a single
  * line at a time from the file, and passes this data to the runtime operations
  * like _INPUT which parse the buffer to return values to variables.
+ * <p>
+ * A conventional file is read using an IndexedLineReader, so SEEK can move
+ * to any byte position returned by GETPOS(), or to a line number, without
+ * reading the file again from the start.
  * 
  * @author cole
  * 
@@ -55,6 +58,18 @@ public class JBFInput extends JBasicFile {
 	 */
 	private BufferedReader stdin;
 
+	/**
+	 * The reader used instead of stdin for a conventional file, which can be
+	 * positioned.
+	 */
+	private IndexedLineReader lines;
+
+	/**
+	 * The byte position of the line in the read-ahead buffer, when the file
+	 * is read using an IndexedLineReader.
+	 */
+	private long bufferPosition;
+
 	/**
 	 * A string buffer that may hold the next recordValue if lookahead is
 	 * active. This happens when an EOF test is done, for example, which tries
@@ -133,6 +148,7 @@ public class JBFInput extends JBasicFile {
 		final String extName = fn.getString();
 		fReadAhead = false;
 		fsmFile = null;
+		lines = null;
 
 		if (extName.equalsIgnoreCase(JBasic.CONSOLE_NAME)) {
 			fname = JBasic.CONSOLE_NAME;
@@ -182,7 +198,7 @@ public class JBFInput extends JBasicFile {
 				 * Remap the user-specific path name to a file system path name if needed.
 				 */
 				String fsName = JBasic.userManager.makeFSPath(this.jbenv, extName);
-				stdin = new BufferedReader(new FileReader(fsName));
+				lines = new IndexedLineReader(fsName);
 			} catch (final FileNotFoundException e1) {
 				mode = MODE_UNDEFINED;
 				type = UNDEFINED;
@@ -241,7 +257,12 @@ public class JBFInput extends JBasicFile {
 		}
 		else
 			try {
-				buffer = stdin.readLine();
+				if (lines != null) {
+					bufferPosition = lines.getPosition();
+					buffer = lines.readLine();
+				}
+				else
+					buffer = stdin.readLine();
 			} catch (final IOException e) {
 				buffer = null;
 				lastStatus = new Status(Status.IOERROR, e.toString());
@@ -400,6 +421,8 @@ public class JBFInput extends JBasicFile {
 				fsmFile.close();
 				fsmFile.terminate();
 			}
+			else if (lines != null)
+				lines.close();
 			else
 				stdin.close();
 		} catch (final IOException e) {
@@ -462,14 +485,13 @@ public class JBFInput extends JBasicFile {
 	}
 
 	/**
-	 * Implement the SETPOS routine for the input stream.  Normally the only
-	 * supported value would be zero, which rewinds the file to the beginning.
-	 * A non-zero value means skip that many characters into the file.
-	 * <p>
-	 * This is a very expensive operation and should not be done casually!
+	 * Implement the SETPOS routine for the input stream.  A conventional or
+	 * FSM file can be positioned to any byte, which should be the start of a
+	 * line such as a value returned by getPos().  Other input files can only
+	 * be rewound by giving a position of zero.
 	 * @param i the byte position in the file to seek to.
 	 */
-	public void setPos(int i) {
+	public void setPos(long i) {
 
 		/*
 		 * If this is a TERMINAL device (the console) there is no work to do.
@@ -480,7 +502,9 @@ public class JBFInput extends JBasicFile {
 		if( fname.equals(JBasic.CONSOLE_NAME))
 			return;
 
-		if( fsmFile != null )
+		if( lines != null )
+			lines.seek(i);
+		else if( fsmFile != null )
 			try {
 				fsmFile.seek(i);
 			} catch (IOException e1) {
@@ -488,41 +512,63 @@ public class JBFInput extends JBasicFile {
 			}
 		else {
 			/*
-			 * Close the stream and re-open it.
+			 * A resource file is a stream, so close and re-open it.
 			 */
-
-			String fsName = null;
 			try {
 				stdin.close();
-				fsName = JBasic.userManager.makeFSPath(this.jbenv, fname);
 			} catch (IOException e) {
 				e.printStackTrace();
-			} catch (JBasicException e) {
-				e.printStackTrace();
-			}
-			try {
-				stdin = new BufferedReader(new FileReader(fsName));
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-			}
-
-			/*
-			 * If the position was greater than zero, skip that many bytes.
-			 */
-
-			if( i > 0 ) {
-				try {
-					stdin.skip(i);
-				} catch (IOException e) {
-					; /* Do nothing if we shoot past the end of the file */
-				}
 			}
+			final InputStream fis = JBasic.class.getResourceAsStream(fname.substring(1));
+			if( fis != null )
+				stdin = new BufferedReader(new InputStreamReader(fis));
 		}
 		buffer = null;
 		fReadAhead = false;
 		
 	}
 
+	/**
+	 * Position the file at the start of a line, so the next read returns
+	 * that line.  If the file has fewer lines, it is positioned at the end
+	 * of the file.
+	 * @param line the line number, counting from 1.
+	 * @throws JBasicException if the file can't be positioned by line
+	 */
+	public void setLine(int line) throws JBasicException {
+		if( lines == null )
+			throw new JBasicException(Status.WRONGMODE, "SEEK LINE");
+		try {
+			lines.seekLine(line);
+		} catch (IOException e) {
+			throw new JBasicException(Status.IOERROR, e.toString());
+		}
+		buffer = null;
+		fReadAhead = false;
+	}
+
+	/**
+	 * Get the byte position in the file of the line that will be read next.
+	 * If part of a line has been read by INPUT, this is the position of the
+	 * start of that line.
+	 * @return the byte position, or -1 if the position of this file isn't
+	 * known.
+	 */
+	public long getPos() {
+		if( lines == null )
+			return -1;
+		return fReadAhead ? bufferPosition : lines.getPosition();
+	}
+
+	/**
+	 * Determine if the file can be positioned to a byte other than the
+	 * start of the file.
+	 * @return true if setPos() accepts any position.
+	 */
+	public boolean isSeekable() {
+		return lines != null || fsmFile != null;
+	}
+
 	/**
 	 * Return flag indicating if there is data in the read-ahead buffer.
 	 * @return true if there is data in the read-ahead buffer.
@@ -21,7 +21,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.util.Date;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import net.wimpi.telnetd.io.BasicTerminalIO;
 
@@ -52,6 +55,16 @@ import org.fernwood.jbasic.value.Value;
  * automatically indented by a given number of spaces to support automatic
  * nesting of output listings, etc. These features are controlled via extensions
  * to the OPEN statement in the language.
+ * <p>
+ * By default the output of each PRINT operation is written to the file
+ * before the next statement runs.  The BUFFERED clause of the OPEN statement
+ * lets the output collect in a buffer that is written when it is full, and
+ * the SYNC EVERY <em>n</em> LINES or SYNC EVERY <em>n</em> MS clauses write
+ * the buffer after every <em>n</em> lines or when <em>n</em> milliseconds
+ * have passed since it was last written.  The timed writes are made by a
+ * background timer, so output isn't left in the buffer when the program
+ * stops printing to the file.  The buffer is always written when the file
+ * is closed or a FLUSH statement names the file.
  * 
  * @author cole
  * 
@@ -72,6 +85,80 @@ public class JBFOutput extends JBasicFile {
 	 * FSM File handle when used.
 	 */
 	private FSMFile fsmFile;
+
+	/**
+	 * Output to an FSM file that has not been written yet.
+	 */
+	private StringBuilder fsmBuffer;
+
+	/**
+	 * The character set used to encode output to an FSM file, which holds
+	 * one byte per character.
+	 */
+	private static final Charset FSM_CHARSET = Charset.forName("ISO-8859-1");
+
+	/**
+	 * The number of characters buffered before output is written to the
+	 * file, in any mode.
+	 */
+	private static final int BUFFER_SIZE = 16384;
+
+	/**
+	 * Output is written to the file after each print operation.  This is the
+	 * default.
+	 */
+	public static final int SYNC_ALWAYS = 1;
+
+	/**
+	 * Output is written to the file only when the buffer is full, when the
+	 * file is flushed, or when it is closed.
+	 */
+	public static final int SYNC_BUFFERED = 2;
+
+	/**
+	 * Output is written to the file after every syncInterval lines.
+	 */
+	public static final int SYNC_LINES = 3;
+
+	/**
+	 * Output is written to the file when syncInterval milliseconds have
+	 * passed since it was last written.
+	 */
+	public static final int SYNC_TIME = 4;
+
+	/**
+	 * The timer used to write the output of files in SYNC_TIME mode.  This
+	 * is shared by all files, and is created the first time it is needed.
+	 */
+	private static Timer syncTimer;
+
+	/**
+	 * How often buffered output is written to the file; one of the SYNC_
+	 * modes.
+	 */
+	private int syncMode = SYNC_ALWAYS;
+
+	/**
+	 * The number of lines or milliseconds between writes for the SYNC_LINES
+	 * and SYNC_TIME modes.
+	 */
+	private int syncInterval;
+
+	/**
+	 * The number of lines printed since the output was last written.
+	 */
+	private int pendingLines;
+
+	/**
+	 * The time in milliseconds when the output was last written.
+	 */
+	private long lastSync;
+
+	/**
+	 * The task that writes the output of this file in SYNC_TIME mode, or
+	 * null if the file isn't in that mode.
+	 */
+	private TimerTask syncTask;
 	
 	/**
 	 * This flag indicates if the file is configured for column output. Column
@@ -208,6 +295,8 @@ public class JBFOutput extends JBasicFile {
 				//System.out.println("DEBUG: path       " + pathName);
 				fsmFile = new FSMFile( extName );
 				fsmFile.open(pathName, FSMFile.MODE_OUTPUT);
+				fsmBuffer = new StringBuilder();
+				lastSync = System.currentTimeMillis();
 				
 				fname = "fsm://" + cnx.username + "@" + cnx.host + ":" + cnx.port + pathName;
 				
@@ -247,7 +336,8 @@ public class JBFOutput extends JBasicFile {
 			 */
 			String fsName = JBasic.userManager.makeFSPath(this.jbenv, extName);
 			outputfile = new FileOutputStream(fsName, mode == MODE_APPEND);
-			wout = new BufferedWriter(new OutputStreamWriter(outputfile));
+			wout = new BufferedWriter(new OutputStreamWriter(outputfile), BUFFER_SIZE);
+			lastSync = System.currentTimeMillis();
 		} catch (final FileNotFoundException e) {
 			final Status sts = new Status(Status.IOERROR, e.toString());
 			sts.print(jbenv);
@@ -265,7 +355,7 @@ public class JBFOutput extends JBasicFile {
 	 * @param s
 	 *            The string to write to the output file.
 	 */
-	public void print(final String s) {
+	public synchronized void print(final String s) {
 		lastStatus = new Status(Status.SUCCESS);
 
 		String localBuffer = s;
@@ -294,18 +384,16 @@ public class JBFOutput extends JBasicFile {
 			}
 		}
 		if( type == FSM ) {
-			byte[] byteBuffer = new byte[localBuffer.length()];
-			for( int ix = 0; ix < byteBuffer.length; ix++ )
-				byteBuffer[ix] = (byte) localBuffer.charAt(ix);
+			fsmBuffer.append(localBuffer);
 			try {
-				fsmFile.write(byteBuffer);
+				sync(0);
 			} catch (IOException e) {
 				lastStatus = new Status(Status.FILE, new Status(Status.FAULT, e.toString()));
 			}
 		} else if (type == FILE)
 			try {
 				wout.write(localBuffer);
-				wout.flush();
+				sync(0);
 			} catch (final IOException e) {
 				final Status sts = new Status(Status.IOERROR, e.toString());
 				sts.print(jbenv);
@@ -331,7 +419,7 @@ public class JBFOutput extends JBasicFile {
 	 * @param s
 	 *            The string to print to the output buffer.
 	 */
-	public void println(final String s) {
+	public synchronized void println(final String s) {
 
 		String localBuffer = s;
 		lastStatus = new Status();
@@ -342,12 +430,9 @@ public class JBFOutput extends JBasicFile {
 		if (fColumnOutput)
 			columnPosition = 0;
 		if( type == FSM ) {
-			byte[] byteBuffer = new byte[localBuffer.length()+1];
-			for( int ix = 0; ix < byteBuffer.length-1; ix++ )
-				byteBuffer[ix] = (byte) localBuffer.charAt(ix);
-			byteBuffer[byteBuffer.length-1] = '\n';
+			fsmBuffer.append(localBuffer).append('\n');
 			try {
-				fsmFile.write(byteBuffer);
+				sync(1);
 			} catch (IOException e) {
 				lastStatus = new Status(Status.FILE, new Status(Status.FAULT, e.toString()));
 			}
@@ -363,8 +448,9 @@ public class JBFOutput extends JBasicFile {
 				}
 		} else
 			try {
-				wout.write(localBuffer + JBasic.newLine);
-				wout.flush();
+				wout.write(localBuffer);
+				wout.write(JBasic.newLine);
+				sync(1);
 			} catch (final IOException e) {
 				lastStatus = new Status(Status.IOERROR, e.toString());
 				lastStatus.print(jbenv);
@@ -376,13 +462,13 @@ public class JBFOutput extends JBasicFile {
 	 * Generate a newline in the output file. If in column mode, also resets the
 	 * column output counters.
 	 */
-	public void println() {
+	public synchronized void println() {
 		// print(s);
 		columnPosition = 0;
 		if( type == FSM ) {
-			byte[] aByte = new byte[] { '\n' };
+			fsmBuffer.append('\n');
 			try {
-				fsmFile.write(aByte);
+				sync(1);
 			} catch (IOException e) {
 				lastStatus = new Status(Status.FILE, new Status(Status.FAULT, e.toString()));
 			}
@@ -398,7 +484,7 @@ public class JBFOutput extends JBasicFile {
 		} else
 			try {
 				wout.write(JBasic.newLine);
-				wout.flush();
+				sync(1);
 			} catch (final IOException e) {
 				final Status sts = new Status(Status.IOERROR, e.toString());
 				sts.print(jbenv);
@@ -469,9 +555,150 @@ public class JBFOutput extends JBasicFile {
 			indentation = count;
 	}
 
-	public void close() {
+	/**
+	 * Set how often buffered output is written to the file.
+	 * 
+	 * @param mode
+	 *            One of SYNC_ALWAYS, SYNC_BUFFERED, SYNC_LINES, or SYNC_TIME.
+	 * @param interval
+	 *            The number of lines (for SYNC_LINES) or milliseconds (for
+	 *            SYNC_TIME) between writes.
+	 */
+	public synchronized void setSync(final int mode, final int interval) {
+		lastStatus = new Status();
+		if (mode < SYNC_ALWAYS || mode > SYNC_TIME
+				|| ((mode == SYNC_LINES || mode == SYNC_TIME) && interval < 1)) {
+			lastStatus = new Status(Status.INVCOUNT, Integer.toString(interval));
+			return;
+		}
+		syncMode = mode;
+		syncInterval = interval;
+		pendingLines = 0;
+		lastSync = System.currentTimeMillis();
+
+		/*
+		 * In SYNC_TIME mode, a timer task writes the output when it is due
+		 * even if nothing else is printed to the file.  The task checks
+		 * often enough to write the output within half an interval of the
+		 * time it was due.
+		 */
+		cancelSyncTask();
+		if (mode == SYNC_TIME && type != CONSOLE) {
+			final long period = Math.max(1, interval / 2);
+			syncTask = new TimerTask() {
+				public void run() {
+					timedSync();
+				}
+			};
+			syncTimer().schedule(syncTask, period, period);
+		}
+	}
+
+	/**
+	 * Get the timer used for SYNC_TIME mode, creating it if needed.  The
+	 * timer thread is a daemon so it doesn't keep JBasic from exiting.
+	 * @return the shared timer
+	 */
+	private static synchronized Timer syncTimer() {
+		if (syncTimer == null)
+			syncTimer = new Timer("JBasic file sync", true);
+		return syncTimer;
+	}
+
+	/**
+	 * Stop the timer task for this file, if there is one.
+	 */
+	private void cancelSyncTask() {
+		if (syncTask != null) {
+			syncTask.cancel();
+			syncTask = null;
+		}
+	}
+
+	/**
+	 * Called by the timer task in SYNC_TIME mode to write the output if it
+	 * is due.  An error is saved as the status of the file.
+	 */
+	synchronized void timedSync() {
+		if (syncMode != SYNC_TIME || (wout == null && fsmBuffer == null))
+			return;
+		try {
+			sync(0);
+		} catch (final IOException e) {
+			lastStatus = new Status(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Write any buffered output to the file.
+	 */
+	public synchronized void flush() {
+		lastStatus = new Status();
+		try {
+			writeBuffer();
+		} catch (final IOException e) {
+			lastStatus = new Status(Status.IOERROR, e.toString());
+		}
+	}
+
+	/**
+	 * Write the buffered output to the file if the sync mode says it is time
+	 * to, or if the buffer is full.  This is called after each print
+	 * operation.
+	 * 
+	 * @param lines
+	 *            The number of lines the print operation ended.
+	 * @throws IOException if the output can't be written
+	 */
+	private void sync(final int lines) throws IOException {
+		boolean due;
+		switch (syncMode) {
+		case SYNC_BUFFERED:
+			due = false;
+			break;
+		case SYNC_LINES:
+			pendingLines += lines;
+			due = pendingLines >= syncInterval;
+			break;
+		case SYNC_TIME:
+			due = System.currentTimeMillis() - lastSync >= syncInterval;
+			break;
+		default:
+			due = true;
+		}
+
+		/*
+		 * A BufferedWriter writes its buffer when it is full, but the buffer
+		 * for an FSM file must be checked here.
+		 */
+		if (due || (fsmBuffer != null && fsmBuffer.length() >= BUFFER_SIZE))
+			writeBuffer();
+	}
+
+	/**
+	 * Write the buffered output to the file.  The text in the buffer for an
+	 * FSM file is encoded as a single block of bytes.
+	 * 
+	 * @throws IOException if the output can't be written
+	 */
+	private void writeBuffer() throws IOException {
+		pendingLines = 0;
+		if (syncMode == SYNC_TIME)
+			lastSync = System.currentTimeMillis();
+		if (type == FSM) {
+			if (fsmBuffer.length() > 0) {
+				fsmFile.write(fsmBuffer.toString().getBytes(FSM_CHARSET));
+				fsmBuffer.setLength(0);
+			}
+		} else if (type == FILE && wout != null)
+			wout.flush();
+	}
+
+	public synchronized void close() {
+		cancelSyncTask();
 		if( type == FSM ) {
 			try {
+				writeBuffer();
 				fsmFile.close();
 				fsmFile.terminate();
 				super.close();
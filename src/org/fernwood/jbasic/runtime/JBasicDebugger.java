@@ -113,13 +113,14 @@ public class JBasicDebugger {
 	 * of breakpoints.
 	 * 
 	 * @param bc The bytecode that is currently being executed
+	 * @param frame The frame of the run being debugged
 	 * @param s The active local symbol table
 	 * @return Status indicating if there is a change in execution flow.
 	 */
-	public Status step(final ByteCode bc, final SymbolTable s) {
+	public Status step(final ByteCode bc, final ExecutionFrame frame, final SymbolTable s) {
 
 		boolean stop = false;
-		JBasic session = bc.getSession();
+		JBasic session = frame.session;
 		
 		/*
 		 * If this statement is actually the entry point to the program, such as
@@ -128,7 +129,7 @@ public class JBasicDebugger {
 		 * permission to step one additional statement.
 		 */
 
-		Instruction i = bc.getInstruction(bc.programCounter);
+		Instruction i = bc.getInstruction(frame.programCounter);
 		if (i.opCode == ByteCode._ENTRY)
 			stepCounter++;
 
@@ -137,7 +138,7 @@ public class JBasicDebugger {
 		 * We'll use it to find out where we are in the program at this point.
 		 */
 
-		final int pc = bc.programCounter - 1;
+		final int pc = frame.programCounter - 1;
 		i = bc.getInstruction(pc);
 
 		String where = "Debugging command";
@@ -227,7 +228,7 @@ public class JBasicDebugger {
 			 * Since we've stopped, accept commands.
 			 */
 			while (true) {
-				Status sts = command(bc, s);
+				Status sts = command(session, s);
 				if (sts == null)
 					sts = new Status();
 				else {
@@ -257,18 +258,17 @@ public class JBasicDebugger {
 	 * prevent recursion. Also, an empty command is interpreted as STEP 1 by
 	 * default.
 	 * 
-	 * @param bc
-	 *            The bytecode being debugged.
+	 * @param jbenv
+	 *            The session running the code being debugged.
 	 * @param table
 	 *            A symbol table to use to resolve commands, etc.
 	 * @return a Status object indicating the success of the command operation.
 	 */
-	private Status command(final ByteCode bc, final SymbolTable table) {
+	private Status command(final JBasic jbenv, final SymbolTable table) {
 
-		final JBasic jbenv = bc.getSession();
 		String line;
 		Status status;
-		final Statement s = new Statement(bc.getSession(), this);
+		final Statement s = new Statement(jbenv, this);
 		s.inDebugger(true);
 
 		String prompt = table.getString("SYS$DEBUG_PROMPT");
@@ -313,7 +313,7 @@ public class JBasicDebugger {
 			status = s.execute(table, false);
 
 			if (status.equals("*STEP")) {
-				bc.debugger.stepCounter = Integer.parseInt(status.getMessageParameter());
+				stepCounter = Integer.parseInt(status.getMessageParameter());
 				return new Status("*RESUME");
 			} else if (status.equals(Status.QUIT))
 				return new Status(Status.QUIT);
@@ -15,6 +15,7 @@
  */
 package org.fernwood.jbasic.runtime;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 
 import net.wimpi.telnetd.io.BasicTerminalIO;
@@ -42,6 +43,7 @@ import org.fernwood.jbasic.value.Value;
  * <td><code><b>INPUT   <td><code>OPEN, INPUT, LINE INPUT, CLOSE</code></tr>
  * <tr><td><code><b>OUTPUT  <td><code>OPEN, PRINT, PRINT USING, CLOSE</code><tr>
  * <tr><td><code><b>BINARY  <td><code>OPEN, GET, PUT, SEEK, CLOSE</code><tr>
+ * <tr><td><code><b>DATA    <td><code>OPEN, GET, PUT, CLOSE</code><tr>
  * <tr><td><code><b>DATABASE<td><code>OPEN, PRINT, GET, CLOSE</code><tr>
  * <tr><td><code><b>PIPE</b><td><code>OPEN, PRINT, PRINT USING, INPUT, LINE INPUT, CLOSE</code></tr>
  * </table>
@@ -296,6 +298,11 @@ public abstract class JBasicFile {
 	 */
 	public static final int MODE_SOCKET = 8;
 
+	/**
+	 * The file holds a sequence of values stored in binary form.
+	 */
+	public static final int MODE_DATA = 9;
+
 	/**
 	 * Create a new JBasicFile object, initialized to reflect that is has not
 	 * been opened or given any identifying characteristics.
@@ -425,7 +432,7 @@ public abstract class JBasicFile {
 	static Value generateID(final String fname, final int extMode) {
 
 		final String[] modes = { "UNDEFINED", "INPUT", "OUTPUT", "APPEND",
-				"BINARY", "DATABASE", "QUEUE", "PIPE", "SOCKET" };
+				"BINARY", "DATABASE", "QUEUE", "PIPE", "SOCKET", "DATA" };
 
 		final Value d = new Value(Value.RECORD, null);
 		d.setElement(new Value(fname), "FILENAME");
@@ -476,7 +483,11 @@ public abstract class JBasicFile {
 	 */
 	public static void closeUserFiles( final JBasic session, final SymbolTable s) {
 				
-		Iterator i = session.openUserFiles.values().iterator();
+		/*
+		 * Closing a file removes it from the list of open files, so work
+		 * from a copy of the list.
+		 */
+		Iterator i = new ArrayList<JBasicFile>(session.openUserFiles.values()).iterator();
 		while( i.hasNext()) {
 			JBasicFile f = (JBasicFile) i.next();
 			String fileIdentifier = f.getIdentifier();
@@ -529,6 +540,9 @@ public abstract class JBasicFile {
 		
 		case MODE_SOCKET:
 			return new JBFSocket(jb);
+
+		case MODE_DATA:
+			return new JBFData(jb);
 			
 		default:
 			return null;
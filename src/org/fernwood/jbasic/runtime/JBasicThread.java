@@ -163,6 +163,11 @@ public class JBasicThread extends Thread {
 		 * prevent deadlocks later.
 		 */
 		LockManager.releaseAll(threadEnv);
+
+		/*
+		 * Write any output still buffered in files the thread left open.
+		 */
+		threadEnv.flushUserFiles();
 	}
 
 }
@@ -0,0 +1,341 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fernwood.jbasic.JBasic;
+import org.fernwood.jbasic.opcodes.AbstractOpcode;
+
+/**
+ * The JIT compiler, which translates a linked ByteCode stream into a JVM
+ * class that extends CompiledByteCode.  The class is generated in memory
+ * using a ClassBuilder and loaded by its own class loader, so it can be
+ * garbage collected along with the ByteCode it was made from.
+ * <p>
+ * Each generated method starts with a tableswitch on the program counter
+ * that can enter the code at any instruction, since a handler such as _JSB
+ * or _NEXT, or an ON ERROR handler, can continue at any address.  After
+ * that the instructions follow one another in order, so a run of
+ * instructions that don't branch is straight-line JVM code.  Forward
+ * branches within a chunk are JVM branches; other branches go back through
+ * the tableswitch, checking for an interrupt if they go backwards.
+ *
+ * @author cole
+ *
+ */
+final class JitCompiler {
+
+	private static final String BASE = "org/fernwood/jbasic/runtime/CompiledByteCode";
+	private static final String FRAME = "Lorg/fernwood/jbasic/runtime/ExecutionFrame;";
+	private static final String ENV = "Lorg/fernwood/jbasic/opcodes/InstructionContext;";
+	private static final String OPCODE = "org/fernwood/jbasic/opcodes/AbstractOpcode";
+	private static final String CHUNK_DESCRIPTOR = "(" + FRAME + ENV + "I)I";
+
+	/**
+	 * Used to give each generated class a unique name.
+	 */
+	private static final AtomicInteger sequence = new AtomicInteger();
+
+	/**
+	 * The class loader for one generated class.
+	 */
+	private static final class Loader extends ClassLoader {
+		Loader() {
+			super(CompiledByteCode.class.getClassLoader());
+		}
+
+		Class<?> define(final String name, final byte[] b) {
+			return defineClass(name, b, 0, b.length);
+		}
+	}
+
+	/**
+	 * This class is never instantiated.
+	 */
+	private JitCompiler() {
+	}
+
+	/**
+	 * Compile a linked bytecode stream.
+	 * @param bc the bytecode to compile
+	 * @param dispatch the dispatch vector that maps an opcode to its handler
+	 * @return the compiled code, or null if it could not be compiled
+	 */
+	static CompiledByteCode compile(final ByteCode bc, final AbstractOpcode[] dispatch) {
+
+		final int size = bc.size();
+		if (size == 0)
+			return null;
+
+		final Instruction[] instructions = new Instruction[size];
+		final AbstractOpcode[] handlers = new AbstractOpcode[size];
+		for (int ix = 0; ix < size; ix++) {
+			instructions[ix] = bc.getInstruction(ix);
+			final int opCode = opCode(instructions[ix]);
+			if (opCode >= 0 && opCode < dispatch.length)
+				handlers[ix] = dispatch[opCode];
+		}
+
+		final String className = "org/fernwood/jbasic/runtime/jit/Program"
+				+ sequence.incrementAndGet();
+		final ClassBuilder cb = new ClassBuilder(className, BASE);
+
+		ClassBuilder.Code code = cb.newCode();
+		code.op(ClassBuilder.ALOAD_0);
+		code.op2(ClassBuilder.INVOKESPECIAL, cb.methodRef(BASE, "<init>", "()V"));
+		code.op(ClassBuilder.RETURN);
+		if (!cb.addMethod(ClassBuilder.ACC_PUBLIC, "<init>", "()V", code, 1, 1))
+			return null;
+
+		final int chunks = (size + CompiledByteCode.CHUNK_SIZE - 1) / CompiledByteCode.CHUNK_SIZE;
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			final int start = chunk * CompiledByteCode.CHUNK_SIZE;
+			final int end = Math.min(start + CompiledByteCode.CHUNK_SIZE, size);
+			code = compileChunk(cb, instructions, handlers, start, end);
+			if (!cb.addMethod(ClassBuilder.ACC_PRIVATE, "chunk" + chunk, CHUNK_DESCRIPTOR,
+					code, 6, 4))
+				return null;
+		}
+
+		/*
+		 * The runChunk() method just calls the method for the chunk.
+		 */
+		code = cb.newCode();
+		final ClassBuilder.Label[] targets = new ClassBuilder.Label[chunks];
+		for (int chunk = 0; chunk < chunks; chunk++)
+			targets[chunk] = new ClassBuilder.Label();
+		final ClassBuilder.Label otherwise = new ClassBuilder.Label();
+		code.op(ClassBuilder.ILOAD_1);
+		code.tableSwitch(0, targets, otherwise);
+		for (int chunk = 0; chunk < chunks; chunk++) {
+			code.place(targets[chunk]);
+			code.op(ClassBuilder.ALOAD_0);
+			code.op(ClassBuilder.ALOAD_2);
+			code.op(ClassBuilder.ALOAD_3);
+			code.op1(ClassBuilder.ILOAD, 4);
+			code.op2(ClassBuilder.INVOKESPECIAL, cb.methodRef(className, "chunk" + chunk,
+					CHUNK_DESCRIPTOR));
+			code.op(ClassBuilder.IRETURN);
+		}
+		code.place(otherwise);
+		code.pushInt(CompiledByteCode.INTERPRET);
+		code.op(ClassBuilder.IRETURN);
+		if (!cb.addMethod(ClassBuilder.ACC_PROTECTED, "runChunk", "(I" + CHUNK_DESCRIPTOR.substring(1),
+				code, 5, 5))
+			return null;
+
+		final byte[] classFile = cb.toByteArray();
+		if (classFile == null)
+			return null;
+
+		try {
+			final Class<?> c = new Loader().define(className.replace('/', '.'), classFile);
+			final CompiledByteCode compiled = (CompiledByteCode) c.getDeclaredConstructor().newInstance();
+			compiled.bind(instructions, handlers);
+			return compiled;
+		} catch (final Exception e) {
+			JBasic.log.debug("Unable to compile bytecode, " + e.toString());
+			return null;
+		} catch (final LinkageError e) {
+			JBasic.log.debug("Unable to compile bytecode, " + e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Get the opcode of an instruction without the branch flag.
+	 */
+	private static int opCode(final Instruction i) {
+		return i.opCode > ByteCode._BRANCH_FLAG ? i.opCode - ByteCode._BRANCH_FLAG : i.opCode;
+	}
+
+	/**
+	 * Generate the method for the instructions from start to end-1.  The
+	 * method's local variables are this, the frame, the instruction context,
+	 * and the program counter.
+	 */
+	private static ClassBuilder.Code compileChunk(final ClassBuilder cb,
+			final Instruction[] instructions, final AbstractOpcode[] handlers,
+			final int start, final int end) {
+
+		final ClassBuilder.Code code = cb.newCode();
+		final ClassBuilder.Label dispatch = new ClassBuilder.Label();
+		final ClassBuilder.Label leave = new ClassBuilder.Label();
+		final ClassBuilder.Label fallOut = new ClassBuilder.Label();
+		final ClassBuilder.Label[] labels = new ClassBuilder.Label[end - start];
+		for (int ix = 0; ix < labels.length; ix++)
+			labels[ix] = new ClassBuilder.Label();
+
+		/*
+		 * Dispatch on the program counter.  Any address outside the chunk,
+		 * or a negative completion code, is returned to the caller.
+		 */
+		code.place(dispatch);
+		code.op(ClassBuilder.ILOAD_3);
+		code.tableSwitch(start, labels, leave);
+		code.place(leave);
+		code.op(ClassBuilder.ILOAD_3);
+		code.op(ClassBuilder.IRETURN);
+
+		for (int pc = start; pc < end; pc++) {
+
+			code.place(labels[pc - start]);
+			final Instruction i = instructions[pc];
+			final int opCode = opCode(i);
+			final ClassBuilder.Label next = pc + 1 < end ? labels[pc + 1 - start] : fallOut;
+
+			switch (opCode) {
+
+			case ByteCode._NOOP:
+				continue;
+
+			case ByteCode._STMT:
+				helper(cb, code, pc, "statement", "(" + FRAME + "I)I");
+				next(code, pc, dispatch);
+				continue;
+
+			case ByteCode._BR - ByteCode._BRANCH_FLAG:
+				if (!i.integerValid)
+					break;
+				branch(cb, code, pc, i.integerOperand, start, end, labels, dispatch);
+				continue;
+
+			case ByteCode._BRZ - ByteCode._BRANCH_FLAG:
+			case ByteCode._BRNZ - ByteCode._BRANCH_FLAG:
+				if (!i.integerValid)
+					break;
+				helper(cb, code, pc, "test", "(" + FRAME + "I)Z");
+				code.branch(opCode == ByteCode._BRZ - ByteCode._BRANCH_FLAG
+						? ClassBuilder.IFNE : ClassBuilder.IFEQ, next);
+				branch(cb, code, pc, i.integerOperand, start, end, labels, dispatch);
+				continue;
+
+			case ByteCode._TRACE:
+				if (i.integerOperand > 0) {
+					deoptimize(cb, code, pc, CompiledByteCode.INTERPRET);
+					continue;
+				}
+				break;
+
+			case ByteCode._EXEC:
+			case ByteCode._ASM:
+				deoptimize(cb, code, pc, CompiledByteCode.INTERPRET_ONE);
+				continue;
+			}
+
+			final AbstractOpcode handler = handlers[pc];
+			if (handler == null) {
+				deoptimize(cb, code, pc, CompiledByteCode.INTERPRET_ONE);
+				continue;
+			}
+
+			/*
+			 * Call the handler through its own class, so the JVM knows
+			 * exactly which method is called here.
+			 */
+			String handlerClass = OPCODE;
+			if (Modifier.isPublic(handler.getClass().getModifiers()))
+				handlerClass = handler.getClass().getName().replace('.', '/');
+
+			code.op(ClassBuilder.ALOAD_0);
+			code.op(ClassBuilder.ALOAD_1);
+			code.op(ClassBuilder.ALOAD_2);
+			code.pushInt(pc);
+			code.op2(ClassBuilder.INVOKEVIRTUAL, cb.methodRef(BASE, "prepare",
+					"(" + FRAME + ENV + "I)V"));
+			code.op(ClassBuilder.ALOAD_0);
+			code.op2(ClassBuilder.GETFIELD, cb.fieldRef(BASE, "handlers", "[L" + OPCODE + ";"));
+			code.pushInt(pc);
+			code.op(ClassBuilder.AALOAD);
+			code.op2(ClassBuilder.CHECKCAST, cb.classRef(handlerClass));
+			code.op(ClassBuilder.ALOAD_2);
+			code.op2(ClassBuilder.INVOKEVIRTUAL, cb.methodRef(handlerClass, "execute",
+					"(" + ENV + ")V"));
+			code.op(ClassBuilder.ALOAD_0);
+			code.op(ClassBuilder.ALOAD_1);
+			code.pushInt(pc + 1);
+			code.op2(ClassBuilder.INVOKEVIRTUAL, cb.methodRef(BASE, "check", "(" + FRAME + "I)I"));
+			next(code, pc, dispatch);
+		}
+
+		code.place(fallOut);
+		code.pushInt(end);
+		code.op(ClassBuilder.IRETURN);
+		return code;
+	}
+
+	/**
+	 * Call a helper method in CompiledByteCode that takes the frame and the
+	 * program counter.
+	 */
+	private static void helper(final ClassBuilder cb, final ClassBuilder.Code code,
+			final int pc, final String name, final String descriptor) {
+		code.op(ClassBuilder.ALOAD_0);
+		code.op(ClassBuilder.ALOAD_1);
+		code.pushInt(pc);
+		code.op2(ClassBuilder.INVOKEVIRTUAL, cb.methodRef(BASE, name, descriptor));
+	}
+
+	/**
+	 * Given the address to continue at on the stack, fall through to the
+	 * next instruction if that's where it is, or dispatch to it otherwise.
+	 */
+	private static void next(final ClassBuilder.Code code, final int pc,
+			final ClassBuilder.Label dispatch) {
+		code.op(ClassBuilder.DUP);
+		code.op(ClassBuilder.ISTORE_3);
+		code.pushInt(pc + 1);
+		code.branch(ClassBuilder.IF_ICMPNE, dispatch);
+	}
+
+	/**
+	 * Branch to a destination address.  A forward branch within the chunk
+	 * is a JVM branch; anything else calls branch() to check for an
+	 * interrupt, and then dispatches.
+	 */
+	private static void branch(final ClassBuilder cb, final ClassBuilder.Code code,
+			final int pc, final int destination, final int start, final int end,
+			final ClassBuilder.Label[] labels, final ClassBuilder.Label dispatch) {
+
+		if (destination > pc && destination < end) {
+			code.branch(ClassBuilder.GOTO, labels[destination - start]);
+			return;
+		}
+		code.op(ClassBuilder.ALOAD_0);
+		code.op(ClassBuilder.ALOAD_1);
+		code.pushInt(pc);
+		code.pushInt(destination);
+		code.op2(ClassBuilder.INVOKEVIRTUAL, cb.methodRef(BASE, "branch", "(" + FRAME + "II)I"));
+		code.op(ClassBuilder.ISTORE_3);
+		code.branch(ClassBuilder.GOTO, dispatch);
+	}
+
+	/**
+	 * Return to the caller before an instruction the generated code can't
+	 * run.
+	 */
+	private static void deoptimize(final ClassBuilder cb, final ClassBuilder.Code code,
+			final int pc, final int completion) {
+		code.op(ClassBuilder.ALOAD_0);
+		code.op(ClassBuilder.ALOAD_1);
+		code.pushInt(pc);
+		code.pushInt(completion);
+		code.op2(ClassBuilder.INVOKEVIRTUAL, cb.methodRef(BASE, "deoptimize", "(" + FRAME + "II)I"));
+		code.op(ClassBuilder.IRETURN);
+	}
+}
@@ -0,0 +1,425 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2007 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A tiny in-memory JDBC driver, used by the regression tests to exercise
+ * DATABASE files without a real database server.  Add the name of this
+ * class to SYS$DRIVERS and open a DATABASE file with a connection string
+ * that starts with "jdbc:jbasicmock:".
+ * <p>
+ * Each connection has its own table of rows, each with an INTEGER column
+ * ID, a VARCHAR column NAME, and a DOUBLE column SCORE.  Only a few kinds
+ * of statements are understood, by their first word:
+ * <p>
+ * <ul>
+ * <li>INSERT adds a row from three parameters.  An ID less than zero is an
+ * error, so a test can make a statement fail.
+ * <li>DELETE removes every row.
+ * <li>SELECT ... FROM STATS returns a single row of counters describing
+ * what the connection has been asked to do.
+ * <li>Any other SELECT returns the rows in the order they were added.  The
+ * rows can be limited to those with an ID of at least n by a parameter, or
+ * by the text "WHERE ID >= n".
+ * </ul>
+ * <p>
+ * Any other statement is an error.  The commit() and rollback() methods of
+ * the connection work on the rows as they would in a real database.
+ *
+ * @author cole
+ */
+public class MockJDBCDriver implements Driver {
+
+	/**
+	 * The prefix of every connection string this driver accepts.
+	 */
+	public static final String URL_PREFIX = "jdbc:jbasicmock:";
+
+	static {
+		try {
+			DriverManager.registerDriver(new MockJDBCDriver());
+		} catch (final SQLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final String[] ROW_COLUMNS = { "ID", "NAME", "SCORE" };
+
+	private static final int[] ROW_TYPES = { Types.INTEGER, Types.VARCHAR,
+			Types.DOUBLE };
+
+	private static final String[] STATS_COLUMNS = { "PREPARES", "EXECUTES",
+			"BATCHES", "BATCH_ROWS", "COMMITS", "ROLLBACKS", "FETCH_SIZE",
+			"ROWS" };
+
+	private static final Pattern WHERE_ID = Pattern.compile(
+			"WHERE\\s+ID\\s*>=\\s*(-?\\d+)", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * The state of one connection: its rows and its counters.  While
+	 * autocommit is off, the rows as of the last commit are kept so that a
+	 * rollback can restore them.
+	 */
+	private static class Database {
+		ArrayList<Object[]> rows = new ArrayList<Object[]>();
+		ArrayList<Object[]> committed = null;
+		boolean autoCommit = true;
+		int prepares;
+		int executes;
+		int batches;
+		int batchRows;
+		int commits;
+		int rollbacks;
+		int fetchSize;
+	}
+
+	public boolean acceptsURL(final String url) {
+		return url != null && url.startsWith(URL_PREFIX);
+	}
+
+	public Connection connect(final String url, final Properties info) {
+		if (!acceptsURL(url))
+			return null;
+
+		final Database db = new Database();
+		return (Connection) proxy(Connection.class, new InvocationHandler() {
+			public Object invoke(final Object p, final Method m, final Object[] args)
+					throws Throwable {
+				final String name = m.getName();
+				if (name.equals("prepareStatement")) {
+					db.prepares++;
+					return statement(db, (String) args[0]);
+				}
+				if (name.equals("getAutoCommit"))
+					return Boolean.valueOf(db.autoCommit);
+				if (name.equals("setAutoCommit")) {
+					db.autoCommit = ((Boolean) args[0]).booleanValue();
+					db.committed = db.autoCommit ? null : new ArrayList<Object[]>(db.rows);
+					return null;
+				}
+				if (name.equals("commit")) {
+					db.commits++;
+					if (db.committed != null)
+						db.committed = new ArrayList<Object[]>(db.rows);
+					return null;
+				}
+				if (name.equals("rollback")) {
+					db.rollbacks++;
+					if (db.committed != null)
+						db.rows = new ArrayList<Object[]>(db.committed);
+					return null;
+				}
+				if (name.equals("getMetaData"))
+					return proxy(DatabaseMetaData.class, new InvocationHandler() {
+						public Object invoke(final Object p2, final Method m2,
+								final Object[] args2) {
+							if (m2.getName().equals("supportsBatchUpdates"))
+								return Boolean.TRUE;
+							return defaultResult(m2);
+						}
+					});
+				return defaultResult(m);
+			}
+		});
+	}
+
+	/**
+	 * Create a prepared statement for SQL text.
+	 *
+	 * @param db the connection state
+	 * @param sql the SQL text
+	 * @return a PreparedStatement that runs the text against the connection
+	 */
+	static PreparedStatement statement(final Database db, final String sql) {
+
+		final Object[] parameters = new Object[ROW_COLUMNS.length];
+		final ArrayList<Object[]> batch = new ArrayList<Object[]>();
+		final ResultSet[] current = new ResultSet[1];
+
+		return (PreparedStatement) proxy(PreparedStatement.class, new InvocationHandler() {
+			public Object invoke(final Object p, final Method m, final Object[] args)
+					throws Throwable {
+				final String name = m.getName();
+				if (name.equals("setFetchSize")) {
+					db.fetchSize = ((Integer) args[0]).intValue();
+					return null;
+				}
+				if (name.startsWith("set") && args != null && args.length == 2
+						&& args[0] instanceof Integer) {
+					final int ix = ((Integer) args[0]).intValue();
+					if (ix < 1 || ix > parameters.length)
+						throw new SQLException("invalid parameter number " + ix);
+					parameters[ix - 1] = name.equals("setNull") ? null : args[1];
+					return null;
+				}
+				if (name.equals("clearParameters")) {
+					Arrays.fill(parameters, null);
+					return null;
+				}
+				if (name.equals("addBatch")) {
+					batch.add(parameters.clone());
+					return null;
+				}
+				if (name.equals("clearBatch")) {
+					batch.clear();
+					return null;
+				}
+				if (name.equals("executeBatch")) {
+					db.batches++;
+					db.batchRows += batch.size();
+					final int[] counts = new int[batch.size()];
+					try {
+						for (int ix = 0; ix < counts.length; ix++) {
+							run(db, sql, batch.get(ix));
+							counts[ix] = 1;
+						}
+					} finally {
+						batch.clear();
+					}
+					return counts;
+				}
+				if (name.equals("executeUpdate")) {
+					db.executes++;
+					run(db, sql, parameters);
+					return Integer.valueOf(1);
+				}
+				if (name.equals("execute")) {
+					db.executes++;
+					current[0] = run(db, sql, parameters);
+					return Boolean.valueOf(current[0] != null);
+				}
+				if (name.equals("getResultSet"))
+					return current[0];
+				return defaultResult(m);
+			}
+		});
+	}
+
+	/**
+	 * Run a statement once.
+	 *
+	 * @param db the connection state
+	 * @param sql the SQL text
+	 * @param parameters the parameter values, some of which may be null
+	 * @return a result set for a SELECT, or null
+	 * @throws SQLException if the statement isn't understood or fails
+	 */
+	static ResultSet run(final Database db, final String sql, final Object[] parameters)
+			throws SQLException {
+
+		final String text = sql.trim().toUpperCase();
+
+		if (text.startsWith("INSERT")) {
+			if (parameters[0] == null)
+				throw new SQLException("ID may not be null");
+			final int id = ((Number) parameters[0]).intValue();
+			if (id < 0)
+				throw new SQLException("ID may not be negative");
+			final Object score = parameters[2];
+			db.rows.add(new Object[] { Integer.valueOf(id), parameters[1],
+					Double.valueOf(score == null ? 0.0 : Double.parseDouble(score.toString())) });
+			return null;
+		}
+
+		if (text.startsWith("DELETE")) {
+			db.rows.clear();
+			return null;
+		}
+
+		if (text.startsWith("SELECT") && text.matches(".*\\bFROM\\s+STATS\\b.*")) {
+			final ArrayList<Object[]> stats = new ArrayList<Object[]>();
+			stats.add(new Object[] { Integer.valueOf(db.prepares),
+					Integer.valueOf(db.executes), Integer.valueOf(db.batches),
+					Integer.valueOf(db.batchRows), Integer.valueOf(db.commits),
+					Integer.valueOf(db.rollbacks), Integer.valueOf(db.fetchSize),
+					Integer.valueOf(db.rows.size()) });
+			final int[] types = new int[STATS_COLUMNS.length];
+			Arrays.fill(types, Types.INTEGER);
+			return resultSet(STATS_COLUMNS, types, stats);
+		}
+
+		if (text.startsWith("SELECT")) {
+			Object limit = parameters[0];
+			final Matcher where = WHERE_ID.matcher(text);
+			if (where.find())
+				limit = Integer.valueOf(where.group(1));
+			final ArrayList<Object[]> result = new ArrayList<Object[]>();
+			for (final Object[] row : db.rows)
+				if (limit == null
+						|| ((Number) row[0]).intValue() >= Integer.parseInt(limit.toString()))
+					result.add(row);
+			return resultSet(ROW_COLUMNS, ROW_TYPES, result);
+		}
+
+		throw new SQLException("unsupported statement, " + sql);
+	}
+
+	/**
+	 * Create a result set over a list of rows.
+	 *
+	 * @param columns the column names
+	 * @param types the java.sql.Types code of each column
+	 * @param rows the rows, each with a value for each column
+	 * @return a ResultSet positioned before the first row
+	 */
+	static ResultSet resultSet(final String[] columns, final int[] types,
+			final ArrayList<Object[]> rows) {
+
+		final int[] position = { -1 };
+
+		final ResultSetMetaData metaData = (ResultSetMetaData) proxy(
+				ResultSetMetaData.class, new InvocationHandler() {
+					public Object invoke(final Object p, final Method m, final Object[] args) {
+						final String name = m.getName();
+						if (name.equals("getColumnCount"))
+							return Integer.valueOf(columns.length);
+						if (name.equals("getColumnName") || name.equals("getColumnLabel"))
+							return columns[((Integer) args[0]).intValue() - 1];
+						if (name.equals("getColumnType"))
+							return Integer.valueOf(types[((Integer) args[0]).intValue() - 1]);
+						if (name.equals("getColumnDisplaySize"))
+							return Integer.valueOf(20);
+						return defaultResult(m);
+					}
+				});
+
+		return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+			public Object invoke(final Object p, final Method m, final Object[] args)
+					throws Throwable {
+				final String name = m.getName();
+				if (name.equals("next")) {
+					if (position[0] < rows.size())
+						position[0]++;
+					return Boolean.valueOf(position[0] < rows.size());
+				}
+				if (name.equals("isLast"))
+					return Boolean.valueOf(position[0] == rows.size() - 1);
+				if (name.equals("isAfterLast"))
+					return Boolean.valueOf(position[0] >= rows.size());
+				if (name.equals("getMetaData"))
+					return metaData;
+				if (name.equals("findColumn"))
+					return Integer.valueOf(column(columns, args[0]));
+				if (name.startsWith("get") && args != null && args.length == 1) {
+					if (position[0] < 0 || position[0] >= rows.size())
+						throw new SQLException("no current row");
+					final Object v = rows.get(position[0])[column(columns, args[0]) - 1];
+					if (name.equals("getInt"))
+						return Integer.valueOf(v == null ? 0 : ((Number) v).intValue());
+					if (name.equals("getDouble"))
+						return Double.valueOf(v == null ? 0.0 : ((Number) v).doubleValue());
+					if (name.equals("getBoolean"))
+						return Boolean.valueOf(v != null && ((Number) v).intValue() != 0);
+					if (name.equals("getString"))
+						return v == null ? null : v.toString();
+				}
+				return defaultResult(m);
+			}
+		});
+	}
+
+	/**
+	 * Find a column of a result set.
+	 *
+	 * @param columns the column names
+	 * @param column an Integer column number or a String column name
+	 * @return the column number, starting at 1
+	 * @throws SQLException if there is no such column
+	 */
+	static int column(final String[] columns, final Object column) throws SQLException {
+		if (column instanceof Integer) {
+			final int ix = ((Integer) column).intValue();
+			if (ix >= 1 && ix <= columns.length)
+				return ix;
+		} else {
+			final int ix = Arrays.asList(columns).indexOf(column.toString().toUpperCase());
+			if (ix >= 0)
+				return ix + 1;
+		}
+		throw new SQLException("no column " + column);
+	}
+
+	/**
+	 * Create an object that implements a JDBC interface.
+	 *
+	 * @param c the interface
+	 * @param h the handler for its methods
+	 * @return the new object
+	 */
+	static Object proxy(final Class<?> c, final InvocationHandler h) {
+		return Proxy.newProxyInstance(MockJDBCDriver.class.getClassLoader(),
+				new Class<?>[] { c }, h);
+	}
+
+	/**
+	 * The result of any method the mock doesn't implement, which does
+	 * nothing.
+	 *
+	 * @param m the method
+	 * @return false, zero or null, depending on the result type
+	 */
+	static Object defaultResult(final Method m) {
+		final Class<?> r = m.getReturnType();
+		if (r == boolean.class)
+			return Boolean.FALSE;
+		if (r == int.class)
+			return Integer.valueOf(0);
+		if (r == long.class)
+			return Long.valueOf(0);
+		return null;
+	}
+
+	public DriverPropertyInfo[] getPropertyInfo(final String url, final Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+}
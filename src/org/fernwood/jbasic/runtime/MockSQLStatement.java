@@ -27,7 +27,10 @@ import org.fernwood.jbasic.compiler.Optimizer;
 import org.fernwood.jbasic.compiler.Tokenizer;
 import org.fernwood.jbasic.opcodes.OpCLEAR;
 import org.fernwood.jbasic.opcodes.OpCATALOG;
+import org.fernwood.jbasic.opcodes.OpGROUP;
+import org.fernwood.jbasic.opcodes.OpTBLINDEX;
 import org.fernwood.jbasic.value.RecordStreamValue;
+import org.fernwood.jbasic.value.TableIndex;
 import org.fernwood.jbasic.value.Value;
 
 /**
@@ -100,6 +103,11 @@ public class MockSQLStatement {
 	 */
 	private static final int STMT_CREATE_CATALOG = 24;
 
+	/**
+	 * CREATE INDEX
+	 */
+	private static final int STMT_CREATE_INDEX = 25;
+
 
 	/**
 	 * This describes what kind of statement we are
@@ -254,6 +262,25 @@ public class MockSQLStatement {
 			generatedCode.add(ByteCode._CLEAR, OpCLEAR.CLEAR_SYMBOL, catalogName);
 			return new Status();
 		}
+		/*
+		 * DROP INDEX name ON table
+		 */
+		if( tokens.assumeNextToken("INDEX")) {
+			if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
+				return new Status(Status.SQL, new Status(Status.SQLINDEX, tokens.nextToken()));
+			String indexName = tokens.nextToken();
+			if( !tokens.assumeNextToken("ON"))
+				return new Status(Status.SQL, new Status(Status.SQLWORD, "ON"));
+			if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
+				return new Status(Status.SQL, new Status(Status.SQLTABLE, tokens.nextToken()));
+			String indexTable = tokens.nextToken();
+			generateTypeCheck(indexTable);
+			generatedCode.add(ByteCode._LOADREF, indexTable);
+			generatedCode.add(ByteCode._TBLINDEX, OpTBLINDEX.DROP, indexName);
+			statementType = STMT_DROP;
+			return new Status();
+		}
+
 		if( !tokens.assumeNextToken("TABLE"))
 			return new Status(Status.SQL, new Status(Status.SQLWORD, "TABLE"));
 
@@ -328,31 +355,82 @@ public class MockSQLStatement {
 
 		boolean fCount = false;
 		boolean fDistinct = false;
-		if( tokens.assumeNextToken("COUNT"))
-			fCount = true;
-		if(fCount && !tokens.assumeNextSpecial("("))
-			return new Status(Status.SQL, new Status(Status.PAREN));
 
-		if( tokens.assumeNextToken("DISTINCT"))
-			fDistinct = true;
+		/*
+		 * A list that is just COUNT(...) followed by FROM asks for the
+		 * number of rows in the result.  Anything else that starts with
+		 * COUNT( is a list of aggregate functions, so back up and parse
+		 * it that way.
+		 */
+		if( tokens.peek(0).equals("COUNT")) {
+			int listStart = tokens.getPosition();
+			tokens.nextToken();
+			if(!tokens.assumeNextSpecial("("))
+				return new Status(Status.SQL, new Status(Status.PAREN));
+			fCount = true;
+			if( tokens.assumeNextToken("DISTINCT"))
+				fDistinct = true;
 
-		if( tokens.assumeNextSpecial("*"))
-			fSelectAll = true;
-		else {
-			variableList = new ArrayList<String>();
+			if( tokens.assumeNextSpecial("*"))
+				fSelectAll = true;
+			else {
+				variableList = new ArrayList<String>();
 
-			while(true) {
+				while(true) {
 
-				if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
-					break;
-				variableList.add(tokens.nextToken());
-				if( !tokens.assumeNextSpecial(","))
-					break;
+					if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
+						break;
+					variableList.add(tokens.nextToken());
+					if( !tokens.assumeNextSpecial(","))
+						break;
+				}
+			}
+			if( !tokens.assumeNextSpecial(")") || !tokens.peek(0).equals("FROM")) {
+				tokens.setPosition(listStart);
+				fCount = false;
+				fDistinct = false;
+				fSelectAll = false;
 			}
 		}
 
-		if( fCount && !tokens.assumeNextSpecial(")"))
-			return new Status(Status.SQL, new Status(Status.PAREN));
+		/*
+		 * Otherwise it's an optional DISTINCT followed by either * or a list
+		 * of column names and aggregate functions.  Each item is also kept
+		 * in the form used by the _GROUP opcode in case this turns out to
+		 * be a grouped query.
+		 */
+		ArrayList<String> groupItems = new ArrayList<String>();
+		boolean fAggregate = false;
+		
+		if( !fCount ) {
+			if( tokens.assumeNextToken("DISTINCT"))
+				fDistinct = true;
+
+			if( tokens.assumeNextSpecial("*"))
+				fSelectAll = true;
+			else {
+				variableList = new ArrayList<String>();
+
+				while(true) {
+
+					if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
+						break;
+					String name = tokens.nextToken();
+					if( OpGROUP.isAggregate(name) && tokens.assumeNextSpecial("(")) {
+						Status sts = prepareAggregate(name, tokens, groupItems);
+						if( sts.failed())
+							return sts;
+						fAggregate = true;
+					}
+					else {
+						variableList.add(name);
+						groupItems.add(OpGROUP.GROUP + " " + namePart(name) + " " + namePart(name));
+					}
+					if( !tokens.assumeNextSpecial(","))
+						break;
+				}
+			}
+		}
 
 		/*
 		 * Step two, parse the FROM clause which names the source
@@ -574,7 +652,73 @@ public class MockSQLStatement {
 		}
 
 		/*
-		 * Step four, is there an ORDER BY clause?
+		 * Step four, is there a GROUP BY clause?  If so, or if there were
+		 * aggregate functions in the select list, group the rows now.  The
+		 * result already has just the selected columns in it.
+		 */
+
+		ArrayList<String> groupList = null;
+		if( tokens.peek(0).equals("GROUP") && tokens.peek(1).equals("BY")) {
+
+			tokens.assumeNextToken("GROUP");
+			tokens.assumeNextToken("BY");
+
+			groupList = new ArrayList<String>();
+			while(true) {
+				if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
+					break;
+				groupList.add(namePart(tokens.nextToken()));
+				if( !tokens.assumeNextSpecial(","))
+					break;
+			}
+			if( groupList.size() == 0 )
+				return new Status(Status.SQL, new Status(Status.SQLCOL, tokens.peek(0)));
+
+			/*
+			 * SELECT COUNT(*) ... GROUP BY is the count of each group.
+			 */
+			if( fCount ) {
+				if( fDistinct || !fSelectAll )
+					return new Status(Status.SQL, new Status(Status.SQLUNSUP));
+				fCount = false;
+				fSelectAll = false;
+				groupItems.add(OpGROUP.COUNT + " * " + OpGROUP.COUNT);
+			}
+		}
+
+		boolean fGrouped = false;
+		if( fAggregate || groupList != null ) {
+
+			if( fSelectAll )
+				return new Status(Status.SQL, new Status(Status.SQLUNSUP));
+
+			StringBuffer groupBy = new StringBuffer();
+			ArrayList<String> resultNames = new ArrayList<String>();
+			for( int ix = 0; ix < groupItems.size(); ix++ ) {
+				String[] item = groupItems.get(ix).split(" ");
+				if( item[0].equals(OpGROUP.GROUP) && 
+						(groupList == null || !groupList.contains(item[1])))
+					return new Status(Status.SQL, new Status(Status.SQLGROUP, item[1]));
+				if( resultNames.contains(item[2]))
+					return new Status(Status.SQL, new Status(Status.SQLDUPFIELD, item[2]));
+				resultNames.add(item[2]);
+				generatedCode.add(ByteCode._STRING, groupItems.get(ix));
+			}
+			if( groupList == null )
+				generatedCode.add(ByteCode._GROUP, groupItems.size());
+			else {
+				for( int ix = 0; ix < groupList.size(); ix++ ) {
+					if( ix > 0 )
+						groupBy.append(',');
+					groupBy.append(groupList.get(ix));
+				}
+				generatedCode.add(ByteCode._GROUP, groupItems.size(), groupBy.toString());
+			}
+			fGrouped = true;
+		}
+
+		/*
+		 * Step five, is there an ORDER BY clause?
 		 */
 
 		if( tokens.peek(0).equals("ORDER") && tokens.peek(1).equals("BY")) {
@@ -608,7 +752,12 @@ public class MockSQLStatement {
 		 * about column selection at all and just want the row count for the result set.
 		 */
 
-		if( fCount && !fDistinct) {
+		if( fGrouped ) {
+			if( fDistinct )
+				generatedCode.add(ByteCode._CALLF, 1, "DISTINCT");
+			fSelectAll = true;
+		}
+		else if( fCount && !fDistinct) {
 			generatedCode.add(ByteCode._LENGTH);
 		}
 		else {
@@ -764,6 +913,43 @@ public class MockSQLStatement {
 			return new Status();
 		}
 
+		/*
+		 * CREATE INDEX name ON table(column) [USING HASH|TREE]
+		 */
+		if( tokens.assumeNextToken("INDEX")) {
+			if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
+				return new Status(Status.SQL, new Status(Status.SQLINDEX, tokens.nextToken()));
+			String indexName = tokens.nextToken();
+			if( !tokens.assumeNextToken("ON"))
+				return new Status(Status.SQL, new Status(Status.SQLWORD, "ON"));
+			if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
+				return new Status(Status.SQL, new Status(Status.SQLTABLE, tokens.nextToken()));
+			String indexTable = tokens.nextToken();
+			if( !tokens.assumeNextSpecial("("))
+				return new Status(Status.SQL, new Status(Status.PAREN));
+			if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
+				return new Status(Status.SQL, new Status(Status.SQLCOL, tokens.nextToken()));
+			String column = tokens.nextToken();
+			if( !tokens.assumeNextSpecial(")"))
+				return new Status(Status.SQL, new Status(Status.PAREN));
+
+			int kind = TableIndex.TREE;
+			if( tokens.assumeNextToken("USING")) {
+				if( tokens.assumeNextToken("HASH"))
+					kind = TableIndex.HASH;
+				else if( !tokens.assumeNextToken(new String[] {"TREE", "BTREE"}))
+					return new Status(Status.SQL, new Status(Status.SQLWORD, "HASH or TREE"));
+			}
+
+			generatedCode = new ByteCode(session, null);
+			generateTypeCheck(indexTable);
+			generatedCode.add(ByteCode._LOADREF, indexTable);
+			generatedCode.add(ByteCode._STRING, column);
+			generatedCode.add(ByteCode._TBLINDEX, kind, indexName);
+			statementType = STMT_CREATE_INDEX;
+			return new Status();
+		}
+
 
 		if( !tokens.assumeNextToken("TABLE"))
 			return new Status();
@@ -878,6 +1064,47 @@ public class MockSQLStatement {
 	}
 
 
+	/**
+	 * Parse an aggregate function in the select list of a SELECT statement,
+	 * such as SUM(SALARY) or COUNT(*), with an optional AS clause giving
+	 * the name of the result column.  The default name is the function
+	 * and column name joined by an underscore, or COUNT for COUNT(*).
+	 * @param function the aggregate function name, already parsed along
+	 * with the opening parenthesis.
+	 * @param tokens the tokenizer buffer
+	 * @param groupItems the list of result column descriptions for the
+	 * _GROUP opcode, to which this function is added.
+	 * @return Status indicating if the function was valid.
+	 */
+	private Status prepareAggregate(String function, Tokenizer tokens, 
+			ArrayList<String> groupItems) {
+		
+		String column;
+		String name;
+		if( function.equals(OpGROUP.COUNT) && tokens.assumeNextSpecial("*")) {
+			column = "*";
+			name = function;
+		}
+		else {
+			if( tokens.testNextToken("DISTINCT"))
+				return new Status(Status.SQL, new Status(Status.SQLUNSUP));
+			if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
+				return new Status(Status.SQL, new Status(Status.SQLCOL, tokens.peek(0)));
+			column = namePart(tokens.nextToken());
+			name = function + "_" + column;
+		}
+		if( !tokens.assumeNextSpecial(")"))
+			return new Status(Status.SQL, new Status(Status.PAREN));
+		
+		if( tokens.assumeNextToken("AS")) {
+			if( !tokens.testNextToken(Tokenizer.IDENTIFIER))
+				return new Status(Status.SQL, new Status(Status.SQLCOL, tokens.peek(0)));
+			name = tokens.nextToken();
+		}
+		groupItems.add(function + " " + column + " " + name);
+		return new Status();
+	}
+
 	private String namePart(String varName) {
 		int n = varName.indexOf('@');
 		if( n < 0 )
@@ -913,10 +1140,12 @@ public class MockSQLStatement {
 			if( symbolTable.getBoolean("SYS$SQL_DISASM"))
 				generatedCode.disassemble();
 
-			Status sts = generatedCode.run(symbolTable, 0);
+			final ExecutionFrame frame = new ExecutionFrame(generatedCode.getSession());
+			Status sts = generatedCode.run(frame, symbolTable, 0);
 			if( sts.failed())
 				return sts;
-			resultValue = generatedCode.getResult();
+			resultValue = frame.getResult();
+			frame.release();
 			if( resultValue == null ) {
 				table = null;
 				resultSet = null;
@@ -996,7 +1225,7 @@ public class MockSQLStatement {
 		for( int ix = 0; ix < resultSetSize; ix++ ) {
 			if( cursor > table.size()-1)
 				break;
-			Value row = table.getElement(++cursor);
+			Value row = table.rowRecord(++cursor);
 			Value newRow = new Value(Value.RECORD, null);
 
 			if( fSelectAll) {
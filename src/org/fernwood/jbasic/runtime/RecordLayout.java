@@ -0,0 +1,653 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ * 
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ * 
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ * 
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.nio.ByteBuffer;
+
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * The compiled form of a record definition used by GET and PUT on a BINARY
+ * file.  A record definition is an array of records, each with a NAME, TYPE,
+ * and optional SIZE.  When every field has a fixed size, the layout gives
+ * the byte offset of each field, so GET can read a whole record from the
+ * file in one operation and decode the fields from memory, and PUT can
+ * encode the fields into memory and write them in one operation.  GET and
+ * PUT with a TABLE use the layout to move many records at once, with each
+ * record a row of the TABLE.  The bytes are the same as those written by
+ * the field-at-a-time methods of JBFBinary.
+ * <p>
+ * Layouts are kept by each JBFBinary file for the record definitions it has
+ * been used with.  Because a program can change a record definition, a
+ * layout is only used again if matches() finds that the definition still
+ * has the same fields.  A definition with a field whose size is only known
+ * when it is read (such as a VALUE, or a STRING with no SIZE) still has a
+ * layout, which is not fixed, so that it isn't compiled again every time.
+ * Such records are read and written a field at a time, as are definitions
+ * with errors, so that the errors are reported as before.
+ * 
+ * @author cole
+ * 
+ */
+public final class RecordLayout {
+
+	/*
+	 * The kinds of fields.
+	 */
+	private static final int STRING = 1;
+	private static final int UNICODE = 2;
+	private static final int VARYING = 3;
+	private static final int INTEGER = 4;
+	private static final int FLOAT = 5;
+	private static final int BOOLEAN = 6;
+	private static final int BITFIELD = 7;
+
+	/**
+	 * The value used for the size of a field with no SIZE.
+	 */
+	private static final int NO_SIZE = Integer.MIN_VALUE;
+
+	/**
+	 * The number of fields in the definition.
+	 */
+	private final int fieldCount;
+
+	/**
+	 * The number of fields compiled, which is less than fieldCount if a
+	 * field was found that doesn't have a fixed size.
+	 */
+	private int compiledCount;
+
+	/**
+	 * True if every field has a fixed size.
+	 */
+	private boolean fixed;
+
+	/**
+	 * The total size of a record in bytes, if it is fixed.
+	 */
+	private int recordSize;
+
+	/**
+	 * True if there is a STRING or UNICODE field with no SIZE, which
+	 * depends on the default string size.
+	 */
+	private boolean usesDefault;
+
+	/**
+	 * The default string size when the layout was compiled, or NO_SIZE if
+	 * there was none.
+	 */
+	private int defaultSize;
+
+	/*
+	 * For each field, the NAME, TYPE, and SIZE in the definition, which are
+	 * used to check that the definition hasn't changed.
+	 */
+	private final String[] nameText;
+	private final String[] typeText;
+	private final int[] sizeValue;
+
+	/*
+	 * For each field, the upper case name it is stored under, the kind of
+	 * field, the size of the data (in bytes, or characters for a string),
+	 * and the byte offset in the record.
+	 */
+	private final String[] names;
+	private final int[] kinds;
+	private final int[] sizes;
+	private final int[] offsets;
+
+	/**
+	 * The bit field map for each BITFIELD field.
+	 */
+	private final BitFieldMap[] bitMaps;
+
+	private RecordLayout(final int count) {
+		fieldCount = count;
+		nameText = new String[count];
+		typeText = new String[count];
+		sizeValue = new int[count];
+		names = new String[count];
+		kinds = new int[count];
+		sizes = new int[count];
+		offsets = new int[count];
+		bitMaps = new BitFieldMap[count];
+	}
+
+	/**
+	 * Compile a record definition.
+	 * @param fieldList the array of field records
+	 * @param defaultStringSize the size of STRING and UNICODE fields with no
+	 * SIZE, or null if such fields are preceded by their length
+	 * @return the layout, or null if the definition isn't an array of
+	 * records
+	 * @throws JBasicException if a BITFIELD map is invalid
+	 */
+	static RecordLayout compile(final Value fieldList, final Value defaultStringSize)
+			throws JBasicException {
+
+		if (fieldList == null || fieldList.getType() != Value.ARRAY)
+			return null;
+		final RecordLayout layout = new RecordLayout(fieldList.size());
+		layout.defaultSize = sizeOf(defaultStringSize);
+
+		int offset = 0;
+		for (int ix = 0; ix < layout.fieldCount; ix++) {
+			final Value field = fieldList.getElement(ix + 1);
+			if (field == null || field.getType() != Value.RECORD)
+				return null;
+			layout.compiledCount = ix + 1;
+
+			final Value name = field.getElement("NAME");
+			final Value type = field.getElement("TYPE");
+			final Value size = field.getElement("SIZE");
+			layout.nameText[ix] = name == null ? null : name.getString();
+			layout.typeText[ix] = type == null ? null : type.getString();
+			layout.sizeValue[ix] = sizeOf(size);
+			if (name == null || type == null)
+				return layout;
+
+			layout.names[ix] = layout.nameText[ix].toUpperCase();
+			final String typeString = layout.typeText[ix].toUpperCase();
+			int fieldSize = layout.sizeValue[ix];
+			int bytes;
+
+			if (typeString.equals("STRING") || typeString.equals("UNICODE")) {
+				if (fieldSize == NO_SIZE) {
+					layout.usesDefault = true;
+					fieldSize = layout.defaultSize;
+					if (fieldSize == NO_SIZE)
+						return layout;
+				}
+				if (fieldSize < 0)
+					return layout;
+				if (typeString.equals("STRING")) {
+					layout.kinds[ix] = STRING;
+					bytes = fieldSize;
+				} else {
+					layout.kinds[ix] = UNICODE;
+					bytes = fieldSize * 2;
+				}
+			} else if (typeString.equals("VARYING")) {
+				if (fieldSize == NO_SIZE)
+					fieldSize = 256;
+				if (fieldSize < 0)
+					return layout;
+				layout.kinds[ix] = VARYING;
+				bytes = fieldSize + 4;
+			} else if (typeString.equals("INTEGER")) {
+				if (fieldSize == NO_SIZE)
+					fieldSize = 4;
+				if (fieldSize != 1 && fieldSize != 2 && fieldSize != 4)
+					return layout;
+				layout.kinds[ix] = INTEGER;
+				bytes = fieldSize;
+			} else if (typeString.equals("BYTE") || typeString.equals("WORD")) {
+				fieldSize = typeString.equals("BYTE") ? 1 : 2;
+				layout.kinds[ix] = INTEGER;
+				bytes = fieldSize;
+			} else if (typeString.equals("FLOAT") || typeString.equals("DOUBLE")) {
+				if (typeString.equals("DOUBLE") || fieldSize == NO_SIZE)
+					fieldSize = typeString.equals("DOUBLE") ? 8 : 4;
+				if (fieldSize != 4 && fieldSize != 8)
+					return layout;
+				layout.kinds[ix] = FLOAT;
+				bytes = fieldSize;
+			} else if (typeString.equals("BOOLEAN")) {
+				layout.kinds[ix] = BOOLEAN;
+				fieldSize = 1;
+				bytes = 1;
+			} else if (typeString.equals("BITFIELD")) {
+				layout.bitMaps[ix] = BitFieldMap.buildBitMap(field);
+				if (layout.bitMaps[ix] == null)
+					return layout;
+				layout.kinds[ix] = BITFIELD;
+				bytes = layout.bitMaps[ix].getBufferSize();
+			} else
+				return layout;
+
+			layout.sizes[ix] = fieldSize;
+			layout.offsets[ix] = offset;
+			offset += bytes;
+		}
+
+		layout.fixed = layout.fieldCount > 0;
+		layout.recordSize = offset;
+		return layout;
+	}
+
+	/**
+	 * Determine if a record definition has the same fields as the one this
+	 * layout was compiled from.
+	 * @param fieldList the array of field records
+	 * @param defaultStringSize the current default string size
+	 * @return true if the layout can be used for the definition
+	 */
+	boolean matches(final Value fieldList, final Value defaultStringSize) {
+		if (fieldList.getType() != Value.ARRAY || fieldList.size() != fieldCount)
+			return false;
+		if (usesDefault && sizeOf(defaultStringSize) != defaultSize)
+			return false;
+
+		for (int ix = 0; ix < compiledCount; ix++) {
+			final Value field = fieldList.getElement(ix + 1);
+			if (field == null || field.getType() != Value.RECORD)
+				return false;
+			if (!same(field.getElement("NAME"), nameText[ix])
+					|| !same(field.getElement("TYPE"), typeText[ix]))
+				return false;
+			if (sizeOf(field.getElement("SIZE")) != sizeValue[ix])
+				return false;
+			if (kinds[ix] == BITFIELD) {
+				final Value map = field.getElement("__MAP");
+				if (map == null || map.getObject() != bitMaps[ix])
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get a size, or NO_SIZE if there isn't one.
+	 */
+	private static int sizeOf(final Value size) {
+		return size == null ? NO_SIZE : size.getInteger();
+	}
+
+	/**
+	 * Compare a member of a field record with the text it had when the
+	 * layout was compiled.
+	 */
+	private static boolean same(final Value member, final String text) {
+		if (member == null)
+			return text == null;
+		return text != null && text.equals(member.getString());
+	}
+
+	/**
+	 * Determine if every field in the record has a fixed size, so the
+	 * record can be read or written in one operation.
+	 * @return true if the record has a fixed size
+	 */
+	public boolean isFixed() {
+		return fixed;
+	}
+
+	/**
+	 * Get the size of a record.
+	 * @return the size in bytes of a record, if it is fixed
+	 */
+	public int size() {
+		return recordSize;
+	}
+
+	/**
+	 * Get the number of fields in the record.
+	 * @return the count of fields
+	 */
+	public int fieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Get the name a field is stored under.
+	 * @param ix the field number, starting at zero
+	 * @return the upper case name of the field
+	 */
+	public String name(final int ix) {
+		return names[ix];
+	}
+
+	/**
+	 * Determine if a field is a BITFIELD, which holds more than one value.
+	 * @param ix the field number, starting at zero
+	 * @return true if the field is a BITFIELD
+	 */
+	public boolean isBitField(final int ix) {
+		return kinds[ix] == BITFIELD;
+	}
+
+	/**
+	 * Get a field from a record that was read from the file.
+	 * @param record the bytes of the record
+	 * @param ix the field number, starting at zero
+	 * @return the value of the field
+	 */
+	public Value get(final byte[] record, final int ix) {
+		return decode(record, 0, ix);
+	}
+
+	/**
+	 * Get a field from a record stored at any position in a buffer.
+	 */
+	private Value decode(final byte[] record, final int base, final int ix) {
+
+		final ByteBuffer buffer = ByteBuffer.wrap(record);
+		final int offset = base + offsets[ix];
+		final int size = sizes[ix];
+
+		switch (kinds[ix]) {
+
+		case STRING:
+			return new Value(getString(record, offset, size));
+
+		case VARYING: {
+			final int actualSize = buffer.getInt(offset);
+			final String s = getString(record, offset + 4, size);
+			if (actualSize < size)
+				return new Value(s.substring(0, actualSize));
+			return new Value(s);
+		}
+
+		case UNICODE: {
+			final StringBuffer stringData = new StringBuffer(size);
+			for (int n = 0; n < size; n++)
+				stringData.append(buffer.getChar(offset + n * 2));
+			return new Value(stringData.toString());
+		}
+
+		case INTEGER:
+			if (size == 1)
+				return new Value(record[offset] & 0xFF);
+			if (size == 2)
+				return new Value(buffer.getShort(offset));
+			return new Value(buffer.getInt(offset));
+
+		case FLOAT:
+			if (size == 4)
+				return new Value(buffer.getFloat(offset));
+			return new Value(buffer.getDouble(offset));
+
+		case BOOLEAN:
+			return new Value(record[offset] != 0);
+		}
+		return null;
+	}
+
+	/**
+	 * Store the value of a field in a record to be written to the file.
+	 * @param record the bytes of the record
+	 * @param ix the field number, starting at zero
+	 * @param datum the value of the field
+	 * @throws JBasicException if a STRING has a character that won't fit
+	 * in a byte
+	 */
+	public void put(final byte[] record, final int ix, final Value datum)
+			throws JBasicException {
+		encode(record, 0, ix, datum);
+	}
+
+	/**
+	 * Store a field in a record stored at any position in a buffer.
+	 */
+	private void encode(final byte[] record, final int base, final int ix, final Value datum)
+			throws JBasicException {
+
+		final ByteBuffer buffer = ByteBuffer.wrap(record);
+		final int offset = base + offsets[ix];
+		final int size = sizes[ix];
+
+		switch (kinds[ix]) {
+
+		case STRING:
+			putString(record, offset, datum.getString(), size);
+			break;
+
+		case VARYING: {
+			String s = datum.getString();
+			if (s.length() > size)
+				s = s.substring(0, size);
+			buffer.putInt(offset, s.length());
+			putString(record, offset + 4, s, size);
+			break;
+		}
+
+		case UNICODE: {
+			final String s = datum.getString();
+			final int len = s.length();
+			for (int n = 0; n < size; n++)
+				buffer.putChar(offset + n * 2, n < len ? s.charAt(n) : ' ');
+			break;
+		}
+
+		case INTEGER:
+			if (size == 1)
+				record[offset] = (byte) datum.getInteger();
+			else if (size == 2)
+				buffer.putShort(offset, (short) datum.getInteger());
+			else
+				buffer.putInt(offset, datum.getInteger());
+			break;
+
+		case FLOAT:
+			if (size == 4)
+				buffer.putFloat(offset, (float) datum.getDouble());
+			else
+				buffer.putDouble(offset, datum.getDouble());
+			break;
+
+		case BOOLEAN:
+			record[offset] = (byte) (datum.getBoolean() ? 1 : 0);
+			break;
+		}
+	}
+
+	/**
+	 * Store the values in a BITFIELD in the symbol table.
+	 * @param record the bytes of the record
+	 * @param ix the field number, starting at zero
+	 * @param symbols the symbol table to store the values in
+	 * @throws JBasicException if a value can't be stored
+	 */
+	public void getBitField(final byte[] record, final int ix, final SymbolTable symbols)
+			throws JBasicException {
+
+		final BitFieldMap bm = bitMaps[ix];
+		final byte[] buffer = new byte[bm.getBufferSize()];
+		System.arraycopy(record, offsets[ix], buffer, 0, buffer.length);
+
+		final String[] nameArray = bm.getNames();
+		final int[] typeArray = bm.getTypes();
+		for (int n = 0; n < nameArray.length; n++) {
+			switch (typeArray[n]) {
+			case Value.INTEGER:
+				symbols.insert(nameArray[n], bm.getInt(buffer, n));
+				break;
+			case Value.DOUBLE:
+				symbols.insert(nameArray[n], bm.getDouble(buffer, n));
+				break;
+			case Value.STRING:
+				symbols.insert(nameArray[n], bm.getString(buffer, n));
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Store the values for a BITFIELD from the symbol table in a record.
+	 * @param record the bytes of the record
+	 * @param ix the field number, starting at zero
+	 * @param symbols the symbol table holding the values
+	 */
+	public void putBitField(final byte[] record, final int ix, final SymbolTable symbols) {
+
+		final BitFieldMap bm = bitMaps[ix];
+		final byte[] buffer = new byte[bm.getBufferSize()];
+
+		final String[] nameArray = bm.getNames();
+		final int[] typeArray = bm.getTypes();
+		for (int n = 0; n < nameArray.length; n++) {
+			switch (typeArray[n]) {
+			case Value.INTEGER:
+				bm.setInt(buffer, n, symbols.getInteger(nameArray[n]));
+				break;
+			case Value.DOUBLE:
+				bm.setDouble(buffer, n, symbols.getDouble(nameArray[n]));
+				break;
+			case Value.STRING:
+				bm.setString(buffer, n, symbols.getString(nameArray[n]));
+				break;
+			}
+		}
+		System.arraycopy(buffer, 0, record, offsets[ix], buffer.length);
+	}
+
+	/**
+	 * Get the number of columns in a TABLE that holds records of this
+	 * layout.  Each field is a column, except that each value in a BITFIELD
+	 * is a separate column.
+	 * @return the count of columns
+	 */
+	public int columnCount() {
+		int count = 0;
+		for (int ix = 0; ix < fieldCount; ix++)
+			count += kinds[ix] == BITFIELD ? bitMaps[ix].getNames().length : 1;
+		return count;
+	}
+
+	/**
+	 * Get the column definitions of a TABLE that holds records of this
+	 * layout.
+	 * @return an ARRAY of strings of the form "NAME@TYPE", in the order the
+	 * values are stored in the record, which can be used to create the TABLE
+	 */
+	public Value columnNames() {
+		final Value columns = new Value(Value.ARRAY, null);
+		for (int ix = 0; ix < fieldCount; ix++) {
+			if (kinds[ix] == BITFIELD) {
+				final String[] nameArray = bitMaps[ix].getNames();
+				final int[] typeArray = bitMaps[ix].getTypes();
+				for (int n = 0; n < nameArray.length; n++)
+					columns.addElement(new Value(nameArray[n].toUpperCase() + "@"
+							+ Value.typeToName(typeArray[n])));
+				continue;
+			}
+			String typeName;
+			switch (kinds[ix]) {
+			case INTEGER:
+				typeName = "INTEGER";
+				break;
+			case FLOAT:
+				typeName = "DOUBLE";
+				break;
+			case BOOLEAN:
+				typeName = "BOOLEAN";
+				break;
+			default:
+				typeName = "STRING";
+			}
+			columns.addElement(new Value(names[ix] + "@" + typeName));
+		}
+		return columns;
+	}
+
+	/**
+	 * Get the values of all the columns of a record stored in a buffer.
+	 * @param data the buffer holding one or more records
+	 * @param base the offset in the buffer of the record
+	 * @param row the ARRAY to add the values to, in column order
+	 */
+	public void getRow(final byte[] data, final int base, final Value row) {
+		for (int ix = 0; ix < fieldCount; ix++) {
+			if (kinds[ix] != BITFIELD) {
+				row.addElementAsIs(decode(data, base, ix));
+				continue;
+			}
+			final BitFieldMap bm = bitMaps[ix];
+			final byte[] buffer = new byte[bm.getBufferSize()];
+			System.arraycopy(data, base + offsets[ix], buffer, 0, buffer.length);
+
+			final int[] typeArray = bm.getTypes();
+			for (int n = 0; n < typeArray.length; n++) {
+				switch (typeArray[n]) {
+				case Value.INTEGER:
+					row.addElementAsIs(new Value(bm.getInt(buffer, n)));
+					break;
+				case Value.DOUBLE:
+					row.addElementAsIs(new Value(bm.getDouble(buffer, n)));
+					break;
+				default:
+					row.addElementAsIs(new Value(bm.getString(buffer, n)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Store a record in a buffer from the values of its columns.
+	 * @param data the buffer holding one or more records
+	 * @param base the offset in the buffer of the record
+	 * @param cells the values of the columns, in column order
+	 * @throws JBasicException if a STRING has a character that won't fit
+	 * in a byte
+	 */
+	public void putRow(final byte[] data, final int base, final Value[] cells)
+			throws JBasicException {
+		int column = 0;
+		for (int ix = 0; ix < fieldCount; ix++) {
+			if (kinds[ix] != BITFIELD) {
+				encode(data, base, ix, cells[column++]);
+				continue;
+			}
+			final BitFieldMap bm = bitMaps[ix];
+			final byte[] buffer = new byte[bm.getBufferSize()];
+
+			final int[] typeArray = bm.getTypes();
+			for (int n = 0; n < typeArray.length; n++) {
+				final Value cell = cells[column++];
+				switch (typeArray[n]) {
+				case Value.INTEGER:
+					bm.setInt(buffer, n, cell.getInteger());
+					break;
+				case Value.DOUBLE:
+					bm.setDouble(buffer, n, cell.getDouble());
+					break;
+				default:
+					bm.setString(buffer, n, cell.getString());
+				}
+			}
+			System.arraycopy(buffer, 0, data, base + offsets[ix], buffer.length);
+		}
+	}
+
+	/**
+	 * Get a string stored one byte per character.  The bytes are converted
+	 * to characters the same way JBFBinary.getString() does.
+	 */
+	private static String getString(final byte[] record, final int offset, final int count) {
+		final char stringData[] = new char[count];
+		for (int n = 0; n < count; n++)
+			stringData[n] = (char) record[offset + n];
+		return String.copyValueOf(stringData);
+	}
+
+	/**
+	 * Store a string one byte per character, padded with blanks.
+	 * @throws JBasicException if a character won't fit in a byte
+	 */
+	private static void putString(final byte[] record, final int offset, final String s,
+			final int count) throws JBasicException {
+		final int len = s.length();
+		for (int n = 0; n < count; n++) {
+			final int ch = n < len ? s.charAt(n) : ' ';
+			if (ch > 255)
+				throw new JBasicException(Status.IOERROR, "character byte value out of range: " + ch);
+			record[offset + n] = (byte) ch;
+		}
+	}
+}
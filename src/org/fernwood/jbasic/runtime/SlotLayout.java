@@ -0,0 +1,92 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The map of local variable names to frame slot numbers for a linked
+ * program.  The Linker builds one of these for each program it links, and
+ * rewrites the simple variable loads and stores in the program into the
+ * _LOADS and _STORS opcodes, whose integer operand is the slot number.
+ * <p>
+ * At runtime, each SymbolTable that runs the program keeps an array of
+ * Value references indexed by slot number (see SymbolTable.slotReference()).
+ * The HashMap in the SymbolTable is still the real home of each variable so
+ * that SYMBOLS(), EXECUTE, the debugger, and the rest of the by-name
+ * operations continue to work; the slot array just saves the string lookup
+ * once a variable has been found.
+ *
+ * @author cole
+ */
+public class SlotLayout {
+
+	/**
+	 * The variable name for each slot.
+	 */
+	private final String[] names;
+
+	/**
+	 * The reverse map of variable name to slot number.  This is used when
+	 * a variable is changed by name so the slot can be invalidated.
+	 */
+	private final HashMap<String, Integer> index;
+
+	/**
+	 * Create a slot layout from a list of names.  The position of each
+	 * name in the list is its slot number.
+	 * @param slotNames the list of uppercase variable names
+	 */
+	public SlotLayout(final ArrayList<String> slotNames) {
+		final int count = slotNames.size();
+		names = new String[count];
+		index = new HashMap<String, Integer>(count * 2);
+		for (int ix = 0; ix < count; ix++) {
+			names[ix] = slotNames.get(ix);
+			index.put(names[ix], Integer.valueOf(ix));
+		}
+	}
+
+	/**
+	 * Return the number of slots in this layout.
+	 * @return the slot count
+	 */
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * Get the variable name for a given slot.
+	 * @param slot the slot number
+	 * @return the uppercase variable name
+	 */
+	public String getName(final int slot) {
+		return names[slot];
+	}
+
+	/**
+	 * Find the slot number assigned to a variable name.
+	 * @param name the uppercase variable name
+	 * @return the slot number, or -1 if the variable has no slot
+	 */
+	public int getSlot(final String name) {
+		final Integer slot = index.get(name);
+		if (slot == null)
+			return -1;
+		return slot.intValue();
+	}
+}
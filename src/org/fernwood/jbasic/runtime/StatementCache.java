@@ -0,0 +1,313 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.fernwood.jbasic.JBasic;
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.compiler.Tokenizer;
+import org.fernwood.jbasic.statements.Statement;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * The compiled statement cache for a session.  Statements executed from
+ * text, by EXECUTE, the command line, or the JBasic run() method, and
+ * expressions evaluated by the EXPRESSION() function, are normally
+ * tokenized and compiled each time they are executed.  This cache keeps
+ * the bytecode for the most recently used text, so a program that executes
+ * the same string over and over only compiles it once.
+ * <p>
+ * The cache holds at most SYS$EXEC_CACHE_SIZE entries, discarding the least
+ * recently used entry when it is full; setting the size to zero disables
+ * the cache.  Each entry is keyed by the text and the settings of the
+ * compiler options, so changing an option just means the text is compiled
+ * again.  Only statements that compile without error into bytecode are
+ * kept; a statement that is stored in a program, declares a program, has a
+ * label, contains a macro, or can only be interpreted is compiled every
+ * time, as before.  Because a statement may compile differently for a
+ * different current program or verb alias, those are checked as well.
+ * <p>
+ * The number of cache hits and misses are reported by SYS$$EXEC_CACHE_HITS
+ * and SYS$$EXEC_CACHE_MISSES.
+ *
+ * @author cole
+ *
+ */
+public class StatementCache {
+
+	/**
+	 * The global symbols whose values change how text is compiled.
+	 */
+	private static final String[] COMPILE_OPTIONS = new String[] {
+		"SYS$OPTIMIZE", "SYS$OPT_ASM", "SYS$OPT_DEADCODE",
+		"SYS$STRUCTURE_POOLING", "SYS$STATIC_TYPES", "SYS$STATEMENT_TEXT",
+		"SYS$RETOKENIZE", "SYS$SQL_COMMANDS", "SYS$SQL_OPT" };
+
+	/**
+	 * A cached compilation.  The instructions in an entry are never changed,
+	 * and are shared by every execution of the text.
+	 */
+	private static final class Entry {
+
+		/**
+		 * The statement text after an implied LET has been added, or null
+		 * if the entry is for an expression.
+		 */
+		final String statementText;
+
+		/**
+		 * The compiled bytecode.
+		 */
+		final ByteCode byteCode;
+
+		/**
+		 * The verb of the statement, which may have an alias.
+		 */
+		final String verb;
+
+		/**
+		 * The alias for the verb when the statement was compiled, or null
+		 * if there was none.
+		 */
+		final String alias;
+
+		Entry(final String text, final ByteCode bc, final String theVerb,
+				final String theAlias) {
+			statementText = text;
+			byteCode = bc;
+			verb = theVerb;
+			alias = theAlias;
+		}
+	}
+
+	/**
+	 * The session that owns this cache.
+	 */
+	private final JBasic session;
+
+	/**
+	 * The cached entries, in order from least to most recently used.
+	 */
+	private final LinkedHashMap<String, Entry> entries;
+
+	/**
+	 * The maximum number of entries, read from SYS$EXEC_CACHE_SIZE each
+	 * time the cache is used.
+	 */
+	private int capacity;
+
+	/**
+	 * The number of times compiled text was found in the cache.
+	 */
+	private int hits;
+
+	/**
+	 * The number of times text had to be compiled.
+	 */
+	private int misses;
+
+	/**
+	 * Create a cache for a session.
+	 * @param theSession the session that owns the cache
+	 */
+	public StatementCache(final JBasic theSession) {
+		session = theSession;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Store statement text in a statement object, compiling it if needed.
+	 * This has the same result as calling the statement's store() method,
+	 * but uses the cached bytecode if the same text has been compiled
+	 * before.
+	 * @param s the statement object, which is not part of any program
+	 * @param text the statement text
+	 */
+	public void store(final Statement s, final String text) {
+
+		final String key = key('S', text);
+		if (key == null) {
+			s.store(text);
+			return;
+		}
+
+		final Entry e = find(key);
+		if (e != null && aliasMatches(e)) {
+			count(true);
+			s.statementText = e.statementText;
+			s.statementLabel = null;
+			s.statementObject = null;
+			s.statementID = 0;
+			s.lineNumber = 0;
+			s.lineNumberPosCount = 0;
+			s.fDeclaration = false;
+			s.fEmptyStatement = false;
+			s.byteCode = e.byteCode;
+			s.status = new Status(Status.SUCCESS);
+
+			/*
+			 * Errors are reported using the statement that owns the
+			 * bytecode, which is now this one.
+			 */
+			e.byteCode.statement = s;
+			return;
+		}
+
+		count(false);
+		s.store(text);
+		if (s.byteCode == null || s.status == null || !s.status.equals(Status.SUCCESS)
+				|| s.lineNumber != 0 || s.fDeclaration || s.fEmptyStatement
+				|| s.statementLabel != null || s.program != null)
+			return;
+
+		final String verb = new Tokenizer(s.statementText).nextToken().toUpperCase();
+		final Value sub = aliasFor(verb);
+		put(key, new Entry(s.statementText, s.byteCode, verb,
+				sub == null ? null : sub.getString()));
+	}
+
+	/**
+	 * Find the compiled bytecode for an expression.
+	 * @param text the expression text
+	 * @return the bytecode, ending with an _END instruction, or null if the
+	 * expression must be compiled.
+	 */
+	public ByteCode findExpression(final String text) {
+		final String key = key('E', text);
+		if (key == null)
+			return null;
+		final Entry e = find(key);
+		count(e != null);
+		return e == null ? null : e.byteCode;
+	}
+
+	/**
+	 * Store the compiled bytecode for an expression.
+	 * @param text the expression text
+	 * @param bc the bytecode, which must not be changed after it is stored
+	 */
+	public void putExpression(final String text, final ByteCode bc) {
+		final String key = key('E', text);
+		if (key != null)
+			put(key, new Entry(null, bc, null, null));
+	}
+
+	/**
+	 * Get the number of times compiled text was found in the cache.
+	 * @return the count of cache hits
+	 */
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Get the number of times text was compiled because it was not in the
+	 * cache.
+	 * @return the count of cache misses
+	 */
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Form the key for text, which includes the compiler option settings.
+	 * @param kind 'S' for a statement or 'E' for an expression
+	 * @param text the text to compile
+	 * @return the key, or null if the text can't be cached
+	 */
+	private String key(final char kind, final String text) {
+
+		capacity = session.getInteger("SYS$EXEC_CACHE_SIZE");
+		if (capacity <= 0 || text == null)
+			return null;
+
+		/*
+		 * Macro substitutions are made when the text is compiled, using the
+		 * values of variables at that time, so text with a macro must be
+		 * compiled each time.
+		 */
+		final Value quotes = session.globals().localReference("SYS$MACRO_QUOTES");
+		if (quotes != null && quotes.getType() == Value.ARRAY && quotes.size() == 2
+				&& text.indexOf(quotes.getString(1)) >= 0)
+			return null;
+
+		final StringBuffer key = new StringBuffer(text.length() + 64);
+		key.append(kind);
+		for (int ix = 0; ix < COMPILE_OPTIONS.length; ix++)
+			key.append(session.getBoolean(COMPILE_OPTIONS[ix]) ? '1' : '0');
+		key.append(session.functionCache.getPackagePath(session));
+		if (kind == 'S')
+			key.append(session.getString("SYS$CURRENT_PROGRAM"));
+		key.append('\n');
+		key.append(text);
+		return key.toString();
+	}
+
+	/**
+	 * Look up an entry.
+	 */
+	private synchronized Entry find(final String key) {
+		return entries.get(key);
+	}
+
+	/**
+	 * Count a cache hit or miss.
+	 */
+	private synchronized void count(final boolean hit) {
+		if (hit)
+			hits++;
+		else
+			misses++;
+	}
+
+	/**
+	 * Add an entry, discarding the least recently used entry if the cache
+	 * is full.
+	 */
+	private synchronized void put(final String key, final Entry e) {
+		entries.put(key, e);
+	}
+
+	/**
+	 * Determine if the alias for a statement's verb is the same as when the
+	 * statement was compiled.
+	 */
+	private boolean aliasMatches(final Entry e) {
+		final Value sub = aliasFor(e.verb);
+		if (sub == null)
+			return e.alias == null;
+		return sub.getString().equals(e.alias);
+	}
+
+	/**
+	 * Get the alias for a verb from SYS$ALIASES.
+	 * @return the alias, or null if there is none
+	 */
+	private Value aliasFor(final String verb) {
+		final Value aliasRecord = session.globals().localReference("SYS$ALIASES");
+		if (aliasRecord == null || !aliasRecord.isType(Value.RECORD))
+			return null;
+		return aliasRecord.getElement(verb);
+	}
+}
@@ -129,6 +129,35 @@ public class SymbolTable {
 
 	public SymbolTable originalParentTable;
 	
+	/**
+	 * The slot layout of the linked program whose _LOADS and _STORS 
+	 * operations are currently using this table, or null if no such 
+	 * program has run in this table.
+	 */
+	private SlotLayout slotLayout;
+
+	/**
+	 * References to the Value objects in this table, indexed by the slot
+	 * numbers in the slotLayout.  A null entry means the slot has not been
+	 * looked up yet (or has been invalidated because the variable was
+	 * changed by name); the HashMap is always the authoritative copy.
+	 */
+	private Value[] slots;
+
+	/**
+	 * Marker stored in a slot when the variable was looked for and is not
+	 * in this table, so it is searched for in the parent tables directly.
+	 */
+	private static final Value NOT_LOCAL = new Value(Value.UNDEFINED, null);
+
+	/**
+	 * Information about the call that created this table, used to create
+	 * the $ARGS, $THIS, $PARENT, $MODE and $START_TIME variables when they
+	 * are first referenced.  This is null if the table wasn't created for
+	 * a call.
+	 */
+	private CallInfo callInfo;
+
 
 	/**
 	 * Scoped constructor. Key element is to ensure that a HashTable is created
@@ -163,6 +192,27 @@ public class SymbolTable {
 			table = new HashMap<String,Value>();
 	}
 
+	/**
+	 * Constructor for a table that is expected to hold a known number of
+	 * symbols, such as the local table for a called program.  The table
+	 * is sized so it won't need to grow while it holds that many symbols.
+	 * 
+	 * @param theSession
+	 *            The JBasic object that contains the current session.
+	 * @param theTableName
+	 *            The name to give the table.
+	 * @param theParentTable
+	 *            The parent of the symbol table to create.
+	 * @param expectedSize
+	 *            The number of symbols the table is expected to hold.
+	 */
+	public SymbolTable(final JBasic theSession, final String theTableName,
+			final SymbolTable theParentTable, final int expectedSize) {
+		this(theSession, theTableName, theParentTable);
+		if (expectedSize > 12)
+			table = new HashMap<String,Value>(expectedSize * 4 / 3 + 1);
+	}
+
 	/**
 	 * Debugging interface to format the current symbol table object for
 	 * display. This is largely used in debugging using Eclipse and is not
@@ -245,6 +295,7 @@ public class SymbolTable {
 	public int size() {
 		if (table == null)
 			return 0;
+		defineCallVariables();
 		return table.size();
 	}
 
@@ -280,8 +331,10 @@ public class SymbolTable {
 
 		if (symbolName.startsWith("SYS$"))
 			session.globals().table.put(symbolName, s);
-		else
+		else {
 			table.put(symbolName, s);
+			invalidateSlot(symbolName);
+		}
 		return;
 	}
 
@@ -350,7 +403,7 @@ public class SymbolTable {
 
 		Value s = data;
 		if (fStrongTyping) {
-			final Value preExistingValue = table.get(symbolName);
+			final Value preExistingValue = get(symbolName);
 			if (preExistingValue != null) {
 				int targetType = preExistingValue.getType();
 				if( s.getType() != targetType)
@@ -368,8 +421,10 @@ public class SymbolTable {
 			s.fReadonly = true;
 		if (symbolName.startsWith("SYS$"))
 			session.globals().table.put(symbolName, s);
-		else
+		else {
 			table.put(symbolName, s);
+			invalidateSlot(symbolName);
+		}
 
 		return;
 	}
@@ -449,7 +504,7 @@ public class SymbolTable {
 		Value s = data;
 		
 		if (fStrongTyping) {
-			final Value tmp = table.get(name);
+			final Value tmp = get(name);
 			if (tmp != null) {
 				s = data.copy();
 				s.coerce(tmp.getType());
@@ -461,6 +516,7 @@ public class SymbolTable {
 		s.fSymbol = true;
 		s.setName(name);
 		table.put(name, s);
+		invalidateSlot(name);
 
 		return;
 	}
@@ -541,7 +597,7 @@ public class SymbolTable {
 
 
 		Value d;
-		d = table.get(symbolName);
+		d = get(symbolName);
 		if (d != null) {
 			return this; // Found in our symbol table.
 		}
@@ -598,7 +654,7 @@ public class SymbolTable {
 			final boolean checkConnectors) throws JBasicException {
 
 
-		Value d = table.get(symbolName);
+		Value d = get(symbolName);
 		
 		if( d == null ) {
 			if (parentTable != null)
@@ -647,7 +703,7 @@ public class SymbolTable {
 			final boolean checkConnectors) {
 
 
-		Value d = table.get(symbolName);
+		Value d = get(symbolName);
 		
 		if( d == null ) {
 			if (parentTable != null)
@@ -713,7 +769,7 @@ public class SymbolTable {
 			 * Attempts to look up a function in the cache
 			 */
 			if (normalizedName.equals("SYS$$FCACHE_TRIES")) {
-				theValue.setInteger(Functions.functionCacheTries);
+				theValue.setInteger(FunctionCache.getTries());
 				return true;
 			}
 
@@ -722,7 +778,20 @@ public class SymbolTable {
 			 * in the cache.
 			 */
 			if (normalizedName.equals("SYS$$FCACHE_HITS")) {
-				theValue.setInteger(Functions.functionCacheHits);
+				theValue.setInteger(FunctionCache.getHits());
+				return true;
+			}
+
+			/*
+			 * Times statement or expression text was found in the
+			 * compiled statement cache, or had to be compiled.
+			 */
+			if (normalizedName.equals("SYS$$EXEC_CACHE_HITS")) {
+				theValue.setInteger(session.statementCache.getHits());
+				return true;
+			}
+			if (normalizedName.equals("SYS$$EXEC_CACHE_MISSES")) {
+				theValue.setInteger(session.statementCache.getMisses());
 				return true;
 			}
 			/*
@@ -733,6 +802,26 @@ public class SymbolTable {
 				return true;
 			}
 
+			/*
+			 * Number of runtime data stacks created and reused
+			 */
+			if (normalizedName.equals("SYS$$STACKS_ALLOCATED")) {
+				theValue.setInteger(session.stacksAllocated);
+				return true;
+			}
+			if (normalizedName.equals("SYS$$STACKS_REUSED")) {
+				theValue.setInteger(session.stacksReused);
+				return true;
+			}
+
+			/*
+			 * Number of programs compiled by the JIT compiler
+			 */
+			if (normalizedName.equals("SYS$$JIT_COMPILED")) {
+				theValue.setInteger(session.jitCompiled);
+				return true;
+			}
+
 
 			/*
 			 * Number of statements compiled (seen)
@@ -788,7 +877,7 @@ public class SymbolTable {
 		/*
 		 * Try to locate the symbol value by the given name.
 		 */
-		final Value value = table.get(symbolName);
+		final Value value = get(symbolName);
 
 		/*
 		 * If not found and there is a parent table above this one,
@@ -965,6 +1054,7 @@ public class SymbolTable {
 		 * Delete the item. If it wasn't found, then we have a weird internal
 		 * consistency error.
 		 */
+		parentTable.invalidateSlot(vname);
 		if (parentTable.table.remove(vname) == null)
 			return new Status(Status.UNKVAR, vname);
 		return new Status();
@@ -1001,6 +1091,7 @@ public class SymbolTable {
 		 * Delete the item. If it wasn't found, then we have a weird internal
 		 * consistency error.
 		 */
+		parentTable.invalidateSlot(vname);
 		if (parentTable.table.remove(vname) == null)
 			return new Status(Status.UNKVAR, vname);
 		
@@ -1015,7 +1106,197 @@ public class SymbolTable {
 	 *         was not found.
 	 */
 	public Value localReference(final String normalizedName) {
-		return table.get(normalizedName);
+		return get(normalizedName);
+	}
+
+	/**
+	 * Look up a symbol in this table only.  If the table was created for a
+	 * call and the symbol is one of the call variables that hasn't been
+	 * referenced yet, it is created now.
+	 * @param normalizedName the uppercase name of the symbol
+	 * @return the Value, or null if it is not in this table
+	 */
+	private Value get(final String normalizedName) {
+		final Value v = table.get(normalizedName);
+		if (v != null || callInfo == null)
+			return v;
+		return defineCallVariable(normalizedName);
+	}
+
+	/**
+	 * Create one of the call variables in this table from the call
+	 * information, if it isn't already there.
+	 * @param normalizedName the uppercase name of the variable
+	 * @return the Value stored in the table, or null if the name is not a
+	 * call variable.
+	 */
+	private Value defineCallVariable(final String normalizedName) {
+		final Value v = callInfo.value(normalizedName);
+		if (v == null)
+			return null;
+		final Value existing = table.get(normalizedName);
+		if (existing != null)
+			return existing;
+		v.fReadonly = true;
+		v.fSymbol = true;
+		v.setName(normalizedName);
+		table.put(normalizedName, v);
+		invalidateSlot(normalizedName);
+		return v;
+	}
+
+	/**
+	 * Attach the information about a call to this table.  The call 
+	 * variables are created from it as they are referenced.  Any call 
+	 * variables already in the table from an earlier call are removed.
+	 * @param info the information about the call
+	 */
+	public void setCallInfo(final CallInfo info) {
+		for (int ix = 0; ix < CallInfo.NAMES.length; ix++)
+			if (table.remove(CallInfo.NAMES[ix]) != null)
+				invalidateSlot(CallInfo.NAMES[ix]);
+		callInfo = info;
+	}
+
+	/**
+	 * Get the argument array of the call that created this table, without
+	 * creating the $ARGS variable if it hasn't been referenced yet.
+	 * @return the argument array, or null if the table wasn't created for
+	 * a call or $ARGS is already in the table.
+	 */
+	public Value getCallArguments() {
+		if (callInfo == null || table.containsKey("$ARGS"))
+			return null;
+		return callInfo.arguments;
+	}
+
+	/**
+	 * Create all the call variables that haven't been referenced yet.  This
+	 * is done before anything that looks at every symbol in the table, such
+	 * as a SHOW SYMBOLS command.
+	 */
+	public void defineCallVariables() {
+		if (callInfo == null)
+			return;
+		for (int ix = 0; ix < CallInfo.NAMES.length; ix++)
+			defineCallVariable(CallInfo.NAMES[ix]);
+		callInfo = null;
+	}
+
+	/**
+	 * Locate a variable in the local table using its slot number from a
+	 * linked program.  The first lookup of each slot is done by name, and 
+	 * the result is remembered in the slot array so later lookups don't 
+	 * need the HashMap.  If the table was last used by a program with a 
+	 * different slot layout, the slot array is reset for the new layout.
+	 * <p>
+	 * The ROOT table is shared between threads, so it never caches slots.
+	 * 
+	 * @param layout the slot layout of the program doing the lookup
+	 * @param slot the slot number of the variable in that layout
+	 * @param normalizedName the name of the variable, in uppercase
+	 * @return the Value from the local table, or null if the variable is
+	 * not defined in this table.
+	 */
+	public Value localSlot(final SlotLayout layout, final int slot,
+			final String normalizedName) {
+
+		if (fRootTable)
+			return table.get(normalizedName);
+
+		if (slotLayout != layout) {
+			slotLayout = layout;
+			slots = new Value[layout.size()];
+		}
+
+		Value v = slots[slot];
+		if (v == null) {
+			v = get(normalizedName);
+			slots[slot] = (v == null) ? NOT_LOCAL : v;
+			return v;
+		}
+		if (v == NOT_LOCAL)
+			return null;
+		return v;
+	}
+
+	/**
+	 * Get a reference to a variable using its slot number from a linked
+	 * program.  If the variable is not in the local table, the usual search
+	 * of the parent tables is done by name.
+	 * 
+	 * @param layout the slot layout of the program doing the lookup
+	 * @param slot the slot number of the variable in that layout
+	 * @param normalizedName the name of the variable, in uppercase
+	 * @return the Value object reference from the symbol table.
+	 * @throws JBasicException if the variable is unknown
+	 */
+	public Value slotReference(final SlotLayout layout, final int slot,
+			final String normalizedName) throws JBasicException {
+
+		final Value v = localSlot(layout, slot, normalizedName);
+		if (v != null)
+			return v;
+		if (parentTable != null)
+			return parentTable.reference(normalizedName);
+		return reference(normalizedName);
+	}
+
+	/**
+	 * Store a value in a variable using its slot number from a linked 
+	 * program.  When the variable already exists in the local table, the
+	 * read-only and strong typing checks can be made against the Value in
+	 * the slot without searching the parent tables.  Otherwise, this is the
+	 * same as insert().
+	 * 
+	 * @param layout the slot layout of the program doing the store
+	 * @param slot the slot number of the variable in that layout
+	 * @param symbolName the name of the variable, in uppercase
+	 * @param data the Value to store
+	 * @throws JBasicException if the variable is READONLY or strong data
+	 * typing would result in an illegal type conversion.
+	 */
+	public void insertSlot(final SlotLayout layout, final int slot,
+			final String symbolName, final Value data) throws JBasicException {
+
+		final Value existing = localSlot(layout, slot, symbolName);
+		if (existing == null || fRootTable) {
+			if (fRootTable)
+				insertSynchronized(symbolName, data);
+			else
+				insert(symbolName, data);
+			return;
+		}
+
+		if (existing.fReadonly)
+			throw new JBasicException(Status.READONLY, symbolName);
+
+		if (fStrongTyping && data.getType() != existing.getType())
+			throw new JBasicException(Status.IMPCVT, Value.typeToName(existing.getType()));
+
+		if (this.fDefaultToReadOnly)
+			data.fReadonly = true;
+
+		markSymbol(data);
+		data.setName(symbolName);
+		if (symbolName.charAt(0) == '$')
+			data.fReadonly = true;
+
+		table.put(symbolName, data);
+		slots[slot] = data;
+	}
+
+	/**
+	 * Forget the cached slot reference for a variable, because it has been
+	 * added, replaced, or removed by name.
+	 * @param normalizedName the uppercase name of the variable
+	 */
+	private void invalidateSlot(final String normalizedName) {
+		if (slots == null)
+			return;
+		final int slot = slotLayout.getSlot(normalizedName);
+		if (slot >= 0)
+			slots[slot] = null;
 	}
 
 	/**
@@ -1100,6 +1381,7 @@ public class SymbolTable {
 			return new Status();
 		
 		outputSession.stdout.println("Table: " + this.name);
+		defineCallVariables();
 
 		/*
 		 * If this is the global table, then we first need to update the
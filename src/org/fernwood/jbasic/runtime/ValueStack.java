@@ -0,0 +1,126 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.runtime;
+
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * The runtime data stack used by a ByteCode stream to evaluate expressions.
+ * This is a simple array of Value references with a top-of-stack index, so
+ * pushing and popping never does more than an array store.  The array grows
+ * by doubling if a stream needs more room than the initial size.
+ * <p>
+ * Stacks are reused rather than created for each run of a ByteCode.  An
+ * ExecutionFrame gets its stack from the session's pool the first time it
+ * is run, keeps it for any later runs, and gives it back to the pool when
+ * it is released (see JBasic.allocateStack() and JBasic.releaseStack()).
+ *
+ * @author cole
+ */
+public class ValueStack {
+
+	/**
+	 * The stack elements.  Only the first <code>top</code> entries are
+	 * in use; the rest are always null so they don't hold on to Values.
+	 */
+	private Value[] elements;
+
+	/**
+	 * The number of items on the stack.
+	 */
+	private int top;
+
+	/**
+	 * Create a new empty stack.
+	 * @param initialSize the number of elements to allocate room for.
+	 */
+	public ValueStack(final int initialSize) {
+		elements = new Value[initialSize < 1 ? 1 : initialSize];
+		top = 0;
+	}
+
+	/**
+	 * Return the number of items on the stack.
+	 * @return the stack depth
+	 */
+	public int size() {
+		return top;
+	}
+
+	/**
+	 * Get an item from the stack by its 0-based position from the bottom.
+	 * @param ix the position in the stack
+	 * @return the Value at that position
+	 */
+	public Value get(final int ix) {
+		if (ix < 0 || ix >= top)
+			throw new IndexOutOfBoundsException("stack index " + ix);
+		return elements[ix];
+	}
+
+	/**
+	 * Replace an item on the stack by its 0-based position from the bottom.
+	 * @param ix the position in the stack
+	 * @param v the new Value for that position
+	 */
+	public void set(final int ix, final Value v) {
+		if (ix < 0 || ix >= top)
+			throw new IndexOutOfBoundsException("stack index " + ix);
+		elements[ix] = v;
+	}
+
+	/**
+	 * Push a Value on the top of the stack.
+	 * @param v the Value to push
+	 */
+	public void push(final Value v) {
+		if (top == elements.length) {
+			final Value[] newElements = new Value[top * 2];
+			System.arraycopy(elements, 0, newElements, 0, top);
+			elements = newElements;
+		}
+		elements[top++] = v;
+	}
+
+	/**
+	 * Remove and return the top item of the stack.  The caller must have
+	 * already made sure the stack is not empty.
+	 * @return the top Value
+	 */
+	public Value pop() {
+		final Value v = elements[--top];
+		elements[top] = null;
+		return v;
+	}
+
+	/**
+	 * Remove items from the top of the stack without returning them.
+	 * @param count the number of items to remove
+	 */
+	public void discard(final int count) {
+		final int newTop = (count > top) ? 0 : top - count;
+		for (int ix = newTop; ix < top; ix++)
+			elements[ix] = null;
+		top = newTop;
+	}
+
+	/**
+	 * Remove all items from the stack.
+	 */
+	public void clear() {
+		discard(top);
+	}
+}
@@ -51,7 +51,7 @@ class DeleteStatement extends Statement {
 
 		if( program != null )
 			if( program.getExecutable() != null)
-				if( program.getExecutable().fRunning & program.getExecutable().debugger != null )
+				if( program.isDebugging() )
 					return new Status(Status.INVDBGOP);
 
 		int startLine = 0;
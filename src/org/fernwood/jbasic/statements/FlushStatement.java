@@ -0,0 +1,48 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ * 
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ * 
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ * 
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.statements;
+
+import org.fernwood.jbasic.Status;
+import org.fernwood.jbasic.compiler.FileParse;
+import org.fernwood.jbasic.compiler.Tokenizer;
+import org.fernwood.jbasic.runtime.ByteCode;
+
+/**
+ * The FLUSH statement. This writes any output that an OUTPUT file opened
+ * with a BUFFERED or SYNC clause is holding in its buffer.
+ * <p>
+ * <code>
+ * FLUSH FILE <em>identifier</em>
+ * </code>
+ * <p>
+ * 
+ * @author cole
+ * 
+ */
+class FlushStatement extends Statement {
+
+	public Status compile(final Tokenizer tokens) {
+		byteCode = new ByteCode(session, this);
+
+		final FileParse f = new FileParse(tokens, true);
+		if (!f.success())
+			return new Status(Status.EXPFID);
+
+		f.generate(byteCode);
+		byteCode.add(ByteCode._FLUSH, 0);
+		return new Status();
+	}
+}
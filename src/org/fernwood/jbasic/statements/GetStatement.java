@@ -21,6 +21,7 @@ import org.fernwood.jbasic.compiler.FileParse;
 import org.fernwood.jbasic.compiler.LValue;
 import org.fernwood.jbasic.compiler.Tokenizer;
 import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.value.Value;
 
 /**
  * Input a line of text into a single variable. The syntax is:
@@ -36,6 +37,11 @@ import org.fernwood.jbasic.runtime.ByteCode;
  * variable. The datum is stored in the named variable, which is created if
  * needed, and always set to the given <em>type</em>.
  * <p>
+ * The <em>type</em> can also be <code>VALUE</code>, which reads a complete
+ * value of any type, including an ARRAY, RECORD, or TABLE, that was written
+ * with PUT...VALUE.  In a DATA file every field is read as a complete value,
+ * whatever type is given.
+ * <p>
  * An alternate approach is to create an array of records, where each record
  * describes a field in the input. This must have the following fields:
  * <p>
@@ -56,6 +62,14 @@ import org.fernwood.jbasic.runtime.ByteCode;
  *GET [FILE] <em>identifier</em>, USING <em>record-array</em>
  *<code>
  *<p>
+ * Many records of a BINARY file can be read into a TABLE at once with the
+ * ARRAY clause, when every field in the record definition has a fixed size.
+ * Each record is a row of the TABLE.
+ * <p>
+ * <code>
+ *GET [FILE] <em>identifier</em>, ARRAY <em>count</em> RECORDS INTO <em>table</em> USING <em>record-array</em>
+ *<code>
+ *<p>
  * 
  * @author tom
  * @version version 1.0 May 27, 2006
@@ -127,6 +141,9 @@ class GetStatement extends Statement {
 		 */
 		int mode = 0;
 		
+		if (tokens.assumeNextToken("ARRAY"))
+			return compileArray(tokens);
+
 		if( tokens.endOfStatement()) {
 			mode = 4;
 		}
@@ -209,7 +226,8 @@ class GetStatement extends Statement {
 						}
 			
 					} else if (!dataType.equals("BOOLEAN")
-							& !dataType.equals("DOUBLE"))
+							& !dataType.equals("DOUBLE")
+							& !dataType.equals("VALUE"))
 						return new Status(Status.INVRECDEF, dataType);
 
 					final String varName = tokens.nextToken();
@@ -257,4 +275,60 @@ class GetStatement extends Statement {
 		return new Status();
 	}
 
+	/**
+	 * Compile the GET...ARRAY form of the statement, which reads many
+	 * records from a BINARY file or rows from a DATABASE file into a TABLE.
+	 * The ARRAY keyword has already been parsed, and the file identifier is
+	 * on the stack.
+	 * <p>
+	 * <code>
+	 * GET [FILE] <em>identifier</em>, ARRAY <em>count</em> RECORDS INTO <em>table</em> [USING <em>record-array</em>]
+	 * </code>
+	 * <p>
+	 * The USING clause can only be omitted for a DATABASE file, in which case
+	 * the TABLE has a column for each column of the result set.
+	 * 
+	 * @param tokens the token buffer being processed
+	 * @return a Status value that indicates if the compilation was successful
+	 */
+	private Status compileArray(final Tokenizer tokens) {
+
+		final Expression exp = new Expression(session);
+
+		/*
+		 * The count is needed on top of the stack, after the record
+		 * definition, so compile it separately.
+		 */
+		final ByteCode count = new ByteCode(session);
+		exp.compile(count, tokens);
+		if (exp.status.failed())
+			return exp.status;
+		count.add(ByteCode._CVT, Value.INTEGER);
+
+		if (!tokens.assumeNextToken(new String[] { "RECORDS", "RECORD" }))
+			return new Status(Status.EXPCLAUSE, "RECORDS");
+
+		if (!tokens.assumeNextToken("INTO"))
+			return new Status(Status.EXPCLAUSE, "INTO");
+		final int mark = tokens.getPosition();
+		final LValue destination = new LValue(session, strongTyping());
+		destination.compileLValue(byteCode, tokens);
+		if (destination.error) {
+			tokens.setPosition(mark);
+			return new Status(Status.FILESYNTAX, new Status(Status.EXPCLAUSE, "INTO"));
+		}
+
+		int mode = 6;
+		if (tokens.assumeNextToken("USING")) {
+			exp.compile(byteCode, tokens);
+			if (exp.status.failed())
+				return exp.status;
+			mode = 5;
+		}
+
+		byteCode.concat(count);
+		byteCode.add(ByteCode._GET, mode);
+		destination.compileStore();
+		return new Status();
+	}
 }
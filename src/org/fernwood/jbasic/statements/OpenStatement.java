@@ -21,6 +21,7 @@ import org.fernwood.jbasic.compiler.FileParse;
 import org.fernwood.jbasic.compiler.Tokenizer;
 import org.fernwood.jbasic.opcodes.OpCLEAR;
 import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.JBFOutput;
 import org.fernwood.jbasic.runtime.JBasicFile;
 import org.fernwood.jbasic.runtime.SymbolTable;
 import org.fernwood.jbasic.value.Value;
@@ -113,6 +114,8 @@ class OpenStatement extends Statement {
 		boolean hasUserInfo = false;
 		boolean hasQuery = false;
 		boolean indirect = false;
+		int syncMode = 0;
+		boolean mapped = false;
 		
 
 		/*
@@ -197,6 +200,7 @@ class OpenStatement extends Statement {
 		ByteCode width = null;
 		ByteCode columns = null;
 		ByteCode filename = null;
+		ByteCode syncInterval = null;
 
 		while (true) {
 
@@ -270,6 +274,44 @@ class OpenStatement extends Statement {
 
 			} 
 			
+			else if (next.equals("BUFFERED")) {
+				if( syncMode != 0 )
+					return new Status(Status.DUPCLAUSE, "BUFFERED");
+				syncMode = JBFOutput.SYNC_BUFFERED;
+			}
+			
+			else if (next.equals("MAPPED")) {
+				if( mapped )
+					return new Status(Status.DUPCLAUSE, "MAPPED");
+				byteCode.add(ByteCode._BOOL, 1);
+				byteCode.add(ByteCode._STOR, "__MAPPED");
+				mapped = true;
+			}
+			
+			else if (next.equals("SYNC")) {
+
+				if( syncMode != 0 )
+					return new Status(Status.DUPCLAUSE, "SYNC");
+				/*
+				 * Parse SYNC EVERY count LINES or SYNC EVERY count MS
+				 * 
+				 * where count is the number of lines or milliseconds between
+				 * writes of the buffered output to the file.
+				 */
+				if (!tokens.assumeNextToken("EVERY"))
+					return new Status(Status.EXPCLAUSE, "EVERY");
+				syncInterval = new ByteCode(session);
+				exp.compile(syncInterval, tokens);
+				if (exp.status.failed())
+					return exp.status;
+				if (tokens.assumeNextToken(new String[] { "LINES", "LINE" }))
+					syncMode = JBFOutput.SYNC_LINES;
+				else if (tokens.assumeNextToken(new String[] { "MS", "MILLISECONDS" }))
+					syncMode = JBFOutput.SYNC_TIME;
+				else
+					return new Status(Status.EXPCLAUSE, "LINES or MS");
+			}
+			
 			else if (next.equals("AS")) {
 				if( varname != null )
 					return new Status(Status.DUPCLAUSE, "AS");
@@ -310,6 +352,8 @@ class OpenStatement extends Statement {
 				mode = JBasicFile.MODE_QUEUE;
 			else if (next.equals("BINARY"))
 				mode = JBasicFile.MODE_BINARY;
+			else if (next.equals("DATA"))
+				mode = JBasicFile.MODE_DATA;
 			else if (next.equals("PIPE"))
 				mode = JBasicFile.MODE_PIPE;
 			else if(( next.equals("CLIENT") || next.equals("SERVER")) && 
@@ -337,6 +381,8 @@ class OpenStatement extends Statement {
 					mode = JBasicFile.MODE_APPEND;
 				else if (kind.equals("BINARY"))
 					mode = JBasicFile.MODE_BINARY;
+				else if (kind.equals("DATA"))
+					mode = JBasicFile.MODE_DATA;
 				else if (kind.equals("PIPE"))
 					mode = JBasicFile.MODE_PIPE;
 				else if (kind.equals("DATABASE"))
@@ -391,6 +437,15 @@ class OpenStatement extends Statement {
 				& (mode != JBasicFile.MODE_APPEND))
 			return new Status(Status.FILECOL);
 
+		if ((syncMode != 0) & (mode != JBasicFile.MODE_OUTPUT)
+				& (mode != JBasicFile.MODE_APPEND))
+			return new Status(Status.FILESYNTAX,
+					"BUFFERED or SYNC only valid on OUTPUT files");
+
+		if (mapped & (mode != JBasicFile.MODE_BINARY))
+			return new Status(Status.FILESYNTAX,
+					"MAPPED only valid on BINARY files");
+
 		if (varname == null)
 			return new Status(Status.EXPCLAUSE, "AS file-identifier");
 
@@ -425,6 +480,21 @@ class OpenStatement extends Statement {
 			byteCode.add(ByteCode._COLUMN, varname);
 		}
 
+		/*
+		 * If there was a BUFFERED or SYNC clause, set how often output is
+		 * written to the file.
+		 */
+		if (syncMode != 0) {
+			if (syncInterval == null)
+				byteCode.add(ByteCode._INTEGER, 0);
+			else {
+				byteCode.concat(syncInterval);
+				byteCode.add(ByteCode._CVT, Value.INTEGER);
+			}
+			byteCode.add(ByteCode._LOADFREF, indirect ? 1 : 0, varname);
+			byteCode.add(ByteCode._FLUSH, syncMode);
+		}
+
 		/*
 		 * If there was a username or password then it was passed via these
 		 * reserved variable names, which we can now clear away again.
@@ -434,6 +504,12 @@ class OpenStatement extends Statement {
 			byteCode.add(ByteCode._CLEAR, OpCLEAR.CLEAR_SYMBOL_ALWAYS, "__PASSWORD");
 		}
 
+		/*
+		 * If the file was memory-mapped, the option was passed the same way.
+		 */
+		if (mapped)
+			byteCode.add(ByteCode._CLEAR, OpCLEAR.CLEAR_SYMBOL_ALWAYS, "__MAPPED");
+
 		/*
 		 * If there was a query expression, time to generate a PRINT operation
 		 * to the file of the given expression.
@@ -37,6 +37,11 @@ import org.fernwood.jbasic.runtime.ByteCode;
  * variable. The datum is stored in the named variable, which is created if
  * needed, and always set to the given <em>type</em>.
  * <p>
+ * The <em>type</em> can also be <code>VALUE</code>, which writes a complete
+ * value of any type, including an ARRAY, RECORD, or TABLE, so it can be read
+ * back with GET...VALUE.  In a DATA file every field is written as a complete
+ * value, whatever type is given.
+ * <p>
  * An alternate approach is to create an array of records, where each record
  * describes a field in the input. This must have the following fields:
  * <p>
@@ -57,6 +62,24 @@ import org.fernwood.jbasic.runtime.ByteCode;
  *PUT FILE <em>identifier</em>, USING <em>record-array</em>
  *<code>
  *<p>
+ * The values can also be taken from the members of a record given in a
+ * FROM clause.  If the FROM value is a TABLE and the file is a BINARY file,
+ * each row of the TABLE is written as a record, all in a single write.
+ * Every field in the record definition must have a fixed size.
+ * <p>
+ * <code>
+ *PUT FILE <em>identifier</em> FROM <em>table</em> USING <em>record-array</em>
+ *<code>
+ *<p>
+ * For a DATABASE file, the USING clause gives the text of a SQL statement,
+ * and the FROM clause gives the values of its ? parameters as an ARRAY.  If
+ * the FROM value is a TABLE, the statement is executed for each row, and the
+ * rows are sent to the database in batches.
+ * <p>
+ * <code>
+ *PUT FILE <em>identifier</em>, USING <em>sql</em>, FROM <em>parameters</em>
+ *<code>
+ *<p>
  * 
  * @author tom
  * @version version 1.0 May 27, 2006
@@ -121,9 +144,28 @@ class PutStatement extends Statement {
 		if( tokens.endOfStatement()) {
 			hasFROM = 4;
 		} else  {
-			if (!tokens.assumeNextToken(new String [] { ";", ","}))
+			if (!tokens.assumeNextToken(new String [] { ";", ","})
+					&& !tokens.testNextToken("FROM"))
 				return new Status(Status.FILECOMMA);
-			if (tokens.assumeNextToken("USING")) {
+			if (tokens.assumeNextToken("FROM")) {
+
+				/*
+				 * The FROM value can come before the USING clause, but it is
+				 * needed on top of the stack, after the record definition.
+				 */
+				final ByteCode source = new ByteCode(session);
+				exp.compile(source, tokens);
+				if (exp.status.failed())
+					return exp.status;
+				tokens.assumeNextSpecial(",");
+				if (!tokens.assumeNextToken("USING"))
+					return new Status(Status.EXPCLAUSE, "USING");
+				exp.compile(byteCode, tokens);
+				if (exp.status.failed())
+					return exp.status;
+				byteCode.concat(source);
+				hasFROM = 1;
+			} else if (tokens.assumeNextToken("USING")) {
 
 				exp.compile(byteCode, tokens);
 				if (exp.status.failed())
@@ -208,7 +250,8 @@ class PutStatement extends Statement {
 							}
 
 						} else if (!dataType.equals("BOOLEAN")
-								& !dataType.equals("DOUBLE"))
+								& !dataType.equals("DOUBLE")
+								& !dataType.equals("VALUE"))
 							return new Status(Status.INVRECDEF, dataType);
 
 					exp.compile(byteCode, tokens);
@@ -37,6 +37,8 @@ class SaveStatement extends Statement {
 	 * <p>
 	 * <code> SAVE WORKSPACE [<em>"filename"]</em></code>
 	 * <p>
+	 * <code> SAVE BINARY <em>"filename"</em></code>
+	 * <p>
 	 * <br>
 	 * 
 	 * @param tokenStream
@@ -210,6 +212,25 @@ class SaveStatement extends Statement {
 			return new Status();
 		}
 		
+		/*
+		 * Could be SAVE BINARY which saves the current program with its
+		 * compiled code, in the binary format that LOAD recognizes.
+		 */
+		
+		if( tokenStream.assumeNextToken("BINARY")) {
+			tokenStream.assumeNextToken("AS");
+			if (tokenStream.endOfStatement())
+				return status = new Status(Status.EXPFNAME);
+			final Expression expr = new Expression(session);
+			status = expr.compile(byteCode, tokenStream);
+			if (status.failed())
+				return status;
+			byteCode.add(ByteCode._CVT, Value.STRING);
+			byteCode.add(ByteCode._SAVE, 4);
+			byteCode.add(ByteCode._NEEDP, 1 );
+			return status;
+		}
+		
 		/*
 		 * Could be SAVE PROTECTED which is similar to SAVE XML
 		 * but saves the code without the source.
@@ -31,6 +31,13 @@ import org.fernwood.jbasic.runtime.ByteCode;
  * The <em>integer-expression</em> defines where in the file to position the
  * next file pointer.
  * <p>
+ * <code>
+ * SEEK FILE <em>identifier</em>, LINE <em>integer-expression</em>
+ * </code>
+ * <p>
+ * positions a text INPUT file so the next read gets the given line, counting
+ * from 1.
+ * <p>
  * 
  * @author tom
  * @version version 1.0 May 27, 2006
@@ -84,7 +91,9 @@ class SeekStatement extends Statement {
 
 		boolean hasRecord = false;
 		final Expression exp = new Expression(session);
-		if (tokens.assumeNextToken("USING")) {
+		if (tokens.assumeNextToken("LINE"))
+			mode = 2;
+		else if (tokens.assumeNextToken("USING")) {
 			/* Load the record definition on the stack */
 			exp.compile(byteCode, tokens);
 			if (exp.status.failed())
@@ -99,8 +99,14 @@ class SetStatement extends Statement {
 			new SetOption("NOOPTASM",		OPT_SET_FALSE,	"SYS$OPT_ASM"),
 			new SetOption("OPTDEADCODE",	OPT_SET,		"SYS$OPT_DEADCODE"),
 			new SetOption("NOOPTDEADCODE",	OPT_SET_FALSE,	"SYS$OPT_DEADCODE"),
+			new SetOption("OPTSLOTS",		OPT_SET,		"SYS$OPT_SLOTS"),
+			new SetOption("NOOPTSLOTS",		OPT_SET_FALSE,	"SYS$OPT_SLOTS"),
+			new SetOption("OPTINLINE",		OPT_SET,		"SYS$OPT_INLINE"),
+			new SetOption("NOOPTINLINE",	OPT_SET_FALSE,	"SYS$OPT_INLINE"),
 			new SetOption("OPTLOOPS",       OPT_SET,        "SYS$LOOP_OPT"),
 			new SetOption("NOOPTLOOPS",     OPT_SET_FALSE,  "SYS$LOOP_OPT"),
+			new SetOption("JIT",			OPT_SET,		"SYS$JIT"),
+			new SetOption("NOJIT",			OPT_SET_FALSE,	"SYS$JIT"),
 			new SetOption("OPTSTRUCTS",		OPT_SET,		"SYS$STRUCTURE_POOLING"),
 			new SetOption("NOOPTSTRUCTS",	OPT_SET_FALSE,	"SYS$STRUCTURE_POOLING"),
 			new SetOption("OPTDEBUG",		OPT_SET,		"SYS$DEBUG_OPT"),
@@ -134,8 +140,18 @@ class SetStatement extends Statement {
 			new SetOption("NOSQL",			OPT_SET_FALSE,	"SYS$SQL_COMMANDS"),
 			new SetOption("SQLDISASM",		OPT_SET,		"SYS$SQL_DISASM"),
 			new SetOption("NOSQLDISASM",	OPT_SET_FALSE,	"SYS$SQL_DISASM"),
+			new SetOption("SQLEXPLAIN",		OPT_SET,		"SYS$SQL_EXPLAIN"),
+			new SetOption("NOSQLEXPLAIN",	OPT_SET_FALSE,	"SYS$SQL_EXPLAIN"),
 			new SetOption("SQLOPT",			OPT_SET,		"SYS$SQL_OPT"),
 			new SetOption("NOSQLOPT",		OPT_SET_FALSE,	"SYS$SQL_OPT"),
+			new SetOption("COMPILECACHE",	OPT_SET,		"SYS$COMPILE_CACHE"),
+			new SetOption("NOCOMPILECACHE",	OPT_SET_FALSE,	"SYS$COMPILE_CACHE"),
+			new SetOption("COMPILECACHEPATH", OPT_SET_VALUE, "SYS$COMPILE_CACHE_PATH", "string"),
+			new SetOption("INLINESIZE",		OPT_SET_VALUE,	"SYS$OPT_INLINE_SIZE", "integer"),
+			new SetOption("JITTHRESHOLD",	OPT_SET_VALUE,	"SYS$JIT_THRESHOLD", "integer"),
+			new SetOption("DBSTATEMENTCACHE", OPT_SET_VALUE, "SYS$DB_STATEMENT_CACHE", "integer"),
+			new SetOption("DBFETCHSIZE",	OPT_SET_VALUE,	"SYS$DB_FETCH_SIZE", "integer"),
+			new SetOption("DBBATCHSIZE",	OPT_SET_VALUE,	"SYS$DB_BATCH_SIZE", "integer"),
 			new SetOption("LANGUAGE",		OPT_SET_VALUE,	"SYS$LANGUAGE", 	"string"),
 			new SetOption("PACKAGE",		OPT_SET_PACK, 	JBasic.PACKAGES),
 			new SetOption("NOPACKAGE",		OPT_CLR_PACK, 	JBasic.PACKAGES),
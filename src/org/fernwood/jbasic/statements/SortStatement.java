@@ -243,7 +243,7 @@ public class SortStatement extends Statement {
 		for( int ix = 1; ix <= keyArray.size(); ix++ ) {
 			Value row = keyArray.getElement(ix);
 			int oldPosition = row.getElement(keyCount+1).getInteger();
-			Value oldRow = v.getElement(oldPosition);
+			Value oldRow = v.rowRecord(oldPosition);
 			newTable.addElement(oldRow);
 		}
 		
@@ -254,7 +254,7 @@ public class SortStatement extends Statement {
 		
 		v.empty();
 		for( int ix = 1;  ix <= newTable.size(); ix++ ) 
-			v.addElement(newTable.getElement(ix));
+			v.addElement(newTable.rowRecord(ix));
 		
 		return new Status();
 	}
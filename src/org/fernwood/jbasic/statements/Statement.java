@@ -29,6 +29,7 @@ import org.fernwood.jbasic.compiler.Optimizer;
 import org.fernwood.jbasic.compiler.ReservedWords;
 import org.fernwood.jbasic.compiler.Tokenizer;
 import org.fernwood.jbasic.runtime.ByteCode;
+import org.fernwood.jbasic.runtime.ExecutionFrame;
 import org.fernwood.jbasic.runtime.JBasicDebugger;
 import org.fernwood.jbasic.runtime.JBasicException;
 import org.fernwood.jbasic.runtime.SymbolTable;
@@ -302,6 +303,39 @@ public class Statement {
 		return newStatement;
 	}
 
+	/**
+	 * Make a compiled copy of this statement for a program in another session.
+	 * Unlike copy(), the bytecode is copied rather than shared, so the two
+	 * statements can be linked independently.  The statement object used for
+	 * interpreted execution is not copied; it is created again if needed.
+	 *
+	 * @param newSession
+	 *            The session that owns the copy, or null if the copy is not
+	 *            owned by a session.
+	 * @param newProgram
+	 *            The program that will contain the copy.
+	 * @return A new copy of the current object.
+	 */
+	public Statement copy(final JBasic newSession, final Program newProgram) {
+		final Statement newStatement = new Statement(newSession);
+		if (byteCode != null)
+			newStatement.byteCode = byteCode.copy(newSession, newStatement);
+		newStatement.statementText = statementText;
+		newStatement.fDeclaration = fDeclaration;
+		newStatement.fEmptyStatement = fEmptyStatement;
+		newStatement.lineNumber = lineNumber;
+		newStatement.program = newProgram;
+		newStatement.statementID = statementID;
+		newStatement.statementLabel = statementLabel;
+		newStatement.declarationName = declarationName;
+		newStatement.status = status;
+		if (lineNumberPosCount > 0)
+			newStatement.copyLinePositions(this, 0);
+		newStatement.indent = indent;
+
+		return newStatement;
+	}
+
 	/**
 	 * Make appropriate mixed-case string of verbs. Given a string, ensure it is
 	 * of the form Mixed Case and return the result.
@@ -1174,69 +1208,11 @@ public class Statement {
 		}
 
 		/*
-		 * We might have contributing packages that all have an interest in
-		 * adding verbs. So we first try our own, but if that doesn't work out,
-		 * then we try the list of contributed packages.
-		 */
-		String aClass = "org.fernwood.jbasic.statements." + verb + "Statement";
-		Class c = null;
-		try {
-			c = Class.forName(aClass);
-		} catch (final Exception e) {
-			c = null;
-		}
-
-		boolean failed = (c == null);
-
-		if (failed) {
-
-			Value packageList;
-			try {
-				packageList = symbols.reference(JBasic.PACKAGES);
-			} catch (JBasicException e1) {
-				packageList = null;
-			}
-
-			if (packageList != null) {
-
-				int n = 0;
-
-				/*
-				 * It should never be possible for SYS$PACKAGES to be other than
-				 * an array, but just in case someone screwed with the system
-				 * variables, let's trap for that case here.
-				 */
-				if (packageList.isType(Value.ARRAY)) {
-					n = packageList.size();
-				}
-
-				/*
-				 * Scan over each member of the SYS$PACKAGES array, and try out
-				 * those package names to locate a workable statement class.
-				 */
-				for (int i = 1; i <= n; i++) {
-					final String item = packageList.getString(i);
-
-					aClass = item + "." + verb + "Statement";
-					try {
-						c = Class.forName(aClass);
-						JBasic.log.debug("Foreign package invocation of " + aClass);
-						failed = false;
-						break;
-					} catch (final Exception e) {
-						c = null;
-					}
-
-				}
-			}
-
-		}
-
-		/*
-		 * At this point we found a class, then let's try to see if we can
-		 * invoke it via reflection mechanisms. Class c identifies what we are
-		 * trying to invoke.
+		 * Find the class for the verb, which may be in the statements package
+		 * or in one of the contributed packages.
 		 */
+		final StatementRegistry.Entry entry = StatementRegistry.find(session, verb);
+		boolean failed = (entry == null);
 
 		if (!failed) {
 			/*
@@ -1244,13 +1220,8 @@ public class Statement {
 			 * class
 			 */
 
-			//final String aMethod = "run";
-
 			try {
-				// Class c = Class.forName(aClass);
-				//final Method m = c.getDeclaredMethod(aMethod, new Class[] {
-				//		Tokenizer.class, SymbolTable.class });
-				statementObject =  (Statement) c.newInstance();
+				statementObject = entry.newStatement();
 				
 				/*
 				 * Because the dynamic execution requires the creation of a new
@@ -1516,8 +1487,13 @@ public class Statement {
 			fDeclaration = true;
 		}
 
-		Class c = findStatementClass(session, verb);		
-		boolean failed = (c == null);
+		/*
+		 * A statement class that doesn't have its own compile() method can
+		 * only be interpreted, so it is handled the same as a verb with no
+		 * class at all.
+		 */
+		final StatementRegistry.Entry entry = StatementRegistry.find(session, verb);
+		boolean failed = (entry == null || entry.compiler == null);
 		
 		if (!failed) {
 
@@ -1526,19 +1502,13 @@ public class Statement {
 			 * class
 			 */
 
-			final String aMethod = "compile";
 			boolean fOptimize = true;
 			if( session != null )
 				fOptimize = session.getBoolean("SYS$OPTIMIZE");
 			
 			try {
-				// Class c = Class.forName(aClass);
-				Method m = null;
-				if( c != null ) {
-					m = c.getDeclaredMethod(aMethod,
-						new Class[] { Tokenizer.class });
-					statementObject = (Statement)  c.newInstance();
-				}
+				final Method m = entry.compiler;
+				statementObject = entry.newStatement();
 
 				/*
 				 * Because the dynamic execution requires the creation of a new
@@ -1656,60 +1626,16 @@ public class Statement {
 	/**
 	 * Given a verb name, find the class that implements the statement.  This
 	 * first checks for built-in statements, and then searches any added
-	 * packages that might contain statements.
+	 * packages that might contain statements.  The result is remembered in
+	 * the StatementRegistry, so each verb is only searched for once.
 	 * @param session The session we search for the class
 	 * @param theVerb the name of the verb to search for.
 	 * @return null if there is no class to implement the statement, else a
 	 * Java Class object for the given statement handler.
 	 */
 	public static Class findStatementClass(JBasic session, String theVerb) {
-		/*
-		 * We might have contributing packages that all have an interest in
-		 * adding verbs. So we first try our own, but if that doesn't work out,
-		 * then we try the list of contributed packages.
-		 */
-		
-		String verb = theVerb;
-		
-		String aClass = "org.fernwood.jbasic.statements." + verb + "Statement";
-		Class c = null;
-		try {
-			c = Class.forName(aClass);
-		} catch (final Exception e) {
-			c = null;
-		}
-
-		if (c == null) {
-
-			Value packageList;
-			try {
-				packageList = session.globals().reference(JBasic.PACKAGES);
-			} catch (JBasicException e1) {
-				packageList = null;
-			}
-
-			if (packageList != null) {
-
-				int n = 0;
-
-				if (packageList.getType() == Value.ARRAY) {
-					n = packageList.size();
-				}
-
-				for (int i = 1; i <= n; i++) {
-					final String item = packageList.getString(i);
-
-					aClass = item + "." + verb + "Statement";
-					try {
-						c = Class.forName(aClass);
-						break;
-					} catch (final Exception e) {
-						c = null;
-					}
-				}
-			}
-		}
-		return c;
+		final StatementRegistry.Entry entry = StatementRegistry.find(session, theVerb);
+		return entry == null ? null : entry.statementClass;
 	}
 
 
@@ -1747,13 +1673,9 @@ public class Statement {
 		}
 
 		if (program != null) {
-			ByteCode linkedCode = program.getExecutable();
-			if( linkedCode == null)
-				return null;
-			
-			final JBasicDebugger d = linkedCode.debugger;
-			if (d != null) {
-				return d;
+			final ExecutionFrame frame = ExecutionFrame.find(session.currentFrame, program);
+			if (frame != null && frame.debugger != null) {
+				return frame.debugger;
 			}
 		}
 		return null;
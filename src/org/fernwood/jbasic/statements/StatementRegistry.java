@@ -0,0 +1,192 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.statements;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.fernwood.jbasic.JBasic;
+import org.fernwood.jbasic.compiler.Tokenizer;
+import org.fernwood.jbasic.value.Value;
+
+/**
+ * The registry of statement classes, which remembers the class that
+ * implements each verb so statements can be compiled and run without
+ * searching for the class with reflection each time.
+ * <p>
+ * A verb is resolved by looking for a class named for the verb in the
+ * statements package, and then in each package in the session's
+ * SYS$PACKAGES list.  The result, including the fact that no class exists
+ * for a verb, is the same for every session with the same package list.
+ * So there is one registry shared by all sessions, keyed by the package
+ * list and the verb.  When a session's package list changes its key
+ * changes with it, so entries made for the old list are no longer used.
+ * <p>
+ * Verbs that are not found are usually the names of programs run as
+ * commands, so there could be any number of them; the registry is cleared
+ * if it grows past a fixed size.
+ *
+ * @author cole
+ *
+ */
+final class StatementRegistry {
+
+	/**
+	 * The resolution of one verb.  Entries are immutable so they can be
+	 * shared between threads without locking.
+	 */
+	static final class Entry {
+
+		/**
+		 * The class that implements the verb, or null if there is none.
+		 */
+		final Class<?> statementClass;
+
+		/**
+		 * The constructor used to create an instance of the class.
+		 */
+		final Constructor<?> constructor;
+
+		/**
+		 * The compile() method declared by the class, or null if the
+		 * statement can only be interpreted.
+		 */
+		final Method compiler;
+
+		Entry(final Class<?> c, final Constructor<?> theConstructor,
+				final Method theCompiler) {
+			statementClass = c;
+			constructor = theConstructor;
+			compiler = theCompiler;
+		}
+
+		/**
+		 * Create a new instance of the statement class.
+		 * @return the new statement object
+		 * @throws Exception if the object can't be created
+		 */
+		Statement newStatement() throws Exception {
+			return (Statement) constructor.newInstance();
+		}
+	}
+
+	/**
+	 * The largest number of verbs remembered before the registry is
+	 * cleared.
+	 */
+	private static final int MAXIMUM_SIZE = 2048;
+
+	/**
+	 * The entry stored for a verb that has no statement class.
+	 */
+	private static final Entry NOT_FOUND = new Entry(null, null, null);
+
+	/**
+	 * The verbs resolved by any session, keyed by the package list and the
+	 * verb.
+	 */
+	private static final ConcurrentHashMap<String, Entry> entries =
+		new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * This class is never instantiated.
+	 */
+	private StatementRegistry() {
+	}
+
+	/**
+	 * Find the statement class for a verb.
+	 * @param session the session whose SYS$PACKAGES list is searched, or
+	 * null if only the builtin statements are searched.
+	 * @param verb the verb in the form used in class names, such as "Print"
+	 * @return the entry for the class, or null if there is no class that
+	 * implements the verb.
+	 */
+	static Entry find(final JBasic session, final String verb) {
+
+		final String key = (session == null ? "" : session.functionCache
+				.getPackagePath(session)) + verb;
+		Entry e = entries.get(key);
+		if (e == null) {
+			e = resolve(session, verb);
+			if (entries.size() >= MAXIMUM_SIZE)
+				entries.clear();
+			entries.put(key, e);
+		}
+		return e == NOT_FOUND ? null : e;
+	}
+
+	/**
+	 * Search for the statement class for a verb.
+	 * @return the new entry, which is NOT_FOUND if there is no class
+	 */
+	private static Entry resolve(final JBasic session, final String verb) {
+
+		/*
+		 * We might have contributing packages that all have an interest in
+		 * adding verbs. So we first try our own, but if that doesn't work out,
+		 * then we try the list of contributed packages.
+		 */
+		Class<?> c = forName("org.fernwood.jbasic.statements." + verb + "Statement");
+
+		if (c == null && session != null) {
+			final Value packageList = session.globals().localReference(JBasic.PACKAGES);
+			if (packageList != null && packageList.getType() == Value.ARRAY)
+				for (int i = 1; c == null && i <= packageList.size(); i++) {
+					final String aClass = packageList.getString(i) + "." + verb + "Statement";
+					c = forName(aClass);
+					if (c != null)
+						JBasic.log.debug("Foreign package invocation of " + aClass);
+				}
+		}
+
+		if (c == null || !Statement.class.isAssignableFrom(c))
+			return NOT_FOUND;
+
+		Constructor<?> constructor;
+		try {
+			constructor = c.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (final Exception e) {
+			return NOT_FOUND;
+		}
+
+		Method compiler;
+		try {
+			compiler = c.getDeclaredMethod("compile", Tokenizer.class);
+			compiler.setAccessible(true);
+		} catch (final Exception e) {
+			compiler = null;
+		}
+
+		return new Entry(c, constructor, compiler);
+	}
+
+	/**
+	 * Load a class by name.
+	 * @return the class, or null if there is no such class
+	 */
+	private static Class<?> forName(final String className) {
+		try {
+			return Class.forName(className);
+		} catch (final Exception e) {
+			return null;
+		} catch (final LinkageError e) {
+			return null;
+		}
+	}
+}
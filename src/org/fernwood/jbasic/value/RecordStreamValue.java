@@ -16,6 +16,7 @@
 package org.fernwood.jbasic.value;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -35,6 +36,13 @@ import org.fernwood.jbasic.statements.SortStatement;
  * is an array for the elements of each row. At that point, the constructor will
  * need to validate the incoming array more clearly and also we'll need a convert
  * routine that puts the data back to an array-of-records as needed.
+ * <p>
+ * When every column is declared as INTEGER, DOUBLE, BOOLEAN, or STRING, the
+ * rows are kept in a TableColumns object instead, which stores each column
+ * as an array of the column type.  Rows and cells read from this storage are
+ * created as they are needed.  Anything that needs the rows as an ArrayList
+ * (through getArray()) converts the table to the array-of-rows form first,
+ * and it stays that way from then on.
  * @author Tom Cole
  * @version version 1.1 March, 2009 Added better parameter type checking on methods
  * 
@@ -52,6 +60,26 @@ public class RecordStreamValue extends Value {
 	 * should be changed to an accessor function at some point.
 	 */
 	private boolean dirty;
+
+	/**
+	 * The secondary indexes defined on this table with CREATE INDEX, or
+	 * null if there are none.
+	 */
+	private ArrayList<TableIndex> indexes;
+
+	/**
+	 * Flag set while a row is being added or replaced by this class, which
+	 * updates the indexes itself, so the unshare() that happens along the
+	 * way doesn't discard them.
+	 */
+	private boolean fIndexing;
+
+	/**
+	 * Map of column name to 1-based column number, built the first time
+	 * a column is looked up by name.  The column names never change once
+	 * the table is constructed, so this can be shared by copies.
+	 */
+	private HashMap<String, Integer> columnMap;
 	
 	/**
 	 * Create a RecordStream Value object.  The parameter, if present, must
@@ -119,6 +147,8 @@ public class RecordStreamValue extends Value {
 						columnTypes.add(theType);
 					}
 				}
+				if( TableColumns.supports(columnTypes))
+					value = new TableColumns(columnTypes);
 			}
 			
 			return;
@@ -135,14 +165,17 @@ public class RecordStreamValue extends Value {
 	 * @return the 1-based column number, or zero if no such column was found.
 	 */
 	public int getColumnNumber( String columnName ) {
-		int columnNumber = 0;
 		
-		for( columnNumber = 1; columnNumber <= columnNames.size(); columnNumber++) {
-			String key = columnNames.get(columnNumber-1);
-			if( key.equals(columnName))
-				return columnNumber;
+		if( columnMap == null || columnMap.size() != columnNames.size()) {
+			HashMap<String, Integer> map = new HashMap<String, Integer>(columnNames.size() * 2);
+			for( int idx = 0; idx < columnNames.size(); idx++ )
+				map.put(columnNames.get(idx), Integer.valueOf(idx+1));
+			columnMap = map;
 		}
-		return 0;
+		Integer columnNumber = columnMap.get(columnName);
+		if( columnNumber == null )
+			return 0;
+		return columnNumber.intValue();
 	}
 	
 	/**
@@ -173,15 +206,41 @@ public class RecordStreamValue extends Value {
 	 */
 	public Value getElement( int rowNumber ) {
 		
-		Value row = getArray().get(rowNumber-1);
+		/*
+		 * The caller can change the table through the returned record,
+		 * which the indexes can't track.  That also means the table
+		 * needs real row objects for the record to refer to.
+		 */
+		invalidateIndexes();
+		getArray();
+		return rowRecord(rowNumber);
+	}
+
+	/**
+	 * Build the RECORD view of a row without disturbing the indexes or
+	 * the columnar storage, for use when the record is only going to be
+	 * read.
+	 * @param rowNumber The 1-based row number in the table.
+	 * @return a Value containing a RECORD with all the elements of the row,
+	 * or null if the row number is invalid.
+	 */
+	public Value rowRecord( int rowNumber ) {
+
+		Value row = getElementAsArray(rowNumber);
 		if( row == null )
 			return null;
 
+		/*
+		 * The record is a view of the row, so the members are the actual
+		 * row elements rather than copies; a store into a member of the
+		 * record updates the table.
+		 */
 		Value r = new Value(Value.RECORD, null);
 		for( int idx = 0; idx < columnNames.size(); idx++ ) {
 			String key = columnNames.get(idx);
 			Value element = row.getElement(idx+1);
-			r.setElement(element, key);
+			element.setName(key);
+			r.getRecord().put(key, element);
 		}
 		return r;
 	}
@@ -198,6 +257,7 @@ public class RecordStreamValue extends Value {
 		if( columnNumber < 1 )
 			return new Status(Status.NOSUCHMEMBER, key);
 		
+		invalidateIndexes();
 		return SortStatement.sortArray(this, columnNumber);
 	}
 	/**
@@ -215,8 +275,12 @@ public class RecordStreamValue extends Value {
 	public static Value streamMerge(Value leftArray, int leftIndex, Value rightArray,
 			int rightIndex) {
 		
-		final Value left = leftArray.getElement(leftIndex);
-		final Value right = rightArray.getElement(rightIndex);
+		final Value left = (leftArray instanceof RecordStreamValue) ?
+				((RecordStreamValue) leftArray).rowRecord(leftIndex) : 
+					leftArray.getElement(leftIndex);
+		final Value right = (rightArray instanceof RecordStreamValue) ?
+				((RecordStreamValue) rightArray).rowRecord(rightIndex) : 
+					rightArray.getElement(rightIndex);
 		
 		Value result = left.copy();
 		
@@ -246,9 +310,28 @@ public class RecordStreamValue extends Value {
 		if( position < 1)
 			position = 1;
 		
+		int columnNumber = getColumnNumber(key);
+		if( columnNumber < 1 )
+			return 0;
+
+		/*
+		 * If there is an index on the column, only the rows it finds
+		 * with the same key need to be checked.
+		 */
+		int[] rows = indexLookup(key, TableIndex.EQ, match);
+		if( rows != null ) {
+			for( int row : rows ) {
+				if( row < position )
+					continue;
+				Value member = getCell(row, columnNumber);
+				if( member.match(match))
+					return row;
+			}
+			return 0;
+		}
+
 		for( int idx = position; idx <= count; idx++ ) {
-			Value element = this.getElement(idx);
-			Value member = element.getElement(key);
+			Value member = getCell(idx, columnNumber);
 			if( member.match(match))
 				return idx;
 		}
@@ -269,10 +352,149 @@ public class RecordStreamValue extends Value {
 		
 	}
 	 
+	 /**
+	  * Get a single row from a TABLE as an ARRAY of the row elements, in
+	  * column order.  For a table using columnar storage, this is a new
+	  * ARRAY built from the columns, so changing it does not change the
+	  * table.
+	  * @param i The 1-based row number in the table.
+	  * @return the row array, or null if the row number is invalid.
+	  */
 	 public Value getElementAsArray(int i) {
+		 if( value instanceof TableColumns )
+			 return ((TableColumns) value).getRow(i);
 		 return super.getElement(i);
 
 	 }
+
+	 /**
+	  * Get a single element from a TABLE given the row and column numbers.
+	  * This avoids building the whole row when the table uses columnar
+	  * storage.  The result must only be read.
+	  * @param rowNumber The 1-based row number in the table.
+	  * @param columnNumber The 1-based column number in the table.
+	  * @return the Value of the cell, or null if either position is invalid.
+	  */
+	 public Value getCell(int rowNumber, int columnNumber) {
+		 if( value instanceof TableColumns )
+			 return ((TableColumns) value).get(rowNumber, columnNumber);
+		 Value row = super.getElement(rowNumber);
+		 if( row == null )
+			 return null;
+		 return row.getElement(columnNumber);
+	 }
+
+	 /**
+	  * Get the declared type of a column.
+	  * @param columnNumber The 1-based column number in the table.
+	  * @return the Value type of the column, or Value.UNDEFINED if the
+	  * column has no declared type or doesn't exist.
+	  */
+	 public int getColumnType(int columnNumber) {
+		 if( columnNumber < 1 || columnNumber > columnTypes.size())
+			 return Value.UNDEFINED;
+		 return columnTypes.get(columnNumber-1);
+	 }
+
+	 /**
+	  * Get the contents of a numeric column as an array of doubles, for use
+	  * by operations like aggregate functions that process a whole column
+	  * at once.
+	  * @param columnNumber The 1-based column number in the table.
+	  * @return an array with an element for each row, or null if there is
+	  * a row where the column is not an INTEGER or DOUBLE.
+	  */
+	 public double[] getNumericColumn(int columnNumber) {
+		 if( value instanceof TableColumns )
+			 return ((TableColumns) value).getNumeric(columnNumber);
+		 
+		 double[] result = new double[size()];
+		 for( int ix = 0; ix < result.length; ix++ ) {
+			 Value cell = getCell(ix+1, columnNumber);
+			 if( cell == null || 
+					 (cell.getType() != Value.INTEGER && cell.getType() != Value.DOUBLE))
+				 return null;
+			 result[ix] = cell.getDouble();
+		 }
+		 return result;
+	 }
+
+	 /**
+	  * Get a code for the value of a column in each row, such that two rows
+	  * have the same code if and only if they have the same value in that
+	  * column.  This lets operations like GROUP BY compare ints instead of
+	  * Values.
+	  * @param columnNumber The 1-based column number in the table.
+	  * @return an array with a code for each row
+	  */
+	 public int[] getColumnCodes(int columnNumber) {
+		 if( value instanceof TableColumns )
+			 return ((TableColumns) value).getCodes(columnNumber);
+		 
+		 int[] codes = new int[size()];
+		 HashMap<Object, Integer> map = new HashMap<Object, Integer>();
+		 for( int ix = 0; ix < codes.length; ix++ ) {
+			 Value cell = getCell(ix+1, columnNumber);
+			 Object key = TableIndex.key(cell);
+			 if( key == null )
+				 key = Value.toString(cell, true);
+			 Integer code = map.get(key);
+			 if( code == null ) {
+				 code = Integer.valueOf(map.size());
+				 map.put(key, code);
+			 }
+			 codes[ix] = code.intValue();
+		 }
+		 return codes;
+	 }
+
+	 /**
+	  * Get the number of rows in the table.
+	  * @return the row count
+	  */
+	 public int size() {
+		 if( value instanceof TableColumns )
+			 return ((TableColumns) value).size();
+		 return super.size();
+	 }
+
+	 /**
+	  * Get the rows of the table as an ArrayList of row arrays.  If the
+	  * table is using columnar storage, it is converted to the ArrayList
+	  * form first and keeps that form from then on, since the caller may
+	  * change the rows directly.
+	  * @return the ArrayList of rows
+	  */
+	 protected ArrayList<Value> getArray() {
+		 if( value instanceof TableColumns ) {
+			 TableColumns columns = (TableColumns) value;
+			 ArrayList<Value> rows = new ArrayList<Value>(columns.size());
+			 for( int ix = 1; ix <= columns.size(); ix++ )
+				 rows.add(adopt(columns.getRow(ix)));
+			 release();
+			 value = rows;
+		 }
+		 return super.getArray();
+	 }
+
+	 /**
+	  * Store a row array that already has the right size and column types
+	  * in the table.  If the table uses columnar storage and the row can't
+	  * be stored there exactly as it is, the table is converted to the
+	  * array-of-rows form first.
+	  * @param row the row array
+	  * @param rowNumber the 1-based row number
+	  */
+	 private void putRow(Value row, int rowNumber) {
+		 if( value instanceof TableColumns && !fReadonly ) {
+			 super.unshare();
+			 if( ((TableColumns) value).setRow(rowNumber, row)) {
+				 updated = true;
+				 return;
+			 }
+		 }
+		 super.setElement(row, rowNumber);
+	 }
 	
 	 /**
 	  * IF you attempt to write a record to the RecordStream, we convert it
@@ -285,6 +507,37 @@ public class RecordStreamValue extends Value {
 	  * @param rowNumber the row to write the data.
 	  */
 	 public void setElement(Value d, int rowNumber) {
+
+		 /*
+		  * Take the row being replaced out of the indexes, then put the
+		  * new row and any padding rows into them when we're done.
+		  */
+		 int oldSize = size();
+		 if( indexes != null && rowNumber >= 1 && rowNumber <= oldSize ) {
+			 Value oldRow = getElementAsArray(rowNumber);
+			 for( TableIndex index : indexes )
+				 index.remove(oldRow, rowNumber);
+		 }
+		 fIndexing = true;
+		 try {
+			 storeRow(d, rowNumber);
+		 } finally {
+			 fIndexing = false;
+		 }
+		 if( indexes != null && rowNumber >= 1 ) {
+			 int first = rowNumber <= oldSize ? rowNumber : oldSize + 1;
+			 for( int row = first; row <= rowNumber && row <= size(); row++ )
+				 indexRow(row);
+		 }
+	 }
+
+	 /**
+	  * Store a row in the table, converting it to the row array format.
+	  * This does the work of setElement() without updating the indexes.
+	  * @param d the value (an ARRAY or a RECORD) to be written to the stream.
+	  * @param rowNumber the row to write the data.
+	  */
+	 private void storeRow(Value d, int rowNumber) {
 		 
 		/*
 		 * If it's an array, make sure each column is of the
@@ -294,6 +547,7 @@ public class RecordStreamValue extends Value {
 		 */
 		 
 		 if( d.isType(Value.ARRAY)) {
+			 d.unshare();
 			 for( int idx = 0; idx < columnNames.size(); idx++ ) {
 				 try {
 					 if( idx >= d.size())
@@ -329,15 +583,16 @@ public class RecordStreamValue extends Value {
 				  */
 				 
 				 for( int r = size()+1; r < rowNumber-1; r++ )
-					 super.setElement(row.copy(), r);
-				 super.setElement(row, rowNumber-1);
+					 putRow(row.copy(), r);
+				 putRow(row, rowNumber-1);
 			 }
 			 /*
 			  * Now we can just insert the array
 			  */
-			 super.setElement(d,rowNumber);
+			 putRow(d,rowNumber);
 		 }
 		 else if( d.isType(Value.RECORD)) {
+			 d.unshare();
 			 Value row = new Value(Value.ARRAY, null);
 			 for( int idx = 0; idx < columnNames.size(); idx++) {
 				 String key = columnNames.get(idx);
@@ -353,13 +608,13 @@ public class RecordStreamValue extends Value {
 				 else
 					 row.addElementAsIs(new Value(0));
 			 }
-			 super.setElement(row,rowNumber);
+			 putRow(row,rowNumber);
 		 }
 	 }
 	
 	/**
-	 * Create a copy of the referenced object. This creates a new object and
-	 * moves the contents to the new object, including copying any string value.
+	 * Create a copy of the referenced object. This creates a new object that
+	 * shares the rows of the current table until either table is modified.
 	 * 
 	 * @return a new RecordStreamValue that is a copy of the referenced object.
 	 */
@@ -371,19 +626,19 @@ public class RecordStreamValue extends Value {
 		dest.fSymbol = false;
 		dest.dirty = dirty;
 		dest.name = name;
-		dest.value = new ArrayList<Value>();
 		dest.columnNames = columnNames;
 		dest.columnTypes = columnTypes;
-		
-		if (value != null) {
-			final int len = getArray().size();
-			if (len > 0)
-				for (int i = 1; i <= len; i++) {
-					final Value item = getElement(i);
-					if (item != null)
-						dest.setElement(item, i);
-				}
+		dest.columnMap = columnMap;
+		if( indexes != null ) {
+			dest.indexes = new ArrayList<TableIndex>(indexes.size());
+			for( TableIndex index : indexes )
+				dest.indexes.add(index.definition());
 		}
+		
+		if (value == null)
+			dest.value = new ArrayList<Value>();
+		else
+			shareWith(dest);
 
 		return dest;
 	}
@@ -399,7 +654,10 @@ public class RecordStreamValue extends Value {
 			
 			if( rowSize() > 0 &&  value.size() != rowSize())
 				return 0;
-			getArray().add(value);
+			super.unshare();
+			if( !(this.value instanceof TableColumns) || 
+					!((TableColumns) this.value).setRow(size()+1, value))
+				getArray().add(adopt(value));
 		} else if( value.isType(Value.RECORD)) {
 			Value row = new Value(Value.ARRAY, null);
 			for( int idx = 0; idx < columnNames.size(); idx++ ) {
@@ -411,11 +669,16 @@ public class RecordStreamValue extends Value {
 				}
 				row.addElement(element);
 			}
-			getArray().add(row);
+			super.unshare();
+			if( !(this.value instanceof TableColumns) || 
+					!((TableColumns) this.value).setRow(size()+1, row))
+				getArray().add(adopt(row));
 			
 		} else 
 			return 0;
 		
+		if( indexes != null )
+			indexRow(size());
 		return size();
 	}
 
@@ -449,8 +712,8 @@ public class RecordStreamValue extends Value {
 			 * Now see if any column data is wider and adjust the
 			 * width accordingly.
 			 */
-			for( int idx = 1; idx <= getArray().size(); idx++ ) {
-				Value row = getArray().get(idx-1);
+			for( int idx = 1; idx <= size(); idx++ ) {
+				Value row = getElementAsArray(idx);
 				for( int col = 1; col <= row.size(); col++ ) {
 					Value element = row.getElement(col);
 					int w = element.getString().length();
@@ -479,14 +742,14 @@ public class RecordStreamValue extends Value {
 			 * Put out each row.
 			 */
 			
-			for( int idx = 1; idx <= getArray().size(); idx++ ) {
-				Value row = getArray().get(idx-1);
+			for( int idx = 1; idx <= size(); idx++ ) {
+				Value row = getElementAsArray(idx);
 				for( int col = 1; col <= row.size(); col++ ) {
 					Value element = row.getElement(col);
 					result.append(Utility.pad(element.getString(), widths[col-1]));
 					result.append(' ');
 				}
-				if( idx < getArray().size())
+				if( idx < size())
 					result.append('\n');
 			}
 			
@@ -557,7 +820,12 @@ public class RecordStreamValue extends Value {
 	 * untouched.
 	 */
 	public void empty() {
-		value = new ArrayList<Value>();
+		release();
+		if( TableColumns.supports(columnTypes))
+			value = new TableColumns(columnTypes);
+		else
+			value = new ArrayList<Value>();
+		invalidateIndexes();
 	}
 
 	/**
@@ -583,12 +851,127 @@ public class RecordStreamValue extends Value {
 		int rowNumber = size();
 		
 		for( int ix = 1; ix <= sourceTable.size(); ix++ ) {
-			Value row = sourceTable.getElement(ix);
+			Value row = sourceTable.rowRecord(ix);
 			this.setElement(row, ++rowNumber);
 		}
 		return rowNumber;
 	}
 
+	/**
+	 * Make sure this table has a private copy of its rows before it is
+	 * modified.  Changes made this way aren't tracked row-by-row, so the
+	 * indexes are rebuilt the next time they are used.
+	 */
+	public void unshare() {
+		super.unshare();
+		if( !fIndexing )
+			invalidateIndexes();
+	}
+
+	/**
+	 * Create a secondary index on a column of the table.  The index is
+	 * built the first time it is used, and is then kept up to date as
+	 * rows are added or replaced.
+	 * 
+	 * @param indexName the name of the index, which must not already be
+	 * in use for this table.
+	 * @param column the name of the column to index, in uppercase
+	 * @param kind the kind of index, TableIndex.HASH or TableIndex.TREE
+	 * @return a Status indicating if the index was created.
+	 */
+	public Status createIndex(String indexName, String column, int kind) {
+		
+		int columnNumber = getColumnNumber(column);
+		if( columnNumber < 1 )
+			return new Status(Status.SQLCOL, column);
+		if( findIndex(indexName) != null )
+			return new Status(Status.SQLDUPNAME, indexName);
+		
+		if( indexes == null )
+			indexes = new ArrayList<TableIndex>();
+		indexes.add(new TableIndex(indexName, column, columnNumber, kind));
+		return new Status();
+	}
+
+	/**
+	 * Delete a secondary index from the table.
+	 * @param indexName the name of the index
+	 * @return a Status indicating if the index was found and deleted.
+	 */
+	public Status dropIndex(String indexName) {
+		
+		TableIndex index = findIndex(indexName);
+		if( index == null )
+			return new Status(Status.SQLINDEX, indexName);
+		indexes.remove(index);
+		if( indexes.isEmpty())
+			indexes = null;
+		return new Status();
+	}
+
+	/**
+	 * Find an index by name.
+	 * @param indexName the name of the index
+	 * @return the index, or null if there is no index by that name
+	 */
+	public TableIndex findIndex(String indexName) {
+		if( indexes == null )
+			return null;
+		for( TableIndex index : indexes )
+			if( index.getName().equals(indexName))
+				return index;
+		return null;
+	}
+
+	/**
+	 * Use an index to find the rows where a column compares to a value in
+	 * a given way.  An equality lookup prefers a HASH index if there is
+	 * one; range lookups need a TREE index.
+	 * 
+	 * @param column the column name, in uppercase
+	 * @param op the comparison, one of TableIndex.EQ, LT, LE, GT, or GE
+	 * @param match the value to compare the column to
+	 * @return an array of the matching 1-based row numbers in ascending
+	 * order, or null if no index can answer the question.
+	 */
+	public int[] indexLookup(String column, int op, Value match) {
+		
+		if( indexes == null )
+			return null;
+		
+		TableIndex best = null;
+		for( TableIndex index : indexes ) {
+			if( !index.getColumnName().equals(column) || !index.supports(op))
+				continue;
+			if( best == null || index.getKind() == TableIndex.HASH )
+				best = index;
+		}
+		if( best == null )
+			return null;
+		return best.find(this, op, match);
+	}
+
+	/**
+	 * Add a row that was just stored to each index.
+	 * @param rowNumber the 1-based row number
+	 */
+	private void indexRow(int rowNumber) {
+		Value row = getElementAsArray(rowNumber);
+		for( TableIndex index : indexes )
+			index.add(row, rowNumber);
+	}
+
+	/**
+	 * Discard the contents of each index because the table has been
+	 * changed in a way that can't be tracked row-by-row.
+	 */
+	private void invalidateIndexes() {
+		if( indexes == null )
+			return;
+		for( TableIndex index : indexes )
+			index.invalidate();
+	}
+
 	/**
 	 * Set the dirty flag for a record stream indicating it needs to be 
 	 * saved.
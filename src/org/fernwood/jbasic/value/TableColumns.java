@@ -0,0 +1,439 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.value;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * The columnar storage for the rows of a TABLE whose columns all have a
+ * declared scalar type.  Instead of an ARRAY Value for each row holding a
+ * Value for each column, each column is kept as a single Java array of
+ * the column type: an int[] for INTEGER, a double[] for DOUBLE, a BitSet
+ * for BOOLEAN, and an int[] of codes into a dictionary of distinct
+ * strings for STRING.
+ * <p>
+ * A RecordStreamValue keeps one of these in place of its ArrayList of rows
+ * when it can.  Values are only created when a row or cell is read.  A
+ * row can only be stored if each of its elements already has exactly the
+ * type of its column; if not, the RecordStreamValue converts itself back
+ * to an ArrayList of rows so the element is stored as-is, just as it
+ * would have been without the columnar storage.
+ *
+ * @author cole
+ */
+class TableColumns {
+
+	/**
+	 * The initial number of rows allocated in each column.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The number of rows in the table.
+	 */
+	private int rowCount;
+
+	/**
+	 * The number of rows that the column arrays have room for.
+	 */
+	private int capacity;
+
+	/**
+	 * The storage for each column, in column order.
+	 */
+	private final Column[] columns;
+
+	/**
+	 * The storage for a single column.  Row positions are zero-based.
+	 */
+	private static abstract class Column {
+
+		/**
+		 * Get the Value stored at a position.
+		 * @param ix the zero-based row position
+		 * @return a new Value holding the data
+		 */
+		abstract Value get(int ix);
+
+		/**
+		 * Determine if a Value can be stored in this column without
+		 * changing it.
+		 * @param v the Value to test
+		 * @return true if the Value has exactly the column type
+		 */
+		abstract boolean accepts(Value v);
+
+		/**
+		 * Store a Value at a position.  The caller must already have
+		 * checked it with accepts().
+		 * @param ix the zero-based row position
+		 * @param v the Value to store
+		 */
+		abstract void set(int ix, Value v);
+
+		/**
+		 * Make room for more rows.
+		 * @param newCapacity the number of rows to allocate room for
+		 */
+		abstract void grow(int newCapacity);
+
+		/**
+		 * Make a private copy of the column.
+		 * @return a new Column with the same data
+		 */
+		abstract Column copy();
+	}
+
+	/**
+	 * A column of INTEGER values.
+	 */
+	private static class IntegerColumn extends Column {
+		int[] data;
+
+		IntegerColumn(final int capacity) {
+			data = new int[capacity];
+		}
+
+		Value get(final int ix) {
+			return new Value(data[ix]);
+		}
+
+		boolean accepts(final Value v) {
+			return v.getType() == Value.INTEGER;
+		}
+
+		void set(final int ix, final Value v) {
+			data[ix] = v.getInteger();
+		}
+
+		void grow(final int newCapacity) {
+			data = Arrays.copyOf(data, newCapacity);
+		}
+
+		Column copy() {
+			final IntegerColumn c = new IntegerColumn(0);
+			c.data = data.clone();
+			return c;
+		}
+	}
+
+	/**
+	 * A column of DOUBLE values.
+	 */
+	private static class DoubleColumn extends Column {
+		double[] data;
+
+		DoubleColumn(final int capacity) {
+			data = new double[capacity];
+		}
+
+		Value get(final int ix) {
+			return new Value(data[ix]);
+		}
+
+		boolean accepts(final Value v) {
+			return v.getType() == Value.DOUBLE;
+		}
+
+		void set(final int ix, final Value v) {
+			data[ix] = v.getDouble();
+		}
+
+		void grow(final int newCapacity) {
+			data = Arrays.copyOf(data, newCapacity);
+		}
+
+		Column copy() {
+			final DoubleColumn c = new DoubleColumn(0);
+			c.data = data.clone();
+			return c;
+		}
+	}
+
+	/**
+	 * A column of BOOLEAN values, one bit per row.
+	 */
+	private static class BooleanColumn extends Column {
+		BitSet data = new BitSet();
+
+		Value get(final int ix) {
+			return new Value(data.get(ix));
+		}
+
+		boolean accepts(final Value v) {
+			return v.getType() == Value.BOOLEAN;
+		}
+
+		void set(final int ix, final Value v) {
+			data.set(ix, v.getBoolean());
+		}
+
+		void grow(final int newCapacity) {
+			/* A BitSet grows as needed */
+		}
+
+		Column copy() {
+			final BooleanColumn c = new BooleanColumn();
+			c.data = (BitSet) data.clone();
+			return c;
+		}
+	}
+
+	/**
+	 * A column of STRING values.  Each distinct string is stored once in
+	 * the dictionary, and each row holds the position of its string in the
+	 * dictionary.  Strings are never removed from the dictionary, so a
+	 * column that is updated a lot may hold a few that are no longer used.
+	 */
+	private static class StringColumn extends Column {
+		int[] codes;
+		ArrayList<String> dictionary = new ArrayList<String>();
+		HashMap<String, Integer> lookup = new HashMap<String, Integer>();
+
+		StringColumn(final int capacity) {
+			codes = new int[capacity];
+		}
+
+		Value get(final int ix) {
+			return new Value(dictionary.get(codes[ix]));
+		}
+
+		boolean accepts(final Value v) {
+			return v.getType() == Value.STRING;
+		}
+
+		void set(final int ix, final Value v) {
+			final String s = v.getString();
+			Integer code = lookup.get(s);
+			if (code == null) {
+				code = Integer.valueOf(dictionary.size());
+				dictionary.add(s);
+				lookup.put(s, code);
+			}
+			codes[ix] = code.intValue();
+		}
+
+		void grow(final int newCapacity) {
+			codes = Arrays.copyOf(codes, newCapacity);
+		}
+
+		Column copy() {
+			final StringColumn c = new StringColumn(0);
+			c.codes = codes.clone();
+			c.dictionary = new ArrayList<String>(dictionary);
+			c.lookup = new HashMap<String, Integer>(lookup);
+			return c;
+		}
+	}
+
+	/**
+	 * Create empty columnar storage for a table.  The caller must already
+	 * have checked that the column types are supported.
+	 * @param columnTypes the type of each column
+	 */
+	TableColumns(final Vector<Integer> columnTypes) {
+		capacity = INITIAL_CAPACITY;
+		columns = new Column[columnTypes.size()];
+		for (int ix = 0; ix < columns.length; ix++)
+			switch (columnTypes.get(ix).intValue()) {
+			case Value.INTEGER:
+				columns[ix] = new IntegerColumn(capacity);
+				break;
+			case Value.DOUBLE:
+				columns[ix] = new DoubleColumn(capacity);
+				break;
+			case Value.BOOLEAN:
+				columns[ix] = new BooleanColumn();
+				break;
+			default:
+				columns[ix] = new StringColumn(capacity);
+				break;
+			}
+	}
+
+	/**
+	 * Create a copy of existing columnar storage.
+	 * @param source the storage to copy
+	 */
+	private TableColumns(final TableColumns source) {
+		rowCount = source.rowCount;
+		capacity = source.capacity;
+		columns = new Column[source.columns.length];
+		for (int ix = 0; ix < columns.length; ix++)
+			columns[ix] = source.columns[ix].copy();
+	}
+
+	/**
+	 * Determine if a table with the given column types can use columnar
+	 * storage.  Every column must be declared as INTEGER, DOUBLE, BOOLEAN,
+	 * or STRING.
+	 * @param columnTypes the type of each column
+	 * @return true if columnar storage can be used
+	 */
+	static boolean supports(final Vector<Integer> columnTypes) {
+		if (columnTypes.size() == 0)
+			return false;
+		for (int ix = 0; ix < columnTypes.size(); ix++)
+			switch (columnTypes.get(ix).intValue()) {
+			case Value.INTEGER:
+			case Value.DOUBLE:
+			case Value.BOOLEAN:
+			case Value.STRING:
+				break;
+			default:
+				return false;
+			}
+		return true;
+	}
+
+	/**
+	 * Make a private copy of this storage, for a table that was sharing
+	 * it with a copy of itself and is about to be modified.
+	 * @return a new TableColumns with the same rows
+	 */
+	TableColumns copy() {
+		return new TableColumns(this);
+	}
+
+	/**
+	 * Get the number of rows.
+	 * @return the row count
+	 */
+	int size() {
+		return rowCount;
+	}
+
+	/**
+	 * Get a single cell of the table.
+	 * @param rowNumber the 1-based row number
+	 * @param columnNumber the 1-based column number
+	 * @return a new Value holding the cell, or null if either position
+	 * is out of range.
+	 */
+	Value get(final int rowNumber, final int columnNumber) {
+		if (rowNumber < 1 || rowNumber > rowCount || columnNumber < 1
+				|| columnNumber > columns.length)
+			return null;
+		return columns[columnNumber - 1].get(rowNumber - 1);
+	}
+
+	/**
+	 * Get the contents of a numeric column as an array of doubles.
+	 * @param columnNumber the 1-based column number
+	 * @return an array with an element for each row, or null if the
+	 * column is not INTEGER or DOUBLE.
+	 */
+	double[] getNumeric(final int columnNumber) {
+		final Column c = columns[columnNumber - 1];
+		final double[] result = new double[rowCount];
+		if (c instanceof DoubleColumn)
+			System.arraycopy(((DoubleColumn) c).data, 0, result, 0, rowCount);
+		else if (c instanceof IntegerColumn) {
+			final int[] data = ((IntegerColumn) c).data;
+			for (int ix = 0; ix < rowCount; ix++)
+				result[ix] = data[ix];
+		} else
+			return null;
+		return result;
+	}
+
+	/**
+	 * Get a code for the value of a column in each row, such that two rows
+	 * have the same code if and only if they have the same value.  The
+	 * INTEGER values and the STRING dictionary positions can be used as
+	 * they are.
+	 * @param columnNumber the 1-based column number
+	 * @return an array with a code for each row
+	 */
+	int[] getCodes(final int columnNumber) {
+		final Column c = columns[columnNumber - 1];
+		if (c instanceof IntegerColumn)
+			return Arrays.copyOf(((IntegerColumn) c).data, rowCount);
+		if (c instanceof StringColumn)
+			return Arrays.copyOf(((StringColumn) c).codes, rowCount);
+
+		final int[] codes = new int[rowCount];
+		if (c instanceof BooleanColumn) {
+			final BitSet data = ((BooleanColumn) c).data;
+			for (int ix = 0; ix < rowCount; ix++)
+				codes[ix] = data.get(ix) ? 1 : 0;
+			return codes;
+		}
+		final double[] data = ((DoubleColumn) c).data;
+		final HashMap<Double, Integer> map = new HashMap<Double, Integer>();
+		for (int ix = 0; ix < rowCount; ix++) {
+			final Double d = Double.valueOf(data[ix] == 0.0 ? 0.0 : data[ix]);
+			Integer code = map.get(d);
+			if (code == null) {
+				code = Integer.valueOf(map.size());
+				map.put(d, code);
+			}
+			codes[ix] = code.intValue();
+		}
+		return codes;
+	}
+
+	/**
+	 * Get a row of the table as an ARRAY.
+	 * @param rowNumber the 1-based row number
+	 * @return a new Value.ARRAY holding each cell of the row, or null if
+	 * the row number is out of range.
+	 */
+	Value getRow(final int rowNumber) {
+		if (rowNumber < 1 || rowNumber > rowCount)
+			return null;
+		final Value row = new Value(Value.ARRAY, null);
+		for (int ix = 0; ix < columns.length; ix++)
+			row.addElement(columns[ix].get(rowNumber - 1));
+		return row;
+	}
+
+	/**
+	 * Store a row in the table, replacing an existing row or adding a new
+	 * row at the end.
+	 * @param rowNumber the 1-based row number, which can be at most one
+	 * more than the number of rows.
+	 * @param row a Value.ARRAY with an element for each column.
+	 * @return false if the row could not be stored because it is the
+	 * wrong size or an element is not exactly the type of its column;
+	 * the table is not changed in that case.
+	 */
+	boolean setRow(final int rowNumber, final Value row) {
+		if (rowNumber < 1 || rowNumber > rowCount + 1
+				|| row.size() != columns.length)
+			return false;
+		for (int ix = 0; ix < columns.length; ix++) {
+			final Value v = row.getElement(ix + 1);
+			if (v == null || !columns[ix].accepts(v))
+				return false;
+		}
+
+		if (rowNumber > capacity) {
+			capacity = capacity * 2;
+			for (int ix = 0; ix < columns.length; ix++)
+				columns[ix].grow(capacity);
+		}
+		for (int ix = 0; ix < columns.length; ix++)
+			columns[ix].set(rowNumber - 1, row.getElement(ix + 1));
+		if (rowNumber > rowCount)
+			rowCount = rowNumber;
+		return true;
+	}
+}
@@ -0,0 +1,390 @@
+/*
+ * THIS SOURCE FILE IS PART OF JBASIC, AN OPEN SOURCE PUBLICLY AVAILABLE
+ * JAVA SOFTWARE PACKAGE HOSTED BY SOURCEFORGE.NET
+ *
+ * THIS SOFTWARE IS PROVIDED VIA THE GNU PUBLIC LICENSE AND IS FREELY
+ * AVAILABLE FOR ANY PURPOSE COMMERCIAL OR OTHERWISE AS LONG AS THE AUTHORSHIP
+ * AND COPYRIGHT INFORMATION IS RETAINED INTACT AND APPROPRIATELY VISIBLE
+ * TO THE END USER.
+ *
+ * SEE THE PROJECT FILE AT HTTP://WWW.SOURCEFORGE.NET/PROJECTS/JBASIC FOR
+ * MORE INFORMATION.
+ *
+ * COPYRIGHT 2003-2011 BY TOM COLE, TOMCOLE@USERS.SF.NET
+ *
+ */
+package org.fernwood.jbasic.value;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A secondary index on one column of a TABLE, created with the SQL
+ * <code>CREATE INDEX</code> statement.  The index maps each key value in
+ * the column to the list of row numbers that contain it.  A HASH index
+ * can only answer equality lookups; a TREE index keeps the keys in order
+ * so it can also answer range lookups.
+ * <p>
+ * Key values are normalized so that they can be hashed and ordered the
+ * same way the comparison opcodes compare them: INTEGER and DOUBLE values
+ * are both stored as a Double, and STRING and BOOLEAN values as the
+ * matching Java type.  A column holding any other kind of value, or a mix
+ * of numbers, strings, and booleans, can't be indexed, and lookups on it
+ * return null so the caller scans the table.
+ * <p>
+ * The RecordStreamValue that owns the index keeps it up to date as rows
+ * are added or replaced.  Any other change to the table marks the index
+ * as not built, and it is rebuilt from the table the next time it is used.
+ *
+ * @author cole
+ */
+public class TableIndex {
+
+	/**
+	 * Index kind for an unordered index that supports equality lookups.
+	 */
+	public static final int HASH = 1;
+
+	/**
+	 * Index kind for an ordered index that supports equality and range
+	 * lookups.
+	 */
+	public static final int TREE = 2;
+
+	/**
+	 * Lookup for rows where the column is equal to the key.
+	 */
+	public static final int EQ = 0;
+
+	/**
+	 * Lookup for rows where the column is less than the key.
+	 */
+	public static final int LT = 1;
+
+	/**
+	 * Lookup for rows where the column is less than or equal to the key.
+	 */
+	public static final int LE = 2;
+
+	/**
+	 * Lookup for rows where the column is greater than the key.
+	 */
+	public static final int GT = 3;
+
+	/**
+	 * Lookup for rows where the column is greater than or equal to the key.
+	 */
+	public static final int GE = 4;
+
+	/**
+	 * The name of the index.
+	 */
+	private final String name;
+
+	/**
+	 * The name of the indexed column.
+	 */
+	private final String columnName;
+
+	/**
+	 * The 1-based position of the indexed column in each row.
+	 */
+	private final int column;
+
+	/**
+	 * The kind of index, HASH or TREE.
+	 */
+	private final int kind;
+
+	/**
+	 * The map of key values to row lists, or null if the index has not been
+	 * built (or could not be built) since the table was last changed.
+	 */
+	private Map<Object, RowList> keys;
+
+	/**
+	 * The class of the keys in the index.  All the keys must be of the same
+	 * class, since keys of different classes can't be ordered against each
+	 * other, and aren't compared the same way the comparison opcodes
+	 * compare them.
+	 */
+	private Class<?> keyClass;
+
+	/**
+	 * Flag indicating that the column holds a value that can't be used as
+	 * a key, so there's no point trying to build the index again until
+	 * the table is changed.
+	 */
+	private boolean fUnusable;
+
+	/**
+	 * The list of row numbers that contain a given key value, kept in
+	 * ascending order.
+	 */
+	private static class RowList {
+		int[] rows = new int[2];
+		int count;
+
+		void add(final int row) {
+			if (count == rows.length)
+				rows = Arrays.copyOf(rows, count * 2);
+			int pos = count;
+			while (pos > 0 && rows[pos - 1] > row) {
+				rows[pos] = rows[pos - 1];
+				pos--;
+			}
+			rows[pos] = row;
+			count++;
+		}
+
+		void remove(final int row) {
+			for (int ix = 0; ix < count; ix++)
+				if (rows[ix] == row) {
+					System.arraycopy(rows, ix + 1, rows, ix, count - ix - 1);
+					count--;
+					return;
+				}
+		}
+	}
+
+	/**
+	 * Create a new index.  The index is not built until it is first used.
+	 * @param name the name of the index
+	 * @param columnName the name of the indexed column
+	 * @param column the 1-based position of the column in each row
+	 * @param kind the kind of index, HASH or TREE
+	 */
+	TableIndex(final String name, final String columnName, final int column, final int kind) {
+		this.name = name;
+		this.columnName = columnName;
+		this.column = column;
+		this.kind = kind;
+	}
+
+	/**
+	 * Create an unbuilt index with the same definition as this one, for
+	 * use by a copy of the table.
+	 * @return a new TableIndex
+	 */
+	TableIndex definition() {
+		return new TableIndex(name, columnName, column, kind);
+	}
+
+	/**
+	 * Get the name of the index.
+	 * @return the index name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the name of the indexed column.
+	 * @return the column name
+	 */
+	public String getColumnName() {
+		return columnName;
+	}
+
+	/**
+	 * Get the kind of the index.
+	 * @return HASH or TREE
+	 */
+	public int getKind() {
+		return kind;
+	}
+
+	/**
+	 * Convert a value to the object used as its key in an index.
+	 * @param v the value
+	 * @return the key, or null if the value can't be used as a key
+	 */
+	static Object key(final Value v) {
+		if (v == null)
+			return null;
+		switch (v.getType()) {
+		case Value.INTEGER:
+			return Double.valueOf(v.getInteger());
+		case Value.DOUBLE:
+			final double d = v.getDouble();
+			if (Double.isNaN(d))
+				return null;
+			return Double.valueOf(d == 0.0 ? 0.0 : d);
+		case Value.STRING:
+			return v.getString();
+		case Value.BOOLEAN:
+			return Boolean.valueOf(v.getBoolean());
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Discard the index contents because the table has changed in a way
+	 * that can't be tracked row-by-row.
+	 */
+	void invalidate() {
+		keys = null;
+		fUnusable = false;
+	}
+
+	/**
+	 * Make sure the index is built from the current contents of the table.
+	 * @param table the table that owns the index
+	 * @return true if the index is usable
+	 */
+	private boolean build(final RecordStreamValue table) {
+		if (keys != null)
+			return true;
+		if (fUnusable)
+			return false;
+
+		keyClass = null;
+		if (kind == TREE)
+			keys = new TreeMap<Object, RowList>();
+		else
+			keys = new HashMap<Object, RowList>(table.size() * 2);
+
+		for (int row = 1; row <= table.size(); row++)
+			if (!addKey(table.getCell(row, column), row)) {
+				fUnusable = true;
+				return false;
+			}
+		return true;
+	}
+
+	/**
+	 * Add a row to the index, if the index is built.
+	 * @param row the row array
+	 * @param rowNumber the 1-based row number
+	 * @return false if the row's key can't be indexed, in which case the
+	 * index is discarded.
+	 */
+	boolean add(final Value row, final int rowNumber) {
+		return addKey(row == null ? null : row.getElement(column), rowNumber);
+	}
+
+	/**
+	 * Add the indexed column value of a row to the index, if the index is
+	 * built.
+	 * @param cell the value of the indexed column in the row
+	 * @param rowNumber the 1-based row number
+	 * @return false if the value can't be used as a key, or is not the same
+	 * kind of key as the rest of the column, in which case the index is
+	 * discarded.
+	 */
+	private boolean addKey(final Value cell, final int rowNumber) {
+		if (keys == null)
+			return true;
+		final Object k = key(cell);
+		if (k == null || (keyClass != null && keyClass != k.getClass())) {
+			keys = null;
+			return false;
+		}
+		keyClass = k.getClass();
+		RowList list = keys.get(k);
+		if (list == null) {
+			list = new RowList();
+			keys.put(k, list);
+		}
+		list.add(rowNumber);
+		return true;
+	}
+
+	/**
+	 * Remove a row from the index, if the index is built.  This is done
+	 * before a row is replaced, using the old contents of the row.
+	 * @param row the row array
+	 * @param rowNumber the 1-based row number
+	 */
+	void remove(final Value row, final int rowNumber) {
+		if (keys == null)
+			return;
+		final Object k = key(row == null ? null : row.getElement(column));
+		final RowList list = (k == null) ? null : keys.get(k);
+		if (list == null) {
+			keys = null;
+			return;
+		}
+		list.remove(rowNumber);
+		if (list.count == 0)
+			keys.remove(k);
+	}
+
+	/**
+	 * Determine if this index can answer a given kind of lookup.
+	 * @param op the lookup, one of EQ, LT, LE, GT, or GE
+	 * @return true if the index supports the lookup
+	 */
+	public boolean supports(final int op) {
+		return op == EQ || kind == TREE;
+	}
+
+	/**
+	 * Find the rows of the table whose indexed column compares to a value
+	 * in the given way.
+	 *
+	 * @param table the table that owns the index
+	 * @param op the comparison, one of EQ, LT, LE, GT, or GE
+	 * @param value the value to compare the column to
+	 * @return an array of 1-based row numbers in ascending order, or null
+	 * if the index can't answer the question (the caller must then scan
+	 * the table).
+	 */
+	@SuppressWarnings("unchecked")
+	int[] find(final RecordStreamValue table, final int op, final Value value) {
+
+		if (!supports(op))
+			return null;
+		final Object k = key(value);
+		if (k == null || !build(table))
+			return null;
+
+		/*
+		 * The keys of a column are all the same class, or the index
+		 * wouldn't have been built.  A key of a different class would be
+		 * compared as a string (or not at all), which the index can't do.
+		 */
+		if (keyClass != null && keyClass != k.getClass())
+			return null;
+
+		if (op == EQ) {
+			final RowList list = keys.get(k);
+			if (list == null)
+				return new int[0];
+			return Arrays.copyOf(list.rows, list.count);
+		}
+
+		final TreeMap<Object, RowList> tree = (TreeMap<Object, RowList>) keys;
+		Collection<RowList> lists;
+		switch (op) {
+		case LT:
+			lists = tree.headMap(k, false).values();
+			break;
+		case LE:
+			lists = tree.headMap(k, true).values();
+			break;
+		case GT:
+			lists = tree.tailMap(k, false).values();
+			break;
+		default:
+			lists = tree.tailMap(k, true).values();
+			break;
+		}
+
+		int count = 0;
+		for (final RowList list : lists)
+			count += list.count;
+		final int[] rows = new int[count];
+		int pos = 0;
+		for (final RowList list : lists) {
+			System.arraycopy(list.rows, 0, rows, pos, list.count);
+			pos += list.count;
+		}
+		Arrays.sort(rows);
+		return rows;
+	}
+}
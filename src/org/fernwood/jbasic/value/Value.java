@@ -18,7 +18,6 @@ package org.fernwood.jbasic.value;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Set;
 import java.util.TreeMap;
 import java.util.Vector;
 
@@ -187,6 +186,26 @@ public class Value {
 
 	protected Object value;
 
+	/**
+	 * When the ArrayList or HashMap in 'value' is shared with one or more
+	 * other Value objects as the result of a copy(), this points to the
+	 * reference count for that payload.  It is null when this Value owns
+	 * its payload outright.  Any operation that changes the contents of
+	 * the payload must call unshare() first, which makes a private copy
+	 * of the container if anyone else is still using it.
+	 */
+	private SharedPayload share;
+
+	/**
+	 * Reference count for an ARRAY, RECORD, or TABLE payload that is
+	 * shared between Value objects.  The count is never less than the
+	 * actual number of sharers, though it can be higher if a sharer was
+	 * discarded without being modified; that only costs an extra copy.
+	 */
+	private static final class SharedPayload {
+		int references = 1;
+	}
+
 	/**
 	 * When the type is INTEGER (the most common data type), store it
 	 * as a separate integer here in the value so we don't keep creating
@@ -209,6 +228,7 @@ public class Value {
 	 * @param b if true, the integer value is set to 1, else it is set to 0.
 	 */
 	public void setBoolean( boolean b ) {
+		release();
 		value = null;
 		integerValue = b? 1:0;
 	}
@@ -334,9 +354,11 @@ public class Value {
 			return false;
 		if( v == null)
 			return false;
+		unshare();
 		updated = true;
-		v.name = name;
-		getRecord().put(name, v);
+		final Value member = adopt(v);
+		member.name = name;
+		getRecord().put(name, member);
 		return true;
 	}
 
@@ -354,10 +376,11 @@ public class Value {
 		if( this.fReadonly )
 			return false;
 
+		unshare();
 		updated = true;
 		Value v = new Value(s);
 		v.name = name;
-		getRecord().put(name, v);
+		getRecord().put(name, adopt(v));
 		return true;
 	}
 
@@ -375,10 +398,11 @@ public class Value {
 		if( this.fReadonly )
 			return false;
 
+		unshare();
 		updated = true;
 		Value v = new Value(i);
 		v.name = name;
-		getRecord().put(name, v);
+		getRecord().put(name, adopt(v));
 		return true;
 	}
 	/**
@@ -395,10 +419,11 @@ public class Value {
 		if( this.fReadonly )
 			return false;
 
+		unshare();
 		updated = true;
 		Value v = new Value(b);
 		v.name = name;
-		getRecord().put(name, v);
+		getRecord().put(name, adopt(v));
 		return true;
 	}
 
@@ -454,6 +479,7 @@ public class Value {
 		 * go ahead and extend the array now.  Then set the specific element.
 		 */
 
+		unshare();
 		ArrayList<Value> theArray = getArray();
 
 		final int len = theArray.size();
@@ -463,9 +489,9 @@ public class Value {
 
 			/* And then fill with integer zero */
 			while (theArray.size() <= index)
-				theArray.add(new Value(0));
+				theArray.add(adopt(new Value(0)));
 		}
-		theArray.set(index, d);
+		theArray.set(index, adopt(d));
 
 	}
 
@@ -500,7 +526,8 @@ public class Value {
 			}
 		}
 		else {
-			getArray().add(d);
+			unshare();
+			getArray().add(adopt(d));
 		}
 		return getArray().size();
 	}
@@ -519,7 +546,13 @@ public class Value {
 		if( value1.isObject())
 			throw new JBasicException(Status.INVOBJOP, "record add");
 
-		getRecord().putAll(value1.getRecord());		
+		unshare();
+		final HashMap<String, Value> record = getRecord();
+		final Iterator<String> i = value1.getRecord().keySet().iterator();
+		while (i.hasNext()) {
+			final String key = i.next();
+			record.put(key, adopt(value1.getRecord().get(key)));
+		}
 	}
 
 	/**
@@ -542,12 +575,13 @@ public class Value {
 		if (!isType(Value.ARRAY))
 			return;
 
+		unshare();
 		if (value.isType(Value.ARRAY)) {
 			int count = value.size();
 			for (int ix = 1; ix <= count; ix++)
-				this.getArray().add(value.getElement(ix));
+				this.getArray().add(adopt(value.getElement(ix)));
 		} else
-			this.getArray().add(value);
+			this.getArray().add(adopt(value));
 	}
 
 	/**
@@ -560,7 +594,8 @@ public class Value {
 	public void addElementAsIs(Value value ) {
 		if( type != Value.ARRAY )
 			return;
-		this.getArray().add(value);
+		unshare();
+		this.getArray().add(adopt(value));
 	}
 	/**
 	 * This indicates if the data element is to be considered read-only. This is
@@ -589,6 +624,14 @@ public class Value {
 	 */
 	public boolean fCommon;
 
+	/**
+	 * Flag that indicates this Value has been stored as a member of an
+	 * ARRAY, RECORD, or TABLE.  A Value object may only be a member of one
+	 * container, so storing it in another one stores a copy instead.  See
+	 * adopt().
+	 */
+	private boolean fMember;
+
 	/**
 	 * Undefined data type, cannot be used in an expression operation.
 	 */
@@ -867,7 +910,7 @@ public class Value {
 		type = Value.ARRAY;
 		value = new ArrayList<Value>();
 		for( int ix = 0; ix < variableList.size(); ix++ )
-			((ArrayList<Value>) value).add(new Value(variableList.get(ix)));
+			((ArrayList<Value>) value).add(adopt(new Value(variableList.get(ix))));
 	}
 
 	/**
@@ -951,7 +994,8 @@ public class Value {
 	/**
 	 * Return a copy of the current object.
 	 * 
-	 * @return A deep copy of the current object.
+	 * @return A copy of the current object.  An ARRAY or RECORD shares its
+	 * contents with the original until one of them is modified.
 	 */
 	public Value copy() {
 		return copy(false, 0);
@@ -960,9 +1004,17 @@ public class Value {
 	/**
 	 * Create a copy of the referenced object. This creates a new object and
 	 * moves the contents to the new object, including copying any string value.
+	 * <p>
+	 * For an ARRAY or RECORD, the new object shares the underlying container
+	 * with the original rather than copying each member.  The first time
+	 * either object is modified, it makes its own private copy of the
+	 * container (see unshare()).  This makes loading a large array or record
+	 * from the symbol table a constant-time operation.
 	 * 
 	 * @param isObjectCopy
-	 *            this parameter is currently unused.
+	 *            true if this is a copy of an object (such as for NEW) in
+	 *            which case the METHODS object attribute is removed from the
+	 *            copy.
 	 * @param depth an integer index used to track recursive copy operations;
 	 * the normal non-recursive value to pass is always zero.
 	 * @return a new Value that is a copy of the referenced object.
@@ -970,7 +1022,8 @@ public class Value {
 
 	public Value copy(final boolean isObjectCopy, int depth) {
 
-		final Value dest = new Value(type, null);
+		final Value dest = new Value(UNDEFINED, null);
+		dest.type = type;
 		dest.updated = true;
 		dest.fSymbol = false;
 
@@ -979,60 +1032,147 @@ public class Value {
 		dest.integerValue = integerValue;
 		dest.doubleValue = doubleValue;
 
-		/*
-		 * If this is a RECORD, then make a copy of the HashMap, recursively.
-		 */
 		if (type == RECORD) {
-			dest.value = new HashMap<String,Value>();
-			final Set k = this.getRecord().keySet();
-
-			Iterator i = k.iterator();
-			while( i.hasNext()) {
-				String keyString = (String)i.next();
-				Value dx = this.getElement(keyString);
-
-				/*
-				 * We should never hit this, but just in case we detect some kind of runaway
-				 * recursion, let's bail out.
-				 */
-				if( depth > 100 )  {
-					System.out.println("WARNING: Object copy recursion depth >100");
-					return null;
-				}
-
-				dest.setElement(dx.copy(isObjectCopy, depth+1), keyString);
-			}
+			shareWith(dest);
 			if (isObjectCopy)
 				dest.removeObjectAttribute("METHODS");
 		}
-
-		/*
-		 * If this is an arrayValue, make a new arrayValue and copy the data
-		 * from the old to the new arrayValue.
-		 */
 		else
-			if (isType(ARRAY)) {
-				dest.value = new ArrayList<Value>();
-				if (value != null) {
-					final int len = getArray().size();
-					if (len > 0)
-						for (int i = 1; i <= len; i++) {
-							final Value item = getElement(i);
-							if (item != null)
-								dest.setElement(item.copy(), i);
-						}
-				}
-			}
+			if (isType(ARRAY) && value != null)
+				shareWith(dest);
 
 		return dest;
 	}
 
+	/**
+	 * Make the container payload of this object (the ArrayList or HashMap)
+	 * shared with another object.  Both objects then refer to the same
+	 * container until one of them calls unshare().
+	 * @param dest the Value that is to share this object's payload.
+	 */
+	protected void shareWith(final Value dest) {
+
+		SharedPayload s;
+		synchronized (this) {
+			s = share;
+			if (s == null) {
+				s = new SharedPayload();
+				share = s;
+			}
+			synchronized (s) {
+				s.references++;
+			}
+		}
+		dest.value = value;
+		dest.share = s;
+	}
+
+	/**
+	 * Make sure this object has a private copy of its ARRAY, RECORD, or
+	 * TABLE payload before it is modified.  If the payload is shared with
+	 * other objects, a new container is created holding copies of each
+	 * member; the members themselves are copied the same lazy way, so this
+	 * only costs one level of the data structure.  If the payload is not
+	 * shared, this does nothing.
+	 * <p>
+	 * This must be called by any code that changes the contents of the
+	 * container, or that hands out a reference to a member so that it can
+	 * be changed in place (such as the _LOCIDX and _LOCMEM opcodes).
+	 */
+	@SuppressWarnings("unchecked") 
+	public void unshare() {
+
+		final SharedPayload s = share;
+		if (s == null)
+			return;
+		share = null;
+		synchronized (s) {
+			if (s.references <= 1)
+				return;
+			s.references--;
+		}
+
+		if (value instanceof ArrayList) {
+			final ArrayList<Value> oldArray = (ArrayList<Value>) value;
+			final int len = oldArray.size();
+			final ArrayList<Value> newArray = new ArrayList<Value>(len);
+			for (int ix = 0; ix < len; ix++)
+				newArray.add(memberCopy(oldArray.get(ix)));
+			value = newArray;
+		}
+		else if (value instanceof HashMap) {
+			final HashMap<String, Value> oldRecord = (HashMap<String, Value>) value;
+			final HashMap<String, Value> newRecord = new HashMap<String, Value>(oldRecord.size() * 2);
+			final Iterator<String> i = oldRecord.keySet().iterator();
+			while (i.hasNext()) {
+				final String key = i.next();
+				newRecord.put(key, memberCopy(oldRecord.get(key)));
+			}
+			value = newRecord;
+		}
+		else if (value instanceof TableColumns)
+			value = ((TableColumns) value).copy();
+	}
+
+	/**
+	 * Copy a single member of a container being unshared.  The copy keeps
+	 * the symbol flag of the original, so code that updates a member in
+	 * place still knows to make a copy first.
+	 * @param item the member to copy, which may be null.
+	 * @return the copy of the member.
+	 */
+	private static Value memberCopy(final Value item) {
+		if (item == null)
+			return null;
+		final Value v = item.copy();
+		v.fSymbol = item.fSymbol;
+		v.fMember = true;
+		return v;
+	}
+
+	/**
+	 * Prepare a value to be stored as a member of this container.  If the
+	 * value is already a member of some other container, or is itself the
+	 * value of a symbol, then a copy is stored instead.  Without this, the
+	 * same object could be reached (and changed in place) through two
+	 * different variables, which matters more now that copies of an ARRAY
+	 * or RECORD share their members until one of them is modified.
+	 * @param d the value to be stored in this container
+	 * @return the Value object that should actually be stored.
+	 */
+	protected Value adopt(final Value d) {
+		if (d == null)
+			return null;
+		Value member = d;
+		if (member.fMember || member.fSymbol)
+			member = member.copy();
+		member.fMember = true;
+		if (fSymbol)
+			member.fSymbol = true;
+		return member;
+	}
+
+	/**
+	 * Drop this object's reference to a shared payload because the payload
+	 * is about to be replaced with a different value.
+	 */
+	protected void release() {
+
+		final SharedPayload s = share;
+		if (s == null)
+			return;
+		share = null;
+		synchronized (s) {
+			s.references--;
+		}
+	}
+
 	/**
 	 * Map the generic object to a RECORD type (implemented as a HashMap)
 	 * @return
 	 */
 	@SuppressWarnings("unchecked") 
-	private HashMap<String, Value> getRecord() {
+	protected HashMap<String, Value> getRecord() {
 		return (HashMap<String,Value>)value;
 	}
 
@@ -1041,6 +1181,7 @@ public class Value {
 	 * @param i the integer value to set 
 	 */
 	public void setInteger(int i) {
+		release();
 		integerValue = i;
 		value = null;
 	}
@@ -1059,11 +1200,12 @@ public class Value {
 		if (type != ARRAY)
 			return false;
 
-		ArrayList theArray = getArray();
-		
-		if ((idx < 1) || (idx > theArray.size()))
+		if ((idx < 1) || (idx > size()))
 			return false;
 
+		unshare();
+		ArrayList theArray = getArray();
+
 		theArray.remove(idx - 1);
 
 		return true;
@@ -1838,7 +1980,7 @@ public class Value {
 			final Value v = this.copy();
 
 			value = new ArrayList<Value>();
-			getArray().add(0, v);
+			getArray().add(0, adopt(v));
 			type = ARRAY;
 			break;
 
@@ -2039,6 +2181,12 @@ public class Value {
 			}
 		}
 
+		/*
+		 * Any successful conversion has replaced the payload, so we no
+		 * longer hold a reference to a shared container.
+		 */
+		release();
+
 		// Type has to be changed and we're done.  Clear away the extra string formatting types
 		
 		type = newType;
@@ -2052,6 +2200,7 @@ public class Value {
 	 * @param d the double to store in the value
 	 */
 	public void setDouble(double d) {
+		release();
 		value = null;
 		doubleValue = d;
 	}
@@ -2241,6 +2390,10 @@ public class Value {
 			objectData = new Value(Value.RECORD, null);
 			this.setElement(objectData, Value.OBJECT_DATA);
 		}
+		else {
+			unshare();
+			objectData = this.getElement(Value.OBJECT_DATA);
+		}
 		objectData.setElement(d, name);
 		return true;
 	}
@@ -2261,6 +2414,9 @@ public class Value {
 		if( objectData == null )
 			return false;
 
+		unshare();
+		objectData = this.getElement(Value.OBJECT_DATA);
+		objectData.unshare();
 		return (objectData.getRecord().remove(name) != null);
 	}
 
@@ -2275,6 +2431,7 @@ public class Value {
 			throw new JBasicException(Status.NOTRECORD);
 		if( isObject())
 			throw new JBasicException(Status.INVOBJOP, "remove element");
+		unshare();
 		if( this.getRecord().remove(name) == null )
 			throw new JBasicException(Status.NOSUCHMEMBER, name);
 	}
@@ -2385,11 +2542,16 @@ public class Value {
 	 */
 	public void set(Value src) {
 
+		if (src == this)
+			return;
+		release();
 		this.type = src.type;
 		this.updated = true;
 		this.value = src.value;
 		this.integerValue = src.integerValue;
 		this.doubleValue = src.doubleValue;
+		if (src.isType(ARRAY) || src.type == RECORD)
+			src.shareWith(this);
 	}
 
 
@@ -2409,6 +2571,7 @@ public class Value {
 	 * @param s the String to store in the value
 	 */
 	public void setString(String s) {
+		release();
 		value = s;
 		type = Value.STRING;
 	}
@@ -2465,6 +2628,7 @@ public class Value {
 	 *  @param d The value to store
 	 */
 	public void setDecimal(BigDecimal d) {
+		release();
 		value = d;
 	}
 